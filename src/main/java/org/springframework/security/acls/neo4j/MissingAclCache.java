@@ -0,0 +1,163 @@
+package org.springframework.security.acls.neo4j;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import net.sf.ehcache.Ehcache;
+import net.sf.ehcache.Element;
+
+import org.springframework.security.acls.model.ObjectIdentity;
+import org.springframework.util.Assert;
+
+/**
+ * Negative cache of Object Identities which have no Acl, so that lookups of
+ * unprotected objects do not query the graph every time. Entries are kept in
+ * an Ehcache, which bounds their number, and expire after timeToLiveSeconds,
+ * or after the time to live of the Ehcache when it is 0.
+ * 
+ * Every eviction advances the generation of the hash stripe of its Object
+ * Identity. A lookup takes the generation of each Object Identity before it
+ * queries, and a miss is only stored if no eviction happened in its stripe
+ * since, so a lookup racing with the creation of an Acl can not store a
+ * stale entry, while creating Acls elsewhere does not stop misses from being
+ * stored.
+ * 
+ * @author shazin
+ *
+ */
+public class MissingAclCache {
+
+	private static final int DEFAULT_STRIPES = 64;
+
+	private final Ehcache cache;
+	private final AtomicLongArray generations;
+	private final int stripeMask;
+	private int timeToLiveSeconds = 0;
+
+	/**
+	 * Constructor
+	 * 
+	 * @param cache - Ehcache for missing Object Identities
+	 */
+	public MissingAclCache(Ehcache cache) {
+		this(cache, DEFAULT_STRIPES);
+	}
+
+	/**
+	 * Constructor
+	 * 
+	 * @param cache - Ehcache for missing Object Identities
+	 * @param stripes - number of generations, rounded up to a power of two
+	 */
+	public MissingAclCache(Ehcache cache, int stripes) {
+		Assert.notNull(cache, "Cache required");
+		Assert.isTrue(stripes >= 1, "Stripes must be >= 1");
+		this.cache = cache;
+		int size = Integer.highestOneBit(stripes);
+		if (size < stripes) {
+			size <<= 1;
+		}
+		this.generations = new AtomicLongArray(size);
+		this.stripeMask = size - 1;
+	}
+
+	/**
+	 * Is the Object Identity known to have no Acl
+	 * 
+	 * @param objectIdentity - Object Identity
+	 * @return true if a lookup found no Acl and the entry did not expire
+	 */
+	public boolean isMissing(ObjectIdentity objectIdentity) {
+		Assert.notNull(objectIdentity, "ObjectIdentity required");
+		return cache.get(objectIdentity) != null;
+	}
+
+	/**
+	 * Current generation of the stripe of an Object Identity, to be taken
+	 * before querying
+	 * 
+	 * @param objectIdentity - Object Identity
+	 * @return generation
+	 */
+	public long getGeneration(ObjectIdentity objectIdentity) {
+		Assert.notNull(objectIdentity, "ObjectIdentity required");
+		return generations.get(stripe(objectIdentity));
+	}
+
+	/**
+	 * Remember an Object Identity without Acl, unless an eviction happened in
+	 * its stripe since the generation was taken
+	 * 
+	 * @param objectIdentity - Object Identity
+	 * @param lookupGeneration - generation taken before the lookup
+	 */
+	public void putMissing(ObjectIdentity objectIdentity, long lookupGeneration) {
+		Assert.notNull(objectIdentity, "ObjectIdentity required");
+		int stripe = stripe(objectIdentity);
+		if (generations.get(stripe) != lookupGeneration) {
+			return;
+		}
+
+		Element element = new Element(objectIdentity, Boolean.TRUE);
+		if (timeToLiveSeconds > 0) {
+			element.setTimeToLive(timeToLiveSeconds);
+		}
+		cache.put(element);
+
+		// Undo when an eviction raced with the put
+		if (generations.get(stripe) != lookupGeneration) {
+			cache.remove(objectIdentity);
+		}
+	}
+
+	/**
+	 * Forget an Object Identity, when its Acl is created
+	 * 
+	 * @param objectIdentity - Object Identity
+	 */
+	public void evict(ObjectIdentity objectIdentity) {
+		Assert.notNull(objectIdentity, "ObjectIdentity required");
+		generations.incrementAndGet(stripe(objectIdentity));
+		cache.remove(objectIdentity);
+	}
+
+	/**
+	 * Forget all Object Identities
+	 */
+	public void clear() {
+		for (int i = 0; i < generations.length(); i++) {
+			generations.incrementAndGet(i);
+		}
+		cache.removeAll();
+	}
+
+	/**
+	 * Stripe of an Object Identity
+	 * 
+	 * @param objectIdentity - Object Identity
+	 * @return index of its generation
+	 */
+	int stripe(ObjectIdentity objectIdentity) {
+		int h = objectIdentity.hashCode();
+		return (h ^ (h >>> 16)) & stripeMask;
+	}
+
+	/**
+	 * Get Time To Live Seconds
+	 * 
+	 * @return timeToLiveSeconds
+	 */
+	public int getTimeToLiveSeconds() {
+		return timeToLiveSeconds;
+	}
+
+	/**
+	 * Set Time To Live Seconds of new entries, the time to live of the
+	 * Ehcache is used when 0
+	 * 
+	 * @param timeToLiveSeconds
+	 */
+	public void setTimeToLiveSeconds(int timeToLiveSeconds) {
+		this.timeToLiveSeconds = timeToLiveSeconds;
+	}
+
+}
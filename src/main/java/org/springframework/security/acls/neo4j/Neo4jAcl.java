@@ -0,0 +1,336 @@
+package org.springframework.security.acls.neo4j;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.springframework.security.acls.domain.AccessControlEntryImpl;
+import org.springframework.security.acls.domain.AclAuthorizationStrategy;
+import org.springframework.security.acls.model.AccessControlEntry;
+import org.springframework.security.acls.model.Acl;
+import org.springframework.security.acls.model.AuditableAcl;
+import org.springframework.security.acls.model.NotFoundException;
+import org.springframework.security.acls.model.ObjectIdentity;
+import org.springframework.security.acls.model.OwnershipAcl;
+import org.springframework.security.acls.model.Permission;
+import org.springframework.security.acls.model.PermissionGrantingStrategy;
+import org.springframework.security.acls.model.Sid;
+import org.springframework.security.acls.model.UnloadedSidException;
+import org.springframework.util.Assert;
+
+/**
+ * Acl Implementation which behaves like AclImpl, but can be assembled by
+ * {@link Neo4jLookupStrategy} in its final form: Aces are added to the live
+ * list and the parent is set without the security check, so no reflection and
+ * no copy of the Aces is needed. Changes made by callers go through the same
+ * Acl Authorization Strategy checks as AclImpl.
+ * 
+ * As with AclImpl the strategies are transient. EhCacheBasedAclCache only
+ * restores them for AclImpl, so {@link Neo4jLookupStrategy} restores them on
+ * every Neo4jAcl it reads from the cache.
+ * 
+ * @author shazin
+ *
+ */
+public class Neo4jAcl implements AuditableAcl, OwnershipAcl {
+
+	private static final long serialVersionUID = 1L;
+
+	private Acl parentAcl;
+	private transient AclAuthorizationStrategy aclAuthorizationStrategy;
+	private transient PermissionGrantingStrategy permissionGrantingStrategy;
+	private final List<AccessControlEntryImpl> aces;
+	private final ObjectIdentity objectIdentity;
+	private final Serializable id;
+	private Sid owner;
+	private final List<Sid> loadedSids;
+	private boolean entriesInheriting;
+
+	/**
+	 * Constructor
+	 * 
+	 * @param objectIdentity - Object Identity
+	 * @param id - Acl Id
+	 * @param aclAuthorizationStrategy - Acl Authorization Strategy
+	 * @param permissionGrantingStrategy - Permission Granting Strategy
+	 * @param parentAcl - Parent Acl, can be null
+	 * @param loadedSids - Sids the Aces were loaded for, null for all
+	 * @param entriesInheriting - Entries Inheriting Flag
+	 * @param owner - Owner Sid
+	 * @param expectedAces - expected number of Aces
+	 */
+	public Neo4jAcl(ObjectIdentity objectIdentity, Serializable id,
+			AclAuthorizationStrategy aclAuthorizationStrategy,
+			PermissionGrantingStrategy permissionGrantingStrategy,
+			Acl parentAcl, List<Sid> loadedSids, boolean entriesInheriting,
+			Sid owner, int expectedAces) {
+		Assert.notNull(objectIdentity, "Object Identity required");
+		Assert.notNull(id, "Id required");
+		Assert.notNull(aclAuthorizationStrategy,
+				"AclAuthorizationStrategy required");
+		Assert.notNull(owner, "Owner required");
+		this.objectIdentity = objectIdentity;
+		this.id = id;
+		this.aclAuthorizationStrategy = aclAuthorizationStrategy;
+		this.permissionGrantingStrategy = permissionGrantingStrategy;
+		this.parentAcl = parentAcl;
+		this.loadedSids = loadedSids;
+		this.entriesInheriting = entriesInheriting;
+		this.owner = owner;
+		this.aces = new ArrayList<AccessControlEntryImpl>(expectedAces);
+	}
+
+	/**
+	 * Live list of Aces, used while the Acl is assembled
+	 * 
+	 * @return aces
+	 */
+	List<AccessControlEntryImpl> aces() {
+		return aces;
+	}
+
+	/**
+	 * Set the parent while the Acl is assembled, without the security check
+	 * 
+	 * @param parentAcl
+	 */
+	void parent(Acl parentAcl) {
+		this.parentAcl = parentAcl;
+	}
+
+	/**
+	 * Set the strategies of this Acl and its parents where they are missing,
+	 * as after the Acl was serialized
+	 * 
+	 * @param aclAuthorizationStrategy - Acl Authorization Strategy
+	 * @param permissionGrantingStrategy - Permission Granting Strategy
+	 */
+	void strategies(AclAuthorizationStrategy aclAuthorizationStrategy,
+			PermissionGrantingStrategy permissionGrantingStrategy) {
+		for (Acl acl = this; acl instanceof Neo4jAcl; acl = acl.getParentAcl()) {
+			Neo4jAcl neo4jAcl = (Neo4jAcl) acl;
+			if (neo4jAcl.aclAuthorizationStrategy == null) {
+				neo4jAcl.aclAuthorizationStrategy = aclAuthorizationStrategy;
+			}
+			if (neo4jAcl.permissionGrantingStrategy == null) {
+				neo4jAcl.permissionGrantingStrategy = permissionGrantingStrategy;
+			}
+		}
+	}
+
+	@Override
+	public void deleteAce(int aceIndex) throws NotFoundException {
+		aclAuthorizationStrategy.securityCheck(this,
+				AclAuthorizationStrategy.CHANGE_GENERAL);
+		verifyAceIndexExists(aceIndex);
+
+		synchronized (aces) {
+			this.aces.remove(aceIndex);
+		}
+	}
+
+	private void verifyAceIndexExists(int aceIndex) {
+		if (aceIndex < 0) {
+			throw new NotFoundException("aceIndex must be greater than or equal to zero");
+		}
+		if (aceIndex >= this.aces.size()) {
+			throw new NotFoundException("aceIndex must refer to an index of the AccessControlEntry list. "
+					+ "List size is " + aces.size() + ", index was " + aceIndex);
+		}
+	}
+
+	@Override
+	public void insertAce(int atIndexLocation, Permission permission, Sid sid,
+			boolean granting) throws NotFoundException {
+		aclAuthorizationStrategy.securityCheck(this,
+				AclAuthorizationStrategy.CHANGE_GENERAL);
+		Assert.notNull(permission, "Permission required");
+		Assert.notNull(sid, "Sid required");
+		if (atIndexLocation < 0) {
+			throw new NotFoundException("atIndexLocation must be greater than or equal to zero");
+		}
+		if (atIndexLocation > this.aces.size()) {
+			throw new NotFoundException("atIndexLocation must be less than or equal to the size of the AccessControlEntry collection");
+		}
+
+		AccessControlEntryImpl newAce = new AccessControlEntryImpl(null, this,
+				sid, permission, granting, false, false);
+
+		synchronized (aces) {
+			this.aces.add(atIndexLocation, newAce);
+		}
+	}
+
+	@Override
+	public List<AccessControlEntry> getEntries() {
+		// Can safely return AccessControlEntry directly, as they're immutable
+		// outside the ACL package
+		return new ArrayList<AccessControlEntry>(aces);
+	}
+
+	@Override
+	public Serializable getId() {
+		return this.id;
+	}
+
+	@Override
+	public ObjectIdentity getObjectIdentity() {
+		return objectIdentity;
+	}
+
+	@Override
+	public boolean isEntriesInheriting() {
+		return entriesInheriting;
+	}
+
+	/**
+	 * Delegates to the Permission Granting Strategy, like AclImpl
+	 */
+	@Override
+	public boolean isGranted(List<Permission> permission, List<Sid> sids,
+			boolean administrativeMode) throws NotFoundException,
+			UnloadedSidException {
+		Assert.notEmpty(permission, "Permissions required");
+		Assert.notEmpty(sids, "SIDs required");
+
+		if (!this.isSidLoaded(sids)) {
+			throw new UnloadedSidException("ACL was not loaded for one or more SID");
+		}
+
+		return permissionGrantingStrategy.isGranted(this, permission, sids,
+				administrativeMode);
+	}
+
+	@Override
+	public boolean isSidLoaded(List<Sid> sids) {
+		// If loadedSides is null, this indicates all SIDs were loaded
+		// Also return true if the caller didn't specify a SID to find
+		if ((this.loadedSids == null) || (sids == null) || (sids.size() == 0)) {
+			return true;
+		}
+
+		// This ACL applies to a SID subset only. Iterate to check it applies.
+		for (Sid sid : sids) {
+			if (!loadedSids.contains(sid)) {
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+	@Override
+	public void setEntriesInheriting(boolean entriesInheriting) {
+		aclAuthorizationStrategy.securityCheck(this,
+				AclAuthorizationStrategy.CHANGE_GENERAL);
+		this.entriesInheriting = entriesInheriting;
+	}
+
+	@Override
+	public void setOwner(Sid newOwner) {
+		aclAuthorizationStrategy.securityCheck(this,
+				AclAuthorizationStrategy.CHANGE_OWNERSHIP);
+		Assert.notNull(newOwner, "Owner required");
+		this.owner = newOwner;
+	}
+
+	@Override
+	public Sid getOwner() {
+		return this.owner;
+	}
+
+	@Override
+	public void setParent(Acl newParent) {
+		aclAuthorizationStrategy.securityCheck(this,
+				AclAuthorizationStrategy.CHANGE_GENERAL);
+		Assert.isTrue(newParent == null || !newParent.equals(this),
+				"Cannot be the parent of yourself");
+		this.parentAcl = newParent;
+	}
+
+	@Override
+	public Acl getParentAcl() {
+		return parentAcl;
+	}
+
+	/**
+	 * Replaces the Ace, AccessControlEntryImpl can only be changed from its
+	 * own package
+	 */
+	@Override
+	public void updateAce(int aceIndex, Permission permission)
+			throws NotFoundException {
+		aclAuthorizationStrategy.securityCheck(this,
+				AclAuthorizationStrategy.CHANGE_GENERAL);
+		verifyAceIndexExists(aceIndex);
+
+		synchronized (aces) {
+			AccessControlEntryImpl ace = aces.get(aceIndex);
+			aces.set(aceIndex, new AccessControlEntryImpl(ace.getId(), this,
+					ace.getSid(), permission, ace.isGranting(),
+					ace.isAuditSuccess(), ace.isAuditFailure()));
+		}
+	}
+
+	/**
+	 * Replaces the Ace, AccessControlEntryImpl can only be changed from its
+	 * own package
+	 */
+	@Override
+	public void updateAuditing(int aceIndex, boolean auditSuccess,
+			boolean auditFailure) {
+		aclAuthorizationStrategy.securityCheck(this,
+				AclAuthorizationStrategy.CHANGE_AUDITING);
+		verifyAceIndexExists(aceIndex);
+
+		synchronized (aces) {
+			AccessControlEntryImpl ace = aces.get(aceIndex);
+			aces.set(aceIndex, new AccessControlEntryImpl(ace.getId(), this,
+					ace.getSid(), ace.getPermission(), ace.isGranting(),
+					auditSuccess, auditFailure));
+		}
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (obj == this) {
+			return true;
+		}
+		if (!(obj instanceof Neo4jAcl)) {
+			return false;
+		}
+		Neo4jAcl rhs = (Neo4jAcl) obj;
+		return aces.equals(rhs.aces)
+				&& id.equals(rhs.id)
+				&& objectIdentity.equals(rhs.objectIdentity)
+				&& owner.equals(rhs.owner)
+				&& entriesInheriting == rhs.entriesInheriting
+				&& (parentAcl == null ? rhs.parentAcl == null
+						: rhs.parentAcl != null
+								&& parentAcl.getId().equals(rhs.parentAcl.getId()))
+				&& (loadedSids == null ? rhs.loadedSids == null : loadedSids
+						.equals(rhs.loadedSids));
+	}
+
+	@Override
+	public int hashCode() {
+		return 31 * id.hashCode() + objectIdentity.hashCode();
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+		sb.append("Neo4jAcl[");
+		sb.append("id: ").append(this.id).append("; ");
+		sb.append("objectIdentity: ").append(this.objectIdentity).append("; ");
+		sb.append("owner: ").append(this.owner).append("; ");
+		sb.append("aces: ").append(this.aces.size()).append("; ");
+		sb.append("inheriting: ").append(this.entriesInheriting).append("; ");
+		sb.append("parent: ").append(
+				(this.parentAcl == null) ? "Null" : this.parentAcl
+						.getObjectIdentity().toString());
+		sb.append("]");
+		return sb.toString();
+	}
+
+}
@@ -0,0 +1,178 @@
+package org.springframework.security.acls.neo4j;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Transaction;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.data.neo4j.conversion.Result;
+import org.springframework.data.neo4j.support.Neo4jTemplate;
+import org.springframework.util.Assert;
+
+/**
+ * Offline migration which converts the Ace Nodes of existing Acls into the
+ * packed array properties of their Acl Node, see {@link Neo4jPackedEntries}.
+ * Acls are walked in id order, every batch starts after the last id of the
+ * previous one and is committed in its own transaction. The Ace Nodes of a
+ * migrated Acl are deleted, Sid Nodes are kept. Acls without Ace Nodes,
+ * including those already packed, are left as they are.
+ * 
+ * The Lookup Strategy and Mutable Acl Service read and write one format at a
+ * time, so until the migration is done and both are switched to the packed
+ * format the graph holds Acls they can not read. Stop the application, or
+ * at least every writer, while it runs. The migration can be run again
+ * safely. Run it outside of a surrounding transaction, otherwise the batches
+ * join that transaction.
+ * 
+ * @author shazin
+ *
+ */
+public class Neo4jAclPackedEntriesMigration {
+
+	private static final Logger LOGGER = LoggerFactory
+			.getLogger(Neo4jAclPackedEntriesMigration.class);
+
+	private final String DEFAULT_MIGRATE_BATCH = "MATCH (acl:AclNode)-[:SECURES]->(class:ClassNode) WHERE acl.id > {lastId} AND ({className} IS NULL OR class.className = {className}) WITH acl ORDER BY acl.id ASC LIMIT {batchSize} OPTIONAL MATCH (acl)<-[c:COMPOSES]-(ace:AceNode)-[a:AUTHORIZES]->(sid:SidNode) WITH acl, c, a, ace, sid ORDER BY ace.aceOrder ASC WITH acl, collect(ace.id) AS aceIds, collect(CASE WHEN sid.principal THEN 'P:' ELSE 'A:' END + sid.sid) AS aceSids, collect(ace.mask) AS aceMasks, collect(CASE WHEN ace.granting THEN 1 ELSE 0 END + CASE WHEN ace.auditSuccess THEN 2 ELSE 0 END + CASE WHEN ace.auditFailure THEN 4 ELSE 0 END) AS aceFlags, collect(c) + collect(a) AS rels, collect(ace) AS aces FOREACH (x IN CASE WHEN length(aces) = 0 THEN [] ELSE [acl] END | SET x.aceIds = aceIds, x.aceSids = aceSids, x.aceMasks = aceMasks, x.aceFlags = aceFlags) FOREACH (r IN rels | DELETE r) FOREACH (n IN aces | DELETE n) RETURN acl.id AS aclId, length(aces) AS aceCount";
+
+	private final GraphDatabaseService graphDatabaseService;
+	private Neo4jTemplate neo4jTemplate;
+	private String migrateBatchCypher = DEFAULT_MIGRATE_BATCH;
+	private int batchSize = 1000;
+	private String className;
+
+	/**
+	 * Constructor
+	 * 
+	 * @param graphDatabaseService - Graph Database Service
+	 */
+	public Neo4jAclPackedEntriesMigration(
+			GraphDatabaseService graphDatabaseService) {
+		Assert.notNull(graphDatabaseService,
+				"GraphDatabaseService can not be null");
+		this.graphDatabaseService = graphDatabaseService;
+		this.neo4jTemplate = new Neo4jTemplate(graphDatabaseService);
+	}
+
+	/**
+	 * Migrate every Acl with Ace Nodes, the migration stops at the first
+	 * empty batch
+	 * 
+	 * @return number of Aces packed
+	 */
+	public long migrate() {
+		Assert.isTrue(batchSize >= 1, "BatchSize must be >= 1");
+
+		String lastId = "";
+		long visited = 0;
+		long packed = 0;
+		int batchRows;
+
+		do {
+			batchRows = 0;
+			Transaction tx = graphDatabaseService.beginTx();
+			try {
+				Map<String, Object> params = new HashMap<String, Object>();
+				params.put("lastId", lastId);
+				params.put("batchSize", batchSize);
+				params.put("className", className);
+				Result<Map<String, Object>> result = neo4jTemplate.query(
+						migrateBatchCypher, params);
+				Iterator<Map<String, Object>> it = result.iterator();
+				Map<String, Object> data = null;
+				while (it.hasNext()) {
+					data = it.next();
+					batchRows++;
+					String aclId = (String) data.get("aclId");
+					if (aclId.compareTo(lastId) > 0) {
+						lastId = aclId;
+					}
+					packed += ((Number) data.get("aceCount")).longValue();
+				}
+				tx.success();
+			} finally {
+				tx.close();
+			}
+			visited += batchRows;
+			LOGGER.info("Migrated {} Acls, {} Aces packed", visited, packed);
+		} while (batchRows > 0);
+
+		return packed;
+	}
+
+	/**
+	 * Get Neo4j Template
+	 * 
+	 * @return neo4jTemplate
+	 */
+	public Neo4jTemplate getNeo4jTemplate() {
+		return neo4jTemplate;
+	}
+
+	/**
+	 * Set Neo4j Template
+	 * 
+	 * @param neo4jTemplate
+	 */
+	public void setNeo4jTemplate(Neo4jTemplate neo4jTemplate) {
+		this.neo4jTemplate = neo4jTemplate;
+	}
+
+	/**
+	 * Get Migrate Batch Cypher
+	 * 
+	 * @return migrateBatchCypher
+	 */
+	public String getMigrateBatchCypher() {
+		return migrateBatchCypher;
+	}
+
+	/**
+	 * Set Migrate Batch Cypher
+	 * 
+	 * @param migrateBatchCypher
+	 */
+	public void setMigrateBatchCypher(String migrateBatchCypher) {
+		this.migrateBatchCypher = migrateBatchCypher;
+	}
+
+	/**
+	 * Get Batch Size
+	 * 
+	 * @return batchSize
+	 */
+	public int getBatchSize() {
+		return batchSize;
+	}
+
+	/**
+	 * Set Batch Size
+	 * 
+	 * @param batchSize
+	 */
+	public void setBatchSize(int batchSize) {
+		this.batchSize = batchSize;
+	}
+
+	/**
+	 * Get Class Name
+	 * 
+	 * @return className
+	 */
+	public String getClassName() {
+		return className;
+	}
+
+	/**
+	 * Set Class Name, to migrate only the Acls of one domain class. All Acls
+	 * are migrated when null.
+	 * 
+	 * @param className
+	 */
+	public void setClassName(String className) {
+		this.className = className;
+	}
+
+}
@@ -0,0 +1,157 @@
+package org.springframework.security.acls.neo4j;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Transaction;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.data.neo4j.conversion.Result;
+import org.springframework.data.neo4j.support.Neo4jTemplate;
+import org.springframework.util.Assert;
+
+/**
+ * Online migration which converts the parentObject property of existing Acl
+ * Nodes into CHILD_OF relationships. Acls are walked in id order, every batch
+ * starts after the last id of the previous one and is committed in its own
+ * transaction, so the store stays usable and no single transaction holds the
+ * whole graph. The migration stops at the first empty batch.
+ * 
+ * The parentObject property is kept, the lookups still read it. The
+ * migration can be run again safely, the CHILD_OF relationship of every
+ * visited Acl is replaced. The parentMigrated marker of earlier versions of
+ * this migration is removed on the way. Run it outside of a surrounding
+ * transaction, otherwise the batches join that transaction.
+ * 
+ * @author shazin
+ *
+ */
+public class Neo4jAclParentMigration {
+
+	private static final Logger LOGGER = LoggerFactory
+			.getLogger(Neo4jAclParentMigration.class);
+
+	private final String DEFAULT_MIGRATE_BATCH = "MATCH (acl:AclNode) WHERE acl.id > {lastId} AND has(acl.parentObject) WITH acl ORDER BY acl.id ASC LIMIT {batchSize} OPTIONAL MATCH (parent:AclNode) WHERE parent.id = acl.parentObject OPTIONAL MATCH (acl)-[existing:CHILD_OF]->() WITH acl, parent, collect(existing) AS existing FOREACH (r IN existing | DELETE r) FOREACH (p IN CASE WHEN parent IS NULL THEN [] ELSE [parent] END | CREATE (acl)-[:CHILD_OF]->(p)) REMOVE acl.parentMigrated RETURN acl.id AS aclId, parent IS NOT NULL AS linked";
+
+	private final GraphDatabaseService graphDatabaseService;
+	private Neo4jTemplate neo4jTemplate;
+	private String migrateBatchCypher = DEFAULT_MIGRATE_BATCH;
+	private int batchSize = 1000;
+
+	/**
+	 * Constructor
+	 * 
+	 * @param graphDatabaseService - Graph Database Service
+	 */
+	public Neo4jAclParentMigration(GraphDatabaseService graphDatabaseService) {
+		Assert.notNull(graphDatabaseService,
+				"GraphDatabaseService can not be null");
+		this.graphDatabaseService = graphDatabaseService;
+		this.neo4jTemplate = new Neo4jTemplate(graphDatabaseService);
+	}
+
+	/**
+	 * Migrate every Acl with a parentObject property
+	 * 
+	 * @return number of CHILD_OF relationships created
+	 */
+	public long migrate() {
+		Assert.isTrue(batchSize >= 1, "BatchSize must be >= 1");
+
+		String lastId = "";
+		long visited = 0;
+		long linked = 0;
+		int batchRows;
+
+		do {
+			batchRows = 0;
+			Transaction tx = graphDatabaseService.beginTx();
+			try {
+				Map<String, Object> params = new HashMap<String, Object>();
+				params.put("lastId", lastId);
+				params.put("batchSize", batchSize);
+				Result<Map<String, Object>> result = neo4jTemplate.query(
+						migrateBatchCypher, params);
+				Iterator<Map<String, Object>> it = result.iterator();
+				Map<String, Object> data = null;
+				while (it.hasNext()) {
+					data = it.next();
+					batchRows++;
+					String aclId = (String) data.get("aclId");
+					if (aclId.compareTo(lastId) > 0) {
+						lastId = aclId;
+					}
+					if (Boolean.TRUE.equals(data.get("linked"))) {
+						linked++;
+					} else {
+						LOGGER.warn("Parent of Acl {} does not exist", aclId);
+					}
+				}
+				tx.success();
+			} finally {
+				tx.close();
+			}
+			visited += batchRows;
+			LOGGER.info("Migrated {} Acl parents, {} linked", visited, linked);
+		} while (batchRows > 0);
+
+		return linked;
+	}
+
+	/**
+	 * Get Neo4j Template
+	 * 
+	 * @return neo4jTemplate
+	 */
+	public Neo4jTemplate getNeo4jTemplate() {
+		return neo4jTemplate;
+	}
+
+	/**
+	 * Set Neo4j Template
+	 * 
+	 * @param neo4jTemplate
+	 */
+	public void setNeo4jTemplate(Neo4jTemplate neo4jTemplate) {
+		this.neo4jTemplate = neo4jTemplate;
+	}
+
+	/**
+	 * Get Migrate Batch Cypher
+	 * 
+	 * @return migrateBatchCypher
+	 */
+	public String getMigrateBatchCypher() {
+		return migrateBatchCypher;
+	}
+
+	/**
+	 * Set Migrate Batch Cypher
+	 * 
+	 * @param migrateBatchCypher
+	 */
+	public void setMigrateBatchCypher(String migrateBatchCypher) {
+		this.migrateBatchCypher = migrateBatchCypher;
+	}
+
+	/**
+	 * Get Batch Size
+	 * 
+	 * @return batchSize
+	 */
+	public int getBatchSize() {
+		return batchSize;
+	}
+
+	/**
+	 * Set Batch Size
+	 * 
+	 * @param batchSize
+	 */
+	public void setBatchSize(int batchSize) {
+		this.batchSize = batchSize;
+	}
+
+}
@@ -0,0 +1,266 @@
+package org.springframework.security.acls.neo4j;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.springframework.security.access.PermissionEvaluator;
+import org.springframework.security.acls.domain.DefaultPermissionFactory;
+import org.springframework.security.acls.domain.ObjectIdentityRetrievalStrategyImpl;
+import org.springframework.security.acls.domain.PermissionFactory;
+import org.springframework.security.acls.domain.SidRetrievalStrategyImpl;
+import org.springframework.security.acls.model.Acl;
+import org.springframework.security.acls.model.NotFoundException;
+import org.springframework.security.acls.model.ObjectIdentity;
+import org.springframework.security.acls.model.ObjectIdentityGenerator;
+import org.springframework.security.acls.model.ObjectIdentityRetrievalStrategy;
+import org.springframework.security.acls.model.Permission;
+import org.springframework.security.acls.model.Sid;
+import org.springframework.security.acls.model.SidRetrievalStrategy;
+import org.springframework.security.core.Authentication;
+import org.springframework.util.Assert;
+
+/**
+ * Permission Evaluator which decides permissions in the graph with
+ * {@link Neo4jAclService#isGranted(ObjectIdentity, List, List)} instead of
+ * loading Acls, and can filter a whole collection of domain objects with one
+ * {@link Neo4jAclService#filterGranted(String, Collection, List, List)} call
+ * per domain class. Permissions are resolved like AclPermissionEvaluator does.
+ * Object Identities with an identifier other than a Long are decided by
+ * loading their Acl through the Acl Service, as AclPermissionEvaluator does.
+ * 
+ * @author shazin
+ *
+ */
+public class Neo4jAclPermissionEvaluator implements PermissionEvaluator {
+
+	private final Neo4jAclService aclService;
+	private ObjectIdentityRetrievalStrategy objectIdentityRetrievalStrategy = new ObjectIdentityRetrievalStrategyImpl();
+	private ObjectIdentityGenerator objectIdentityGenerator = new ObjectIdentityRetrievalStrategyImpl();
+	private SidRetrievalStrategy sidRetrievalStrategy = new SidRetrievalStrategyImpl();
+	private PermissionFactory permissionFactory = new DefaultPermissionFactory();
+
+	/**
+	 * Constructor
+	 * 
+	 * @param aclService - Neo4j Acl Service
+	 */
+	public Neo4jAclPermissionEvaluator(Neo4jAclService aclService) {
+		Assert.notNull(aclService, "Neo4jAclService can not be null");
+		this.aclService = aclService;
+	}
+
+	/**
+	 * Has Permission on Domain Object
+	 */
+	@Override
+	public boolean hasPermission(Authentication authentication,
+			Object domainObject, Object permission) {
+		if (domainObject == null) {
+			return false;
+		}
+
+		return checkPermission(authentication, objectIdentityRetrievalStrategy
+				.getObjectIdentity(domainObject), permission);
+	}
+
+	/**
+	 * Has Permission on Target Id and Type
+	 */
+	@Override
+	public boolean hasPermission(Authentication authentication,
+			Serializable targetId, String targetType, Object permission) {
+		return checkPermission(authentication, objectIdentityGenerator
+				.createObjectIdentity(targetId, targetType), permission);
+	}
+
+	/**
+	 * Filter Domain Objects down to those on which the Authentication has the
+	 * Permission. Null elements are dropped and the order is kept.
+	 * 
+	 * @param authentication - Authentication
+	 * @param domainObjects - Domain Objects
+	 * @param permission - Permission, as accepted by hasPermission
+	 * @return permitted Domain Objects
+	 */
+	public <T> List<T> filter(Authentication authentication,
+			Collection<T> domainObjects, Object permission) {
+		List<Sid> sids = sidRetrievalStrategy.getSids(authentication);
+		List<Permission> permissions = resolvePermission(permission);
+
+		Map<T, ObjectIdentity> objectIdentities = new LinkedHashMap<T, ObjectIdentity>();
+		Map<String, List<Long>> identifiersByType = new HashMap<String, List<Long>>();
+		Set<T> grantedByAcl = new HashSet<T>();
+		for (T domainObject : domainObjects) {
+			if (domainObject == null) {
+				continue;
+			}
+			ObjectIdentity oid = objectIdentityRetrievalStrategy
+					.getObjectIdentity(domainObject);
+			if (!(oid.getIdentifier() instanceof Long)) {
+				if (!sids.isEmpty() && isGrantedByAcl(oid, permissions, sids)) {
+					grantedByAcl.add(domainObject);
+				}
+				continue;
+			}
+			objectIdentities.put(domainObject, oid);
+			List<Long> identifiers = identifiersByType.get(oid.getType());
+			if (identifiers == null) {
+				identifiers = new ArrayList<Long>();
+				identifiersByType.put(oid.getType(), identifiers);
+			}
+			identifiers.add((Long) oid.getIdentifier());
+		}
+
+		Map<String, Set<Long>> grantedByType = new HashMap<String, Set<Long>>();
+		if (!sids.isEmpty()) {
+			for (Map.Entry<String, List<Long>> entry : identifiersByType
+					.entrySet()) {
+				grantedByType.put(entry.getKey(), aclService.filterGranted(
+						entry.getKey(), entry.getValue(), permissions, sids));
+			}
+		}
+
+		List<T> permitted = new ArrayList<T>(objectIdentities.size());
+		for (T domainObject : domainObjects) {
+			if (domainObject == null) {
+				continue;
+			}
+			if (grantedByAcl.contains(domainObject)) {
+				permitted.add(domainObject);
+				continue;
+			}
+			ObjectIdentity oid = objectIdentities.get(domainObject);
+			if (oid == null) {
+				continue;
+			}
+			Set<Long> granted = grantedByType.get(oid.getType());
+			if ((granted != null) && granted.contains(oid.getIdentifier())) {
+				permitted.add(domainObject);
+			}
+		}
+
+		return permitted;
+	}
+
+	private boolean checkPermission(Authentication authentication,
+			ObjectIdentity oid, Object permission) {
+		List<Sid> sids = sidRetrievalStrategy.getSids(authentication);
+		if (sids.isEmpty()) {
+			return false;
+		}
+
+		List<Permission> permissions = resolvePermission(permission);
+		if (!(oid.getIdentifier() instanceof Long)) {
+			return isGrantedByAcl(oid, permissions, sids);
+		}
+
+		return aclService.isGranted(oid, permissions, sids);
+	}
+
+	/**
+	 * Decide a Permission by loading the Acl, for Object Identities whose
+	 * identifier can not be matched in the graph
+	 * 
+	 * @param oid - Object Identity
+	 * @param permissions - Permissions
+	 * @param sids - Sids
+	 * @return true if granted
+	 */
+	private boolean isGrantedByAcl(ObjectIdentity oid,
+			List<Permission> permissions, List<Sid> sids) {
+		try {
+			Acl acl = aclService.readAclById(oid, sids);
+			return acl.isGranted(permissions, sids, false);
+		} catch (NotFoundException nfe) {
+			return false;
+		}
+	}
+
+	/**
+	 * Resolve Permission from an Integer mask, a Permission, an array of
+	 * Permissions or a Permission name
+	 * 
+	 * @param permission
+	 * @return Permissions
+	 */
+	protected List<Permission> resolvePermission(Object permission) {
+		if (permission instanceof Integer) {
+			return Arrays.asList(permissionFactory
+					.buildFromMask(((Integer) permission).intValue()));
+		}
+
+		if (permission instanceof Permission) {
+			return Arrays.asList((Permission) permission);
+		}
+
+		if (permission instanceof Permission[]) {
+			return Arrays.asList((Permission[]) permission);
+		}
+
+		if (permission instanceof String) {
+			String permString = (String) permission;
+			Permission p;
+
+			try {
+				p = permissionFactory.buildFromName(permString);
+			} catch (IllegalArgumentException notfound) {
+				p = permissionFactory.buildFromName(permString.toUpperCase());
+			}
+
+			if (p != null) {
+				return Arrays.asList(p);
+			}
+		}
+
+		throw new IllegalArgumentException("Unsupported permission: "
+				+ permission);
+	}
+
+	/**
+	 * Set Object Identity Retrieval Strategy
+	 * 
+	 * @param objectIdentityRetrievalStrategy
+	 */
+	public void setObjectIdentityRetrievalStrategy(
+			ObjectIdentityRetrievalStrategy objectIdentityRetrievalStrategy) {
+		this.objectIdentityRetrievalStrategy = objectIdentityRetrievalStrategy;
+	}
+
+	/**
+	 * Set Object Identity Generator
+	 * 
+	 * @param objectIdentityGenerator
+	 */
+	public void setObjectIdentityGenerator(
+			ObjectIdentityGenerator objectIdentityGenerator) {
+		this.objectIdentityGenerator = objectIdentityGenerator;
+	}
+
+	/**
+	 * Set Sid Retrieval Strategy
+	 * 
+	 * @param sidRetrievalStrategy
+	 */
+	public void setSidRetrievalStrategy(
+			SidRetrievalStrategy sidRetrievalStrategy) {
+		this.sidRetrievalStrategy = sidRetrievalStrategy;
+	}
+
+	/**
+	 * Set Permission Factory
+	 * 
+	 * @param permissionFactory
+	 */
+	public void setPermissionFactory(PermissionFactory permissionFactory) {
+		this.permissionFactory = permissionFactory;
+	}
+
+}
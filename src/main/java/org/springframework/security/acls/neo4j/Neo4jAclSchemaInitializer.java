@@ -0,0 +1,383 @@
+package org.springframework.security.acls.neo4j;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.neo4j.graphdb.DynamicLabel;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Label;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.graphdb.schema.ConstraintDefinition;
+import org.neo4j.graphdb.schema.IndexDefinition;
+import org.neo4j.graphdb.schema.Schema;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.util.Assert;
+
+/**
+ * Creates the label/property schema indexes and uniqueness constraints used
+ * by the Acl Cypher statements, waits for them to come online and checks the
+ * statements are anchored on them.
+ * 
+ * The legacy FULLTEXT indexes declared on the model are not used by label
+ * based Cypher, without these every lookup is a label scan.
+ * 
+ * @author shazin
+ *
+ */
+public class Neo4jAclSchemaInitializer implements InitializingBean {
+
+	private static final Logger LOGGER = LoggerFactory
+			.getLogger(Neo4jAclSchemaInitializer.class);
+
+	private final GraphDatabaseService graphDatabaseService;
+
+	// Label -> properties which get a uniqueness constraint
+	private Map<String, List<String>> uniqueProperties = new LinkedHashMap<String, List<String>>();
+
+	// Label -> properties which get a schema index
+	private Map<String, List<String>> indexedProperties = new LinkedHashMap<String, List<String>>();
+
+	// Name -> statement to check with the query planner, taken from the
+	// Mutable Acl Service and the Lookup Strategy when they are set
+	private Map<String, String> verifiedStatements = new LinkedHashMap<String, String>();
+
+	private long indexOnlineTimeoutSeconds = 300;
+
+	private boolean verifyQueryPlans = true;
+
+	/**
+	 * Constructor
+	 * 
+	 * @param graphDatabaseService - Graph Database Service
+	 */
+	public Neo4jAclSchemaInitializer(GraphDatabaseService graphDatabaseService) {
+		Assert.notNull(graphDatabaseService,
+				"GraphDatabaseService can not be null");
+		this.graphDatabaseService = graphDatabaseService;
+
+		uniqueProperties.put("AclNode", Collections.singletonList("id"));
+		uniqueProperties.put("AceNode", Collections.singletonList("id"));
+		uniqueProperties.put("ClassNode",
+				Collections.singletonList("className"));
+
+		indexedProperties.put("AclNode",
+				Collections.singletonList("objectIdIdentity"));
+		// Neo4j 2.x schema indexes are single property, principal is a
+		// boolean and adds nothing to the selectivity of sid
+		indexedProperties.put("SidNode", Collections.singletonList("sid"));
+	}
+
+	/**
+	 * Constructor
+	 * 
+	 * @param graphDatabaseService - Graph Database Service
+	 * @param mutableAclService - Mutable Acl Service whose statements are
+	 *            verified
+	 */
+	public Neo4jAclSchemaInitializer(GraphDatabaseService graphDatabaseService,
+			Neo4jMutableAclService mutableAclService) {
+		this(graphDatabaseService);
+		setMutableAclService(mutableAclService);
+	}
+
+	/**
+	 * Constructor
+	 * 
+	 * @param graphDatabaseService - Graph Database Service
+	 * @param mutableAclService - Mutable Acl Service whose statements are
+	 *            verified
+	 * @param lookupStrategy - Lookup Strategy whose statements are verified
+	 */
+	public Neo4jAclSchemaInitializer(GraphDatabaseService graphDatabaseService,
+			Neo4jMutableAclService mutableAclService,
+			Neo4jLookupStrategy lookupStrategy) {
+		this(graphDatabaseService, mutableAclService);
+		setLookupStrategy(lookupStrategy);
+	}
+
+	/**
+	 * Create schema, await it and verify the statements
+	 */
+	@Override
+	public void afterPropertiesSet() throws Exception {
+		createSchema();
+		awaitSchemaOnline();
+		if (verifyQueryPlans) {
+			verifyStatements();
+		}
+	}
+
+	/**
+	 * Create missing uniqueness constraints and schema indexes. Every item is
+	 * created in its own transaction so a failure (for example duplicate data
+	 * preventing a constraint) does not block the rest.
+	 */
+	public void createSchema() {
+		for (Map.Entry<String, List<String>> entry : uniqueProperties
+				.entrySet()) {
+			for (String property : entry.getValue()) {
+				createSchemaItem(entry.getKey(), property, true);
+			}
+		}
+		for (Map.Entry<String, List<String>> entry : indexedProperties
+				.entrySet()) {
+			for (String property : entry.getValue()) {
+				createSchemaItem(entry.getKey(), property, false);
+			}
+		}
+	}
+
+	/**
+	 * Wait until every schema index is online
+	 */
+	public void awaitSchemaOnline() {
+		Transaction tx = graphDatabaseService.beginTx();
+		try {
+			graphDatabaseService.schema().awaitIndexesOnline(
+					indexOnlineTimeoutSeconds, TimeUnit.SECONDS);
+			tx.success();
+		} finally {
+			tx.close();
+		}
+	}
+
+	/**
+	 * Check every verified statement is anchored on an index seek
+	 * 
+	 * @return names of the statements which are not anchored on an index
+	 */
+	public List<String> verifyStatements() {
+		List<String> unanchored = new ArrayList<String>();
+		for (Map.Entry<String, String> entry : verifiedStatements.entrySet()) {
+			String plan;
+			try {
+				plan = Neo4jQueryPlans.describe(graphDatabaseService,
+						entry.getValue(), emptyParameters(entry.getValue()));
+			} catch (RuntimeException e) {
+				LOGGER.warn("Unable to profile statement " + entry.getKey(), e);
+				unanchored.add(entry.getKey());
+				continue;
+			}
+			if (!Neo4jQueryPlans.usesIndexSeek(plan)
+					|| Neo4jQueryPlans.containsLabelScan(plan)) {
+				LOGGER.warn("Statement {} is not anchored on a schema index: {}",
+						entry.getKey(), plan);
+				unanchored.add(entry.getKey());
+			} else {
+				LOGGER.debug("Statement {} uses plan {}", entry.getKey(), plan);
+			}
+		}
+		return unanchored;
+	}
+
+	private void createSchemaItem(String labelName, String property,
+			boolean unique) {
+		Label label = DynamicLabel.label(labelName);
+		try {
+			Transaction tx = graphDatabaseService.beginTx();
+			try {
+				Schema schema = graphDatabaseService.schema();
+				if (hasConstraint(schema, label, property)) {
+					return;
+				}
+				if (hasIndex(schema, label, property)) {
+					if (unique) {
+						LOGGER.warn(
+								"Plain index on :{}({}) prevents creating its uniqueness constraint",
+								labelName, property);
+					}
+					return;
+				}
+				if (unique) {
+					schema.constraintFor(label)
+							.assertPropertyIsUnique(property).create();
+				} else {
+					schema.indexFor(label).on(property).create();
+				}
+				tx.success();
+			} finally {
+				tx.close();
+			}
+		} catch (RuntimeException e) {
+			LOGGER.warn("Unable to create schema for :" + labelName + "("
+					+ property + ")", e);
+		}
+	}
+
+	private boolean hasConstraint(Schema schema, Label label, String property) {
+		for (ConstraintDefinition constraint : schema.getConstraints(label)) {
+			if (isOnlyProperty(constraint.getPropertyKeys(), property)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private boolean hasIndex(Schema schema, Label label, String property) {
+		for (IndexDefinition index : schema.getIndexes(label)) {
+			if (isOnlyProperty(index.getPropertyKeys(), property)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private boolean isOnlyProperty(Iterable<String> keys, String property) {
+		Iterator<String> it = keys.iterator();
+		return it.hasNext() && property.equals(it.next()) && !it.hasNext();
+	}
+
+	// Parameters of a statement bound to null, or to an empty list where the
+	// statement takes a list (IN {x}, UNWIND {x}). Map literals are skipped.
+	private Map<String, Object> emptyParameters(String statement) {
+		Map<String, Object> params = new HashMap<String, Object>();
+		int start = statement.indexOf('{');
+		while (start >= 0) {
+			int end = statement.indexOf('}', start);
+			if (end < 0) {
+				break;
+			}
+			String name = statement.substring(start + 1, end);
+			if (name.indexOf(':') < 0) {
+				String before = statement.substring(0, start).trim();
+				params.put(name, before.endsWith("IN")
+						|| before.endsWith("UNWIND") ? Collections.emptyList()
+						: null);
+			}
+			start = statement.indexOf('{', end);
+		}
+		return params;
+	}
+
+	/**
+	 * Get Unique Properties
+	 * 
+	 * @return uniqueProperties
+	 */
+	public Map<String, List<String>> getUniqueProperties() {
+		return uniqueProperties;
+	}
+
+	/**
+	 * Set Unique Properties
+	 * 
+	 * @param uniqueProperties
+	 */
+	public void setUniqueProperties(Map<String, List<String>> uniqueProperties) {
+		this.uniqueProperties = uniqueProperties;
+	}
+
+	/**
+	 * Get Indexed Properties
+	 * 
+	 * @return indexedProperties
+	 */
+	public Map<String, List<String>> getIndexedProperties() {
+		return indexedProperties;
+	}
+
+	/**
+	 * Set Indexed Properties
+	 * 
+	 * @param indexedProperties
+	 */
+	public void setIndexedProperties(
+			Map<String, List<String>> indexedProperties) {
+		this.indexedProperties = indexedProperties;
+	}
+
+	/**
+	 * Get Verified Statements
+	 * 
+	 * @return verifiedStatements
+	 */
+	public Map<String, String> getVerifiedStatements() {
+		return verifiedStatements;
+	}
+
+	/**
+	 * Set Verified Statements
+	 * 
+	 * @param verifiedStatements
+	 */
+	public void setVerifiedStatements(Map<String, String> verifiedStatements) {
+		this.verifiedStatements = verifiedStatements;
+	}
+
+	/**
+	 * Set Mutable Acl Service, adds the statements the service runs to the
+	 * verified statements so the check follows the configured Cypher
+	 * 
+	 * @param mutableAclService
+	 */
+	public void setMutableAclService(Neo4jMutableAclService mutableAclService) {
+		Assert.notNull(mutableAclService, "MutableAclService can not be null");
+		verifiedStatements.put("selectObjectIdentity",
+				mutableAclService.getSelectObjectIdentity());
+		verifiedStatements.put("selectSid", mutableAclService.getSelectSid());
+		verifiedStatements.put("selectClass",
+				mutableAclService.getSelectClass());
+		verifiedStatements.put("deleteEntryByObjectIdentityId",
+				mutableAclService.getDeleteEntryByObjectIdentityId());
+		verifiedStatements.put("deleteObjectIdentityByObjectIdentityId",
+				mutableAclService.getDeleteObjectIdentityByObjectIdentityId());
+		verifiedStatements.put("selectChildByObjectIdentityId",
+				mutableAclService.getSelectChildByObjectIdentityId());
+	}
+
+	/**
+	 * Set Lookup Strategy, adds the lookup statements of its configured mode
+	 * to the verified statements
+	 * 
+	 * @param lookupStrategy
+	 */
+	public void setLookupStrategy(Neo4jLookupStrategy lookupStrategy) {
+		Assert.notNull(lookupStrategy, "LookupStrategy can not be null");
+		verifiedStatements.putAll(lookupStrategy.getLookupStatements());
+	}
+
+	/**
+	 * Get Index Online Timeout Seconds
+	 * 
+	 * @return indexOnlineTimeoutSeconds
+	 */
+	public long getIndexOnlineTimeoutSeconds() {
+		return indexOnlineTimeoutSeconds;
+	}
+
+	/**
+	 * Set Index Online Timeout Seconds
+	 * 
+	 * @param indexOnlineTimeoutSeconds
+	 */
+	public void setIndexOnlineTimeoutSeconds(long indexOnlineTimeoutSeconds) {
+		this.indexOnlineTimeoutSeconds = indexOnlineTimeoutSeconds;
+	}
+
+	/**
+	 * Is Verify Query Plans
+	 * 
+	 * @return verifyQueryPlans
+	 */
+	public boolean isVerifyQueryPlans() {
+		return verifyQueryPlans;
+	}
+
+	/**
+	 * Set Verify Query Plans
+	 * 
+	 * @param verifyQueryPlans
+	 */
+	public void setVerifyQueryPlans(boolean verifyQueryPlans) {
+		this.verifyQueryPlans = verifyQueryPlans;
+	}
+
+}
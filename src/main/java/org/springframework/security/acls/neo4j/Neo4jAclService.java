@@ -2,10 +2,15 @@ package org.springframework.security.acls.neo4j;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
 
 import org.neo4j.graphdb.GraphDatabaseService;
 import org.springframework.data.neo4j.conversion.Result;
@@ -17,6 +22,7 @@ import org.springframework.security.acls.model.AclCache;
 import org.springframework.security.acls.model.AclService;
 import org.springframework.security.acls.model.NotFoundException;
 import org.springframework.security.acls.model.ObjectIdentity;
+import org.springframework.security.acls.model.Permission;
 import org.springframework.security.acls.model.Sid;
 import org.springframework.util.Assert;
 
@@ -31,9 +37,64 @@ public class Neo4jAclService implements AclService {
 	protected LookupStrategy lookupStrategy;
 	protected AclCache aclCache;
 	protected Neo4jTemplate neo4jTemplate;
+	protected GraphDatabaseService graphDatabaseService;
 	
-	private final String DEFAULT_FIND_CHILDREN = "MATCH (acl:AclNode)-[:SECURES]->(class:ClassNode) OPTIONAL MATCH (parentAcl:AclNode)-[:SECURES]->(parentClass:ClassNode) WITH parentAcl, parentClass, acl, class WHERE acl.parentObject = parentAcl.id AND parentAcl.objectIdIdentity = {objectIdIdentity} AND parentClass.className = {className} RETURN acl.objectIdIdentity AS aclId, class.className AS className";
+	private final String DEFAULT_FIND_CHILDREN = "MATCH (parentAcl:AclNode) WHERE parentAcl.objectIdIdentity = {objectIdIdentity} MATCH (parentAcl)-[:SECURES]->(parentClass:ClassNode) WHERE parentClass.className = {className} MATCH (acl:AclNode)-[:CHILD_OF]->(parentAcl) MATCH (acl)-[:SECURES]->(class:ClassNode) RETURN acl.objectIdIdentity AS aclId, class.className AS className";
 	private String findChildrenCypher = DEFAULT_FIND_CHILDREN;
+	// Decides requested Acls the way DefaultPermissionGrantingStrategy does:
+	// per level of the parent chain, the first Ace in Sid order then Ace
+	// order decides each mask; any granting decision grants, otherwise any
+	// denying decision denies, otherwise the parent decides if entries are
+	// inheriting
+	private final String DEFAULT_GRANT_LEVELS_CLAUSE = "WITH requested, depth, acl.entriesInheriting AS inheriting, collect(granting) AS decisions ORDER BY depth WITH requested, collect(decisions) AS levels, collect(inheriting) AS inheritings WITH requested, reduce(state = 'UNDECIDED', i IN range(0, length(levels) - 1) | CASE WHEN state <> 'UNDECIDED' THEN state WHEN any(g IN levels[i] WHERE g) THEN 'GRANTED' WHEN length(levels[i]) > 0 THEN 'DENIED' WHEN inheritings[i] THEN 'UNDECIDED' ELSE 'STOP' END) = 'GRANTED' AS granted ";
+	private final String DEFAULT_GRANT_DECISION_CLAUSE = "MATCH path = (requested)-[:CHILD_OF*0..]->(acl:AclNode) WITH requested, acl, length(path) AS depth OPTIONAL MATCH (acl)<-[:COMPOSES]-(ace:AceNode)-[:AUTHORIZES]->(sid:SidNode) WHERE ace.mask IN {masks} AND (CASE WHEN sid.principal THEN 'P:' ELSE 'A:' END + sid.sid) IN {sidKeys} WITH requested, acl, depth, ace, head(filter(i IN range(0, length({sidKeys}) - 1) WHERE {sidKeys}[i] = (CASE WHEN sid.principal THEN 'P:' ELSE 'A:' END + sid.sid))) AS sidRank ORDER BY depth, sidRank, ace.aceOrder WITH requested, acl, depth, ace.mask AS mask, head(collect(ace.granting)) AS granting "
+			+ DEFAULT_GRANT_LEVELS_CLAUSE;
+	// The same decision on the packed array properties, the array index is
+	// the Ace order and an Acl without a matching Ace keeps one empty row
+	private final String DEFAULT_PACKED_GRANT_DECISION_CLAUSE = "MATCH path = (requested)-[:CHILD_OF*0..]->(acl:AclNode) WITH requested, acl, length(path) AS depth, filter(i IN range(0, length(coalesce(acl.aceMasks, [])) - 1) WHERE acl.aceMasks[i] IN {masks} AND acl.aceSids[i] IN {sidKeys}) AS matched UNWIND CASE WHEN length(matched) = 0 THEN [-1] ELSE matched END AS i WITH requested, acl, depth, i, CASE WHEN i < 0 THEN null ELSE acl.aceMasks[i] END AS mask, CASE WHEN i < 0 THEN null ELSE acl.aceFlags[i] % 2 = 1 END AS aceGranting, CASE WHEN i < 0 THEN null ELSE head(filter(s IN range(0, length({sidKeys}) - 1) WHERE {sidKeys}[s] = acl.aceSids[i])) END AS sidRank ORDER BY depth, sidRank, i WITH requested, acl, depth, mask, head(collect(aceGranting)) AS granting "
+			+ DEFAULT_GRANT_LEVELS_CLAUSE;
+	private final String DEFAULT_IS_GRANTED = "MATCH (requested:AclNode) WHERE requested.objectIdIdentity = {objectIdIdentity} MATCH (requested)-[:SECURES]->(class:ClassNode) WHERE class.className = {className} "
+			+ DEFAULT_GRANT_DECISION_CLAUSE + "RETURN granted";
+	private String isGrantedCypher = DEFAULT_IS_GRANTED;
+	private final String DEFAULT_PACKED_IS_GRANTED = "MATCH (requested:AclNode) WHERE requested.objectIdIdentity = {objectIdIdentity} MATCH (requested)-[:SECURES]->(class:ClassNode) WHERE class.className = {className} "
+			+ DEFAULT_PACKED_GRANT_DECISION_CLAUSE + "RETURN granted";
+	private String packedIsGrantedCypher = DEFAULT_PACKED_IS_GRANTED;
+	private final String DEFAULT_FILTER_GRANTED = "UNWIND {objectIdIdentities} AS objectIdIdentity MATCH (requested:AclNode) WHERE requested.objectIdIdentity = objectIdIdentity MATCH (requested)-[:SECURES]->(class:ClassNode) WHERE class.className = {className} "
+			+ DEFAULT_GRANT_DECISION_CLAUSE
+			+ "WHERE granted RETURN requested.objectIdIdentity AS objectIdIdentity";
+	private String filterGrantedCypher = DEFAULT_FILTER_GRANTED;
+	private final String DEFAULT_PACKED_FILTER_GRANTED = "UNWIND {objectIdIdentities} AS objectIdIdentity MATCH (requested:AclNode) WHERE requested.objectIdIdentity = objectIdIdentity MATCH (requested)-[:SECURES]->(class:ClassNode) WHERE class.className = {className} "
+			+ DEFAULT_PACKED_GRANT_DECISION_CLAUSE
+			+ "WHERE granted RETURN requested.objectIdIdentity AS objectIdIdentity";
+	private String packedFilterGrantedCypher = DEFAULT_PACKED_FILTER_GRANTED;
+	private int filterBatchSize = 1000;
+	// Acls of the class which have, or inherit from, a granting Ace of the
+	// Sids for one of the masks, after the given objectIdIdentity. The Sids
+	// are anchored on the sid index, principal is checked separately.
+	private final String DEFAULT_GRANTED_REQUESTED_CLAUSE = "MATCH (requested:AclNode)-[:CHILD_OF*0..]->(source) WHERE requested.objectIdIdentity > {after} MATCH (requested)-[:SECURES]->(class:ClassNode) WHERE class.className = {className} WITH DISTINCT requested ";
+	private final String DEFAULT_GRANTED_CANDIDATES = "MATCH (sid:SidNode) WHERE sid.sid IN {sidNames} AND ((sid.principal AND sid.sid IN {principals}) OR (NOT sid.principal AND sid.sid IN {authorities})) MATCH (sid)<-[:AUTHORIZES]-(ace:AceNode)-[:COMPOSES]->(source:AclNode) WHERE ace.mask IN {masks} AND ace.granting "
+			+ DEFAULT_GRANTED_REQUESTED_CLAUSE;
+	// The packed sources have no Sid Nodes to anchor on, every Acl Node is
+	// scanned for a granting Ace in its arrays
+	private final String DEFAULT_PACKED_GRANTED_CANDIDATES = "MATCH (source:AclNode) WHERE any(i IN range(0, length(coalesce(source.aceMasks, [])) - 1) WHERE source.aceMasks[i] IN {masks} AND source.aceSids[i] IN {sidKeys} AND source.aceFlags[i] % 2 = 1) "
+			+ DEFAULT_GRANTED_REQUESTED_CLAUSE;
+	private final String DEFAULT_COUNT_GRANTED = DEFAULT_GRANTED_CANDIDATES
+			+ DEFAULT_GRANT_DECISION_CLAUSE
+			+ "WHERE granted RETURN count(requested) AS count";
+	private String countGrantedCypher = DEFAULT_COUNT_GRANTED;
+	private final String DEFAULT_PACKED_COUNT_GRANTED = DEFAULT_PACKED_GRANTED_CANDIDATES
+			+ DEFAULT_PACKED_GRANT_DECISION_CLAUSE
+			+ "WHERE granted RETURN count(requested) AS count";
+	private String packedCountGrantedCypher = DEFAULT_PACKED_COUNT_GRANTED;
+	// One keyset page of candidates, each page starts after the last
+	// identifier of the previous one
+	private final String DEFAULT_SELECT_GRANTED_CANDIDATES = DEFAULT_GRANTED_CANDIDATES
+			+ "RETURN requested.objectIdIdentity AS objectIdIdentity ORDER BY objectIdIdentity LIMIT {limit}";
+	private String selectGrantedCandidatesCypher = DEFAULT_SELECT_GRANTED_CANDIDATES;
+	private final String DEFAULT_PACKED_SELECT_GRANTED_CANDIDATES = DEFAULT_PACKED_GRANTED_CANDIDATES
+			+ "RETURN requested.objectIdIdentity AS objectIdIdentity ORDER BY objectIdIdentity LIMIT {limit}";
+	private String packedSelectGrantedCandidatesCypher = DEFAULT_PACKED_SELECT_GRANTED_CANDIDATES;
+	private int grantedPageSize = 1000;
 
 	/**
 	 * Construct
@@ -48,6 +109,7 @@ public class Neo4jAclService implements AclService {
 		Assert.notNull(lookupStrategy, "LookStrategy can not be null");
 		Assert.notNull(graphDatabaseService,
 				"GraphDatabaseService can not be null");
+		this.graphDatabaseService = graphDatabaseService;
 		this.neo4jTemplate = new Neo4jTemplate(graphDatabaseService);
 		this.lookupStrategy = lookupStrategy;
 		this.aclCache = aclCache;
@@ -128,6 +190,325 @@ public class Neo4jAclService implements AclService {
 		return readAclsById(objects, null);
 	}
 
+	/**
+	 * Is any of the Permissions granted to any of the Sids on the Object
+	 * Identity. The decision is made by one query, Acls are not loaded, and
+	 * matches Acl.isGranted in non administrative mode, except that a missing
+	 * Acl or an undecided chain give false instead of a NotFoundException. No
+	 * audit logging takes place. With an {@link OffHeapAclCache} the decision
+	 * is made on the cached Acls when they are all there.
+	 * 
+	 * @param objectIdentity - Object Identity
+	 * @param permissions - Permissions, any of them may grant
+	 * @param sids - Sids in order of precedence
+	 * @return true if granted
+	 */
+	public boolean isGranted(ObjectIdentity objectIdentity,
+			List<Permission> permissions, List<Sid> sids) {
+		Assert.notNull(objectIdentity, "Object Identity required");
+		Assert.notEmpty(permissions, "Permissions required");
+		Assert.notEmpty(sids, "SIDs required");
+
+		if (aclCache instanceof OffHeapAclCache) {
+			Boolean granted = ((OffHeapAclCache) aclCache).isGranted(
+					objectIdentity, permissions, sids);
+			if (granted != null) {
+				return granted;
+			}
+		}
+
+		Map<String, Object> params = new HashMap<String, Object>();
+		params.put("objectIdIdentity", (Long) objectIdentity.getIdentifier());
+		params.put("className", objectIdentity.getType());
+		params.put("masks", toMasks(permissions));
+		params.put("sidKeys", toSidKeys(sids));
+		Map<String, Object> data = neo4jTemplate.query(
+				isPackedStore() ? packedIsGrantedCypher : isGrantedCypher,
+				params).singleOrNull();
+
+		return (data != null) && Boolean.TRUE.equals(data.get("granted"));
+	}
+
+	/**
+	 * Filter the identifiers of a class down to those for which any of the
+	 * Permissions is granted to any of the Sids. Decides each identifier like
+	 * {@link #isGranted(ObjectIdentity, List, List)}, with one query per
+	 * filterBatchSize identifiers instead of one per identifier.
+	 * 
+	 * @param className - Class Name
+	 * @param identifiers - Object Identity identifiers
+	 * @param permissions - Permissions, any of them may grant
+	 * @param sids - Sids in order of precedence
+	 * @return granted identifiers
+	 */
+	public Set<Long> filterGranted(String className,
+			Collection<Long> identifiers, List<Permission> permissions,
+			List<Sid> sids) {
+		Assert.hasText(className, "Class Name required");
+		Assert.notNull(identifiers, "Identifiers required");
+		Assert.notEmpty(permissions, "Permissions required");
+		Assert.notEmpty(sids, "SIDs required");
+
+		String cypher = isPackedStore() ? packedFilterGrantedCypher
+				: filterGrantedCypher;
+		Set<Long> granted = new HashSet<Long>();
+		List<Long> batch = new ArrayList<Long>(Math.min(identifiers.size(),
+				filterBatchSize));
+		Map<String, Object> params = new HashMap<String, Object>();
+		params.put("className", className);
+		params.put("masks", toMasks(permissions));
+		params.put("sidKeys", toSidKeys(sids));
+
+		Iterator<Long> it = identifiers.iterator();
+		while (it.hasNext()) {
+			batch.add(it.next());
+			if ((batch.size() == filterBatchSize) || !it.hasNext()) {
+				params.put("objectIdIdentities", batch);
+				for (Map<String, Object> data : neo4jTemplate.query(cypher,
+						params)) {
+					granted.add((Long) data.get("objectIdIdentity"));
+				}
+				batch = new ArrayList<Long>(batch.size());
+			}
+		}
+
+		return granted;
+	}
+
+	/**
+	 * Find a page of the Object Identities of a class for which any of the
+	 * Permissions is granted to any of the Sids, ordered by identifier. The
+	 * next page starts after the last identifier of this one. Candidates are
+	 * read in keyset pages of pageSize from after, and decided until the page
+	 * is full.
+	 * 
+	 * @param className - Class Name
+	 * @param permissions - Permissions, any of them may grant
+	 * @param sids - Sids in order of precedence
+	 * @param after - identifier to start after, null for the first page
+	 * @param pageSize - maximum number of Object Identities
+	 * @return granted Object Identities
+	 */
+	public List<ObjectIdentity> findGrantedObjectIdentities(String className,
+			List<Permission> permissions, List<Sid> sids, Long after,
+			int pageSize) {
+		Assert.hasText(className, "Class Name required");
+		Assert.notEmpty(permissions, "Permissions required");
+		Assert.notEmpty(sids, "SIDs required");
+		Assert.isTrue(pageSize >= 1, "Page size must be >= 1");
+
+		List<ObjectIdentity> objects = new ArrayList<ObjectIdentity>(pageSize);
+		GrantedCandidates candidates = new GrantedCandidates(className,
+				permissions, sids, after, pageSize);
+		while ((objects.size() < pageSize) && candidates.hasNextPage()) {
+			for (Long identifier : candidates.nextGrantedPage()) {
+				if (objects.size() == pageSize) {
+					break;
+				}
+				objects.add(new ObjectIdentityImpl(className, identifier));
+			}
+		}
+
+		return objects;
+	}
+
+	/**
+	 * Iterate all Object Identities of a class for which any of the
+	 * Permissions is granted to any of the Sids, ordered by identifier. The
+	 * candidate identifiers are read in keyset pages of grantedPageSize and
+	 * decided as the iterator advances.
+	 * 
+	 * @param className - Class Name
+	 * @param permissions - Permissions, any of them may grant
+	 * @param sids - Sids in order of precedence
+	 * @return granted Object Identities
+	 */
+	public Iterator<ObjectIdentity> iterateGrantedObjectIdentities(
+			final String className, final List<Permission> permissions,
+			final List<Sid> sids) {
+		Assert.hasText(className, "Class Name required");
+		Assert.notEmpty(permissions, "Permissions required");
+		Assert.notEmpty(sids, "SIDs required");
+		Assert.isTrue(grantedPageSize >= 1, "Granted page size must be >= 1");
+
+		final GrantedCandidates candidates = new GrantedCandidates(className,
+				permissions, sids, null, grantedPageSize);
+
+		return new Iterator<ObjectIdentity>() {
+			private List<Long> page = Collections.emptyList();
+			private int index = 0;
+
+			@Override
+			public boolean hasNext() {
+				while ((index == page.size()) && candidates.hasNextPage()) {
+					page = candidates.nextGrantedPage();
+					index = 0;
+				}
+				return index < page.size();
+			}
+
+			@Override
+			public ObjectIdentity next() {
+				if (!hasNext()) {
+					throw new NoSuchElementException();
+				}
+				return new ObjectIdentityImpl(className, page.get(index++));
+			}
+
+			@Override
+			public void remove() {
+				throw new UnsupportedOperationException();
+			}
+		};
+	}
+
+	/**
+	 * Count the Object Identities of a class for which any of the Permissions
+	 * is granted to any of the Sids
+	 * 
+	 * @param className - Class Name
+	 * @param permissions - Permissions, any of them may grant
+	 * @param sids - Sids in order of precedence
+	 * @return count
+	 */
+	public long countGrantedObjectIdentities(String className,
+			List<Permission> permissions, List<Sid> sids) {
+		Assert.hasText(className, "Class Name required");
+		Assert.notEmpty(permissions, "Permissions required");
+		Assert.notEmpty(sids, "SIDs required");
+
+		Map<String, Object> data = neo4jTemplate.query(
+				isPackedStore() ? packedCountGrantedCypher
+						: countGrantedCypher,
+				grantedParameters(className, permissions, sids, null))
+				.singleOrNull();
+
+		return data == null ? 0 : ((Number) data.get("count")).longValue();
+	}
+
+	/**
+	 * Is the packed Ace storage format used, see {@link Neo4jPackedEntries}.
+	 * The in-graph decisions then read the packed array properties instead of
+	 * Ace Nodes.
+	 * 
+	 * @return true if the Lookup Strategy reads packed Aces
+	 */
+	protected boolean isPackedStore() {
+		return (lookupStrategy instanceof Neo4jLookupStrategy)
+				&& ((Neo4jLookupStrategy) lookupStrategy).isPackedEntries();
+	}
+
+	/**
+	 * Keyset pages of the granted candidates of a class, each page decided
+	 * with {@link Neo4jAclService#filterGranted(String, Collection, List, List)}
+	 */
+	private class GrantedCandidates {
+
+		private final String className;
+		private final List<Permission> permissions;
+		private final List<Sid> sids;
+		private final Map<String, Object> params;
+		private final int pageSize;
+		private final String cypher;
+		private boolean exhausted = false;
+
+		GrantedCandidates(String className, List<Permission> permissions,
+				List<Sid> sids, Long after, int pageSize) {
+			this.className = className;
+			this.permissions = permissions;
+			this.sids = sids;
+			this.pageSize = pageSize;
+			this.params = grantedParameters(className, permissions, sids,
+					after);
+			this.params.put("limit", pageSize);
+			this.cypher = isPackedStore() ? packedSelectGrantedCandidatesCypher
+					: selectGrantedCandidatesCypher;
+		}
+
+		boolean hasNextPage() {
+			return !exhausted;
+		}
+
+		/**
+		 * Read the next page of candidates and decide it
+		 * 
+		 * @return granted identifiers of the page in order, may be empty
+		 */
+		List<Long> nextGrantedPage() {
+			List<Long> candidates = new ArrayList<Long>(pageSize);
+			for (Map<String, Object> data : neo4jTemplate.query(cypher,
+					params)) {
+				candidates.add((Long) data.get("objectIdIdentity"));
+			}
+			if (candidates.size() < pageSize) {
+				exhausted = true;
+			}
+			if (candidates.isEmpty()) {
+				return Collections.emptyList();
+			}
+			params.put("after", candidates.get(candidates.size() - 1));
+
+			List<Long> granted = new ArrayList<Long>(filterGranted(className,
+					candidates, permissions, sids));
+			Collections.sort(granted);
+			return granted;
+		}
+	}
+
+	private Map<String, Object> grantedParameters(String className,
+			List<Permission> permissions, List<Sid> sids, Long after) {
+		Map<String, Object> params = new HashMap<String, Object>();
+		params.put("className", className);
+		params.put("masks", toMasks(permissions));
+		List<String> sidKeys = toSidKeys(sids);
+		List<String> sidNames = new ArrayList<String>(sidKeys.size());
+		List<String> principals = new ArrayList<String>();
+		List<String> authorities = new ArrayList<String>();
+		for (String sidKey : sidKeys) {
+			String sidName = sidKey.substring(2);
+			sidNames.add(sidName);
+			if (sidKey.startsWith("P:")) {
+				principals.add(sidName);
+			} else {
+				authorities.add(sidName);
+			}
+		}
+		params.put("sidKeys", sidKeys);
+		params.put("sidNames", sidNames);
+		params.put("principals", principals);
+		params.put("authorities", authorities);
+		params.put("after", after == null ? Long.MIN_VALUE : after);
+		return params;
+	}
+
+	/**
+	 * Masks of Permissions
+	 * 
+	 * @param permissions - Permissions
+	 * @return masks
+	 */
+	protected List<Integer> toMasks(List<Permission> permissions) {
+		List<Integer> masks = new ArrayList<Integer>(permissions.size());
+		for (Permission permission : permissions) {
+			masks.add(permission.getMask());
+		}
+		return masks;
+	}
+
+	/**
+	 * Keys of Sids, in the given order
+	 * 
+	 * @param sids - Sids
+	 * @return P:principal or A:authority keys
+	 */
+	protected List<String> toSidKeys(List<Sid> sids) {
+		List<String> sidKeys = new ArrayList<String>(sids.size());
+		for (Sid sid : sids) {
+			sidKeys.add(SidFilteredAclCache.sidKey(sid));
+		}
+		return sidKeys;
+	}
+
 	/**
 	 * Get Lookup Strategy
 	 * 
@@ -200,4 +581,188 @@ public class Neo4jAclService implements AclService {
 		this.findChildrenCypher = findChildrenCypher;
 	}
 
+	/**
+	 * Get Is Granted Cypher
+	 * 
+	 * @return isGrantedCypher
+	 */
+	public String getIsGrantedCypher() {
+		return isGrantedCypher;
+	}
+
+	/**
+	 * Set Is Granted Cypher
+	 * 
+	 * @param isGrantedCypher
+	 */
+	public void setIsGrantedCypher(String isGrantedCypher) {
+		this.isGrantedCypher = isGrantedCypher;
+	}
+
+	/**
+	 * Get Packed Is Granted Cypher
+	 * 
+	 * @return packedIsGrantedCypher
+	 */
+	public String getPackedIsGrantedCypher() {
+		return packedIsGrantedCypher;
+	}
+
+	/**
+	 * Set Packed Is Granted Cypher
+	 * 
+	 * @param packedIsGrantedCypher
+	 */
+	public void setPackedIsGrantedCypher(String packedIsGrantedCypher) {
+		this.packedIsGrantedCypher = packedIsGrantedCypher;
+	}
+
+	/**
+	 * Get Filter Granted Cypher
+	 * 
+	 * @return filterGrantedCypher
+	 */
+	public String getFilterGrantedCypher() {
+		return filterGrantedCypher;
+	}
+
+	/**
+	 * Set Filter Granted Cypher
+	 * 
+	 * @param filterGrantedCypher
+	 */
+	public void setFilterGrantedCypher(String filterGrantedCypher) {
+		this.filterGrantedCypher = filterGrantedCypher;
+	}
+
+	/**
+	 * Get Packed Filter Granted Cypher
+	 * 
+	 * @return packedFilterGrantedCypher
+	 */
+	public String getPackedFilterGrantedCypher() {
+		return packedFilterGrantedCypher;
+	}
+
+	/**
+	 * Set Packed Filter Granted Cypher
+	 * 
+	 * @param packedFilterGrantedCypher
+	 */
+	public void setPackedFilterGrantedCypher(String packedFilterGrantedCypher) {
+		this.packedFilterGrantedCypher = packedFilterGrantedCypher;
+	}
+
+	/**
+	 * Get Filter Batch Size, the number of identifiers decided per query
+	 * 
+	 * @return filterBatchSize
+	 */
+	public int getFilterBatchSize() {
+		return filterBatchSize;
+	}
+
+	/**
+	 * Set Filter Batch Size
+	 * 
+	 * @param filterBatchSize
+	 */
+	public void setFilterBatchSize(int filterBatchSize) {
+		this.filterBatchSize = filterBatchSize;
+	}
+
+	/**
+	 * Get Count Granted Cypher
+	 * 
+	 * @return countGrantedCypher
+	 */
+	public String getCountGrantedCypher() {
+		return countGrantedCypher;
+	}
+
+	/**
+	 * Set Count Granted Cypher
+	 * 
+	 * @param countGrantedCypher
+	 */
+	public void setCountGrantedCypher(String countGrantedCypher) {
+		this.countGrantedCypher = countGrantedCypher;
+	}
+
+	/**
+	 * Get Packed Count Granted Cypher
+	 * 
+	 * @return packedCountGrantedCypher
+	 */
+	public String getPackedCountGrantedCypher() {
+		return packedCountGrantedCypher;
+	}
+
+	/**
+	 * Set Packed Count Granted Cypher
+	 * 
+	 * @param packedCountGrantedCypher
+	 */
+	public void setPackedCountGrantedCypher(String packedCountGrantedCypher) {
+		this.packedCountGrantedCypher = packedCountGrantedCypher;
+	}
+
+	/**
+	 * Get Select Granted Candidates Cypher
+	 * 
+	 * @return selectGrantedCandidatesCypher
+	 */
+	public String getSelectGrantedCandidatesCypher() {
+		return selectGrantedCandidatesCypher;
+	}
+
+	/**
+	 * Set Select Granted Candidates Cypher
+	 * 
+	 * @param selectGrantedCandidatesCypher
+	 */
+	public void setSelectGrantedCandidatesCypher(
+			String selectGrantedCandidatesCypher) {
+		this.selectGrantedCandidatesCypher = selectGrantedCandidatesCypher;
+	}
+
+	/**
+	 * Get Packed Select Granted Candidates Cypher
+	 * 
+	 * @return packedSelectGrantedCandidatesCypher
+	 */
+	public String getPackedSelectGrantedCandidatesCypher() {
+		return packedSelectGrantedCandidatesCypher;
+	}
+
+	/**
+	 * Set Packed Select Granted Candidates Cypher
+	 * 
+	 * @param packedSelectGrantedCandidatesCypher
+	 */
+	public void setPackedSelectGrantedCandidatesCypher(
+			String packedSelectGrantedCandidatesCypher) {
+		this.packedSelectGrantedCandidatesCypher = packedSelectGrantedCandidatesCypher;
+	}
+
+	/**
+	 * Get Granted Page Size, the number of candidate Object Identities the
+	 * granted iterator reads and decides at a time
+	 * 
+	 * @return grantedPageSize
+	 */
+	public int getGrantedPageSize() {
+		return grantedPageSize;
+	}
+
+	/**
+	 * Set Granted Page Size
+	 * 
+	 * @param grantedPageSize
+	 */
+	public void setGrantedPageSize(int grantedPageSize) {
+		Assert.isTrue(grantedPageSize >= 1, "Granted page size must be >= 1");
+		this.grantedPageSize = grantedPageSize;
+	}
+
 }
@@ -0,0 +1,914 @@
+package org.springframework.security.acls.neo4j;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Transaction;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.data.neo4j.support.Neo4jTemplate;
+import org.springframework.security.acls.domain.AccessControlEntryImpl;
+import org.springframework.security.acls.domain.AclAuthorizationStrategy;
+import org.springframework.security.acls.domain.DefaultPermissionFactory;
+import org.springframework.security.acls.domain.GrantedAuthoritySid;
+import org.springframework.security.acls.domain.ObjectIdentityImpl;
+import org.springframework.security.acls.domain.PermissionFactory;
+import org.springframework.security.acls.domain.PrincipalSid;
+import org.springframework.security.acls.model.AccessControlEntry;
+import org.springframework.security.acls.model.Acl;
+import org.springframework.security.acls.model.AclCache;
+import org.springframework.security.acls.model.MutableAcl;
+import org.springframework.security.acls.model.ObjectIdentity;
+import org.springframework.security.acls.model.PermissionGrantingStrategy;
+import org.springframework.security.acls.model.Sid;
+import org.springframework.util.Assert;
+
+/**
+ * Snapshot of the hot Acls in a memory mapped file, so that a restarted node
+ * serves lookups from it instead of rebuilding its working set from the
+ * graph. Attached to a {@link Neo4jLookupStrategy}, it counts the Object
+ * Identities looked up, periodically writes the most used ones which are in
+ * the Acl Cache, with their parents, and on startup maps the last written
+ * file and restores Acls from it on cache misses.
+ * 
+ * Entries are validated lazily against the versions which
+ * {@link Neo4jMutableAclService} stamps on the Acls when versionStamping is
+ * set: every update advances the version of the updated Acl. The snapshot
+ * holds the version of every Acl, read from the graph after the Acl was
+ * taken from the cache, and only writes Acls the cache still held unchanged
+ * once the versions were read. A restored Acl is used when it and all its
+ * parents still exist with the same version, otherwise it is loaded from the
+ * graph. Every service writing Acls must stamp versions. The
+ * Neo4jMutableAclService given to the snapshot is set to stamp them when the
+ * snapshot starts, and an active snapshot refuses to start without one.
+ * Without a file the snapshot is inactive: it neither counts lookups nor
+ * stamps versions.
+ * 
+ * The file holds a header, one record per Acl with its version and the Sid
+ * and class name
+ * dictionaries the records refer to by ordinal. It is replaced by a rename,
+ * the mapped file stays readable until the next start. Files above 2GB are
+ * not mapped.
+ * 
+ * @author shazin
+ *
+ */
+public class Neo4jAclSnapshot implements InitializingBean, DisposableBean {
+
+	private static final Logger LOGGER = LoggerFactory
+			.getLogger(Neo4jAclSnapshot.class);
+
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	private static final int MAGIC = 0x41434c53;
+	private static final int FORMAT = 2;
+	// Magic, format, Acl count and dictionary offset
+	private static final int HEADER_SIZE = 4 + 4 + 4 + 4;
+	// Record length, class name ordinal, identifier and version, before the
+	// Acl id
+	private static final int RECORD_PREFIX_SIZE = 4 + 4 + 8 + 8;
+
+	private static final int ENTRIES_INHERITING = 1;
+	private static final int HAS_PARENT = 2;
+
+	private final GraphDatabaseService graphDatabaseService;
+	private Neo4jTemplate neo4jTemplate;
+	private File file;
+	private long writeIntervalSeconds = 300;
+	private int maxEntries = 100000;
+	private String selectVersions = "MATCH (acl:AclNode) WHERE acl.id IN {aclIds} RETURN acl.id AS aclId, coalesce(acl.version, 0) AS version";
+
+	private Neo4jMutableAclService mutableAclService;
+	private AclCache aclCache;
+	private AclAuthorizationStrategy aclAuthorizationStrategy;
+	private PermissionGrantingStrategy permissionGrantingStrategy;
+	private PermissionFactory permissionFactory = new DefaultPermissionFactory();
+
+	private volatile Mapping mapping;
+	private final ConcurrentMap<ObjectIdentity, AtomicInteger> accesses = new ConcurrentHashMap<ObjectIdentity, AtomicInteger>();
+	private ScheduledExecutorService scheduler;
+
+	private final AtomicLong restored = new AtomicLong();
+	private final AtomicLong invalidated = new AtomicLong();
+
+	/**
+	 * Constructor
+	 * 
+	 * @param graphDatabaseService - Graph Database Service
+	 */
+	public Neo4jAclSnapshot(GraphDatabaseService graphDatabaseService) {
+		Assert.notNull(graphDatabaseService,
+				"GraphDatabaseService can not be null");
+		this.graphDatabaseService = graphDatabaseService;
+		this.neo4jTemplate = new Neo4jTemplate(graphDatabaseService);
+	}
+
+	/**
+	 * Constructor
+	 * 
+	 * @param graphDatabaseService - Graph Database Service
+	 * @param mutableAclService - Mutable Acl Service, set to stamp versions
+	 *            when the snapshot starts
+	 */
+	public Neo4jAclSnapshot(GraphDatabaseService graphDatabaseService,
+			Neo4jMutableAclService mutableAclService) {
+		this(graphDatabaseService);
+		setMutableAclService(mutableAclService);
+	}
+
+	/**
+	 * Set the Mutable Acl Service to stamp versions, map the last snapshot
+	 * and start writing new ones every writeIntervalSeconds
+	 */
+	@Override
+	public void afterPropertiesSet() throws Exception {
+		if (file == null) {
+			return;
+		}
+		if (mutableAclService == null) {
+			throw new IllegalStateException(
+					"A Neo4jMutableAclService is required to stamp Acl versions for snapshot "
+							+ file);
+		}
+		mutableAclService.setVersionStamping(true);
+		load();
+		if (writeIntervalSeconds > 0) {
+			scheduler = Executors
+					.newSingleThreadScheduledExecutor(new ThreadFactory() {
+						@Override
+						public Thread newThread(Runnable runnable) {
+							Thread thread = new Thread(runnable,
+									"neo4j-acl-snapshot");
+							thread.setDaemon(true);
+							return thread;
+						}
+					});
+			scheduler.scheduleWithFixedDelay(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						write();
+					} catch (RuntimeException e) {
+						LOGGER.warn("Unable to write Acl snapshot " + file, e);
+					}
+				}
+			}, writeIntervalSeconds, writeIntervalSeconds, TimeUnit.SECONDS);
+		}
+	}
+
+	/**
+	 * Stop the periodic writes and write a last snapshot
+	 */
+	@Override
+	public void destroy() throws Exception {
+		if (scheduler != null) {
+			scheduler.shutdown();
+			scheduler.awaitTermination(60, TimeUnit.SECONDS);
+			scheduler = null;
+		}
+		write();
+	}
+
+	/**
+	 * Map the snapshot file, replacing the current mapping
+	 * 
+	 * @return true if a valid snapshot was mapped
+	 */
+	public boolean load() {
+		if ((file == null) || !file.isFile()) {
+			return false;
+		}
+
+		try {
+			RandomAccessFile input = new RandomAccessFile(file, "r");
+			MappedByteBuffer buffer;
+			try {
+				if (input.length() > Integer.MAX_VALUE) {
+					LOGGER.warn("Acl snapshot {} is too large to be mapped",
+							file);
+					return false;
+				}
+				buffer = input.getChannel().map(FileChannel.MapMode.READ_ONLY,
+						0, input.length());
+			} finally {
+				input.close();
+			}
+			mapping = new Mapping(buffer);
+			LOGGER.info("Mapped {} Acls of snapshot {}",
+					mapping.offsetsById.size(), file);
+			return true;
+		} catch (IOException e) {
+			LOGGER.warn("Unable to map Acl snapshot " + file, e);
+		} catch (RuntimeException e) {
+			LOGGER.warn("Ignoring unreadable Acl snapshot " + file, e);
+		}
+		return false;
+	}
+
+	/**
+	 * Count a lookup of an Object Identity. At most twice maxEntries Object
+	 * Identities are counted between two snapshots.
+	 * 
+	 * @param objectIdentity - Object Identity
+	 */
+	public void recordAccess(ObjectIdentity objectIdentity) {
+		if (file == null) {
+			return;
+		}
+		AtomicInteger count = accesses.get(objectIdentity);
+		if (count == null) {
+			if (accesses.size() >= 2 * maxEntries) {
+				return;
+			}
+			count = new AtomicInteger();
+			AtomicInteger existing = accesses.putIfAbsent(objectIdentity,
+					count);
+			if (existing != null) {
+				count = existing;
+			}
+		}
+		count.incrementAndGet();
+	}
+
+	/**
+	 * Restore Acls from the snapshot, with their parents. Only Acls which are
+	 * still valid in the graph are returned.
+	 * 
+	 * @param objectIdentities - Object Identities
+	 * @return restored Acls
+	 */
+	public Map<ObjectIdentity, MutableAcl> read(
+			Collection<ObjectIdentity> objectIdentities) {
+		Mapping current = mapping;
+		if ((current == null) || (aclAuthorizationStrategy == null)) {
+			return Collections.emptyMap();
+		}
+
+		Map<Serializable, Neo4jAcl> decoded = new HashMap<Serializable, Neo4jAcl>();
+		Map<ObjectIdentity, MutableAcl> candidates = new HashMap<ObjectIdentity, MutableAcl>();
+		for (ObjectIdentity objectIdentity : objectIdentities) {
+			Integer offset = current.offsetsByObjectIdentity
+					.get(objectIdentity);
+			if (offset != null) {
+				Neo4jAcl acl = decode(current, offset, decoded);
+				if (acl != null) {
+					candidates.put(objectIdentity, acl);
+				}
+			}
+		}
+		if (candidates.isEmpty()) {
+			return candidates;
+		}
+
+		Map<String, Long> versions = selectVersions(decoded.keySet());
+		Map<String, Boolean> valid = new HashMap<String, Boolean>();
+		for (Serializable id : decoded.keySet()) {
+			Long version = versions.get(id.toString());
+			if ((version != null)
+					&& (version.longValue() == version(current, id))) {
+				valid.put(id.toString(), Boolean.TRUE);
+			}
+		}
+		Map<ObjectIdentity, MutableAcl> result = new HashMap<ObjectIdentity, MutableAcl>();
+		for (Map.Entry<ObjectIdentity, MutableAcl> entry : candidates
+				.entrySet()) {
+			boolean unchanged = true;
+			for (Acl acl = entry.getValue(); unchanged && (acl != null); acl = acl
+					.getParentAcl()) {
+				unchanged = valid.containsKey(acl.getId().toString());
+			}
+			if (unchanged) {
+				result.put(entry.getKey(), entry.getValue());
+			}
+		}
+		restored.addAndGet(result.size());
+		invalidated.addAndGet(candidates.size() - result.size());
+		return result;
+	}
+
+	/**
+	 * Write the most used cached Acls, with their parents, to the snapshot
+	 * file. The mapped snapshot is not replaced.
+	 * 
+	 * @return number of Acls written
+	 */
+	public int write() {
+		if ((file == null) || (aclCache == null)) {
+			return 0;
+		}
+
+		Map<ObjectIdentity, MutableAcl> hot = new LinkedHashMap<ObjectIdentity, MutableAcl>();
+		Map<Serializable, MutableAcl> acls = new HashMap<Serializable, MutableAcl>();
+		for (ObjectIdentity objectIdentity : hotObjectIdentities()) {
+			MutableAcl acl = aclCache.getFromCache(objectIdentity);
+			if ((acl != null) && isSupported(acl)) {
+				hot.put(objectIdentity, acl);
+				for (Acl chain = acl; chain != null; chain = chain
+						.getParentAcl()) {
+					acls.put(chain.getId(), (MutableAcl) chain);
+				}
+			}
+		}
+
+		// The versions are read after the Acls. An Acl changed before is
+		// written with its new version but replaced in the cache, which is
+		// checked again, one changed after has a newer version.
+		Map<String, Long> versions;
+		Transaction tx = graphDatabaseService.beginTx();
+		try {
+			versions = selectVersions(acls.keySet());
+			tx.success();
+		} finally {
+			tx.close();
+		}
+
+		Map<Serializable, MutableAcl> unchanged = new LinkedHashMap<Serializable, MutableAcl>();
+		for (Map.Entry<ObjectIdentity, MutableAcl> entry : hot.entrySet()) {
+			if (isUnchanged(entry.getValue(),
+					aclCache.getFromCache(entry.getKey()), versions)) {
+				for (Acl chain = entry.getValue(); chain != null; chain = chain
+						.getParentAcl()) {
+					unchanged.put(chain.getId(), (MutableAcl) chain);
+				}
+			}
+		}
+		acls = unchanged;
+
+		File temporary = new File(file.getPath() + ".tmp");
+		try {
+			writeFile(temporary, versions, acls.values());
+			try {
+				Files.move(temporary.toPath(), file.toPath(),
+						StandardCopyOption.REPLACE_EXISTING,
+						StandardCopyOption.ATOMIC_MOVE);
+			} catch (AtomicMoveNotSupportedException e) {
+				Files.move(temporary.toPath(), file.toPath(),
+						StandardCopyOption.REPLACE_EXISTING);
+			}
+		} catch (IOException e) {
+			throw new IllegalStateException("Unable to write Acl snapshot "
+					+ file, e);
+		}
+		LOGGER.info("Wrote {} Acls to snapshot {}", acls.size(), file);
+		return acls.size();
+	}
+
+	/**
+	 * Most used Object Identities since the last snapshot. Their counts are
+	 * halved and the others forgotten.
+	 * 
+	 * @return at most maxEntries Object Identities
+	 */
+	private List<ObjectIdentity> hotObjectIdentities() {
+		// Sort on a copy of the counts, they change while lookups go on
+		final Map<ObjectIdentity, Integer> counts = new HashMap<ObjectIdentity, Integer>();
+		for (Map.Entry<ObjectIdentity, AtomicInteger> entry : accesses
+				.entrySet()) {
+			counts.put(entry.getKey(), entry.getValue().get());
+		}
+		List<ObjectIdentity> sorted = new ArrayList<ObjectIdentity>(
+				counts.keySet());
+		Collections.sort(sorted, new Comparator<ObjectIdentity>() {
+			@Override
+			public int compare(ObjectIdentity left, ObjectIdentity right) {
+				return counts.get(right).compareTo(counts.get(left));
+			}
+		});
+
+		List<ObjectIdentity> hot = new ArrayList<ObjectIdentity>();
+		for (ObjectIdentity objectIdentity : sorted) {
+			int count = counts.get(objectIdentity);
+			AtomicInteger current = accesses.get(objectIdentity);
+			if (current == null) {
+				continue;
+			}
+			if ((hot.size() < maxEntries) && (count > 1)) {
+				current.addAndGet(-count / 2);
+			} else {
+				accesses.remove(objectIdentity, current);
+			}
+			if (hot.size() < maxEntries) {
+				hot.add(objectIdentity);
+			}
+		}
+		return hot;
+	}
+
+	/**
+	 * Is the Acl still the cached one, and does every Acl of its chain still
+	 * exist in the graph
+	 * 
+	 * @param acl - Acl taken from the cache before the versions were read
+	 * @param cached - Acl in the cache after the versions were read
+	 * @param versions - versions by Acl id
+	 * @return true if the Acl can be written with the versions
+	 */
+	private boolean isUnchanged(Acl acl, Acl cached,
+			Map<String, Long> versions) {
+		for (; acl != null; acl = acl.getParentAcl(), cached = cached
+				.getParentAcl()) {
+			if ((cached == null) || !acl.equals(cached)
+					|| !versions.containsKey(acl.getId().toString())) {
+				return false;
+			}
+		}
+		return cached == null;
+	}
+
+	private void writeFile(File target, Map<String, Long> versions,
+			Collection<MutableAcl> acls) throws IOException {
+		Map<String, Integer> sidOrdinals = new LinkedHashMap<String, Integer>();
+		Map<String, Integer> typeOrdinals = new LinkedHashMap<String, Integer>();
+
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+				new FileOutputStream(target)));
+		int dictionaryOffset;
+		try {
+			out.writeInt(MAGIC);
+			out.writeInt(FORMAT);
+			out.writeInt(acls.size());
+			out.writeInt(0);
+
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			DataOutputStream record = new DataOutputStream(bytes);
+			for (MutableAcl acl : acls) {
+				bytes.reset();
+				record.writeInt(ordinal(typeOrdinals, acl.getObjectIdentity()
+						.getType()));
+				record.writeLong((Long) acl.getObjectIdentity().getIdentifier());
+				record.writeLong(versions.get(acl.getId().toString()));
+				OffHeapAclCache.writeId(record, acl.getId());
+				int flags = acl.isEntriesInheriting() ? ENTRIES_INHERITING : 0;
+				if (acl.getParentAcl() != null) {
+					flags |= HAS_PARENT;
+				}
+				record.writeByte(flags);
+				if (acl.getParentAcl() != null) {
+					OffHeapAclCache.writeId(record, acl.getParentAcl().getId());
+				}
+				record.writeInt(ordinal(sidOrdinals,
+						SidFilteredAclCache.sidKey(acl.getOwner())));
+				record.writeInt(acl.getEntries().size());
+				for (AccessControlEntry ace : acl.getEntries()) {
+					record.writeInt(ordinal(sidOrdinals,
+							SidFilteredAclCache.sidKey(ace.getSid())));
+					record.writeInt(ace.getPermission().getMask());
+					record.writeByte(Neo4jPackedEntries.flags(ace));
+					OffHeapAclCache.writeId(record, ace.getId());
+				}
+				record.flush();
+				out.writeInt(bytes.size());
+				bytes.writeTo(out);
+			}
+
+			dictionaryOffset = out.size();
+			writeStrings(out, sidOrdinals.keySet());
+			writeStrings(out, typeOrdinals.keySet());
+		} finally {
+			out.close();
+		}
+
+		RandomAccessFile header = new RandomAccessFile(target, "rw");
+		try {
+			header.seek(HEADER_SIZE - 4);
+			header.writeInt(dictionaryOffset);
+			header.getFD().sync();
+		} finally {
+			header.close();
+		}
+	}
+
+	private Neo4jAcl decode(Mapping current, int offset,
+			Map<Serializable, Neo4jAcl> decoded) {
+		ByteBuffer buffer = current.buffer;
+		int position = offset + 4;
+		ObjectIdentity objectIdentity = new ObjectIdentityImpl(
+				current.types[buffer.getInt(position)],
+				buffer.getLong(position + 4));
+		position += 20;
+		Serializable id = OffHeapAclCache.readId(buffer, position);
+		Neo4jAcl acl = decoded.get(id);
+		if (acl != null) {
+			return acl;
+		}
+		position = OffHeapAclCache.skipId(buffer, position);
+
+		int flags = buffer.get(position++);
+		Neo4jAcl parentAcl = null;
+		if ((flags & HAS_PARENT) != 0) {
+			Integer parentOffset = current.offsetsById.get(OffHeapAclCache
+					.readId(buffer, position));
+			if (parentOffset == null) {
+				return null;
+			}
+			parentAcl = decode(current, parentOffset, decoded);
+			if (parentAcl == null) {
+				return null;
+			}
+			position = OffHeapAclCache.skipId(buffer, position);
+		}
+
+		Sid owner = current.sids[buffer.getInt(position)];
+		int aceCount = buffer.getInt(position + 4);
+		position += 8;
+		acl = new Neo4jAcl(objectIdentity, id, aclAuthorizationStrategy,
+				permissionGrantingStrategy, parentAcl, null,
+				(flags & ENTRIES_INHERITING) != 0, owner, aceCount);
+		List<AccessControlEntryImpl> entries = acl.aces();
+		for (int i = 0; i < aceCount; i++) {
+			int aceFlags = buffer.get(position + 8);
+			entries.add(new AccessControlEntryImpl(OffHeapAclCache.readId(
+					buffer, position + 9), acl, current.sids[buffer
+					.getInt(position)], permissionFactory.buildFromMask(buffer
+					.getInt(position + 4)),
+					(aceFlags & Neo4jPackedEntries.GRANTING) != 0,
+					(aceFlags & Neo4jPackedEntries.AUDIT_SUCCESS) != 0,
+					(aceFlags & Neo4jPackedEntries.AUDIT_FAILURE) != 0));
+			position = OffHeapAclCache.skipId(buffer, position + 9);
+		}
+		decoded.put(id, acl);
+		return acl;
+	}
+
+	/**
+	 * Versions of the Acls which exist in the graph
+	 * 
+	 * @param ids - Acl Ids
+	 * @return versions by Acl id
+	 */
+	private Map<String, Long> selectVersions(Collection<Serializable> ids) {
+		List<String> aclIds = new ArrayList<String>(ids.size());
+		for (Serializable id : ids) {
+			aclIds.add(id.toString());
+		}
+		Map<String, Object> params = new HashMap<String, Object>();
+		params.put("aclIds", aclIds);
+
+		Map<String, Long> versions = new HashMap<String, Long>();
+		for (Map<String, Object> data : neo4jTemplate.query(selectVersions,
+				params)) {
+			versions.put((String) data.get("aclId"),
+					((Number) data.get("version")).longValue());
+		}
+		return versions;
+	}
+
+	/**
+	 * Version of an Acl when the snapshot was written
+	 * 
+	 * @param current - mapped snapshot
+	 * @param id - Acl id
+	 * @return version
+	 */
+	private static long version(Mapping current, Serializable id) {
+		return current.buffer.getLong(current.offsetsById.get(id) + 16);
+	}
+
+	private static boolean isSupported(Acl acl) {
+		for (Acl chain = acl; chain != null; chain = chain.getParentAcl()) {
+			if (!(chain instanceof MutableAcl)
+					|| !(chain.getObjectIdentity().getIdentifier() instanceof Long)
+					|| !isSupported(chain.getOwner())) {
+				return false;
+			}
+			for (AccessControlEntry ace : chain.getEntries()) {
+				if (!isSupported(ace.getSid())) {
+					return false;
+				}
+			}
+		}
+		return true;
+	}
+
+	private static boolean isSupported(Sid sid) {
+		return (sid instanceof PrincipalSid)
+				|| (sid instanceof GrantedAuthoritySid);
+	}
+
+	private static int ordinal(Map<String, Integer> ordinals, String value) {
+		Integer ordinal = ordinals.get(value);
+		if (ordinal == null) {
+			ordinal = ordinals.size();
+			ordinals.put(value, ordinal);
+		}
+		return ordinal;
+	}
+
+	private static void writeStrings(DataOutputStream out,
+			Collection<String> values) throws IOException {
+		out.writeInt(values.size());
+		for (String value : values) {
+			byte[] utf8 = value.getBytes(UTF_8);
+			out.writeShort(utf8.length);
+			out.write(utf8);
+		}
+	}
+
+	private static String readString(ByteBuffer buffer, int position) {
+		byte[] utf8 = new byte[buffer.getShort(position) & 0xffff];
+		for (int i = 0; i < utf8.length; i++) {
+			utf8[i] = buffer.get(position + 2 + i);
+		}
+		return new String(utf8, UTF_8);
+	}
+
+	/**
+	 * Get Neo4j Template
+	 * 
+	 * @return neo4jTemplate
+	 */
+	public Neo4jTemplate getNeo4jTemplate() {
+		return neo4jTemplate;
+	}
+
+	/**
+	 * Set Neo4j Template
+	 * 
+	 * @param neo4jTemplate
+	 */
+	public void setNeo4jTemplate(Neo4jTemplate neo4jTemplate) {
+		this.neo4jTemplate = neo4jTemplate;
+	}
+
+	/**
+	 * Get File
+	 * 
+	 * @return file
+	 */
+	public File getFile() {
+		return file;
+	}
+
+	/**
+	 * Set File of the snapshot, nothing is mapped or written when null
+	 * 
+	 * @param file
+	 */
+	public void setFile(File file) {
+		this.file = file;
+	}
+
+	/**
+	 * Get Write Interval Seconds
+	 * 
+	 * @return writeIntervalSeconds
+	 */
+	public long getWriteIntervalSeconds() {
+		return writeIntervalSeconds;
+	}
+
+	/**
+	 * Set Write Interval Seconds, snapshots are only written on shutdown and
+	 * by calling {@link #write()} when 0
+	 * 
+	 * @param writeIntervalSeconds
+	 */
+	public void setWriteIntervalSeconds(long writeIntervalSeconds) {
+		this.writeIntervalSeconds = writeIntervalSeconds;
+	}
+
+	/**
+	 * Get Max Entries
+	 * 
+	 * @return maxEntries
+	 */
+	public int getMaxEntries() {
+		return maxEntries;
+	}
+
+	/**
+	 * Set Max Entries, the number of most used Acls written, not counting
+	 * their parents
+	 * 
+	 * @param maxEntries
+	 */
+	public void setMaxEntries(int maxEntries) {
+		Assert.isTrue(maxEntries >= 1, "MaxEntries must be >= 1");
+		this.maxEntries = maxEntries;
+	}
+
+	/**
+	 * Get Select Versions Cypher
+	 * 
+	 * @return selectVersions
+	 */
+	public String getSelectVersions() {
+		return selectVersions;
+	}
+
+	/**
+	 * Set Select Versions Cypher
+	 * 
+	 * @param selectVersions
+	 */
+	public void setSelectVersions(String selectVersions) {
+		this.selectVersions = selectVersions;
+	}
+
+	/**
+	 * Get Mutable Acl Service
+	 * 
+	 * @return mutableAclService
+	 */
+	public Neo4jMutableAclService getMutableAclService() {
+		return mutableAclService;
+	}
+
+	/**
+	 * Set Mutable Acl Service which writes the Acls, it is set to stamp
+	 * versions when the snapshot starts so that restored Acls can be
+	 * validated. Other services writing Acls must stamp versions as well.
+	 * 
+	 * @param mutableAclService
+	 */
+	public void setMutableAclService(Neo4jMutableAclService mutableAclService) {
+		Assert.notNull(mutableAclService, "MutableAclService can not be null");
+		this.mutableAclService = mutableAclService;
+	}
+
+	/**
+	 * Get Acl Cache
+	 * 
+	 * @return aclCache
+	 */
+	public AclCache getAclCache() {
+		return aclCache;
+	}
+
+	/**
+	 * Set Acl Cache the snapshot is taken from
+	 * 
+	 * @param aclCache
+	 */
+	public void setAclCache(AclCache aclCache) {
+		this.aclCache = aclCache;
+	}
+
+	/**
+	 * Get Acl Authorization Strategy
+	 * 
+	 * @return aclAuthorizationStrategy
+	 */
+	public AclAuthorizationStrategy getAclAuthorizationStrategy() {
+		return aclAuthorizationStrategy;
+	}
+
+	/**
+	 * Set Acl Authorization Strategy of restored Acls
+	 * 
+	 * @param aclAuthorizationStrategy
+	 */
+	public void setAclAuthorizationStrategy(
+			AclAuthorizationStrategy aclAuthorizationStrategy) {
+		this.aclAuthorizationStrategy = aclAuthorizationStrategy;
+	}
+
+	/**
+	 * Get Permission Granting Strategy
+	 * 
+	 * @return permissionGrantingStrategy
+	 */
+	public PermissionGrantingStrategy getPermissionGrantingStrategy() {
+		return permissionGrantingStrategy;
+	}
+
+	/**
+	 * Set Permission Granting Strategy of restored Acls
+	 * 
+	 * @param permissionGrantingStrategy
+	 */
+	public void setPermissionGrantingStrategy(
+			PermissionGrantingStrategy permissionGrantingStrategy) {
+		this.permissionGrantingStrategy = permissionGrantingStrategy;
+	}
+
+	/**
+	 * Get Permission Factory
+	 * 
+	 * @return permissionFactory
+	 */
+	public PermissionFactory getPermissionFactory() {
+		return permissionFactory;
+	}
+
+	/**
+	 * Set Permission Factory, used to decode the masks of Aces
+	 * 
+	 * @param permissionFactory
+	 */
+	public void setPermissionFactory(PermissionFactory permissionFactory) {
+		this.permissionFactory = permissionFactory;
+	}
+
+	/**
+	 * Get Size
+	 * 
+	 * @return number of Acls in the mapped snapshot
+	 */
+	public int getSize() {
+		Mapping current = mapping;
+		return current == null ? 0 : current.offsetsById.size();
+	}
+
+	/**
+	 * Get Restored Count
+	 * 
+	 * @return number of Acls restored from the snapshot
+	 */
+	public long getRestoredCount() {
+		return restored.get();
+	}
+
+	/**
+	 * Get Invalidated Count
+	 * 
+	 * @return number of Acls found in the snapshot but changed since
+	 */
+	public long getInvalidatedCount() {
+		return invalidated.get();
+	}
+
+	/**
+	 * Mapped snapshot file, with the dictionaries and the offsets of its
+	 * records by Acl id and Object Identity
+	 * 
+	 * @author shazin
+	 *
+	 */
+	private static final class Mapping {
+
+		private final ByteBuffer buffer;
+		private final Sid[] sids;
+		private final String[] types;
+		private final Map<Serializable, Integer> offsetsById = new HashMap<Serializable, Integer>();
+		private final Map<ObjectIdentity, Integer> offsetsByObjectIdentity = new HashMap<ObjectIdentity, Integer>();
+
+		public Mapping(ByteBuffer buffer) {
+			Assert.isTrue(buffer.getInt(0) == MAGIC, "Not an Acl snapshot");
+			Assert.isTrue(buffer.getInt(4) == FORMAT,
+					"Unsupported Acl snapshot format " + buffer.getInt(4));
+			this.buffer = buffer;
+			int count = buffer.getInt(8);
+			int position = buffer.getInt(12);
+			Assert.isTrue(position >= HEADER_SIZE, "Incomplete Acl snapshot");
+
+			this.sids = new Sid[buffer.getInt(position)];
+			position += 4;
+			for (int i = 0; i < sids.length; i++) {
+				sids[i] = Neo4jPackedEntries.toSid(readString(buffer, position));
+				position += 2 + (buffer.getShort(position) & 0xffff);
+			}
+			this.types = new String[buffer.getInt(position)];
+			position += 4;
+			for (int i = 0; i < types.length; i++) {
+				types[i] = readString(buffer, position);
+				position += 2 + (buffer.getShort(position) & 0xffff);
+			}
+
+			position = HEADER_SIZE;
+			for (int i = 0; i < count; i++) {
+				ObjectIdentity objectIdentity = new ObjectIdentityImpl(
+						types[buffer.getInt(position + 4)],
+						buffer.getLong(position + 8));
+				Serializable id = OffHeapAclCache.readId(buffer, position
+						+ RECORD_PREFIX_SIZE);
+				offsetsById.put(id, position);
+				offsetsByObjectIdentity.put(objectIdentity, position);
+				position += 4 + buffer.getInt(position);
+			}
+		}
+	}
+
+}
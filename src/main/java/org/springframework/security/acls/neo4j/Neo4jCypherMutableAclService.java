@@ -0,0 +1,198 @@
+package org.springframework.security.acls.neo4j;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.springframework.dao.DataAccessException;
+import org.springframework.security.acls.domain.AccessControlEntryImpl;
+import org.springframework.security.acls.domain.ObjectIdentityImpl;
+import org.springframework.security.acls.jdbc.LookupStrategy;
+import org.springframework.security.acls.model.AccessControlEntry;
+import org.springframework.security.acls.model.AclCache;
+import org.springframework.security.acls.model.MutableAcl;
+import org.springframework.security.acls.model.NotFoundException;
+import org.springframework.security.acls.model.ObjectIdentity;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.util.Assert;
+
+/**
+ * Neo4j based Mutable Acl Service Implementation which writes with
+ * parameterized Cypher only. Acl, Ace, Sid and Class nodes are never loaded
+ * or saved as Spring Data Neo4j entities, so no @Fetch loading of the Aces
+ * happens to change a single property. Acls are created by the inherited
+ * MERGE statement of createAcl. The graph layout is the same as the one
+ * written by {@link Neo4jMutableAclService}.
+ * 
+ * @author shazin
+ *
+ */
+@Transactional(readOnly = true)
+public class Neo4jCypherMutableAclService extends Neo4jMutableAclService {
+
+	private String selectObjectIdentityId = "MATCH (acl:AclNode) WHERE acl.objectIdIdentity = {objectIdIdentity} MATCH (acl)-[:SECURES]->(class:ClassNode) WHERE class.className = {className} RETURN acl.id AS aclId";
+	private String insertEntriesByObjectIdentityId = "MATCH (acl:AclNode) WHERE acl.id = {aclId} FOREACH (i IN {aces} | MERGE (sid:SidNode {sid: i.sid, principal: i.principal}) ON CREATE SET sid:_SidNode, sid.id = i.sidId CREATE (ace:AceNode:_AceNode {id: i.id, aceOrder: i.aceOrder, mask: i.mask, granting: i.granting, auditSuccess: i.auditSuccess, auditFailure: i.auditFailure}) CREATE (ace)-[:COMPOSES]->(acl) CREATE (ace)-[:AUTHORIZES]->(sid))";
+	private String updateObjectIdentityByObjectIdentity = "MATCH (acl:AclNode) WHERE acl.objectIdIdentity = {objectIdIdentity} MATCH (acl)-[:SECURES]->(class:ClassNode) WHERE class.className = {className} OPTIONAL MATCH (acl)-[o:OWNED_BY]->() OPTIONAL MATCH (acl)-[p:CHILD_OF]->() DELETE o, p WITH DISTINCT acl MERGE (owner:SidNode {sid: {sid}, principal: {principal}}) ON CREATE SET owner:_SidNode, owner.id = {sidId} CREATE (acl)-[:OWNED_BY]->(owner) SET acl.entriesInheriting = {entriesInheriting}, acl.parentObject = {parentId} WITH acl OPTIONAL MATCH (parent:AclNode) WHERE parent.id = {parentId} FOREACH (x IN CASE WHEN parent IS NULL THEN [] ELSE [parent] END | CREATE (acl)-[:CHILD_OF]->(x)) RETURN acl.id AS aclId";
+
+	/**
+	 * Constructor
+	 * 
+	 * @param graphDatabaseService - Graph Database Service
+	 * @param aclCache - Acl Cache
+	 * @param lookupStrategy - Lookup Strategy
+	 */
+	public Neo4jCypherMutableAclService(
+			GraphDatabaseService graphDatabaseService, AclCache aclCache,
+			LookupStrategy lookupStrategy) {
+		super(graphDatabaseService, aclCache, lookupStrategy);
+	}
+
+	/**
+	 * Retrieve Object Identity Id
+	 * 
+	 * @param oid - Object Identity
+	 * @return Id
+	 */
+	@Override
+	protected String retrieveObjectIdentityId(ObjectIdentity oid) {
+		Map<String, Object> params = new HashMap<String, Object>();
+		params.put("objectIdIdentity", (Long) oid.getIdentifier());
+		params.put("className", oid.getType());
+		try {
+			Map<String, Object> data = neo4jTemplate.query(
+					selectObjectIdentityId, params).singleOrNull();
+			return data == null ? null : (String) data.get("aclId");
+		} catch (DataAccessException notFound) {
+			return null;
+		}
+	}
+
+	/**
+	 * Create Entries for Acl with one statement
+	 * 
+	 * @param acl
+	 */
+	@Override
+	protected void createEntries(final MutableAcl acl) {
+		if (acl.getEntries().isEmpty()) {
+			return;
+		}
+		String aclId = retrieveObjectIdentityId(acl.getObjectIdentity());
+		if (aclId == null) {
+			return;
+		}
+
+		List<Map<String, Object>> aces = new ArrayList<Map<String, Object>>(
+				acl.getEntries().size());
+		int aceOrder = 0;
+		for (AccessControlEntry ace : acl.getEntries()) {
+			Map<String, Object> entry = entryParameters(
+					(AccessControlEntryImpl) ace, aceOrder++);
+			entry.put("id", UUID.randomUUID().toString());
+			entry.put("sidId", UUID.randomUUID().toString());
+			aces.add(entry);
+		}
+
+		Map<String, Object> params = new HashMap<String, Object>();
+		params.put("aclId", aclId);
+		params.put("aces", aces);
+		neo4jTemplate.query(insertEntriesByObjectIdentityId, params);
+	}
+
+	/**
+	 * Update Object Identity with one statement
+	 * 
+	 * @param acl
+	 */
+	@Override
+	protected void updateObjectIdentity(MutableAcl acl) {
+		String parentId = null;
+
+		if (acl.getParentAcl() != null) {
+			Assert.isInstanceOf(ObjectIdentityImpl.class, acl.getParentAcl()
+					.getObjectIdentity(),
+					"Implementation only supports ObjectIdentityImpl");
+
+			ObjectIdentityImpl oii = (ObjectIdentityImpl) acl.getParentAcl()
+					.getObjectIdentity();
+			parentId = retrieveObjectIdentityId(oii);
+		}
+
+		Assert.notNull(acl.getOwner(),
+				"Owner is required in this implementation");
+
+		Map<String, Object> params = new HashMap<String, Object>();
+		params.put("objectIdIdentity", (Long) acl.getObjectIdentity()
+				.getIdentifier());
+		params.put("className", acl.getObjectIdentity().getType());
+		putSid(params, acl.getOwner());
+		params.put("sidId", UUID.randomUUID().toString());
+		params.put("entriesInheriting", acl.isEntriesInheriting());
+		params.put("parentId", parentId);
+
+		if (neo4jTemplate.query(updateObjectIdentityByObjectIdentity, params)
+				.singleOrNull() == null) {
+			throw new NotFoundException("Unable to locate ACL to update");
+		}
+	}
+
+	/**
+	 * Get Select Object Identity Id Cypher
+	 * 
+	 * @return selectObjectIdentityId
+	 */
+	public String getSelectObjectIdentityId() {
+		return selectObjectIdentityId;
+	}
+
+	/**
+	 * Set Select Object Identity Id Cypher
+	 * 
+	 * @param selectObjectIdentityId
+	 */
+	public void setSelectObjectIdentityId(String selectObjectIdentityId) {
+		this.selectObjectIdentityId = selectObjectIdentityId;
+	}
+
+	/**
+	 * Get Insert Entries By Object Identity Id Cypher
+	 * 
+	 * @return insertEntriesByObjectIdentityId
+	 */
+	public String getInsertEntriesByObjectIdentityId() {
+		return insertEntriesByObjectIdentityId;
+	}
+
+	/**
+	 * Set Insert Entries By Object Identity Id Cypher
+	 * 
+	 * @param insertEntriesByObjectIdentityId
+	 */
+	public void setInsertEntriesByObjectIdentityId(
+			String insertEntriesByObjectIdentityId) {
+		this.insertEntriesByObjectIdentityId = insertEntriesByObjectIdentityId;
+	}
+
+	/**
+	 * Get Update Object Identity By Object Identity Cypher
+	 * 
+	 * @return updateObjectIdentityByObjectIdentity
+	 */
+	public String getUpdateObjectIdentityByObjectIdentity() {
+		return updateObjectIdentityByObjectIdentity;
+	}
+
+	/**
+	 * Set Update Object Identity By Object Identity Cypher
+	 * 
+	 * @param updateObjectIdentityByObjectIdentity
+	 */
+	public void setUpdateObjectIdentityByObjectIdentity(
+			String updateObjectIdentityByObjectIdentity) {
+		this.updateObjectIdentityByObjectIdentity = updateObjectIdentityByObjectIdentity;
+	}
+
+}
@@ -0,0 +1,226 @@
+package org.springframework.security.acls.neo4j;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.springframework.security.acls.domain.GrantedAuthoritySid;
+import org.springframework.security.acls.domain.PrincipalSid;
+import org.springframework.security.acls.model.ObjectIdentity;
+import org.springframework.security.acls.model.Sid;
+import org.springframework.util.Assert;
+
+/**
+ * Bounded, concurrent pool which lets equal Sids and Object Identities built
+ * by {@link Neo4jLookupStrategy} share one instance, so the Acls in the Acl
+ * Cache do not each hold their own copies. Sids and Object Identities are
+ * kept in separate pools of up to maxSize instances each, and a full pool
+ * evicts its least recently used instance, so a churn of Object Identities
+ * does not push out the few Sids shared by every Acl. {@link #clear()}
+ * empties both pools. Permissions are not pooled, the Permission Factory
+ * already hands out shared instances.
+ * 
+ * Hits are counted with an estimate of the heap each shared instance saves,
+ * based on the shallow sizes of the value and its Strings on a 64 bit JVM with
+ * compressed references.
+ * 
+ * @author shazin
+ *
+ */
+public class Neo4jInterningPool {
+
+	private final Pool sids;
+	private final Pool objectIdentities;
+	private final int maxSize;
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final AtomicLong evictions = new AtomicLong();
+	private final AtomicLong bytesSaved = new AtomicLong();
+
+	/**
+	 * Constructor
+	 * 
+	 * @param maxSize - maximum number of pooled instances per type
+	 */
+	public Neo4jInterningPool(int maxSize) {
+		Assert.isTrue(maxSize >= 1, "MaxSize must be >= 1");
+		this.maxSize = maxSize;
+		this.sids = new Pool(maxSize);
+		this.objectIdentities = new Pool(maxSize);
+	}
+
+	/**
+	 * Pooled instance of a Sid
+	 * 
+	 * @param sid - Sid
+	 * @return equal pooled Sid, or the Sid itself
+	 */
+	public Sid intern(Sid sid) {
+		return (Sid) doIntern(sids, sid);
+	}
+
+	/**
+	 * Pooled instance of an Object Identity
+	 * 
+	 * @param objectIdentity - Object Identity
+	 * @return equal pooled Object Identity, or the Object Identity itself
+	 */
+	public ObjectIdentity intern(ObjectIdentity objectIdentity) {
+		return (ObjectIdentity) doIntern(objectIdentities, objectIdentity);
+	}
+
+	private Object doIntern(Pool pool, Object value) {
+		if (value == null) {
+			return null;
+		}
+
+		Object pooled = pool.intern(value);
+		if (pooled == value) {
+			misses.incrementAndGet();
+		} else {
+			hits.incrementAndGet();
+			bytesSaved.addAndGet(estimateSize(value));
+		}
+		return pooled;
+	}
+
+	/**
+	 * Estimated shallow size of a value and the Strings it holds
+	 * 
+	 * @param value - pooled value
+	 * @return bytes
+	 */
+	protected long estimateSize(Object value) {
+		if (value instanceof PrincipalSid) {
+			return 16 + stringSize(((PrincipalSid) value).getPrincipal());
+		}
+		if (value instanceof GrantedAuthoritySid) {
+			return 16 + stringSize(((GrantedAuthoritySid) value)
+					.getGrantedAuthority());
+		}
+		if (value instanceof ObjectIdentity) {
+			// Identifiers are Longs, the type String is counted
+			return 16 + 16 + stringSize(((ObjectIdentity) value).getType());
+		}
+		return 24;
+	}
+
+	private long stringSize(String value) {
+		// String object plus its char array
+		return value == null ? 0
+				: 24 + 16 + (((long) value.length() * 2 + 7) & ~7);
+	}
+
+	/**
+	 * Empty the pools, the statistics are kept
+	 */
+	public void clear() {
+		sids.clear();
+		objectIdentities.clear();
+	}
+
+	/**
+	 * Get Size
+	 * 
+	 * @return number of pooled instances of all types
+	 */
+	public int getSize() {
+		return sids.size() + objectIdentities.size();
+	}
+
+	/**
+	 * Get Max Size
+	 * 
+	 * @return maximum number of pooled instances per type
+	 */
+	public int getMaxSize() {
+		return maxSize;
+	}
+
+	/**
+	 * Get Hits
+	 * 
+	 * @return number of values replaced by a pooled instance
+	 */
+	public long getHits() {
+		return hits.get();
+	}
+
+	/**
+	 * Get Misses
+	 * 
+	 * @return number of values which were not pooled yet
+	 */
+	public long getMisses() {
+		return misses.get();
+	}
+
+	/**
+	 * Get Evictions
+	 * 
+	 * @return number of pooled instances evicted by newer ones
+	 */
+	public long getEvictions() {
+		return evictions.get();
+	}
+
+	/**
+	 * Get Estimated Bytes Saved
+	 * 
+	 * @return estimated heap of the values replaced by pooled instances
+	 */
+	public long getEstimatedBytesSaved() {
+		return bytesSaved.get();
+	}
+
+	@Override
+	public String toString() {
+		return "Neo4jInterningPool[size: " + getSize() + "; maxSize: "
+				+ maxSize + "; hits: " + hits.get() + "; misses: "
+				+ misses.get() + "; evictions: " + evictions.get()
+				+ "; estimatedBytesSaved: " + bytesSaved.get() + "]";
+	}
+
+	/**
+	 * Least recently used pool of one type
+	 */
+	private class Pool {
+
+		private final Map<Object, Object> values;
+
+		Pool(final int maxSize) {
+			this.values = new LinkedHashMap<Object, Object>(Math.min(maxSize,
+					1024), 0.75f, true) {
+				private static final long serialVersionUID = 1L;
+
+				@Override
+				protected boolean removeEldestEntry(
+						Map.Entry<Object, Object> eldest) {
+					if (size() > maxSize) {
+						evictions.incrementAndGet();
+						return true;
+					}
+					return false;
+				}
+			};
+		}
+
+		synchronized Object intern(Object value) {
+			Object pooled = values.get(value);
+			if (pooled == null) {
+				values.put(value, value);
+				return value;
+			}
+			return pooled;
+		}
+
+		synchronized int size() {
+			return values.size();
+		}
+
+		synchronized void clear() {
+			values.clear();
+		}
+	}
+
+}
@@ -3,15 +3,29 @@ package org.springframework.security.acls.neo4j;
 import java.io.Serializable;
 import java.lang.reflect.Field;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Transaction;
 import org.springframework.data.neo4j.conversion.Result;
 import org.springframework.data.neo4j.support.Neo4jTemplate;
 import org.springframework.security.acls.domain.AccessControlEntryImpl;
@@ -34,6 +48,7 @@ import org.springframework.security.acls.model.PermissionGrantingStrategy;
 import org.springframework.security.acls.model.Sid;
 import org.springframework.security.acls.model.UnloadedSidException;
 import org.springframework.security.util.FieldUtils;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 import org.springframework.util.Assert;
 
 /**
@@ -45,12 +60,28 @@ import org.springframework.util.Assert;
 public class Neo4jLookupStrategy implements LookupStrategy {
 
 	private final String DEFAULT_MATCH_CLAUSE = "MATCH (owner:SidNode)<-[:OWNED_BY]-(acl:AclNode)-[:SECURES]->(class:ClassNode) OPTIONAL MATCH (acl)<-[:COMPOSES]-(ace:AceNode)-[:AUTHORIZES]->(sid:SidNode) WITH acl, ace, owner, sid, class WHERE ( ";
-	private final String DEFAULT_RETURN_CLAUSE = " ) RETURN owner.principal AS aclPrincipal, owner.sid AS aclSid, acl.objectIdIdentity AS objectIdIdentity, ace.aceOrder AS aceOrder, acl.id AS aclId, acl.parentObject AS parentObject, acl.entriesInheriting AS entriesInheriting, ace.id AS aceId, ace.mask AS mask, ace.granting AS granting, ace.auditSuccess AS auditSuccess, ace.auditFailure AS auditFailure, sid.principal AS acePrincipal, sid.sid AS aceSid, class.className AS className ";
+	private final String DEFAULT_PROJECTION_CLAUSE = "RETURN owner.principal AS aclPrincipal, owner.sid AS aclSid, acl.objectIdIdentity AS objectIdIdentity, ace.aceOrder AS aceOrder, acl.id AS aclId, acl.parentObject AS parentObject, acl.entriesInheriting AS entriesInheriting, ace.id AS aceId, ace.mask AS mask, ace.granting AS granting, ace.auditSuccess AS auditSuccess, ace.auditFailure AS auditFailure, sid.principal AS acePrincipal, sid.sid AS aceSid, class.className AS className ";
+	private final String DEFAULT_RETURN_CLAUSE = " ) " + DEFAULT_PROJECTION_CLAUSE;
 	private final String DEFAULT_WHERE_CLAUSE = " (acl.objectIdIdentity = {objectIdIdentity%d} AND class.className = {className%d}) ";
 	private final String DEFAULT_OBJ_ID_LOOKUP_WHERE_CLAUSE = " (acl.id = {aclId%d}) ";
 	private final String DEFAULT_ORDER_BY_CLAUSE = " ORDER BY acl.objectIdIdentity ASC, ace.aceOrder ASC";
 
+	// Parameterized lookup clauses, the statement text does not depend on the
+	// batch size so a single cached plan serves every batch
+	private final String DEFAULT_OBJ_ID_ANCHOR_CLAUSE = "UNWIND {objectIdentities} AS oid MATCH (acl:AclNode) WHERE acl.objectIdIdentity = oid.objectIdIdentity MATCH (acl)-[:SECURES]->(class:ClassNode) WHERE class.className = oid.className ";
+	private final String DEFAULT_ACL_ID_ANCHOR_CLAUSE = "MATCH (acl:AclNode) WHERE acl.id IN {aclIds} MATCH (acl)-[:SECURES]->(class:ClassNode) ";
+	private final String DEFAULT_ANCESTOR_ANCHOR_CLAUSE = "UNWIND {objectIdentities} AS oid MATCH (requested:AclNode) WHERE requested.objectIdIdentity = oid.objectIdIdentity MATCH (requested)-[:SECURES]->(requestedClass:ClassNode) WHERE requestedClass.className = oid.className MATCH (requested)-[:CHILD_OF*0..]->(acl:AclNode) WITH DISTINCT acl MATCH (acl)-[:SECURES]->(class:ClassNode) ";
+	private final String DEFAULT_ENTRIES_CLAUSE = "MATCH (owner:SidNode)<-[:OWNED_BY]-(acl) OPTIONAL MATCH (acl)<-[:COMPOSES]-(ace:AceNode)-[:AUTHORIZES]->(sid:SidNode) ";
+	// Only the Aces of the requested Sids, keyed P:principal or A:authority
+	private final String DEFAULT_SID_FILTERED_ENTRIES_CLAUSE = "MATCH (owner:SidNode)<-[:OWNED_BY]-(acl) OPTIONAL MATCH (acl)<-[:COMPOSES]-(ace:AceNode)-[:AUTHORIZES]->(sid:SidNode) WHERE (CASE WHEN sid.principal THEN 'P:' ELSE 'A:' END + sid.sid) IN {sidKeys} ";
+	// One row per Acl with the Aces collected into a list of maps, no global
+	// ORDER BY, the Aces are placed by aceOrder while converting
+	private final String DEFAULT_AGGREGATED_PROJECTION_CLAUSE = "RETURN owner.principal AS aclPrincipal, owner.sid AS aclSid, acl.objectIdIdentity AS objectIdIdentity, acl.id AS aclId, acl.parentObject AS parentObject, acl.entriesInheriting AS entriesInheriting, class.className AS className, collect(CASE WHEN ace IS NULL THEN null ELSE {id: ace.id, aceOrder: ace.aceOrder, mask: ace.mask, granting: ace.granting, auditSuccess: ace.auditSuccess, auditFailure: ace.auditFailure, principal: sid.principal, sid: sid.sid} END) AS aces";
+	// One row per Acl, the Aces are read from the packed array properties
+	private final String DEFAULT_PACKED_PROJECTION_CLAUSE = "MATCH (owner:SidNode)<-[:OWNED_BY]-(acl) RETURN owner.principal AS aclPrincipal, owner.sid AS aclSid, acl.objectIdIdentity AS objectIdIdentity, acl.id AS aclId, acl.parentObject AS parentObject, acl.entriesInheriting AS entriesInheriting, acl.aceIds AS aceIds, acl.aceSids AS aceSids, acl.aceMasks AS aceMasks, acl.aceFlags AS aceFlags, class.className AS className";
+
 	private final AclCache aclCache;
+	private final GraphDatabaseService graphDatabaseService;
 	private PermissionFactory permissionFactory = new DefaultPermissionFactory();
 	private PermissionGrantingStrategy permissionGrantingStrategy;
 	private final AclAuthorizationStrategy aclAuthorizationStrategy;
@@ -61,6 +92,29 @@ public class Neo4jLookupStrategy implements LookupStrategy {
 	private String matchClause = DEFAULT_MATCH_CLAUSE;
 	private String orderByClause = DEFAULT_ORDER_BY_CLAUSE;
 	private String returnClause = DEFAULT_RETURN_CLAUSE;
+	private boolean parameterizedLookup = false;
+	private String objectIdentityAnchorClause = DEFAULT_OBJ_ID_ANCHOR_CLAUSE;
+	private String aclIdAnchorClause = DEFAULT_ACL_ID_ANCHOR_CLAUSE;
+	private boolean parentTraversalLookup = false;
+	private String ancestorAnchorClause = DEFAULT_ANCESTOR_ANCHOR_CLAUSE;
+	private String entriesClause = DEFAULT_ENTRIES_CLAUSE;
+	private String projectionClause = DEFAULT_PROJECTION_CLAUSE;
+	private boolean sidFilteredLookup = false;
+	private String sidFilteredEntriesClause = DEFAULT_SID_FILTERED_ENTRIES_CLAUSE;
+	private Executor executor;
+	private int parallelism = 4;
+	private boolean packedEntries = false;
+	private String packedProjectionClause = DEFAULT_PACKED_PROJECTION_CLAUSE;
+	private boolean aggregatedLookup = false;
+	private boolean directAssembly = false;
+	private Neo4jInterningPool interningPool;
+	private MissingAclCache missingAclCache;
+	private boolean singleFlight = false;
+	private Neo4jAclSnapshot snapshot;
+	private final ConcurrentMap<FlightKey, Flight> inFlight = new ConcurrentHashMap<FlightKey, Flight>();
+	private final AtomicLong singleFlightLoads = new AtomicLong();
+	private final AtomicLong coalescedLoads = new AtomicLong();
+	private String aggregatedProjectionClause = DEFAULT_AGGREGATED_PROJECTION_CLAUSE;
 
 	private final Field fieldAces = FieldUtils.getField(AclImpl.class, "aces");
 	private final Field fieldAcl = FieldUtils.getField(
@@ -84,6 +138,7 @@ public class Neo4jLookupStrategy implements LookupStrategy {
 		Assert.notNull(permissionGrantingStrategy,
 				"permissionGrantingStrategy required");
 		this.aclCache = aclCache;
+		this.graphDatabaseService = graphDatabaseService;
 		this.aclAuthorizationStrategy = aclAuthorizationStrategy;
 		this.permissionGrantingStrategy = permissionGrantingStrategy;
 		this.neo4jTemplate = new Neo4jTemplate(graphDatabaseService);
@@ -97,6 +152,121 @@ public class Neo4jLookupStrategy implements LookupStrategy {
 	@Override
 	public Map<ObjectIdentity, Acl> readAclsById(List<ObjectIdentity> objects,
 			List<Sid> sids) {
+		// A caller in a transaction may see writes of its own, which must not
+		// be handed to other callers or be replaced by theirs
+		if (singleFlight
+				&& !TransactionSynchronizationManager.isActualTransactionActive()) {
+			return readAclsByIdSingleFlight(objects, sids);
+		}
+		return loadAclsById(objects, sids);
+	}
+
+	/**
+	 * Read Acls, sharing in flight loads with concurrent callers. An Object
+	 * Identity which another thread is already loading, for the same Sids
+	 * when the lookup is Sid filtered, is not queried again but taken from
+	 * that load once it completes. Object Identities in the Acl Cache or the
+	 * Missing Acl Cache are not claimed. The Object Identities claimed by
+	 * this thread are loaded before it waits on others, so two callers can
+	 * not wait on each other. A failed load is rethrown to its waiters.
+	 * 
+	 * @param objects - Object Identities
+	 * @param sids - Sids
+	 * @return Object Identity Acl Map
+	 */
+	private Map<ObjectIdentity, Acl> readAclsByIdSingleFlight(
+			List<ObjectIdentity> objects, List<Sid> sids) {
+		Assert.notEmpty(objects, "Objects to lookup required");
+
+		Set<String> sidKeys = isSidFiltered(sids) ? SidFilteredAclCache
+				.sidKeys(sids) : null;
+		Map<FlightKey, Flight> owned = new HashMap<FlightKey, Flight>();
+		Map<FlightKey, Flight> awaited = new HashMap<FlightKey, Flight>();
+		Set<ObjectIdentity> cached = new HashSet<ObjectIdentity>();
+		List<ObjectIdentity> toLoad = new ArrayList<ObjectIdentity>();
+		for (ObjectIdentity oid : objects) {
+			FlightKey key = new FlightKey(oid, sidKeys);
+			if (owned.containsKey(key) || awaited.containsKey(key)
+					|| cached.contains(oid)) {
+				continue;
+			}
+			if (isCachedOrMissing(oid, sids)) {
+				cached.add(oid);
+				toLoad.add(oid);
+				continue;
+			}
+			Flight flight = new Flight();
+			Flight existing = inFlight.putIfAbsent(key, flight);
+			if (existing == null) {
+				owned.put(key, flight);
+				toLoad.add(oid);
+			} else {
+				awaited.put(key, existing);
+				coalescedLoads.incrementAndGet();
+			}
+		}
+
+		Map<ObjectIdentity, Acl> result = new HashMap<ObjectIdentity, Acl>();
+		RuntimeException failure = null;
+		boolean loaded = false;
+		try {
+			if (!toLoad.isEmpty()) {
+				result.putAll(loadAclsById(toLoad, sids));
+				singleFlightLoads.addAndGet(owned.size());
+			}
+			loaded = true;
+		} catch (RuntimeException e) {
+			failure = e;
+			throw e;
+		} finally {
+			if (!loaded && (failure == null)) {
+				failure = new IllegalStateException("Unable to load Acls");
+			}
+			for (Map.Entry<FlightKey, Flight> entry : owned.entrySet()) {
+				inFlight.remove(entry.getKey(), entry.getValue());
+				entry.getValue().complete(
+						result.get(entry.getKey().objectIdentity), failure);
+			}
+		}
+
+		for (Map.Entry<FlightKey, Flight> entry : awaited.entrySet()) {
+			Acl acl = entry.getValue().await();
+			if (acl != null) {
+				result.put(entry.getKey().objectIdentity, acl);
+			}
+		}
+
+		return result;
+	}
+
+	/**
+	 * Is the Object Identity in the Acl Cache, for the Sids when the lookup
+	 * is Sid filtered, or known to have no Acl
+	 * 
+	 * @param oid - Object Identity
+	 * @param sids - Sids
+	 * @return true if no query is needed
+	 */
+	private boolean isCachedOrMissing(ObjectIdentity oid, List<Sid> sids) {
+		if ((missingAclCache != null) && missingAclCache.isMissing(oid)) {
+			return true;
+		}
+		if (aclCache.getFromCache(oid) != null) {
+			return true;
+		}
+		return isSidFiltered(sids) && (aclCache instanceof SidFilteredAclCache)
+				&& (((SidFilteredAclCache) aclCache).getFromCache(oid, sids) != null);
+	}
+
+	/**
+	 * Read Acls from the cache and load the others from the graph
+	 * 
+	 * @param objects - Object Identities
+	 * @param sids - Sids
+	 * @return Object Identity Acl Map
+	 */
+	private Map<ObjectIdentity, Acl> loadAclsById(List<ObjectIdentity> objects,
+			List<Sid> sids) {
 		Assert.isTrue(batchSize >= 1, "BatchSize must be >= 1");
 		Assert.notEmpty(objects, "Objects to lookup required");
 
@@ -109,6 +279,17 @@ public class Neo4jLookupStrategy implements LookupStrategy {
 
 		Set<ObjectIdentity> currentBatchToLoad = new HashSet<ObjectIdentity>();
 
+		// Batches deferred to the executor. Worker threads cannot see writes
+		// of a transaction bound to the calling thread, so inside one every
+		// batch is loaded inline.
+		boolean concurrent = (executor != null)
+				&& !TransactionSynchronizationManager.isActualTransactionActive();
+		List<Set<ObjectIdentity>> pendingBatches = new ArrayList<Set<ObjectIdentity>>();
+
+		// Generations of the Missing Acl Cache for the Object Identities
+		// queried, taken before the query
+		Map<ObjectIdentity, Long> missingGenerations = new HashMap<ObjectIdentity, Long>();
+
 		for (int i = 0; i < objects.size(); i++) {
 			final ObjectIdentity oid = objects.get(i);
 			boolean aclFound = false;
@@ -118,13 +299,26 @@ public class Neo4jLookupStrategy implements LookupStrategy {
 				aclFound = true;
 			}
 
+			// Skip Object Identities which are known to have no Acl
+			if (!aclFound && (missingAclCache != null)
+					&& missingAclCache.isMissing(oid)) {
+				aclFound = true;
+			}
+
 			// Check cache for the present ACL entry
 			if (!aclFound) {
 				Acl acl = aclCache.getFromCache(oid);
 
+				if ((acl == null) && isSidFiltered(sids)
+						&& (aclCache instanceof SidFilteredAclCache)) {
+					acl = ((SidFilteredAclCache) aclCache).getFromCache(oid,
+							sids);
+				}
+
 				// Ensure any cached element supports all the requested SIDs
 				// (they should always, as our base impl doesn't filter on SID)
 				if (acl != null) {
+					restoreStrategies(acl);
 					if (acl.isSidLoaded(sids)) {
 						result.put(acl.getObjectIdentity(), acl);
 						aclFound = true;
@@ -139,23 +333,38 @@ public class Neo4jLookupStrategy implements LookupStrategy {
 			// Load the ACL from the database
 			if (!aclFound) {
 				currentBatchToLoad.add(oid);
+				if (missingAclCache != null) {
+					missingGenerations.put(oid,
+							missingAclCache.getGeneration(oid));
+				}
 			}
 
 			// Is it time to load from JDBC the currentBatchToLoad?
 			if ((currentBatchToLoad.size() == this.batchSize)
 					|| ((i + 1) == objects.size())) {
+				// Restored Acls hold all their Aces, they would be cached for
+				// the Sids of a filtered lookup as if they held only theirs
+				if ((snapshot != null) && !isSidFiltered(sids)
+						&& (currentBatchToLoad.size() > 0)) {
+					restoreFromSnapshot(currentBatchToLoad, result);
+				}
 				if (currentBatchToLoad.size() > 0) {
-					Map<ObjectIdentity, Acl> loadedBatch = lookupObjectIdentities(
-							currentBatchToLoad, sids);
+					if (concurrent) {
+						pendingBatches.add(new HashSet<ObjectIdentity>(
+								currentBatchToLoad));
+					} else {
+						Map<ObjectIdentity, Acl> loadedBatch = lookupObjectIdentities(
+								currentBatchToLoad, sids);
 
-					// Add loaded batch (all elements 100% initialized) to
-					// results
-					result.putAll(loadedBatch);
+						// Add loaded batch (all elements 100% initialized) to
+						// results
+						result.putAll(loadedBatch);
 
-					// Add the loaded batch to the cache
+						// Add the loaded batch to the cache
 
-					for (Acl loadedAcl : loadedBatch.values()) {
-						aclCache.putInCache((AclImpl) loadedAcl);
+						for (Acl loadedAcl : loadedBatch.values()) {
+							putInCache((MutableAcl) loadedAcl, sids);
+						}
 					}
 
 					currentBatchToLoad.clear();
@@ -163,9 +372,190 @@ public class Neo4jLookupStrategy implements LookupStrategy {
 			}
 		}
 
+		if (pendingBatches.size() == 1) {
+			// Nothing to gain from a hand off, load in the calling thread
+			Map<ObjectIdentity, Acl> loadedBatch = lookupInTransaction(
+					pendingBatches.get(0), sids);
+			result.putAll(loadedBatch);
+			for (Acl loadedAcl : loadedBatch.values()) {
+				putInCache((MutableAcl) loadedAcl, sids);
+			}
+		} else if (pendingBatches.size() > 1) {
+			lookupBatches(pendingBatches, sids, result);
+		}
+
+		if (missingAclCache != null) {
+			for (Map.Entry<ObjectIdentity, Long> entry : missingGenerations
+					.entrySet()) {
+				if (!result.containsKey(entry.getKey())) {
+					missingAclCache.putMissing(entry.getKey(), entry.getValue()
+							.longValue());
+				}
+			}
+		}
+
+		if (snapshot != null) {
+			for (ObjectIdentity oid : result.keySet()) {
+				snapshot.recordAccess(oid);
+			}
+		}
+
 		return result;
 	}
 
+	/**
+	 * Move the Acls of a batch which are valid in the snapshot to the result
+	 * and the cache. Restored Acls hold all their Aces, so only lookups which
+	 * are not Sid filtered restore them.
+	 * 
+	 * @param batch - Object Identities to load, restored ones are removed
+	 * @param result - Acls by Object Identity
+	 */
+	private void restoreFromSnapshot(Set<ObjectIdentity> batch,
+			Map<ObjectIdentity, Acl> result) {
+		for (MutableAcl acl : snapshot.read(batch).values()) {
+			batch.remove(acl.getObjectIdentity());
+			result.put(acl.getObjectIdentity(), acl);
+			aclCache.putInCache(acl);
+		}
+	}
+
+	/**
+	 * Are the Aces of this lookup filtered by Sid
+	 * 
+	 * @param sids - Sids
+	 * @return true if only the Aces of the Sids are loaded
+	 */
+	private boolean isSidFiltered(List<Sid> sids) {
+		return sidFilteredLookup && (sids != null) && !sids.isEmpty();
+	}
+
+	/**
+	 * Put a loaded Acl in the cache. Sid filtered Acls are only cached by a
+	 * {@link SidFilteredAclCache}, never under the plain keys.
+	 * 
+	 * @param acl - Acl
+	 * @param sids - Sids
+	 */
+	private void putInCache(MutableAcl acl, List<Sid> sids) {
+		if (!isSidFiltered(sids)) {
+			aclCache.putInCache(acl);
+		} else if (aclCache instanceof SidFilteredAclCache) {
+			((SidFilteredAclCache) aclCache).putInCache(acl, sids);
+		}
+	}
+
+	/**
+	 * Get a cached Acl by id which holds the Aces of the Sids
+	 * 
+	 * @param id - Acl Id
+	 * @param sids - Sids
+	 * @return Acl or null
+	 */
+	private MutableAcl getFromCache(String id, List<Sid> sids) {
+		MutableAcl cached = aclCache.getFromCache(id);
+		if ((cached == null) && isSidFiltered(sids)
+				&& (aclCache instanceof SidFilteredAclCache)) {
+			cached = ((SidFilteredAclCache) aclCache).getFromCache(id, sids);
+		}
+		if (cached != null) {
+			restoreStrategies(cached);
+		}
+		return cached;
+	}
+
+	/**
+	 * Restore the transient strategies of a cached Neo4jAcl, which are lost
+	 * when the cache serialized it, for example EhCacheBasedAclCache after an
+	 * overflow to disk or with copyOnRead
+	 * 
+	 * @param acl - cached Acl
+	 */
+	private void restoreStrategies(Acl acl) {
+		if (acl instanceof Neo4jAcl) {
+			((Neo4jAcl) acl).strategies(aclAuthorizationStrategy,
+					permissionGrantingStrategy);
+		}
+	}
+
+	/**
+	 * Lookup batches concurrently on the executor, with at most parallelism
+	 * batches in flight. Every batch is read in its own transaction, so only
+	 * committed Acls are seen. Loaded Acls are added to the result and the
+	 * cache by the calling thread.
+	 * 
+	 * @param batches - Batches of Object Identities
+	 * @param sids - Sids
+	 * @param result - Object Identity Acl Map to fill
+	 */
+	private void lookupBatches(List<Set<ObjectIdentity>> batches,
+			final List<Sid> sids, Map<ObjectIdentity, Acl> result) {
+		Assert.isTrue(parallelism >= 1, "Parallelism must be >= 1");
+
+		CompletionService<Map<ObjectIdentity, Acl>> completionService = new ExecutorCompletionService<Map<ObjectIdentity, Acl>>(
+				executor);
+		List<Future<Map<ObjectIdentity, Acl>>> futures = new ArrayList<Future<Map<ObjectIdentity, Acl>>>(
+				batches.size());
+		int completed = 0;
+		try {
+			while (completed < batches.size()) {
+				while (futures.size() < batches.size()
+						&& futures.size() - completed < parallelism) {
+					final Set<ObjectIdentity> batch = batches.get(futures
+							.size());
+					futures.add(completionService
+							.submit(new Callable<Map<ObjectIdentity, Acl>>() {
+								@Override
+								public Map<ObjectIdentity, Acl> call() {
+									return lookupInTransaction(batch, sids);
+								}
+							}));
+				}
+
+				Map<ObjectIdentity, Acl> loadedBatch = completionService
+						.take().get();
+				completed++;
+
+				result.putAll(loadedBatch);
+				for (Acl loadedAcl : loadedBatch.values()) {
+					putInCache((MutableAcl) loadedAcl, sids);
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while loading Acls", e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) e.getCause();
+			}
+			throw new IllegalStateException("Unable to load Acls", e.getCause());
+		} finally {
+			for (Future<Map<ObjectIdentity, Acl>> future : futures) {
+				future.cancel(true);
+			}
+		}
+	}
+
+	/**
+	 * Lookup Object Identities in a transaction of the current thread
+	 * 
+	 * @param objectIdentities - Object Identities
+	 * @param sids - Sids
+	 * @return Object Identity Acl Map
+	 */
+	private Map<ObjectIdentity, Acl> lookupInTransaction(
+			Collection<ObjectIdentity> objectIdentities, List<Sid> sids) {
+		Transaction tx = graphDatabaseService.beginTx();
+		try {
+			Map<ObjectIdentity, Acl> loaded = lookupObjectIdentities(
+					objectIdentities, sids);
+			tx.success();
+			return loaded;
+		} finally {
+			tx.close();
+		}
+	}
+
 	/**
 	 * Lookup Object Identities
 	 * 
@@ -184,57 +574,82 @@ public class Neo4jLookupStrategy implements LookupStrategy {
 
 		// Make the "acls" map contain all requested objectIdentities
 		// (including markers to each parent in the hierarchy)
-		int requiredRepetitions = objectIdentities.size();
-		final String startSql = matchClause;
-
-		final String endSql = returnClause + orderByClause;
-
-		StringBuilder sqlStringBldr = new StringBuilder(startSql.length()
-				+ endSql.length() + requiredRepetitions
-				* (defaultWhereClause.length() + 4));
-		sqlStringBldr.append(startSql);
+		String sql;
+		Map<String, Object> params = new HashMap<String, Object>();
+		boolean sidFiltered = isSidFiltered(sids);
+		String entries = entriesProjection(sidFiltered);
 
-		for (int i = 1; i <= requiredRepetitions; i++) {
-			sqlStringBldr.append(String.format(defaultWhereClause, i, i));
+		if (sidFiltered && !packedEntries) {
+			params.put("sidKeys", new ArrayList<String>(
+					SidFilteredAclCache.sidKeys(sids)));
+		}
 
-			if (i != requiredRepetitions) {
-				sqlStringBldr.append(" OR ");
+		if (parentTraversalLookup) {
+			// Requested Acls and all their ancestors in one result set
+			sql = ancestorAnchorClause + entries;
+			params.put("objectIdentities",
+					toObjectIdentityParameters(objectIdentities));
+		} else if (parameterizedLookup || sidFiltered || packedEntries
+				|| aggregatedLookup) {
+			sql = objectIdentityAnchorClause + entries;
+			params.put("objectIdentities",
+					toObjectIdentityParameters(objectIdentities));
+		} else {
+			int requiredRepetitions = objectIdentities.size();
+			final String startSql = matchClause;
+
+			final String endSql = returnClause + orderByClause;
+
+			StringBuilder sqlStringBldr = new StringBuilder(startSql.length()
+					+ endSql.length() + requiredRepetitions
+					* (defaultWhereClause.length() + 4));
+			sqlStringBldr.append(startSql);
+
+			for (int i = 1; i <= requiredRepetitions; i++) {
+				sqlStringBldr.append(String.format(defaultWhereClause, i, i));
+
+				if (i != requiredRepetitions) {
+					sqlStringBldr.append(" OR ");
+				}
 			}
-		}
 
-		sqlStringBldr.append(endSql);
-		String sql = sqlStringBldr.toString();
+			sqlStringBldr.append(endSql);
+			sql = sqlStringBldr.toString();
 
-		Map<String, Object> params = new HashMap<String, Object>();
-		int index = 1;
-		for (ObjectIdentity oid : objectIdentities) {
-			params.put(String.format("objectIdIdentity%d", index),
-					(Long) oid.getIdentifier());
-			params.put(String.format("className%d", index++), oid.getType());
+			int index = 1;
+			for (ObjectIdentity oid : objectIdentities) {
+				params.put(String.format("objectIdIdentity%d", index),
+						oid.getIdentifier());
+				params.put(String.format("className%d", index++),
+						oid.getType());
+			}
 		}
 
 		Result<Map<String, Object>> queryResult = neo4jTemplate.query(sql,
 				params);
 
-		Set<String> parentsToLookup = new ProcessResult(acls, sids, queryResult)
-				.extractData();
+		Set<String> parentsToLookup = new ProcessResult(acls, sids,
+				queryResult, parentTraversalLookup).extractData();
 
 		// Lookup the parents, now that our JdbcTemplate has released the
-		// database connection (SEC-547)
+		// database connection (SEC-547). With the parent traversal only
+		// parents not linked through CHILD_OF are left to lookup.
 		if (parentsToLookup.size() > 0) {
 			lookupPrimaryKeys(acls, parentsToLookup, sids);
 		}
 
 		// Finally, convert our "acls" containing StubAclParents into true Acls
 		Map<ObjectIdentity, Acl> resultMap = new HashMap<ObjectIdentity, Acl>();
+		Map<String, MutableAcl> converted = new HashMap<String, MutableAcl>();
 
 		for (Acl inputAcl : acls.values()) {
-			Assert.isInstanceOf(AclImpl.class, inputAcl,
-					"Map should have contained an AclImpl");
-			Assert.isInstanceOf(String.class, ((AclImpl) inputAcl).getId(),
+			Assert.isInstanceOf(MutableAcl.class, inputAcl,
+					"Map should have contained a MutableAcl");
+			Assert.isInstanceOf(String.class, ((MutableAcl) inputAcl).getId(),
 					"Acl.getId() must be String");
 
-			Acl result = convert(acls, (String) ((AclImpl) inputAcl).getId());
+			Acl result = convert(acls, (String) ((MutableAcl) inputAcl).getId(),
+					sidFiltered ? sids : null, converted);
 			resultMap.put(result.getObjectIdentity(), result);
 		}
 
@@ -255,39 +670,52 @@ public class Neo4jLookupStrategy implements LookupStrategy {
 
 		// Make the "acls" map contain all requested objectIdentities
 		// (including markers to each parent in the hierarchy)
-		int requiredRepetitions = findNow.size();
-		final String startSql = matchClause;
+		String sql;
+		Map<String, Object> params = new HashMap<String, Object>();
+		boolean sidFiltered = isSidFiltered(sids);
+
+		if (parameterizedLookup || sidFiltered || packedEntries
+				|| aggregatedLookup) {
+			sql = aclIdAnchorClause + entriesProjection(sidFiltered);
+			params.put("aclIds", new ArrayList<String>(findNow));
+			if (sidFiltered && !packedEntries) {
+				params.put("sidKeys", new ArrayList<String>(
+						SidFilteredAclCache.sidKeys(sids)));
+			}
+		} else {
+			int requiredRepetitions = findNow.size();
+			final String startSql = matchClause;
 
-		final String endSql = returnClause + orderByClause;
+			final String endSql = returnClause + orderByClause;
 
-		StringBuilder sqlStringBldr = new StringBuilder(startSql.length()
-				+ endSql.length() + requiredRepetitions
-				* (lookupObjectIdentitiesWhereClause.length() + 4));
-		sqlStringBldr.append(startSql);
+			StringBuilder sqlStringBldr = new StringBuilder(startSql.length()
+					+ endSql.length() + requiredRepetitions
+					* (lookupObjectIdentitiesWhereClause.length() + 4));
+			sqlStringBldr.append(startSql);
 
-		for (int i = 1; i <= requiredRepetitions; i++) {
-			sqlStringBldr.append(String.format(
-					lookupObjectIdentitiesWhereClause, i));
+			for (int i = 1; i <= requiredRepetitions; i++) {
+				sqlStringBldr.append(String.format(
+						lookupObjectIdentitiesWhereClause, i));
 
-			if (i != requiredRepetitions) {
-				sqlStringBldr.append(" OR ");
+				if (i != requiredRepetitions) {
+					sqlStringBldr.append(" OR ");
+				}
 			}
-		}
 
-		sqlStringBldr.append(endSql);
-		String sql = sqlStringBldr.toString();
+			sqlStringBldr.append(endSql);
+			sql = sqlStringBldr.toString();
 
-		Map<String, Object> params = new HashMap<String, Object>();
-		int index = 1;
-		for (String id : findNow) {
-			params.put(String.format("aclId%d", index++), id);
+			int index = 1;
+			for (String id : findNow) {
+				params.put(String.format("aclId%d", index++), id);
+			}
 		}
 
 		Result<Map<String, Object>> queryResult = neo4jTemplate.query(sql,
 				params);
 
-		Set<String> parentsToLookup = new ProcessResult(acls, sids, queryResult)
-				.extractData();
+		Set<String> parentsToLookup = new ProcessResult(acls, sids,
+				queryResult, false).extractData();
 
 		// Lookup the parents, now that our JdbcTemplate has released the
 		// database connection (SEC-547)
@@ -297,36 +725,140 @@ public class Neo4jLookupStrategy implements LookupStrategy {
 	}
 
 	/**
-	 * Convert data to Acl
+	 * Entries and projection part of a parameterized lookup
+	 * 
+	 * @param sidFiltered - only the Aces of the Sids are loaded
+	 * @return clauses following the anchor clause
+	 */
+	private String entriesProjection(boolean sidFiltered) {
+		if (packedEntries) {
+			// Sid filtering of packed Aces happens while converting the row
+			return packedProjectionClause;
+		}
+		String entries = sidFiltered ? sidFilteredEntriesClause
+				: entriesClause;
+		if (aggregatedLookup) {
+			return entries + aggregatedProjectionClause;
+		}
+		return entries + projectionClause + orderByClause;
+	}
+
+	/**
+	 * Lookup statements of the configured mode, by name, so that
+	 * {@link Neo4jAclSchemaInitializer} can check them against the query
+	 * planner. The OR chained statements depend on the batch size and are
+	 * given with a single clause.
+	 * 
+	 * @return name to statement
+	 */
+	public Map<String, String> getLookupStatements() {
+		Map<String, String> statements = new LinkedHashMap<String, String>();
+		boolean anchored = parameterizedLookup || packedEntries
+				|| aggregatedLookup;
+		if (parentTraversalLookup) {
+			statements.put("lookupObjectIdentities", ancestorAnchorClause
+					+ entriesProjection(false));
+		} else if (anchored) {
+			statements.put("lookupObjectIdentities",
+					objectIdentityAnchorClause + entriesProjection(false));
+		} else {
+			statements.put("lookupObjectIdentities", matchClause
+					+ String.format(defaultWhereClause, 1, 1) + returnClause
+					+ orderByClause);
+		}
+		if (anchored) {
+			statements.put("lookupAclIds", aclIdAnchorClause
+					+ entriesProjection(false));
+		} else {
+			statements.put("lookupAclIds", matchClause
+					+ String.format(lookupObjectIdentitiesWhereClause, 1)
+					+ returnClause + orderByClause);
+		}
+		if (sidFilteredLookup && !packedEntries) {
+			statements.put("lookupSidFiltered", objectIdentityAnchorClause
+					+ entriesProjection(true));
+		}
+		return statements;
+	}
+
+	/**
+	 * Convert Object Identities to UNWIND parameters
+	 * 
+	 * @param objectIdentities - Object Identities
+	 * @return List of className/objectIdIdentity pairs
+	 */
+	private List<Map<String, Object>> toObjectIdentityParameters(
+			Collection<ObjectIdentity> objectIdentities) {
+		List<Map<String, Object>> pairs = new ArrayList<Map<String, Object>>(
+				objectIdentities.size());
+		for (ObjectIdentity oid : objectIdentities) {
+			Map<String, Object> pair = new HashMap<String, Object>(4);
+			pair.put("objectIdIdentity", oid.getIdentifier());
+			pair.put("className", oid.getType());
+			pairs.add(pair);
+		}
+		return pairs;
+	}
+
+	/**
+	 * Convert data to Acl. Every Acl id is converted once per batch, so all
+	 * children of a parent reference the same parent instance. Acls without a
+	 * StubAclParent, including those taken from the Acl Cache, are already in
+	 * their final form and are returned as they are. A Neo4jAcl gets its
+	 * converted parent set in place.
 	 * 
 	 * @param inputMap - Input Data map
 	 * @param currentIdentity - Current Identity
+	 * @param loadedSids - Sids the Aces were loaded for, null for all
+	 * @param converted - Acls converted so far in this batch, by id
 	 * @return acl 
 	 */
-	private AclImpl convert(Map<Serializable, Acl> inputMap,
-			String currentIdentity) {
+	private MutableAcl convert(Map<Serializable, Acl> inputMap,
+			String currentIdentity, List<Sid> loadedSids,
+			Map<String, MutableAcl> converted) {
 		Assert.notEmpty(inputMap, "InputMap required");
 		Assert.notNull(currentIdentity, "CurrentIdentity required");
 
+		MutableAcl done = converted.get(currentIdentity);
+		if (done != null) {
+			return done;
+		}
+
 		// Retrieve this Acl from the InputMap
 		Acl uncastAcl = inputMap.get(currentIdentity);
-		Assert.isInstanceOf(AclImpl.class, uncastAcl,
-				"The inputMap contained a non-AclImpl");
+		Assert.isInstanceOf(MutableAcl.class, uncastAcl,
+				"The inputMap contained a non-MutableAcl");
 
-		AclImpl inputAcl = (AclImpl) uncastAcl;
+		MutableAcl mutableAcl = (MutableAcl) uncastAcl;
 
-		Acl parent = inputAcl.getParentAcl();
+		Acl parent = mutableAcl.getParentAcl();
 
-		if ((parent != null) && parent instanceof StubAclParent) {
-			// Lookup the parent
-			StubAclParent stubAclParent = (StubAclParent) parent;
-			parent = convert(inputMap, stubAclParent.getId());
+		if (!(parent instanceof StubAclParent)) {
+			// No stub to replace, the Acl and its Aces can be used as is
+			converted.put(currentIdentity, mutableAcl);
+			return mutableAcl;
 		}
 
+		// Lookup the parent
+		StubAclParent stubAclParent = (StubAclParent) parent;
+		parent = convert(inputMap, stubAclParent.getId(), loadedSids,
+				converted);
+
+		if (mutableAcl instanceof Neo4jAcl) {
+			// Assembled in final form, only the stub has to be replaced
+			((Neo4jAcl) mutableAcl).parent(parent);
+			converted.put(currentIdentity, mutableAcl);
+			return mutableAcl;
+		}
+
+		Assert.isInstanceOf(AclImpl.class, mutableAcl,
+				"The inputMap contained a non-AclImpl");
+		AclImpl inputAcl = (AclImpl) mutableAcl;
+
 		// Now we have the parent (if there is one), create the true AclImpl
 		AclImpl result = new AclImpl(inputAcl.getObjectIdentity(),
 				(String) inputAcl.getId(), aclAuthorizationStrategy,
-				permissionGrantingStrategy, parent, null,
+				permissionGrantingStrategy, parent, loadedSids,
 				inputAcl.isEntriesInheriting(), inputAcl.getOwner());
 
 		// Copy the "aces" from the input to the destination
@@ -351,6 +883,7 @@ public class Neo4jLookupStrategy implements LookupStrategy {
 		// AclImpl instance, modify the "result" AclImpl instance
 		setAces(result, acesNew);
 
+		converted.put(currentIdentity, result);
 		return result;
 	}
 
@@ -418,6 +951,113 @@ public class Neo4jLookupStrategy implements LookupStrategy {
 		}
 	}
 
+	/**
+	 * String value of a result column
+	 * 
+	 * @param value - column value, can be null
+	 * @return String or null
+	 */
+	private static String stringColumn(Object value) {
+		if ((value == null) || (value instanceof String)) {
+			return (String) value;
+		}
+		return value.toString();
+	}
+
+	/**
+	 * Long value of a result column, Strings are only parsed for properties
+	 * which were not written as numbers
+	 * 
+	 * @param value - column value
+	 * @return long
+	 */
+	private static long longColumn(Object value) {
+		if (value instanceof Number) {
+			return ((Number) value).longValue();
+		}
+		return Long.parseLong(value.toString());
+	}
+
+	/**
+	 * Integer value of a result column
+	 * 
+	 * @param value - column value
+	 * @return int
+	 */
+	private static int intColumn(Object value) {
+		if (value instanceof Number) {
+			return ((Number) value).intValue();
+		}
+		return Integer.parseInt(value.toString());
+	}
+
+	/**
+	 * Boolean value of a result column, null is false
+	 * 
+	 * @param value - column value, can be null
+	 * @return boolean
+	 */
+	private static boolean booleanColumn(Object value) {
+		if (value instanceof Boolean) {
+			return ((Boolean) value).booleanValue();
+		}
+		return (value != null) && Boolean.parseBoolean(value.toString());
+	}
+
+	/**
+	 * Sid of a row, shared through the Interning Pool when one is set
+	 * 
+	 * @param principal - Principal Flag
+	 * @param sid - principal or authority
+	 * @return Sid
+	 */
+	private Sid sid(boolean principal, String sid) {
+		return intern(principal ? new PrincipalSid(sid)
+				: new GrantedAuthoritySid(sid));
+	}
+
+	private Sid intern(Sid sid) {
+		return interningPool == null ? sid : interningPool.intern(sid);
+	}
+
+	/**
+	 * Object Identity of a row, shared through the Interning Pool when one is
+	 * set
+	 * 
+	 * @param type - Class Name
+	 * @param identifier - Object Id Identity
+	 * @return Object Identity
+	 */
+	private ObjectIdentity objectIdentity(String type, long identifier) {
+		ObjectIdentity objectIdentity = new ObjectIdentityImpl(type,
+				Long.valueOf(identifier));
+		return interningPool == null ? objectIdentity : interningPool
+				.intern(objectIdentity);
+	}
+
+	/**
+	 * Permission of a mask
+	 * 
+	 * @param mask - Mask
+	 * @return Permission
+	 */
+	private Permission permission(int mask) {
+		return permissionFactory.buildFromMask(mask);
+	}
+
+	/**
+	 * Live Aces of an Acl being assembled, read through reflection for AclImpl
+	 * 
+	 * @param acl - Acl
+	 * @return List of Aces
+	 */
+	private List<AccessControlEntryImpl> entries(MutableAcl acl) {
+		if (acl instanceof Neo4jAcl) {
+			return ((Neo4jAcl) acl).aces();
+		}
+		return readAces((AclImpl) acl);
+	}
+
 	/**
 	 * Set Acl on Ace
 	 * 
@@ -448,6 +1088,78 @@ public class Neo4jLookupStrategy implements LookupStrategy {
 		}
 	}
 
+	/**
+	 * Key of an in flight load, the Sid keys are null when the lookup is not
+	 * Sid filtered
+	 * 
+	 * @author shazin
+	 *
+	 */
+	private static final class FlightKey {
+
+		private final ObjectIdentity objectIdentity;
+		private final Set<String> sidKeys;
+
+		public FlightKey(ObjectIdentity objectIdentity, Set<String> sidKeys) {
+			this.objectIdentity = objectIdentity;
+			this.sidKeys = sidKeys;
+		}
+
+		public boolean equals(Object o) {
+			if (o == this) {
+				return true;
+			}
+
+			if (o instanceof FlightKey) {
+				FlightKey other = (FlightKey) o;
+				return objectIdentity.equals(other.objectIdentity)
+						&& (sidKeys == null ? other.sidKeys == null : sidKeys
+								.equals(other.sidKeys));
+			}
+
+			return false;
+		}
+
+		public int hashCode() {
+			return 31 * objectIdentity.hashCode()
+					+ (sidKeys == null ? 0 : sidKeys.hashCode());
+		}
+	}
+
+	/**
+	 * In flight load of one Object Identity, completed by the thread which
+	 * claimed it
+	 * 
+	 * @author shazin
+	 *
+	 */
+	private static final class Flight {
+
+		private final CountDownLatch done = new CountDownLatch(1);
+		private volatile Acl acl;
+		private volatile RuntimeException failure;
+
+		public void complete(Acl acl, RuntimeException failure) {
+			this.acl = acl;
+			this.failure = failure;
+			done.countDown();
+		}
+
+		public Acl await() {
+			try {
+				done.await();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IllegalStateException(
+						"Interrupted while waiting for Acls", e);
+			}
+			if (failure != null) {
+				throw failure;
+			}
+			return acl;
+		}
+	}
+
 	/**
 	 * Process Result 
 	 * 
@@ -458,13 +1170,17 @@ public class Neo4jLookupStrategy implements LookupStrategy {
 		private final Map<Serializable, Acl> acls;
 		private final List<Sid> sids;
 		private final Result<Map<String, Object>> result;
+		private final boolean ancestorsIncluded;
+		// Ids of Acls taken from the cache, their rows are skipped
+		private final Set<String> cachedAclIds = new HashSet<String>();
 
 		public ProcessResult(Map<Serializable, Acl> acls, List<Sid> sids,
-				Result<Map<String, Object>> result) {
+				Result<Map<String, Object>> result, boolean ancestorsIncluded) {
 			Assert.notNull(acls, "ACLs cannot be null");
 			this.acls = acls;
 			this.sids = sids; // can be null
 			this.result = result;
+			this.ancestorsIncluded = ancestorsIncluded;
 		}
 
 		public Set<String> extractData() {
@@ -476,102 +1192,148 @@ public class Neo4jLookupStrategy implements LookupStrategy {
 			while (rs.hasNext()) {
 				// Convert current row into an Acl (albeit with a StubAclParent)
 				data = rs.next();
-				convertCurrentResultIntoObject(acls, data);
+				String id = stringColumn(data.get("aclId"));
+				String parentId = stringColumn(data.get("parentObject"));
+				if (!useCachedAcl(id)) {
+					convertCurrentResultIntoObject(acls, id, parentId, data);
+				}
 
 				// Figure out if this row means we need to lookup another parent
-				Object parentId = data.get("parentObject");
-
 				if (parentId != null) {
 					// See if it's already in the "acls"
-					if (acls.containsKey(parentId.toString())) {
+					if (acls.containsKey(parentId)) {
 						continue; // skip this while iteration
 					}
 
 					// Now try to find it in the cache
-					MutableAcl cached = aclCache.getFromCache(parentId
-							.toString());
+					MutableAcl cached = getFromCache(parentId, sids);
 
 					if ((cached == null) || !cached.isSidLoaded(sids)) {
-						parentIdsToLookup.add(parentId.toString());
+						parentIdsToLookup.add(parentId);
 					} else {
 						// Pop into the acls map, so our convert method doesn't
 						// need to deal with an unsynchronized AclCache
 						acls.put(cached.getId(), cached);
+						cachedAclIds.add(cached.getId().toString());
 					}
 				}
 			}
 
+			// Parents whose rows came later in the same result set are
+			// already loaded
+			parentIdsToLookup.removeAll(acls.keySet());
+
 			// Return the parents left to lookup to the caller
 			return parentIdsToLookup;
 		}
 
-		private void convertCurrentResultIntoObject(
-				Map<Serializable, Acl> acls, Map<String, Object> rs) {
-			String id = rs.get("aclId").toString();
+		/**
+		 * When ancestors are part of the result set use a cached ancestor
+		 * instead of converting its rows again
+		 * 
+		 * @param id - Acl id of the current row
+		 * @return true if the row belongs to a cached Acl
+		 */
+		private boolean useCachedAcl(String id) {
+			if (cachedAclIds.contains(id)) {
+				return true;
+			}
 
+			if (!ancestorsIncluded || acls.containsKey(id)) {
+				return false;
+			}
+
+			MutableAcl cached = getFromCache(id, sids);
+
+			if ((cached != null) && cached.isSidLoaded(sids)) {
+				acls.put(id, cached);
+				cachedAclIds.add(id);
+				return true;
+			}
+
+			return false;
+		}
+
+		/**
+		 * Convert the current row. Columns are read with their Cypher types,
+		 * Strings, Longs and Booleans, instead of being parsed from Strings.
+		 * 
+		 * @param acls - Acls of the batch
+		 * @param id - Acl id of the row
+		 * @param parentId - parent Acl id of the row, can be null
+		 * @param rs - current row
+		 */
+		private void convertCurrentResultIntoObject(
+				Map<Serializable, Acl> acls, String id, String parentId,
+				Map<String, Object> rs) {
 			// If we already have an ACL for this ID, just create the ACE
 			Acl acl = acls.get(id);
 
 			if (acl == null) {
 				// Make an AclImpl and pop it into the Map
-				ObjectIdentity objectIdentity = new ObjectIdentityImpl(rs.get(
-						"className").toString(), Long.valueOf(rs.get(
-						"objectIdIdentity").toString()));
+				ObjectIdentity objectIdentity = objectIdentity(
+						stringColumn(rs.get("className")),
+						longColumn(rs.get("objectIdIdentity")));
 
 				Acl parentAcl = null;
-				Object parentAclId = rs.get("parentObject");
 
-				if (parentAclId != null) {
-					parentAcl = new StubAclParent(parentAclId.toString());
+				if (parentId != null) {
+					parentAcl = new StubAclParent(parentId);
 				}
 
-				boolean entriesInheriting = Boolean.valueOf(rs.get(
-						"entriesInheriting").toString());
-				Sid owner;
-
-				if (Boolean.valueOf(rs.get("aclPrincipal").toString())) {
-					owner = new PrincipalSid(rs.get("aclSid").toString());
+				boolean entriesInheriting = booleanColumn(rs
+						.get("entriesInheriting"));
+				Sid owner = sid(booleanColumn(rs.get("aclPrincipal")),
+						stringColumn(rs.get("aclSid")));
+
+				if (directAssembly) {
+					acl = new Neo4jAcl(objectIdentity, id,
+							aclAuthorizationStrategy,
+							permissionGrantingStrategy, parentAcl,
+							isSidFiltered(sids) ? sids : null,
+							entriesInheriting, owner, expectedAces(rs));
 				} else {
-					owner = new GrantedAuthoritySid(rs.get("aclSid").toString());
+					acl = new AclImpl(objectIdentity, id,
+							aclAuthorizationStrategy,
+							permissionGrantingStrategy, parentAcl,
+							isSidFiltered(sids) ? sids : null,
+							entriesInheriting, owner);
 				}
 
-				acl = new AclImpl(objectIdentity, id, aclAuthorizationStrategy,
-						permissionGrantingStrategy, parentAcl, null,
-						entriesInheriting, owner);
-
 				acls.put(id, acl);
 			}
 
+			if (packedEntries) {
+				convertPackedEntries((MutableAcl) acl, rs);
+				return;
+			}
+
+			if (aggregatedLookup) {
+				convertAggregatedEntries((MutableAcl) acl, rs);
+				return;
+			}
+
 			// Add an extra ACE to the ACL (ORDER BY maintains the ACE list
 			// order)
 			// It is permissible to have no ACEs in an ACL (which is detected by
 			// a null ACE_SID)
-			if (rs.get("aceSid") != null) {
-				String aceId = rs.get("aceId").toString();
-				Sid recipient;
-
-				if (Boolean.valueOf(rs.get("acePrincipal").toString())) {
-					recipient = new PrincipalSid(rs.get("aceSid").toString());
-				} else {
-					recipient = new GrantedAuthoritySid(rs.get("aceSid")
-							.toString());
-				}
-
-				int mask = Integer.parseInt(rs.get("mask").toString());
-				Permission permission = permissionFactory.buildFromMask(mask);
-				boolean granting = Boolean.valueOf(rs.get("granting")
-						.toString());
-				boolean auditSuccess = Boolean.valueOf(rs.get("auditSuccess")
-						.toString());
-				boolean auditFailure = Boolean.valueOf(rs.get("auditFailure")
-						.toString());
+			String aceSid = stringColumn(rs.get("aceSid"));
+			if (aceSid != null) {
+				String aceId = stringColumn(rs.get("aceId"));
+				Sid recipient = sid(booleanColumn(rs.get("acePrincipal")),
+						aceSid);
+
+				int mask = intColumn(rs.get("mask"));
+				Permission permission = permission(mask);
+				boolean granting = booleanColumn(rs.get("granting"));
+				boolean auditSuccess = booleanColumn(rs.get("auditSuccess"));
+				boolean auditFailure = booleanColumn(rs.get("auditFailure"));
 
 				AccessControlEntryImpl ace = new AccessControlEntryImpl(aceId,
 						acl, recipient, permission, granting, auditSuccess,
 						auditFailure);
 
-				// Field acesField = FieldUtils.getField(AclImpl.class, "aces");
-				List<AccessControlEntryImpl> aces = readAces((AclImpl) acl);
+				List<AccessControlEntryImpl> aces = entries((MutableAcl) acl);
 
 				// Add the ACE if it doesn't already exist in the ACL.aces field
 				if (!aces.contains(ace)) {
@@ -579,6 +1341,124 @@ public class Neo4jLookupStrategy implements LookupStrategy {
 				}
 			}
 		}
+
+		/**
+		 * Number of Aces the row holds for its Acl, used to size the Ace list
+		 * when the Acl is assembled directly. Row per Ace lookups use the
+		 * ArrayList default.
+		 * 
+		 * @param rs - current row
+		 * @return expected number of Aces
+		 */
+		private int expectedAces(Map<String, Object> rs) {
+			if (packedEntries) {
+				return Neo4jPackedEntries.length(rs.get("aceIds"));
+			}
+			if (aggregatedLookup) {
+				Object entries = rs.get("aces");
+				return entries == null ? 0 : ((List<?>) entries).size();
+			}
+			return 10;
+		}
+
+		/**
+		 * Add the collected Aces of the row to the Acl. The row is the only
+		 * one of its Acl, so no duplicate checks are needed. Ace orders are
+		 * written as 0..n-1, each Ace is placed in its slot and the list is
+		 * only sorted when the orders have gaps.
+		 * 
+		 * @param acl - Acl of the row
+		 * @param rs - current row
+		 */
+		@SuppressWarnings("unchecked")
+		private void convertAggregatedEntries(MutableAcl acl,
+				Map<String, Object> rs) {
+			List<Map<String, Object>> entries = (List<Map<String, Object>>) rs
+					.get("aces");
+			if ((entries == null) || entries.isEmpty()) {
+				return;
+			}
+
+			int size = entries.size();
+			AccessControlEntryImpl[] slots = new AccessControlEntryImpl[size];
+			final int[] aceOrders = new int[size];
+			AccessControlEntryImpl[] built = new AccessControlEntryImpl[size];
+			boolean contiguous = true;
+			for (int i = 0; i < size; i++) {
+				Map<String, Object> entry = entries.get(i);
+				Sid recipient = sid(Boolean.TRUE.equals(entry.get("principal")),
+						(String) entry.get("sid"));
+
+				built[i] = new AccessControlEntryImpl((String) entry.get("id"),
+						acl, recipient, permission(((Number) entry.get("mask"))
+								.intValue()), Boolean.TRUE.equals(entry
+								.get("granting")), Boolean.TRUE.equals(entry
+								.get("auditSuccess")), Boolean.TRUE
+								.equals(entry.get("auditFailure")));
+
+				int aceOrder = ((Number) entry.get("aceOrder")).intValue();
+				aceOrders[i] = aceOrder;
+				if (contiguous && (aceOrder >= 0) && (aceOrder < size)
+						&& (slots[aceOrder] == null)) {
+					slots[aceOrder] = built[i];
+				} else {
+					contiguous = false;
+				}
+			}
+
+			List<AccessControlEntryImpl> aces = entries(acl);
+			if (contiguous) {
+				aces.addAll(Arrays.asList(slots));
+			} else {
+				Integer[] positions = new Integer[size];
+				for (int i = 0; i < size; i++) {
+					positions[i] = i;
+				}
+				Arrays.sort(positions, new Comparator<Integer>() {
+					@Override
+					public int compare(Integer a, Integer b) {
+						return aceOrders[a] < aceOrders[b] ? -1
+								: (aceOrders[a] == aceOrders[b] ? 0 : 1);
+					}
+				});
+				for (Integer position : positions) {
+					aces.add(built[position]);
+				}
+			}
+		}
+
+		/**
+		 * Add the packed Aces of the row, in array order, to the Acl. When the
+		 * lookup is Sid filtered only the Aces of the Sids are added.
+		 * 
+		 * @param acl - Acl of the row
+		 * @param rs - current row
+		 */
+		private void convertPackedEntries(MutableAcl acl, Map<String, Object> rs) {
+			Object aceIds = rs.get("aceIds");
+			Object aceSids = rs.get("aceSids");
+			Object aceMasks = rs.get("aceMasks");
+			Object aceFlags = rs.get("aceFlags");
+			Set<String> sidKeys = isSidFiltered(sids) ? SidFilteredAclCache
+					.sidKeys(sids) : null;
+			List<AccessControlEntryImpl> aces = entries(acl);
+
+			for (int i = 0; i < Neo4jPackedEntries.length(aceIds); i++) {
+				String sidKey = (String) Neo4jPackedEntries.get(aceSids, i);
+				if ((sidKeys != null) && !sidKeys.contains(sidKey)) {
+					continue;
+				}
+				int flags = Neo4jPackedEntries.getInt(aceFlags, i);
+
+				aces.add(new AccessControlEntryImpl((String) Neo4jPackedEntries
+						.get(aceIds, i), acl, intern(Neo4jPackedEntries
+						.toSid(sidKey)), permission(Neo4jPackedEntries.getInt(
+						aceMasks, i)),
+						(flags & Neo4jPackedEntries.GRANTING) != 0,
+						(flags & Neo4jPackedEntries.AUDIT_SUCCESS) != 0,
+						(flags & Neo4jPackedEntries.AUDIT_FAILURE) != 0));
+			}
+		}
 	}
 
 	/**
@@ -745,6 +1625,136 @@ public class Neo4jLookupStrategy implements LookupStrategy {
 		this.returnClause = returnClause;
 	}
 
+	/**
+	 * Is Parameterized Lookup
+	 * 
+	 * @return parameterizedLookup
+	 */
+	public boolean isParameterizedLookup() {
+		return parameterizedLookup;
+	}
+
+	/**
+	 * Set Parameterized Lookup. When enabled batches are looked up with a
+	 * single fixed UNWIND/IN statement taking list parameters instead of the
+	 * OR chained where clauses.
+	 * 
+	 * @param parameterizedLookup
+	 */
+	public void setParameterizedLookup(boolean parameterizedLookup) {
+		this.parameterizedLookup = parameterizedLookup;
+	}
+
+	/**
+	 * Is Parent Traversal Lookup
+	 * 
+	 * @return parentTraversalLookup
+	 */
+	public boolean isParentTraversalLookup() {
+		return parentTraversalLookup;
+	}
+
+	/**
+	 * Set Parent Traversal Lookup. When enabled the first query also returns
+	 * every ancestor Acl by following CHILD_OF relationships, instead of one
+	 * query per level of the hierarchy.
+	 * 
+	 * @param parentTraversalLookup
+	 */
+	public void setParentTraversalLookup(boolean parentTraversalLookup) {
+		this.parentTraversalLookup = parentTraversalLookup;
+	}
+
+	/**
+	 * Get Ancestor Anchor Clause
+	 * 
+	 * @return ancestorAnchorClause
+	 */
+	public String getAncestorAnchorClause() {
+		return ancestorAnchorClause;
+	}
+
+	/**
+	 * Set Ancestor Anchor Clause
+	 * 
+	 * @param ancestorAnchorClause
+	 */
+	public void setAncestorAnchorClause(String ancestorAnchorClause) {
+		this.ancestorAnchorClause = ancestorAnchorClause;
+	}
+
+	/**
+	 * Get Object Identity Anchor Clause
+	 * 
+	 * @return objectIdentityAnchorClause
+	 */
+	public String getObjectIdentityAnchorClause() {
+		return objectIdentityAnchorClause;
+	}
+
+	/**
+	 * Set Object Identity Anchor Clause
+	 * 
+	 * @param objectIdentityAnchorClause
+	 */
+	public void setObjectIdentityAnchorClause(String objectIdentityAnchorClause) {
+		this.objectIdentityAnchorClause = objectIdentityAnchorClause;
+	}
+
+	/**
+	 * Get Acl Id Anchor Clause
+	 * 
+	 * @return aclIdAnchorClause
+	 */
+	public String getAclIdAnchorClause() {
+		return aclIdAnchorClause;
+	}
+
+	/**
+	 * Set Acl Id Anchor Clause
+	 * 
+	 * @param aclIdAnchorClause
+	 */
+	public void setAclIdAnchorClause(String aclIdAnchorClause) {
+		this.aclIdAnchorClause = aclIdAnchorClause;
+	}
+
+	/**
+	 * Get Entries Clause
+	 * 
+	 * @return entriesClause
+	 */
+	public String getEntriesClause() {
+		return entriesClause;
+	}
+
+	/**
+	 * Set Entries Clause
+	 * 
+	 * @param entriesClause
+	 */
+	public void setEntriesClause(String entriesClause) {
+		this.entriesClause = entriesClause;
+	}
+
+	/**
+	 * Get Projection Clause
+	 * 
+	 * @return projectionClause
+	 */
+	public String getProjectionClause() {
+		return projectionClause;
+	}
+
+	/**
+	 * Set Projection Clause
+	 * 
+	 * @param projectionClause
+	 */
+	public void setProjectionClause(String projectionClause) {
+		this.projectionClause = projectionClause;
+	}
+
 	/**
 	 * Get Acl Cache
 	 * 
@@ -763,4 +1773,294 @@ public class Neo4jLookupStrategy implements LookupStrategy {
 		return aclAuthorizationStrategy;
 	}
 
+	/**
+	 * Get Executor
+	 * 
+	 * @return executor
+	 */
+	public Executor getExecutor() {
+		return executor;
+	}
+
+	/**
+	 * Set Executor, when set cache misses spanning more than one batch are
+	 * loaded concurrently. Without an executor, or when the calling thread
+	 * has a transaction active, batches are loaded one after another by the
+	 * calling thread.
+	 * 
+	 * @param executor
+	 */
+	public void setExecutor(Executor executor) {
+		this.executor = executor;
+	}
+
+	/**
+	 * Get Parallelism
+	 * 
+	 * @return parallelism
+	 */
+	public int getParallelism() {
+		return parallelism;
+	}
+
+	/**
+	 * Set Parallelism, the maximum number of batches loaded at the same time
+	 * 
+	 * @param parallelism
+	 */
+	public void setParallelism(int parallelism) {
+		this.parallelism = parallelism;
+	}
+
+	/**
+	 * Is Sid Filtered Lookup
+	 * 
+	 * @return sidFilteredLookup
+	 */
+	public boolean isSidFilteredLookup() {
+		return sidFilteredLookup;
+	}
+
+	/**
+	 * Set Sid Filtered Lookup, when set and Sids are passed to readAclsById
+	 * only the Aces of those Sids are loaded. The Acls report the Sids through
+	 * isSidLoaded and are only cached by a {@link SidFilteredAclCache}.
+	 * 
+	 * @param sidFilteredLookup
+	 */
+	public void setSidFilteredLookup(boolean sidFilteredLookup) {
+		this.sidFilteredLookup = sidFilteredLookup;
+	}
+
+	/**
+	 * Get Sid Filtered Entries Clause
+	 * 
+	 * @return sidFilteredEntriesClause
+	 */
+	public String getSidFilteredEntriesClause() {
+		return sidFilteredEntriesClause;
+	}
+
+	/**
+	 * Set Sid Filtered Entries Clause
+	 * 
+	 * @param sidFilteredEntriesClause
+	 */
+	public void setSidFilteredEntriesClause(String sidFilteredEntriesClause) {
+		this.sidFilteredEntriesClause = sidFilteredEntriesClause;
+	}
+
+	/**
+	 * Is the packed Ace storage format used
+	 * 
+	 * @return packedEntries
+	 */
+	public boolean isPackedEntries() {
+		return packedEntries;
+	}
+
+	/**
+	 * Set whether Aces are read from the packed array properties of the Acl
+	 * Node instead of Ace Nodes, see {@link Neo4jPackedEntries}. Lookups use
+	 * the parameterized anchors and read one row per Acl. Must match the
+	 * format written by the Mutable Acl Service. The in-graph permission
+	 * checks of {@link Neo4jAclService} then read the packed array
+	 * properties.
+	 * 
+	 * @param packedEntries
+	 */
+	public void setPackedEntries(boolean packedEntries) {
+		this.packedEntries = packedEntries;
+	}
+
+	/**
+	 * Get Packed Projection Clause
+	 * 
+	 * @return packedProjectionClause
+	 */
+	public String getPackedProjectionClause() {
+		return packedProjectionClause;
+	}
+
+	/**
+	 * Set Packed Projection Clause
+	 * 
+	 * @param packedProjectionClause
+	 */
+	public void setPackedProjectionClause(String packedProjectionClause) {
+		this.packedProjectionClause = packedProjectionClause;
+	}
+
+	/**
+	 * Is the aggregated lookup used
+	 * 
+	 * @return aggregatedLookup
+	 */
+	public boolean isAggregatedLookup() {
+		return aggregatedLookup;
+	}
+
+	/**
+	 * Set whether lookups return one row per Acl with its Aces collected into
+	 * a list, instead of one row per Ace sorted across the whole batch.
+	 * Lookups use the parameterized anchors.
+	 * 
+	 * @param aggregatedLookup
+	 */
+	public void setAggregatedLookup(boolean aggregatedLookup) {
+		this.aggregatedLookup = aggregatedLookup;
+	}
+
+	/**
+	 * Get Aggregated Projection Clause
+	 * 
+	 * @return aggregatedProjectionClause
+	 */
+	public String getAggregatedProjectionClause() {
+		return aggregatedProjectionClause;
+	}
+
+	/**
+	 * Set Aggregated Projection Clause
+	 * 
+	 * @param aggregatedProjectionClause
+	 */
+	public void setAggregatedProjectionClause(
+			String aggregatedProjectionClause) {
+		this.aggregatedProjectionClause = aggregatedProjectionClause;
+	}
+
+	/**
+	 * Is Direct Assembly
+	 * 
+	 * @return directAssembly
+	 */
+	public boolean isDirectAssembly() {
+		return directAssembly;
+	}
+
+	/**
+	 * Set whether Acls are assembled as {@link Neo4jAcl}, which takes its Aces
+	 * and parent without reflection and keeps them in place when stub parents
+	 * are replaced, instead of AclImpl. Neo4jAcl is not restored by
+	 * EhCacheBasedAclCache, so use it with a cache which keeps Acls on heap.
+	 * 
+	 * @param directAssembly
+	 */
+	public void setDirectAssembly(boolean directAssembly) {
+		this.directAssembly = directAssembly;
+	}
+
+	/**
+	 * Get Interning Pool
+	 * 
+	 * @return interningPool
+	 */
+	public Neo4jInterningPool getInterningPool() {
+		return interningPool;
+	}
+
+	/**
+	 * Set Interning Pool, which lets equal Sids and Object Identities of
+	 * looked up Acls share one instance. Nothing is pooled when null.
+	 * 
+	 * @param interningPool
+	 */
+	public void setInterningPool(Neo4jInterningPool interningPool) {
+		this.interningPool = interningPool;
+	}
+
+	/**
+	 * Get Missing Acl Cache
+	 * 
+	 * @return missingAclCache
+	 */
+	public MissingAclCache getMissingAclCache() {
+		return missingAclCache;
+	}
+
+	/**
+	 * Set Missing Acl Cache, which remembers Object Identities a lookup found
+	 * no Acl for and skips them in later lookups until they expire or an Acl
+	 * is created for them. Nothing is remembered when null.
+	 * 
+	 * @param missingAclCache
+	 */
+	public void setMissingAclCache(MissingAclCache missingAclCache) {
+		this.missingAclCache = missingAclCache;
+	}
+
+	/**
+	 * Is Single Flight
+	 * 
+	 * @return singleFlight
+	 */
+	public boolean isSingleFlight() {
+		return singleFlight;
+	}
+
+	/**
+	 * Set whether concurrent lookups of the same Object Identity share one
+	 * load from the graph instead of each querying it. Lookups made while a
+	 * transaction is active never share loads.
+	 * 
+	 * @param singleFlight
+	 */
+	public void setSingleFlight(boolean singleFlight) {
+		this.singleFlight = singleFlight;
+	}
+
+	/**
+	 * Get Snapshot
+	 * 
+	 * @return snapshot
+	 */
+	public Neo4jAclSnapshot getSnapshot() {
+		return snapshot;
+	}
+
+	/**
+	 * Set Snapshot which Acls missing from the cache are restored from before
+	 * they are queried, in lookups which are not Sid filtered, and which is
+	 * told the Object Identities looked up.
+	 * The Acl Cache and strategies the snapshot does not have yet are set to
+	 * those of this Lookup Strategy.
+	 * 
+	 * @param snapshot
+	 */
+	public void setSnapshot(Neo4jAclSnapshot snapshot) {
+		this.snapshot = snapshot;
+		if (snapshot == null) {
+			return;
+		}
+		if (snapshot.getAclCache() == null) {
+			snapshot.setAclCache(aclCache);
+		}
+		if (snapshot.getAclAuthorizationStrategy() == null) {
+			snapshot.setAclAuthorizationStrategy(aclAuthorizationStrategy);
+		}
+		if (snapshot.getPermissionGrantingStrategy() == null) {
+			snapshot.setPermissionGrantingStrategy(permissionGrantingStrategy);
+		}
+	}
+
+	/**
+	 * Get Single Flight Loads
+	 * 
+	 * @return number of Object Identities loaded by the claiming lookup
+	 */
+	public long getSingleFlightLoads() {
+		return singleFlightLoads.get();
+	}
+
+	/**
+	 * Get Coalesced Loads
+	 * 
+	 * @return number of Object Identities taken from the load of a concurrent
+	 *         lookup instead of being queried
+	 */
+	public long getCoalescedLoads() {
+		return coalescedLoads.get();
+	}
+
 }
@@ -1,15 +1,22 @@
 package org.springframework.security.acls.neo4j;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.UUID;
 
 import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Transaction;
 import org.springframework.dao.DataAccessException;
 import org.springframework.data.neo4j.conversion.Result;
 import org.springframework.security.acls.domain.AccessControlEntryImpl;
+import org.springframework.security.acls.domain.AclImpl;
 import org.springframework.security.acls.domain.GrantedAuthoritySid;
 import org.springframework.security.acls.domain.ObjectIdentityImpl;
 import org.springframework.security.acls.domain.PrincipalSid;
@@ -30,9 +37,12 @@ import org.springframework.security.acls.neo4j.model.ClassNode;
 import org.springframework.security.acls.neo4j.model.SidNode;
 import org.springframework.security.core.Authentication;
 import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.transaction.annotation.Propagation;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
 import org.springframework.transaction.support.TransactionSynchronizationManager;
 import org.springframework.util.Assert;
+import org.springframework.util.ObjectUtils;
 
 /**
  * Neo4j based Mutable Acl Service Implementation
@@ -47,8 +57,25 @@ public class Neo4jMutableAclService extends Neo4jAclService implements
 	private String selectObjectIdentity = "MATCH (class:ClassNode)<-[:SECURES]-(acl:AclNode) WHERE acl.objectIdIdentity = {objectIdIdentity} AND class.className = {className} RETURN acl";
 	private String selectSid = "MATCH (sid:SidNode) WHERE sid.sid = {sid} AND sid.principal = {principal} RETURN sid";
 	private String selectClass = "MATCH (class:ClassNode) WHERE class.className = {className} RETURN class";
-	private String deleteEntryByObjectIdentityId = "MATCH (acl:AclNode) OPTIONAL MATCH (acl)<-[c:COMPOSES]-(ace:AceNode)-[a:AUTHORIZES]->(sid:SidNode) WHERE acl.id = {aclId} DELETE c, a, ace";
-	private String deleteObjectIdentityByObjectIdentityId = "MATCH (owner:SidNode)<-[o:OWNED_BY]-(acl:AclNode)-[s:SECURES]->(class:ClassNode) WHERE acl.id = {aclId} DELETE s, o, acl";
+	private String deleteEntryByObjectIdentityId = "MATCH (acl:AclNode) WHERE acl.id = {aclId} MATCH (acl)<-[c:COMPOSES]-(ace:AceNode)-[a:AUTHORIZES]->(sid:SidNode) DELETE c, a, ace";
+	private String deleteObjectIdentityByObjectIdentityId = "MATCH (acl:AclNode) WHERE acl.id = {aclId} MATCH (owner:SidNode)<-[o:OWNED_BY]-(acl)-[s:SECURES]->(class:ClassNode) OPTIONAL MATCH (acl)-[p:CHILD_OF]->() DELETE p, s, o, acl";
+	private String selectChildByObjectIdentityId = "MATCH (acl:AclNode) WHERE acl.id = {aclId} MATCH (acl)<-[:CHILD_OF]-(child:AclNode) RETURN child.id AS childId LIMIT 1";
+	private String selectSubtreeByObjectIdentity = "MATCH (root:AclNode) WHERE root.objectIdIdentity = {objectIdIdentity} MATCH (root)-[:SECURES]->(rootClass:ClassNode) WHERE rootClass.className = {className} MATCH path = (acl:AclNode)-[:CHILD_OF*0..]->(root) WITH acl, max(length(path)) AS depth MATCH (acl)-[:SECURES]->(class:ClassNode) RETURN acl.id AS aclId, acl.objectIdIdentity AS objectIdIdentity, class.className AS className ORDER BY depth DESC";
+	private String deleteEntriesByObjectIdentityIds = "MATCH (acl:AclNode) WHERE acl.id IN {aclIds} MATCH (acl)<-[:COMPOSES]-(ace:AceNode) OPTIONAL MATCH (ace)-[r]-() WITH ace, collect(r) AS rels FOREACH (r IN rels | DELETE r) DELETE ace";
+	private String deleteObjectIdentitiesByObjectIdentityIds = "MATCH (acl:AclNode) WHERE acl.id IN {aclIds} OPTIONAL MATCH (acl)-[r]-() WITH acl, collect(r) AS rels FOREACH (r IN rels | DELETE r) DELETE acl";
+	private int deleteChunkSize = 1000;
+	private boolean commitPerDeleteChunk = false;
+	private String mergeObjectIdentity = "MERGE (class:ClassNode {className: {className}}) ON CREATE SET class:_ClassNode, class.id = {classId} MERGE (owner:SidNode {sid: {sid}, principal: {principal}}) ON CREATE SET owner:_SidNode, owner.id = {sidId} MERGE (class)<-[:SECURES]-(acl:AclNode {objectIdIdentity: {objectIdIdentity}}) ON CREATE SET acl:_AclNode, acl.id = {aclId}, acl.entriesInheriting = true FOREACH (o IN CASE WHEN acl.id = {aclId} THEN [owner] ELSE [] END | CREATE (acl)-[:OWNED_BY]->(o)) RETURN acl.id AS aclId";
+	private String mergeObjectIdentities = "MERGE (owner:SidNode {sid: {sid}, principal: {principal}}) ON CREATE SET owner:_SidNode, owner.id = {sidId} WITH owner UNWIND {objectIdentities} AS oid MERGE (class:ClassNode {className: oid.className}) ON CREATE SET class:_ClassNode, class.id = oid.classId MERGE (class)<-[:SECURES]-(acl:AclNode {objectIdIdentity: oid.objectIdIdentity}) ON CREATE SET acl:_AclNode, acl.id = oid.aclId, acl.entriesInheriting = true FOREACH (o IN CASE WHEN acl.id = oid.aclId THEN [owner] ELSE [] END | CREATE (acl)-[:OWNED_BY]->(o)) RETURN acl.id AS aclId, oid.aclId AS requestedAclId, oid.objectIdIdentity AS objectIdIdentity, oid.className AS className";
+	private int createBatchSize = 1000;
+	private String selectEntriesByObjectIdentity = "MATCH (acl:AclNode) WHERE acl.objectIdIdentity = {objectIdIdentity} MATCH (acl)-[:SECURES]->(class:ClassNode) WHERE class.className = {className} OPTIONAL MATCH (acl)<-[:COMPOSES]-(ace:AceNode)-[:AUTHORIZES]->(sid:SidNode) RETURN acl.id AS aclId, ace.id AS aceId, ace.aceOrder AS aceOrder, ace.mask AS mask, ace.granting AS granting, ace.auditSuccess AS auditSuccess, ace.auditFailure AS auditFailure, sid.sid AS sid, sid.principal AS principal";
+	private String updateEntriesByObjectIdentityId = "MATCH (acl:AclNode) WHERE acl.id = {aclId} OPTIONAL MATCH (acl)<-[c:COMPOSES]-(ace:AceNode)-[a:AUTHORIZES]->() WITH acl, collect(ace) AS aces, collect(c) AS composes, collect(a) AS authorizes FOREACH (r IN filter(x IN composes WHERE startNode(x).id IN {deletedAceIds}) | DELETE r) FOREACH (r IN filter(x IN authorizes WHERE startNode(x).id IN {deletedAceIds}) | DELETE r) FOREACH (n IN filter(x IN aces WHERE x.id IN {deletedAceIds}) | DELETE n) FOREACH (u IN {updatedAces} | FOREACH (n IN filter(x IN aces WHERE x.id = u.id) | SET n.aceOrder = u.aceOrder, n.mask = u.mask, n.granting = u.granting, n.auditSuccess = u.auditSuccess, n.auditFailure = u.auditFailure)) FOREACH (i IN {insertedAces} | MERGE (sid:SidNode {sid: i.sid, principal: i.principal}) ON CREATE SET sid:_SidNode, sid.id = i.sidId CREATE (ace:AceNode:_AceNode {id: i.id, aceOrder: i.aceOrder, mask: i.mask, granting: i.granting, auditSuccess: i.auditSuccess, auditFailure: i.auditFailure}) CREATE (ace)-[:COMPOSES]->(acl) CREATE (ace)-[:AUTHORIZES]->(sid))";
+	private boolean diffBasedUpdate = false;
+	private boolean packedEntries = false;
+	private String updatePackedEntriesByObjectIdentity = "MATCH (acl:AclNode) WHERE acl.objectIdIdentity = {objectIdIdentity} MATCH (acl)-[:SECURES]->(class:ClassNode) WHERE class.className = {className} SET acl.aceIds = {aceIds}, acl.aceSids = {aceSids}, acl.aceMasks = {aceMasks}, acl.aceFlags = {aceFlags} RETURN acl.id AS aclId";
+	private String updateParentByObjectIdentityId = "MATCH (acl:AclNode) WHERE acl.id = {aclId} OPTIONAL MATCH (acl)-[p:CHILD_OF]->() DELETE p WITH DISTINCT acl MATCH (parent:AclNode) WHERE parent.id = {parentId} CREATE (acl)-[:CHILD_OF]->(parent)";
+	private boolean versionStamping = false;
+	private String incrementVersions = "MATCH (acl:AclNode) WHERE acl.id IN {aclIds} SET acl.version = coalesce(acl.version, 0) + 1";
 
 	/**
 	 * Constructor
@@ -71,28 +98,205 @@ public class Neo4jMutableAclService extends Neo4jAclService implements
 			throws AlreadyExistsException {
 		Assert.notNull(objectIdentity, "Object Identity required");
 
-		// Check this object identity hasn't already been persisted
-		if (retrieveObjectIdentityId(objectIdentity) != null) {
-			throw new AlreadyExistsException("Object identity '"
-					+ objectIdentity + "' already exists");
-		}
-
 		// Need to retrieve the current principal, in order to know who "owns"
 		// this ACL (can be changed later on)
 		Authentication auth = SecurityContextHolder.getContext()
 				.getAuthentication();
 		PrincipalSid sid = new PrincipalSid(auth);
+		evictMissing(objectIdentity);
+		evictOnRollback(Collections.singletonList(objectIdentity));
 
-		// Create the acl_object_identity row
-		createObjectIdentity(objectIdentity, sid);
+		// Upsert class, owner and acl in one statement, an existing acl keeps
+		// its id so a different id means it has already been persisted
+		String aclId = UUID.randomUUID().toString();
+		Map<String, Object> params = new HashMap<String, Object>();
+		putSid(params, sid);
+		params.put("sidId", UUID.randomUUID().toString());
+		params.put("className", objectIdentity.getType());
+		params.put("classId", UUID.randomUUID().toString());
+		params.put("objectIdIdentity", (Long) objectIdentity.getIdentifier());
+		params.put("aclId", aclId);
+		Map<String, Object> data = neo4jTemplate.query(mergeObjectIdentity,
+				params).singleOrNull();
+
+		if (data == null || !aclId.equals(data.get("aclId"))) {
+			throw new AlreadyExistsException("Object identity '"
+					+ objectIdentity + "' already exists");
+		}
+
+		MutableAcl acl = newAcl(objectIdentity, aclId, sid);
+		if (acl != null) {
+			return acl;
+		}
 
 		// Retrieve the ACL via superclass (ensures cache registration, proper
 		// retrieval etc)
-		Acl acl = readAclById(objectIdentity);
-		Assert.isInstanceOf(MutableAcl.class, acl,
+		Acl readAcl = readAclById(objectIdentity);
+		Assert.isInstanceOf(MutableAcl.class, readAcl,
 				"MutableAcl should be been returned");
 
-		return (MutableAcl) acl;
+		return (MutableAcl) readAcl;
+	}
+
+	/**
+	 * Create Acls for many Object Identities, owned by the current principal.
+	 * The Acls are upserted with UNWIND in statements of createBatchSize Object
+	 * Identities and registered in the Acl Cache without being read again.
+	 * 
+	 * @param objectIdentities - Object Identities
+	 * @return created Acls in the order of the Object Identities
+	 * @throws AlreadyExistsException if any Object Identity already has an Acl
+	 */
+	@Transactional(rollbackFor = Exception.class)
+	public List<MutableAcl> createAcls(
+			Collection<ObjectIdentity> objectIdentities)
+			throws AlreadyExistsException {
+		Assert.notNull(objectIdentities, "Object Identities required");
+		Assert.isTrue(createBatchSize >= 1, "CreateBatchSize must be >= 1");
+
+		Authentication auth = SecurityContextHolder.getContext()
+				.getAuthentication();
+		PrincipalSid sid = new PrincipalSid(auth);
+
+		List<ObjectIdentity> oids = new ArrayList<ObjectIdentity>(
+				objectIdentities);
+		evictOnRollback(oids);
+		List<MutableAcl> acls = new ArrayList<MutableAcl>(oids.size());
+		for (int from = 0; from < oids.size(); from += createBatchSize) {
+			int to = Math.min(from + createBatchSize, oids.size());
+			List<ObjectIdentity> batch = oids.subList(from, to);
+
+			List<Map<String, Object>> rows = new ArrayList<Map<String, Object>>(
+					batch.size());
+			for (ObjectIdentity objectIdentity : batch) {
+				Assert.notNull(objectIdentity, "Object Identity required");
+				evictMissing(objectIdentity);
+				Map<String, Object> row = new HashMap<String, Object>();
+				row.put("className", objectIdentity.getType());
+				row.put("classId", UUID.randomUUID().toString());
+				row.put("objectIdIdentity",
+						(Long) objectIdentity.getIdentifier());
+				row.put("aclId", UUID.randomUUID().toString());
+				rows.add(row);
+			}
+
+			Map<String, Object> params = new HashMap<String, Object>();
+			putSid(params, sid);
+			params.put("sidId", UUID.randomUUID().toString());
+			params.put("objectIdentities", rows);
+			Result<Map<String, Object>> result = neo4jTemplate.query(
+					mergeObjectIdentities, params);
+
+			Iterator<Map<String, Object>> it = result.iterator();
+			Map<String, Object> data = null;
+			while (it.hasNext()) {
+				data = it.next();
+				ObjectIdentity objectIdentity = new ObjectIdentityImpl(
+						(String) data.get("className"),
+						(Long) data.get("objectIdIdentity"));
+				String aclId = (String) data.get("aclId");
+				if (!aclId.equals(data.get("requestedAclId"))) {
+					throw new AlreadyExistsException("Object identity '"
+							+ objectIdentity + "' already exists");
+				}
+			}
+
+			for (int i = 0; i < batch.size(); i++) {
+				ObjectIdentity objectIdentity = batch.get(i);
+				String aclId = (String) rows.get(i).get("aclId");
+				MutableAcl acl = newAcl(objectIdentity, aclId, sid);
+				if (acl == null) {
+					acl = (MutableAcl) readAclById(objectIdentity);
+				}
+				acls.add(acl);
+			}
+		}
+
+		return acls;
+	}
+
+	/**
+	 * Forget that an Object Identity has no Acl, now and again when the
+	 * transaction completes, so a lookup which ran before the commit can not
+	 * leave a stale entry in the Missing Acl Cache.
+	 * 
+	 * @param objectIdentity - Object Identity
+	 */
+	private void evictMissing(final ObjectIdentity objectIdentity) {
+		if (!(lookupStrategy instanceof Neo4jLookupStrategy)) {
+			return;
+		}
+		final MissingAclCache missingAclCache = ((Neo4jLookupStrategy) lookupStrategy)
+				.getMissingAclCache();
+		if (missingAclCache == null) {
+			return;
+		}
+
+		missingAclCache.evict(objectIdentity);
+		if (TransactionSynchronizationManager.isSynchronizationActive()) {
+			TransactionSynchronizationManager
+					.registerSynchronization(new TransactionSynchronizationAdapter() {
+						@Override
+						public void afterCompletion(int status) {
+							missingAclCache.evict(objectIdentity);
+						}
+					});
+		}
+	}
+
+	/**
+	 * Evict Object Identities from the Acl Cache when the transaction does not
+	 * commit. Created Acls are cached before the commit, a rolled back Acl
+	 * must not be served from the cache afterwards.
+	 * 
+	 * @param objectIdentities - Object Identities
+	 */
+	private void evictOnRollback(final List<ObjectIdentity> objectIdentities) {
+		if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+			return;
+		}
+		TransactionSynchronizationManager
+				.registerSynchronization(new TransactionSynchronizationAdapter() {
+					@Override
+					public void afterCompletion(int status) {
+						if (status != STATUS_COMMITTED) {
+							for (ObjectIdentity objectIdentity : objectIdentities) {
+								aclCache.evictFromCache(objectIdentity);
+							}
+						}
+					}
+				});
+	}
+
+	/**
+	 * Build a new, empty Acl and register it in the cache. Only possible when
+	 * the Lookup Strategy exposes its strategies.
+	 * 
+	 * @param objectIdentity - Object Identity
+	 * @param aclId - Acl Id
+	 * @param owner - Owner Sid
+	 * @return Acl or null when it must be read instead
+	 */
+	private MutableAcl newAcl(ObjectIdentity objectIdentity, String aclId,
+			Sid owner) {
+		if (!(lookupStrategy instanceof Neo4jLookupStrategy)) {
+			return null;
+		}
+		Neo4jLookupStrategy neo4jLookupStrategy = (Neo4jLookupStrategy) lookupStrategy;
+		MutableAcl acl;
+		if (neo4jLookupStrategy.isDirectAssembly()) {
+			acl = new Neo4jAcl(objectIdentity, aclId,
+					neo4jLookupStrategy.getAclAuthorizationStrategy(),
+					neo4jLookupStrategy.getPermissionGrantingStrategy(), null,
+					null, true, owner, 10);
+		} else {
+			acl = new AclImpl(objectIdentity, aclId,
+					neo4jLookupStrategy.getAclAuthorizationStrategy(),
+					neo4jLookupStrategy.getPermissionGrantingStrategy(), null,
+					null, true, owner);
+		}
+		aclCache.putInCache(acl);
+		return acl;
 	}
 
 	/**
@@ -107,16 +311,18 @@ public class Neo4jMutableAclService extends Neo4jAclService implements
 				"Object Identity doesn't provide an identifier");
 
 		if (deleteChildren) {
-			List<ObjectIdentity> children = findChildren(objectIdentity);
-			if (children != null) {
-				for (ObjectIdentity child : children) {
-					deleteAcl(child, true);
-				}
-			}
+			deleteSubtree(objectIdentity, false);
+			return;
 		}
 
 		String oidPrimaryKey = retrieveObjectIdentityId(objectIdentity);
 
+		// The CHILD_OF relationships of the children would block the delete
+		if ((oidPrimaryKey != null) && hasChildren(oidPrimaryKey)) {
+			throw new ChildrenExistException("Cannot delete '"
+					+ objectIdentity + "' (has children)");
+		}
+
 		// Delete this ACL's ACEs in the acl_entry table
 		deleteEntries(oidPrimaryKey);
 
@@ -127,6 +333,170 @@ public class Neo4jMutableAclService extends Neo4jAclService implements
 		aclCache.evictFromCache(objectIdentity);
 	}
 
+	/**
+	 * Is the packed Ace storage format written or read
+	 */
+	@Override
+	protected boolean isPackedStore() {
+		return packedEntries || super.isPackedStore();
+	}
+
+	/**
+	 * Check if any Acl is a child of an Acl
+	 * 
+	 * @param objectIdentityId - Acl Id
+	 * @return true if the Acl has children
+	 */
+	protected boolean hasChildren(String objectIdentityId) {
+		Map<String, Object> params = new HashMap<String, Object>();
+		params.put("aclId", objectIdentityId);
+		return neo4jTemplate.query(selectChildByObjectIdentityId, params)
+				.singleOrNull() != null;
+	}
+
+	/**
+	 * Delete an Acl and all of its descendants outside of the caller's
+	 * transaction, which is suspended when called through the transactional
+	 * proxy. The descendants are found with one CHILD_OF traversal and deleted
+	 * deepest first, in chunks of deleteChunkSize Acls. When
+	 * commitPerDeleteChunk is set every chunk is committed on its own, so a
+	 * large subtree never lands in one transaction. Use deleteAcl with
+	 * deleteChildren to delete a subtree as part of a surrounding transaction.
+	 * 
+	 * @param objectIdentity - Root Object Identity
+	 * @return deleted Object Identities, already evicted from the cache
+	 * @throws NotFoundException if the root Acl does not exist
+	 * @throws IllegalStateException if commitPerDeleteChunk is set and a
+	 *             transaction is still active
+	 */
+	@Transactional(propagation = Propagation.NOT_SUPPORTED)
+	public List<ObjectIdentity> deleteAclTree(ObjectIdentity objectIdentity)
+			throws NotFoundException {
+		if (commitPerDeleteChunk
+				&& TransactionSynchronizationManager
+						.isActualTransactionActive()) {
+			throw new IllegalStateException(
+					"Chunks can not be committed on their own inside a transaction, call deleteAclTree through its transactional proxy or use deleteAcl");
+		}
+		return deleteSubtree(objectIdentity, commitPerDeleteChunk);
+	}
+
+	/**
+	 * Delete an Acl and all of its descendants, deepest first in chunks of
+	 * deleteChunkSize Acls
+	 * 
+	 * @param objectIdentity - Root Object Identity
+	 * @param commitPerChunk - commit every chunk in its own transaction
+	 * @return deleted Object Identities, already evicted from the cache
+	 */
+	private List<ObjectIdentity> deleteSubtree(ObjectIdentity objectIdentity,
+			boolean commitPerChunk) throws NotFoundException {
+		Assert.notNull(objectIdentity, "Object Identity required");
+		Assert.notNull(objectIdentity.getIdentifier(),
+				"Object Identity doesn't provide an identifier");
+		Assert.isTrue(deleteChunkSize >= 1, "DeleteChunkSize must be >= 1");
+
+		List<String> aclIds = new ArrayList<String>();
+		List<ObjectIdentity> deleted = new ArrayList<ObjectIdentity>();
+		int evicted = 0;
+
+		Transaction tx = graphDatabaseService.beginTx();
+		try {
+			retrieveSubtree(objectIdentity, aclIds, deleted);
+			if (aclIds.isEmpty()) {
+				throw new NotFoundException(
+						"Unable to find ACL information for object identity '"
+								+ objectIdentity + "'");
+			}
+
+			for (int from = 0; from < aclIds.size(); from += deleteChunkSize) {
+				int to = Math.min(from + deleteChunkSize, aclIds.size());
+				deleteChunk(aclIds.subList(from, to));
+
+				if (commitPerChunk) {
+					tx.success();
+					tx.close();
+					evicted = evictFromCache(deleted, evicted, to);
+					tx = graphDatabaseService.beginTx();
+				}
+			}
+			tx.success();
+		} finally {
+			tx.close();
+		}
+
+		evictFromCache(deleted, evicted, deleted.size());
+
+		return deleted;
+	}
+
+	/**
+	 * Retrieve the Acl ids and Object Identities of a subtree, deepest first
+	 * 
+	 * @param root - Root Object Identity
+	 * @param aclIds - Acl Ids to fill
+	 * @param objectIdentities - Object Identities to fill
+	 */
+	private void retrieveSubtree(ObjectIdentity root, List<String> aclIds,
+			List<ObjectIdentity> objectIdentities) {
+		Map<String, Object> params = new HashMap<String, Object>();
+		params.put("objectIdIdentity", (Long) root.getIdentifier());
+		params.put("className", root.getType());
+		Result<Map<String, Object>> result = neo4jTemplate.query(
+				selectSubtreeByObjectIdentity, params);
+		Iterator<Map<String, Object>> it = result.iterator();
+		Map<String, Object> data = null;
+		while (it.hasNext()) {
+			data = it.next();
+			aclIds.add((String) data.get("aclId"));
+			objectIdentities.add(new ObjectIdentityImpl((String) data
+					.get("className"), (Long) data.get("objectIdIdentity")));
+		}
+	}
+
+	/**
+	 * Advance the versions of the changed Acls, when versionStamping is set.
+	 * Deleted Acls need no stamp, they are missing from the graph.
+	 * 
+	 * @param aclIds - Ids of the changed Acls
+	 */
+	private void stampVersions(List<String> aclIds) {
+		if (!versionStamping) {
+			return;
+		}
+		Map<String, Object> params = new HashMap<String, Object>();
+		params.put("aclIds", new ArrayList<String>(aclIds));
+		neo4jTemplate.query(incrementVersions, params);
+	}
+
+	/**
+	 * Delete the Aces and Acl nodes of a chunk of Acls
+	 * 
+	 * @param aclIds - Acl Ids
+	 */
+	private void deleteChunk(List<String> aclIds) {
+		Map<String, Object> params = new HashMap<String, Object>();
+		params.put("aclIds", new ArrayList<String>(aclIds));
+		neo4jTemplate.query(deleteEntriesByObjectIdentityIds, params);
+		neo4jTemplate.query(deleteObjectIdentitiesByObjectIdentityIds, params);
+	}
+
+	/**
+	 * Evict a range of Object Identities from the cache
+	 * 
+	 * @param objectIdentities - Object Identities
+	 * @param from - first index to evict
+	 * @param to - index after the last to evict
+	 * @return to
+	 */
+	private int evictFromCache(List<ObjectIdentity> objectIdentities,
+			int from, int to) {
+		for (int i = from; i < to; i++) {
+			aclCache.evictFromCache(objectIdentities.get(i));
+		}
+		return to;
+	}
+
 	/**
 	 * Update Acl
 	 */
@@ -136,15 +506,28 @@ public class Neo4jMutableAclService extends Neo4jAclService implements
 		Assert.notNull(acl.getId(),
 				"Object Identity doesn't provide an identifier");
 
-		// Delete this ACL's ACEs in the acl_entry table
-		deleteEntries(retrieveObjectIdentityId(acl.getObjectIdentity()));
+		if (packedEntries) {
+			// Replace the ACE arrays of the ACL node
+			updatePackedEntries(acl);
+		} else if (diffBasedUpdate) {
+			// Write only the ACEs which were added, removed or changed
+			if (!updateEntries(acl) && !objectIdentityChanged(acl)) {
+				// Unchanged, nothing is written and the cache stays valid
+				return (MutableAcl) super.readAclById(acl.getObjectIdentity());
+			}
+		} else {
+			// Delete this ACL's ACEs in the acl_entry table
+			deleteEntries(retrieveObjectIdentityId(acl.getObjectIdentity()));
 
-		// Create this ACL's ACEs in the acl_entry table
-		createEntries(acl);
+			// Create this ACL's ACEs in the acl_entry table
+			createEntries(acl);
+		}
 
 		// Change the mutable columns in acl_object_identity
 		updateObjectIdentity(acl);
 
+		stampVersions(Collections.singletonList(acl.getId().toString()));
+
 		// Clear the cache, including children
 		clearCacheIncludingChildren(acl.getObjectIdentity());
 
@@ -189,23 +572,6 @@ public class Neo4jMutableAclService extends Neo4jAclService implements
 		return acl;
 	}
 
-	/**
-	 * Create Object Identity
-	 * 
-	 * @param object - Object Identity
-	 * @param owner - Owner Sid
-	 */
-	protected void createObjectIdentity(ObjectIdentity object, Sid owner) {
-		Assert.isTrue(
-				TransactionSynchronizationManager.isSynchronizationActive(),
-				"Transaction must be running");
-		SidNode sid = createOrRetrieveSid(owner, true);
-		ClassNode classNode = createOrRetrieveClass(object.getType(), true);
-		AclNode aclNode = new AclNode(Boolean.TRUE,
-				(Long) object.getIdentifier(), null, classNode, sid);
-		AclNode savedAcl = neo4jTemplate.save(aclNode);
-	}
-
 	/**
 	 * Create or Retrieve Sid
 	 * 
@@ -325,6 +691,210 @@ public class Neo4jMutableAclService extends Neo4jAclService implements
 		AclNode savedAclNode = neo4jTemplate.save(aclNode);
 	}
 
+	/**
+	 * Update Entries for Acl by comparing them with the persisted Ace Nodes.
+	 * Entries without a persisted id are inserted, persisted Ace Nodes missing
+	 * from the Acl are deleted and entries whose order, mask, granting or audit
+	 * flags differ are updated in place, all with one statement. Nothing is
+	 * written when the entries are unchanged.
+	 * 
+	 * @param acl
+	 * @return true if any entry was written
+	 */
+	protected boolean updateEntries(final MutableAcl acl) {
+		Map<String, Object> params = new HashMap<String, Object>();
+		params.put("objectIdIdentity", (Long) acl.getObjectIdentity()
+				.getIdentifier());
+		params.put("className", acl.getObjectIdentity().getType());
+		Result<Map<String, Object>> result = neo4jTemplate.query(
+				selectEntriesByObjectIdentity, params);
+
+		String aclId = null;
+		Map<String, Map<String, Object>> persisted = new HashMap<String, Map<String, Object>>();
+		Iterator<Map<String, Object>> it = result.iterator();
+		Map<String, Object> data = null;
+		while (it.hasNext()) {
+			data = it.next();
+			aclId = (String) data.get("aclId");
+			if (data.get("aceId") != null) {
+				persisted.put((String) data.get("aceId"), data);
+			}
+		}
+
+		if (aclId == null) {
+			throw new NotFoundException("Unable to locate ACL to update");
+		}
+
+		List<String> deletedAceIds = new ArrayList<String>();
+		List<Map<String, Object>> updatedAces = new ArrayList<Map<String, Object>>();
+		List<Map<String, Object>> insertedAces = new ArrayList<Map<String, Object>>();
+		int aceOrder = 0;
+		for (AccessControlEntry ace : acl.getEntries()) {
+			Map<String, Object> entry = entryParameters(
+					(AccessControlEntryImpl) ace, aceOrder++);
+			Map<String, Object> current = ace.getId() == null ? null
+					: persisted.remove(ace.getId().toString());
+
+			if (current != null && !sameSid(current, entry)) {
+				// The Sid of an Ace Node is never changed, replace it
+				deletedAceIds.add((String) current.get("aceId"));
+				current = null;
+			}
+
+			if (current == null) {
+				entry.put("id", UUID.randomUUID().toString());
+				entry.put("sidId", UUID.randomUUID().toString());
+				insertedAces.add(entry);
+			} else if (!sameEntry(current, entry)) {
+				entry.put("id", current.get("aceId"));
+				updatedAces.add(entry);
+			}
+		}
+		deletedAceIds.addAll(persisted.keySet());
+
+		if (deletedAceIds.isEmpty() && updatedAces.isEmpty()
+				&& insertedAces.isEmpty()) {
+			return false;
+		}
+
+		params = new HashMap<String, Object>();
+		params.put("aclId", aclId);
+		params.put("deletedAceIds", deletedAceIds);
+		params.put("updatedAces", updatedAces);
+		params.put("insertedAces", insertedAces);
+		neo4jTemplate.query(updateEntriesByObjectIdentityId, params);
+		return true;
+	}
+
+	/**
+	 * Does the owner, parent or entries inheriting flag of the Acl differ
+	 * from its Acl Node
+	 * 
+	 * @param acl
+	 * @return true if updateObjectIdentity has anything to write
+	 */
+	protected boolean objectIdentityChanged(MutableAcl acl) {
+		AclNode aclNode = retrieveAclNode(acl.getObjectIdentity());
+		if (aclNode == null) {
+			throw new NotFoundException("Unable to locate ACL to update");
+		}
+
+		String parentId = null;
+		if (acl.getParentAcl() != null) {
+			parentId = retrieveObjectIdentityId(acl.getParentAcl()
+					.getObjectIdentity());
+		}
+		SidNode ownerSid = createOrRetrieveSid(acl.getOwner(), false);
+
+		return ownerSid == null
+				|| aclNode.getOwnerSid() == null
+				|| !ownerSid.getGraphId().equals(
+						aclNode.getOwnerSid().getGraphId())
+				|| !ObjectUtils.nullSafeEquals(parentId,
+						aclNode.getParentObject())
+				|| !Boolean.valueOf(acl.isEntriesInheriting()).equals(
+						aclNode.getEntriesInheriting());
+	}
+
+	/**
+	 * Write the entries of the Acl as the packed array properties of its Acl
+	 * Node, see {@link Neo4jPackedEntries}. Persisted Aces keep their ids.
+	 * 
+	 * @param acl
+	 */
+	protected void updatePackedEntries(final MutableAcl acl) {
+		int size = acl.getEntries().size();
+		List<String> aceIds = new ArrayList<String>(size);
+		List<String> aceSids = new ArrayList<String>(size);
+		List<Integer> aceMasks = new ArrayList<Integer>(size);
+		List<Integer> aceFlags = new ArrayList<Integer>(size);
+		for (AccessControlEntry ace : acl.getEntries()) {
+			aceIds.add(ace.getId() == null ? UUID.randomUUID().toString() : ace
+					.getId().toString());
+			aceSids.add(SidFilteredAclCache.sidKey(ace.getSid()));
+			aceMasks.add(ace.getPermission().getMask());
+			aceFlags.add(Neo4jPackedEntries.flags(ace));
+		}
+
+		Map<String, Object> params = new HashMap<String, Object>();
+		params.put("objectIdIdentity", (Long) acl.getObjectIdentity()
+				.getIdentifier());
+		params.put("className", acl.getObjectIdentity().getType());
+		// An Acl without Aces has no Ace properties
+		params.put("aceIds", size == 0 ? null : aceIds);
+		params.put("aceSids", size == 0 ? null : aceSids);
+		params.put("aceMasks", size == 0 ? null : aceMasks);
+		params.put("aceFlags", size == 0 ? null : aceFlags);
+
+		if (neo4jTemplate.query(updatePackedEntriesByObjectIdentity, params)
+				.singleOrNull() == null) {
+			throw new NotFoundException("Unable to locate ACL to update");
+		}
+	}
+
+	/**
+	 * Statement parameters of an Ace
+	 * 
+	 * @param entry - Ace
+	 * @param aceOrder - Ace Order
+	 * @return parameters
+	 */
+	protected Map<String, Object> entryParameters(AccessControlEntryImpl entry,
+			int aceOrder) {
+		Map<String, Object> params = new HashMap<String, Object>();
+		putSid(params, entry.getSid());
+		params.put("aceOrder", aceOrder);
+		params.put("mask", entry.getPermission().getMask());
+		params.put("granting", entry.isGranting());
+		params.put("auditSuccess", entry.isAuditSuccess());
+		params.put("auditFailure", entry.isAuditFailure());
+		return params;
+	}
+
+	/**
+	 * Put the sid and principal parameters of a Sid
+	 * 
+	 * @param params - Statement parameters
+	 * @param sid - Sid
+	 */
+	protected void putSid(Map<String, Object> params, Sid sid) {
+		Assert.notNull(sid, "Sid required");
+		if (sid instanceof PrincipalSid) {
+			params.put("sid", ((PrincipalSid) sid).getPrincipal());
+			params.put("principal", Boolean.TRUE);
+		} else if (sid instanceof GrantedAuthoritySid) {
+			params.put("sid", ((GrantedAuthoritySid) sid).getGrantedAuthority());
+			params.put("principal", Boolean.FALSE);
+		} else {
+			throw new IllegalArgumentException(
+					"Unsupported implementation of Sid");
+		}
+	}
+
+	private boolean sameSid(Map<String, Object> current,
+			Map<String, Object> entry) {
+		return ObjectUtils.nullSafeEquals(current.get("sid"), entry.get("sid"))
+				&& ObjectUtils.nullSafeEquals(current.get("principal"),
+						entry.get("principal"));
+	}
+
+	private boolean sameEntry(Map<String, Object> current,
+			Map<String, Object> entry) {
+		return sameNumber(current.get("aceOrder"), entry.get("aceOrder"))
+				&& sameNumber(current.get("mask"), entry.get("mask"))
+				&& ObjectUtils.nullSafeEquals(current.get("granting"),
+						entry.get("granting"))
+				&& ObjectUtils.nullSafeEquals(current.get("auditSuccess"),
+						entry.get("auditSuccess"))
+				&& ObjectUtils.nullSafeEquals(current.get("auditFailure"),
+						entry.get("auditFailure"));
+	}
+
+	private boolean sameNumber(Object current, Object entry) {
+		return current instanceof Number
+				&& ((Number) current).intValue() == ((Number) entry).intValue();
+	}
+
 	/**
 	 * Update Object Identity
 	 * 
@@ -358,6 +928,21 @@ public class Neo4jMutableAclService extends Neo4jAclService implements
 		aclNode.setEntriesInheriting(acl.isEntriesInheriting());
 
 		neo4jTemplate.save(aclNode);
+
+		updateParent(aclNode.getId(), parentId);
+	}
+
+	/**
+	 * Replace the CHILD_OF relationship of an Acl
+	 * 
+	 * @param objectIdentityId - Acl Id
+	 * @param parentId - Parent Acl Id, null to remove the parent
+	 */
+	protected void updateParent(String objectIdentityId, String parentId) {
+		Map<String, Object> params = new HashMap<String, Object>();
+		params.put("aclId", objectIdentityId);
+		params.put("parentId", parentId);
+		neo4jTemplate.query(updateParentByObjectIdentityId, params);
 	}
 
 	/**
@@ -468,4 +1053,325 @@ public class Neo4jMutableAclService extends Neo4jAclService implements
 		this.deleteObjectIdentityByObjectIdentityId = deleteObjectIdentityByObjectIdentityId;
 	}
 
+	/**
+	 * Get Select Child By Object Identity Id Cypher
+	 * 
+	 * @return selectChildByObjectIdentityId
+	 */
+	public String getSelectChildByObjectIdentityId() {
+		return selectChildByObjectIdentityId;
+	}
+
+	/**
+	 * Set Select Child By Object Identity Id Cypher
+	 * 
+	 * @param selectChildByObjectIdentityId
+	 */
+	public void setSelectChildByObjectIdentityId(
+			String selectChildByObjectIdentityId) {
+		this.selectChildByObjectIdentityId = selectChildByObjectIdentityId;
+	}
+
+	/**
+	 * Get Select Subtree By Object Identity Cypher
+	 * 
+	 * @return selectSubtreeByObjectIdentity
+	 */
+	public String getSelectSubtreeByObjectIdentity() {
+		return selectSubtreeByObjectIdentity;
+	}
+
+	/**
+	 * Set Select Subtree By Object Identity Cypher
+	 * 
+	 * @param selectSubtreeByObjectIdentity
+	 */
+	public void setSelectSubtreeByObjectIdentity(
+			String selectSubtreeByObjectIdentity) {
+		this.selectSubtreeByObjectIdentity = selectSubtreeByObjectIdentity;
+	}
+
+	/**
+	 * Get Delete Entries By Object Identity Ids Cypher
+	 * 
+	 * @return deleteEntriesByObjectIdentityIds
+	 */
+	public String getDeleteEntriesByObjectIdentityIds() {
+		return deleteEntriesByObjectIdentityIds;
+	}
+
+	/**
+	 * Set Delete Entries By Object Identity Ids Cypher
+	 * 
+	 * @param deleteEntriesByObjectIdentityIds
+	 */
+	public void setDeleteEntriesByObjectIdentityIds(
+			String deleteEntriesByObjectIdentityIds) {
+		this.deleteEntriesByObjectIdentityIds = deleteEntriesByObjectIdentityIds;
+	}
+
+	/**
+	 * Get Delete Object Identities By Object Identity Ids Cypher
+	 * 
+	 * @return deleteObjectIdentitiesByObjectIdentityIds
+	 */
+	public String getDeleteObjectIdentitiesByObjectIdentityIds() {
+		return deleteObjectIdentitiesByObjectIdentityIds;
+	}
+
+	/**
+	 * Set Delete Object Identities By Object Identity Ids Cypher
+	 * 
+	 * @param deleteObjectIdentitiesByObjectIdentityIds
+	 */
+	public void setDeleteObjectIdentitiesByObjectIdentityIds(
+			String deleteObjectIdentitiesByObjectIdentityIds) {
+		this.deleteObjectIdentitiesByObjectIdentityIds = deleteObjectIdentitiesByObjectIdentityIds;
+	}
+
+	/**
+	 * Get Delete Chunk Size
+	 * 
+	 * @return deleteChunkSize
+	 */
+	public int getDeleteChunkSize() {
+		return deleteChunkSize;
+	}
+
+	/**
+	 * Set Delete Chunk Size
+	 * 
+	 * @param deleteChunkSize
+	 */
+	public void setDeleteChunkSize(int deleteChunkSize) {
+		this.deleteChunkSize = deleteChunkSize;
+	}
+
+	/**
+	 * Is Commit Per Delete Chunk
+	 * 
+	 * @return commitPerDeleteChunk
+	 */
+	public boolean isCommitPerDeleteChunk() {
+		return commitPerDeleteChunk;
+	}
+
+	/**
+	 * Set Commit Per Delete Chunk
+	 * 
+	 * @param commitPerDeleteChunk
+	 */
+	public void setCommitPerDeleteChunk(boolean commitPerDeleteChunk) {
+		this.commitPerDeleteChunk = commitPerDeleteChunk;
+	}
+
+	/**
+	 * Get Merge Object Identity Cypher
+	 * 
+	 * @return mergeObjectIdentity
+	 */
+	public String getMergeObjectIdentity() {
+		return mergeObjectIdentity;
+	}
+
+	/**
+	 * Set Merge Object Identity Cypher
+	 * 
+	 * @param mergeObjectIdentity
+	 */
+	public void setMergeObjectIdentity(String mergeObjectIdentity) {
+		this.mergeObjectIdentity = mergeObjectIdentity;
+	}
+
+	/**
+	 * Get Merge Object Identities Cypher
+	 * 
+	 * @return mergeObjectIdentities
+	 */
+	public String getMergeObjectIdentities() {
+		return mergeObjectIdentities;
+	}
+
+	/**
+	 * Set Merge Object Identities Cypher
+	 * 
+	 * @param mergeObjectIdentities
+	 */
+	public void setMergeObjectIdentities(String mergeObjectIdentities) {
+		this.mergeObjectIdentities = mergeObjectIdentities;
+	}
+
+	/**
+	 * Get Create Batch Size
+	 * 
+	 * @return createBatchSize
+	 */
+	public int getCreateBatchSize() {
+		return createBatchSize;
+	}
+
+	/**
+	 * Set Create Batch Size
+	 * 
+	 * @param createBatchSize
+	 */
+	public void setCreateBatchSize(int createBatchSize) {
+		this.createBatchSize = createBatchSize;
+	}
+
+	/**
+	 * Get Select Entries By Object Identity Cypher
+	 * 
+	 * @return selectEntriesByObjectIdentity
+	 */
+	public String getSelectEntriesByObjectIdentity() {
+		return selectEntriesByObjectIdentity;
+	}
+
+	/**
+	 * Set Select Entries By Object Identity Cypher
+	 * 
+	 * @param selectEntriesByObjectIdentity
+	 */
+	public void setSelectEntriesByObjectIdentity(
+			String selectEntriesByObjectIdentity) {
+		this.selectEntriesByObjectIdentity = selectEntriesByObjectIdentity;
+	}
+
+	/**
+	 * Get Update Entries By Object Identity Id Cypher
+	 * 
+	 * @return updateEntriesByObjectIdentityId
+	 */
+	public String getUpdateEntriesByObjectIdentityId() {
+		return updateEntriesByObjectIdentityId;
+	}
+
+	/**
+	 * Set Update Entries By Object Identity Id Cypher
+	 * 
+	 * @param updateEntriesByObjectIdentityId
+	 */
+	public void setUpdateEntriesByObjectIdentityId(
+			String updateEntriesByObjectIdentityId) {
+		this.updateEntriesByObjectIdentityId = updateEntriesByObjectIdentityId;
+	}
+
+	/**
+	 * Is Diff Based Update
+	 * 
+	 * @return diffBasedUpdate
+	 */
+	public boolean isDiffBasedUpdate() {
+		return diffBasedUpdate;
+	}
+
+	/**
+	 * Set Diff Based Update, when set updateAcl only writes the Aces which
+	 * were added, removed or changed, and writes nothing for an unchanged Acl
+	 * 
+	 * @param diffBasedUpdate
+	 */
+	public void setDiffBasedUpdate(boolean diffBasedUpdate) {
+		this.diffBasedUpdate = diffBasedUpdate;
+	}
+
+	/**
+	 * Get Update Parent By Object Identity Id Cypher
+	 * 
+	 * @return updateParentByObjectIdentityId
+	 */
+	public String getUpdateParentByObjectIdentityId() {
+		return updateParentByObjectIdentityId;
+	}
+
+	/**
+	 * Set Update Parent By Object Identity Id Cypher
+	 * 
+	 * @param updateParentByObjectIdentityId
+	 */
+	public void setUpdateParentByObjectIdentityId(
+			String updateParentByObjectIdentityId) {
+		this.updateParentByObjectIdentityId = updateParentByObjectIdentityId;
+	}
+
+	/**
+	 * Is the packed Ace storage format written
+	 * 
+	 * @return packedEntries
+	 */
+	public boolean isPackedEntries() {
+		return packedEntries;
+	}
+
+	/**
+	 * Set whether Aces are written as packed array properties of the Acl Node
+	 * instead of Ace Nodes, see {@link Neo4jPackedEntries}. The Lookup
+	 * Strategy must read the same format. The in-graph permission checks of
+	 * {@link Neo4jAclService}, such as isGranted, then read the packed array
+	 * properties.
+	 * 
+	 * @param packedEntries
+	 */
+	public void setPackedEntries(boolean packedEntries) {
+		this.packedEntries = packedEntries;
+	}
+
+	/**
+	 * Get Update Packed Entries By Object Identity Cypher
+	 * 
+	 * @return updatePackedEntriesByObjectIdentity
+	 */
+	public String getUpdatePackedEntriesByObjectIdentity() {
+		return updatePackedEntriesByObjectIdentity;
+	}
+
+	/**
+	 * Set Update Packed Entries By Object Identity Cypher
+	 * 
+	 * @param updatePackedEntriesByObjectIdentity
+	 */
+	public void setUpdatePackedEntriesByObjectIdentity(
+			String updatePackedEntriesByObjectIdentity) {
+		this.updatePackedEntriesByObjectIdentity = updatePackedEntriesByObjectIdentity;
+	}
+
+	/**
+	 * Is Version Stamping
+	 * 
+	 * @return versionStamping
+	 */
+	public boolean isVersionStamping() {
+		return versionStamping;
+	}
+
+	/**
+	 * Set whether every update advances the version of the Acl, so that
+	 * {@link Neo4jAclSnapshot} can tell which of its Acls changed. Only the
+	 * updated Acl node is written, there is no shared counter.
+	 * 
+	 * @param versionStamping
+	 */
+	public void setVersionStamping(boolean versionStamping) {
+		this.versionStamping = versionStamping;
+	}
+
+	/**
+	 * Get Increment Versions Cypher
+	 * 
+	 * @return incrementVersions
+	 */
+	public String getIncrementVersions() {
+		return incrementVersions;
+	}
+
+	/**
+	 * Set Increment Versions Cypher
+	 * 
+	 * @param incrementVersions
+	 */
+	public void setIncrementVersions(String incrementVersions) {
+		this.incrementVersions = incrementVersions;
+	}
+
 }
@@ -0,0 +1,118 @@
+package org.springframework.security.acls.neo4j;
+
+import java.lang.reflect.Array;
+import java.util.List;
+
+import org.springframework.security.acls.domain.GrantedAuthoritySid;
+import org.springframework.security.acls.domain.PrincipalSid;
+import org.springframework.security.acls.model.AccessControlEntry;
+import org.springframework.security.acls.model.AuditableAccessControlEntry;
+import org.springframework.security.acls.model.Sid;
+import org.springframework.util.Assert;
+
+/**
+ * Helpers of the packed Ace storage format. In this format the ordered Aces
+ * of an Acl are kept on the Acl Node itself as the parallel array properties
+ * aceIds, aceSids (P:principal or A:authority keys), aceMasks and aceFlags,
+ * and no Ace Nodes exist for it.
+ * 
+ * @author shazin
+ *
+ */
+public final class Neo4jPackedEntries {
+
+	/**
+	 * Flag bit of a granting Ace
+	 */
+	public static final int GRANTING = 1;
+
+	/**
+	 * Flag bit of an Ace which audits success
+	 */
+	public static final int AUDIT_SUCCESS = 2;
+
+	/**
+	 * Flag bit of an Ace which audits failure
+	 */
+	public static final int AUDIT_FAILURE = 4;
+
+	private Neo4jPackedEntries() {
+	}
+
+	/**
+	 * Flag bits of an Ace
+	 * 
+	 * @param ace - Access Control Entry
+	 * @return flags
+	 */
+	public static int flags(AccessControlEntry ace) {
+		int flags = ace.isGranting() ? GRANTING : 0;
+		if (ace instanceof AuditableAccessControlEntry) {
+			AuditableAccessControlEntry auditable = (AuditableAccessControlEntry) ace;
+			if (auditable.isAuditSuccess()) {
+				flags |= AUDIT_SUCCESS;
+			}
+			if (auditable.isAuditFailure()) {
+				flags |= AUDIT_FAILURE;
+			}
+		}
+		return flags;
+	}
+
+	/**
+	 * Sid of a packed Sid key
+	 * 
+	 * @param sidKey - P:principal or A:authority
+	 * @return Sid
+	 */
+	public static Sid toSid(String sidKey) {
+		Assert.isTrue((sidKey != null) && (sidKey.length() > 1)
+				&& (sidKey.charAt(1) == ':'), "Invalid Sid key " + sidKey);
+		if (sidKey.charAt(0) == 'P') {
+			return new PrincipalSid(sidKey.substring(2));
+		}
+		return new GrantedAuthoritySid(sidKey.substring(2));
+	}
+
+	/**
+	 * Length of an array property as returned by Cypher, an array or a List
+	 * 
+	 * @param values - property value, can be null
+	 * @return length
+	 */
+	public static int length(Object values) {
+		if (values == null) {
+			return 0;
+		}
+		if (values instanceof List) {
+			return ((List<?>) values).size();
+		}
+		return Array.getLength(values);
+	}
+
+	/**
+	 * Element of an array property as returned by Cypher, an array or a List
+	 * 
+	 * @param values - property value
+	 * @param index - index
+	 * @return element
+	 */
+	public static Object get(Object values, int index) {
+		if (values instanceof List) {
+			return ((List<?>) values).get(index);
+		}
+		return Array.get(values, index);
+	}
+
+	/**
+	 * Integer element of an array property
+	 * 
+	 * @param values - property value
+	 * @param index - index
+	 * @return element
+	 */
+	public static int getInt(Object values, int index) {
+		return ((Number) get(values, index)).intValue();
+	}
+
+}
@@ -0,0 +1,91 @@
+package org.springframework.security.acls.neo4j;
+
+import java.util.Iterator;
+import java.util.Map;
+
+import org.neo4j.cypher.javacompat.ExecutionEngine;
+import org.neo4j.cypher.javacompat.ExecutionResult;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Transaction;
+import org.springframework.util.Assert;
+
+/**
+ * Query Plan inspection helpers used to check that Acl statements are anchored
+ * on schema indexes
+ * 
+ * @author shazin
+ *
+ */
+public final class Neo4jQueryPlans {
+
+	// Operator names of index seeks (2.1 legacy planner and later planners)
+	private static final String[] INDEX_SEEK_OPERATORS = { "SchemaIndex",
+			"NodeIndexSeek", "NodeUniqueIndexSeek" };
+
+	// Operator names of full label or store scans
+	private static final String[] SCAN_OPERATORS = { "NodeByLabel",
+			"AllNodes" };
+
+	private Neo4jQueryPlans() {
+	}
+
+	/**
+	 * Profile a statement and return its textual plan. The statement runs
+	 * inside a transaction which is always rolled back, so write statements
+	 * can be inspected without side effects.
+	 * 
+	 * @param graphDatabaseService - Graph Database Service
+	 * @param statement - Cypher statement
+	 * @param params - Statement parameters
+	 * @return plan description
+	 */
+	public static String describe(GraphDatabaseService graphDatabaseService,
+			String statement, Map<String, Object> params) {
+		Assert.notNull(graphDatabaseService, "GraphDatabaseService required");
+		Assert.hasText(statement, "Statement required");
+
+		ExecutionEngine engine = new ExecutionEngine(graphDatabaseService);
+		Transaction tx = graphDatabaseService.beginTx();
+		try {
+			ExecutionResult result = engine.profile(statement, params);
+			Iterator<Map<String, Object>> it = result.iterator();
+			while (it.hasNext()) {
+				it.next();
+			}
+			return result.executionPlanDescription().toString();
+		} finally {
+			tx.failure();
+			tx.close();
+		}
+	}
+
+	/**
+	 * Does the plan start from a schema index seek
+	 * 
+	 * @param plan - plan description
+	 * @return true if an index seek is used
+	 */
+	public static boolean usesIndexSeek(String plan) {
+		return containsAny(plan, INDEX_SEEK_OPERATORS);
+	}
+
+	/**
+	 * Does the plan contain a full label scan or all nodes scan
+	 * 
+	 * @param plan - plan description
+	 * @return true if a scan is used
+	 */
+	public static boolean containsLabelScan(String plan) {
+		return containsAny(plan, SCAN_OPERATORS);
+	}
+
+	private static boolean containsAny(String plan, String[] operators) {
+		Assert.notNull(plan, "Plan required");
+		for (String operator : operators) {
+			if (plan.contains(operator)) {
+				return true;
+			}
+		}
+		return false;
+	}
+}
@@ -0,0 +1,885 @@
+package org.springframework.security.acls.neo4j;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.springframework.security.acls.domain.AccessControlEntryImpl;
+import org.springframework.security.acls.domain.AclAuthorizationStrategy;
+import org.springframework.security.acls.domain.DefaultPermissionFactory;
+import org.springframework.security.acls.domain.ObjectIdentityImpl;
+import org.springframework.security.acls.domain.PermissionFactory;
+import org.springframework.security.acls.model.AccessControlEntry;
+import org.springframework.security.acls.model.Acl;
+import org.springframework.security.acls.model.AclCache;
+import org.springframework.security.acls.model.MutableAcl;
+import org.springframework.security.acls.model.ObjectIdentity;
+import org.springframework.security.acls.model.Permission;
+import org.springframework.security.acls.model.PermissionGrantingStrategy;
+import org.springframework.security.acls.model.Sid;
+import org.springframework.util.Assert;
+
+/**
+ * Acl Cache which keeps Acls outside of the heap, in a compact binary
+ * encoding. Only the id and Object Identity indexes, the Sid and class name
+ * dictionaries and a bounded number of decoded parents live on the heap.
+ * 
+ * Records are appended to direct buffer segments of segmentSize bytes. When
+ * maxSegments are in use the oldest segment is dropped with all the Acls
+ * written to it, so the cache never holds more than segmentSize * maxSegments
+ * bytes off heap. Records of evicted or replaced Acls stay in their segment
+ * until it is dropped. Each segment has its own Sid and class name
+ * dictionary, which is dropped with it, so the dictionaries only hold the
+ * Sids and class names of the records which can still be read. An Acl which
+ * is put again with an unchanged record, as the parents of every put Acl
+ * are, is not written again.
+ * 
+ * A record holds the flags, the class name and Owner ordinals, the identifier
+ * and a fixed width table of Sid ordinal, mask and flag bits per Ace,
+ * followed by the Acl id, the parent Acl id and the Ace ids. Ids in UUID form
+ * take 16 bytes. Acls are decoded into {@link Neo4jAcl} on every get. Their
+ * parents are decoded once and shared by later gets, up to maxDecodedParents
+ * of them, for as long as none of the records of their chain is replaced,
+ * evicted or dropped. {@link #isGranted(ObjectIdentity, List, List)} decides
+ * on the encoded records without decoding.
+ * 
+ * Only Acls of Object Identities with Long identifiers and of Principal or
+ * Granted Authority Sids are cached, others are ignored. Sid filtered Acls
+ * are not cached.
+ * 
+ * @author shazin
+ *
+ */
+public class OffHeapAclCache implements AclCache {
+
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	private static final int ENTRIES_INHERITING = 1;
+	private static final int HAS_PARENT = 2;
+
+	private static final byte UUID_ID = 0;
+	private static final byte LONG_ID = 1;
+	private static final byte STRING_ID = 2;
+
+	// Flags, type ordinal, identifier, owner ordinal and Ace count
+	private static final int HEADER_SIZE = 1 + 4 + 8 + 4 + 4;
+	// Sid ordinal, mask and flags
+	private static final int ACE_SIZE = 4 + 4 + 1;
+
+	private final AclAuthorizationStrategy aclAuthorizationStrategy;
+	private final PermissionGrantingStrategy permissionGrantingStrategy;
+	private PermissionFactory permissionFactory = new DefaultPermissionFactory();
+
+	private final ConcurrentMap<Serializable, Long> addressesById = new ConcurrentHashMap<Serializable, Long>();
+	private final ConcurrentMap<ObjectIdentity, Serializable> idsByObjectIdentity = new ConcurrentHashMap<ObjectIdentity, Serializable>();
+	private volatile int maxDecodedParents = 1024;
+	// Guarded by itself, in access order
+	private final Map<Long, Decoded> decodedParents = new LinkedHashMap<Long, Decoded>(
+			16, 0.75f, true) {
+
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<Long, Decoded> eldest) {
+			return size() > maxDecodedParents;
+		}
+	};
+
+	private final int segmentSize;
+	private final AtomicReferenceArray<Segment> segments;
+
+	// Guarded by writeLock
+	private final ReentrantLock writeLock = new ReentrantLock();
+	private Segment current;
+	private int nextSegment;
+
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final AtomicLong droppedSegments = new AtomicLong();
+
+	/**
+	 * Constructor
+	 * 
+	 * @param segmentSize - bytes of each off heap segment
+	 * @param maxSegments - maximum number of segments
+	 * @param permissionGrantingStrategy - Permission Granting Strategy of
+	 *            decoded Acls
+	 * @param aclAuthorizationStrategy - Acl Authorization Strategy of decoded
+	 *            Acls
+	 */
+	public OffHeapAclCache(int segmentSize, int maxSegments,
+			PermissionGrantingStrategy permissionGrantingStrategy,
+			AclAuthorizationStrategy aclAuthorizationStrategy) {
+		Assert.isTrue(segmentSize >= 1024, "SegmentSize must be >= 1024");
+		Assert.isTrue(maxSegments >= 1, "MaxSegments must be >= 1");
+		Assert.notNull(permissionGrantingStrategy,
+				"PermissionGrantingStrategy required");
+		Assert.notNull(aclAuthorizationStrategy,
+				"AclAuthorizationStrategy required");
+		this.segmentSize = segmentSize;
+		this.segments = new AtomicReferenceArray<Segment>(maxSegments);
+		this.permissionGrantingStrategy = permissionGrantingStrategy;
+		this.aclAuthorizationStrategy = aclAuthorizationStrategy;
+	}
+
+	@Override
+	public void evictFromCache(Serializable pk) {
+		Assert.notNull(pk, "Primary key (identifier) required");
+		writeLock.lock();
+		try {
+			Long address = addressesById.remove(pk);
+			if (address != null) {
+				Segment segment = segment(address);
+				if (segment != null) {
+					idsByObjectIdentity.remove(
+							objectIdentity(segment, offset(address)), pk);
+				}
+			}
+		} finally {
+			writeLock.unlock();
+		}
+	}
+
+	@Override
+	public void evictFromCache(ObjectIdentity objectIdentity) {
+		Assert.notNull(objectIdentity, "ObjectIdentity required");
+		writeLock.lock();
+		try {
+			Serializable id = idsByObjectIdentity.remove(objectIdentity);
+			if (id != null) {
+				addressesById.remove(id);
+			}
+		} finally {
+			writeLock.unlock();
+		}
+	}
+
+	@Override
+	public MutableAcl getFromCache(ObjectIdentity objectIdentity) {
+		Assert.notNull(objectIdentity, "ObjectIdentity required");
+		Serializable id = idsByObjectIdentity.get(objectIdentity);
+		if (id == null) {
+			misses.incrementAndGet();
+			return null;
+		}
+		return getFromCache(id);
+	}
+
+	@Override
+	public MutableAcl getFromCache(Serializable pk) {
+		Assert.notNull(pk, "Primary key (identifier) required");
+		MutableAcl acl = decode(pk);
+		if (acl == null) {
+			misses.incrementAndGet();
+		} else {
+			hits.incrementAndGet();
+		}
+		return acl;
+	}
+
+	/**
+	 * Put an Acl, and its parents, in the cache. Acls whose cached record is
+	 * unchanged are left in place.
+	 */
+	@Override
+	public void putInCache(MutableAcl acl) {
+		Assert.notNull(acl, "Acl required");
+		Assert.notNull(acl.getObjectIdentity(), "ObjectIdentity required");
+		Assert.notNull(acl.getId(), "ID required");
+
+		if ((acl.getParentAcl() != null)
+				&& (acl.getParentAcl() instanceof MutableAcl)) {
+			putInCache((MutableAcl) acl.getParentAcl());
+		}
+
+		boolean supported = (acl.getObjectIdentity().getIdentifier() instanceof Long)
+				&& isSupported(acl.getOwner());
+		for (AccessControlEntry ace : acl.getEntries()) {
+			supported = supported && isSupported(ace.getSid());
+		}
+
+		writeLock.lock();
+		try {
+			if (supported && isCached(acl)) {
+				return;
+			}
+			if (supported && (current == null)) {
+				nextSegment();
+			}
+			byte[] record = supported ? encode(acl, current.dictionary) : null;
+			if ((record == null) || (record.length > segmentSize)) {
+				// Do not leave an older version of the Acl behind
+				addressesById.remove(acl.getId());
+				Serializable previous = idsByObjectIdentity.remove(acl
+						.getObjectIdentity());
+				if (previous != null) {
+					addressesById.remove(previous);
+				}
+				return;
+			}
+			if (current.position + record.length > segmentSize) {
+				nextSegment();
+				// Ordinals are those of the dictionary of the new segment
+				record = encode(acl, current.dictionary);
+			}
+			ByteBuffer target = current.buffer.duplicate();
+			target.position(current.position);
+			target.put(record);
+			long address = ((long) current.number << 32) | current.position;
+			current.position += record.length;
+			current.ids.add(acl.getId());
+			current.objectIdentities.add(acl.getObjectIdentity());
+
+			addressesById.put(acl.getId(), address);
+			Serializable previous = idsByObjectIdentity.put(
+					acl.getObjectIdentity(), acl.getId());
+			if ((previous != null) && !previous.equals(acl.getId())) {
+				addressesById.remove(previous);
+			}
+		} finally {
+			writeLock.unlock();
+		}
+	}
+
+	/**
+	 * Drop all cached Acls, with the dictionaries of their segments
+	 */
+	@Override
+	public void clearCache() {
+		writeLock.lock();
+		try {
+			addressesById.clear();
+			idsByObjectIdentity.clear();
+			for (int i = 0; i < segments.length(); i++) {
+				segments.set(i, null);
+			}
+			current = null;
+			synchronized (decodedParents) {
+				decodedParents.clear();
+			}
+		} finally {
+			writeLock.unlock();
+		}
+	}
+
+	/**
+	 * Is any of the Permissions granted to any of the Sids on the Object
+	 * Identity, decided on the encoded Acl and its parents like
+	 * {@link Neo4jAclService#isGranted(ObjectIdentity, List, List)}: as
+	 * Acl.isGranted in non administrative mode, without audit logging, and
+	 * false instead of a NotFoundException for an undecided chain.
+	 * 
+	 * @param objectIdentity - Object Identity
+	 * @param permissions - Permissions, any of them may grant
+	 * @param sids - Sids in order of precedence
+	 * @return decision, or null if the Acl or one of the parents needed for
+	 *         the decision is not cached
+	 */
+	public Boolean isGranted(ObjectIdentity objectIdentity,
+			List<Permission> permissions, List<Sid> sids) {
+		Assert.notNull(objectIdentity, "Object Identity required");
+		Assert.notEmpty(permissions, "Permissions required");
+		Assert.notEmpty(sids, "SIDs required");
+
+		int[] masks = new int[permissions.size()];
+		for (int i = 0; i < masks.length; i++) {
+			masks[i] = permissions.get(i).getMask();
+		}
+		String[] sidKeys = new String[sids.size()];
+		for (int i = 0; i < sidKeys.length; i++) {
+			sidKeys[i] = isSupported(sids.get(i)) ? SidFilteredAclCache
+					.sidKey(sids.get(i)) : null;
+		}
+		int[] ordinals = new int[sids.size()];
+		Dictionary ordinalsOf = null;
+
+		Serializable id = idsByObjectIdentity.get(objectIdentity);
+		while (id != null) {
+			Long address = addressesById.get(id);
+			Segment segment = (address == null) ? null : segment(address);
+			if (segment == null) {
+				misses.incrementAndGet();
+				return null;
+			}
+			hits.incrementAndGet();
+			if (segment.dictionary != ordinalsOf) {
+				ordinalsOf = segment.dictionary;
+				for (int i = 0; i < ordinals.length; i++) {
+					// Sids which no Ace of the segment refers to can not match
+					Integer ordinal = (sidKeys[i] == null) ? null
+							: ordinalsOf.sidOrdinals.get(sidKeys[i]);
+					ordinals[i] = (ordinal == null) ? -1 : ordinal.intValue();
+				}
+			}
+
+			ByteBuffer buffer = segment.buffer;
+			int offset = offset(address);
+			int flags = buffer.get(offset);
+			int aceCount = buffer.getInt(offset + 17);
+			int aces = offset + HEADER_SIZE;
+
+			boolean rejected = false;
+			for (int mask : masks) {
+				for (int ordinal : ordinals) {
+					int match = -1;
+					for (int i = 0; i < aceCount; i++) {
+						int ace = aces + i * ACE_SIZE;
+						if ((buffer.getInt(ace + 4) == mask)
+								&& (buffer.getInt(ace) == ordinal)) {
+							match = ace;
+							break;
+						}
+					}
+					if (match >= 0) {
+						if ((buffer.get(match + 8) & Neo4jPackedEntries.GRANTING) != 0) {
+							return Boolean.TRUE;
+						}
+						// The first matching Sid decides for this Permission
+						rejected = true;
+						break;
+					}
+				}
+			}
+			if (rejected) {
+				return Boolean.FALSE;
+			}
+
+			if (((flags & ENTRIES_INHERITING) == 0)
+					|| ((flags & HAS_PARENT) == 0)) {
+				return Boolean.FALSE;
+			}
+			int parent = skipId(buffer, aces + aceCount * ACE_SIZE);
+			id = readId(buffer, parent);
+		}
+		misses.incrementAndGet();
+		return null;
+	}
+
+	private MutableAcl decode(Serializable id) {
+		Decoded decoded = decode(id, false);
+		return (decoded == null) ? null : decoded.acl;
+	}
+
+	private Decoded decode(Serializable id, boolean parent) {
+		Long address = addressesById.get(id);
+		Segment segment = (address == null) ? null : segment(address);
+		if (segment == null) {
+			return null;
+		}
+		if (parent) {
+			Decoded decoded;
+			synchronized (decodedParents) {
+				decoded = decodedParents.get(address);
+			}
+			if ((decoded != null) && isCurrent(decoded)) {
+				return decoded;
+			}
+		}
+
+		ByteBuffer buffer = segment.buffer;
+		int offset = offset(address);
+		Sid[] sidTable = segment.dictionary.sidsByOrdinal;
+		int flags = buffer.get(offset);
+		ObjectIdentity objectIdentity = objectIdentity(segment, offset);
+		Sid owner = sidTable[buffer.getInt(offset + 13)];
+		int aceCount = buffer.getInt(offset + 17);
+		int aces = offset + HEADER_SIZE;
+		int position = skipId(buffer, aces + aceCount * ACE_SIZE);
+
+		Decoded parentDecoded = null;
+		if ((flags & HAS_PARENT) != 0) {
+			parentDecoded = decode(readId(buffer, position), true);
+			if (parentDecoded == null) {
+				return null;
+			}
+			position = skipId(buffer, position);
+		}
+
+		Neo4jAcl acl = new Neo4jAcl(objectIdentity, id,
+				aclAuthorizationStrategy, permissionGrantingStrategy,
+				(parentDecoded == null) ? null : parentDecoded.acl, null,
+				(flags & ENTRIES_INHERITING) != 0, owner, aceCount);
+		List<AccessControlEntryImpl> entries = acl.aces();
+		for (int i = 0; i < aceCount; i++) {
+			int ace = aces + i * ACE_SIZE;
+			int aceFlags = buffer.get(ace + 8);
+			entries.add(new AccessControlEntryImpl(readId(buffer, position),
+					acl, sidTable[buffer.getInt(ace)], permissionFactory
+							.buildFromMask(buffer.getInt(ace + 4)),
+					(aceFlags & Neo4jPackedEntries.GRANTING) != 0,
+					(aceFlags & Neo4jPackedEntries.AUDIT_SUCCESS) != 0,
+					(aceFlags & Neo4jPackedEntries.AUDIT_FAILURE) != 0));
+			position = skipId(buffer, position);
+		}
+
+		Decoded decoded = new Decoded(acl, address, parentDecoded);
+		if (parent && (maxDecodedParents > 0)) {
+			synchronized (decodedParents) {
+				decodedParents.put(address, decoded);
+			}
+		}
+		return decoded;
+	}
+
+	/**
+	 * Is every record the decoded Acl and its parents were decoded from still
+	 * the cached record of its Acl
+	 * 
+	 * @param decoded - decoded Acl
+	 * @return true if the decoded Acl can be shared
+	 */
+	private boolean isCurrent(Decoded decoded) {
+		for (Decoded d = decoded; d != null; d = d.parent) {
+			Long address = addressesById.get(d.acl.getId());
+			if ((address == null) || (address.longValue() != d.address)
+					|| (segment(d.address) == null)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	// Called with writeLock held
+	private boolean isCached(MutableAcl acl) {
+		Long address = addressesById.get(acl.getId());
+		Segment segment = (address == null) ? null : segment(address);
+		if ((segment == null)
+				|| !acl.getId().equals(
+						idsByObjectIdentity.get(acl.getObjectIdentity()))) {
+			return false;
+		}
+		byte[] record = encode(acl, segment.dictionary);
+		int offset = offset(address);
+		if (offset + record.length > segment.position) {
+			return false;
+		}
+		for (int i = 0; i < record.length; i++) {
+			if (segment.buffer.get(offset + i) != record[i]) {
+				return false;
+			}
+		}
+		// A longer cached record differs in the ids which follow
+		return recordEnd(segment.buffer, offset) == offset + record.length;
+	}
+
+	private static int recordEnd(ByteBuffer buffer, int offset) {
+		int flags = buffer.get(offset);
+		int aceCount = buffer.getInt(offset + 17);
+		int position = skipId(buffer, offset + HEADER_SIZE + aceCount
+				* ACE_SIZE);
+		if ((flags & HAS_PARENT) != 0) {
+			position = skipId(buffer, position);
+		}
+		for (int i = 0; i < aceCount; i++) {
+			position = skipId(buffer, position);
+		}
+		return position;
+	}
+
+	// Called with writeLock held. Entries are added to the dictionary before
+	// the record which refers to them is published in addressesById.
+	private byte[] encode(MutableAcl acl, Dictionary dictionary) {
+		List<AccessControlEntry> entries = acl.getEntries();
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(HEADER_SIZE
+				+ entries.size() * (ACE_SIZE + 17) + 34);
+		DataOutputStream out = new DataOutputStream(bytes);
+		try {
+			int flags = acl.isEntriesInheriting() ? ENTRIES_INHERITING : 0;
+			if (acl.getParentAcl() != null) {
+				flags |= HAS_PARENT;
+			}
+			out.writeByte(flags);
+			out.writeInt(dictionary.typeOrdinal(acl.getObjectIdentity()
+					.getType()));
+			out.writeLong((Long) acl.getObjectIdentity().getIdentifier());
+			out.writeInt(dictionary.sidOrdinal(acl.getOwner()));
+			out.writeInt(entries.size());
+			for (AccessControlEntry ace : entries) {
+				out.writeInt(dictionary.sidOrdinal(ace.getSid()));
+				out.writeInt(ace.getPermission().getMask());
+				out.writeByte(Neo4jPackedEntries.flags(ace));
+			}
+			writeId(out, acl.getId());
+			if (acl.getParentAcl() != null) {
+				writeId(out, acl.getParentAcl().getId());
+			}
+			for (AccessControlEntry ace : entries) {
+				writeId(out, ace.getId());
+			}
+			out.flush();
+		} catch (IOException e) {
+			throw new IllegalStateException("Could not encode " + acl, e);
+		}
+		return bytes.toByteArray();
+	}
+
+	static void writeId(DataOutputStream out, Serializable id)
+			throws IOException {
+		if (id instanceof Long) {
+			out.writeByte(LONG_ID);
+			out.writeLong((Long) id);
+			return;
+		}
+
+		String value = id.toString();
+		if (isUuid(value)) {
+			UUID uuid = UUID.fromString(value);
+			out.writeByte(UUID_ID);
+			out.writeLong(uuid.getMostSignificantBits());
+			out.writeLong(uuid.getLeastSignificantBits());
+		} else {
+			byte[] utf8 = value.getBytes(UTF_8);
+			out.writeByte(STRING_ID);
+			out.writeShort(utf8.length);
+			out.write(utf8);
+		}
+	}
+
+	static Serializable readId(ByteBuffer buffer, int position) {
+		byte kind = buffer.get(position);
+		if (kind == LONG_ID) {
+			return buffer.getLong(position + 1);
+		}
+		if (kind == UUID_ID) {
+			return new UUID(buffer.getLong(position + 1),
+					buffer.getLong(position + 9)).toString();
+		}
+		byte[] utf8 = new byte[buffer.getShort(position + 1) & 0xffff];
+		for (int i = 0; i < utf8.length; i++) {
+			utf8[i] = buffer.get(position + 3 + i);
+		}
+		return new String(utf8, UTF_8);
+	}
+
+	static int skipId(ByteBuffer buffer, int position) {
+		byte kind = buffer.get(position);
+		if (kind == LONG_ID) {
+			return position + 9;
+		}
+		if (kind == UUID_ID) {
+			return position + 17;
+		}
+		return position + 3 + (buffer.getShort(position + 1) & 0xffff);
+	}
+
+	/**
+	 * Is the id a lower case UUID, which is restored exactly from its bits
+	 * 
+	 * @param value - id
+	 * @return true if it can be stored in 16 bytes
+	 */
+	private static boolean isUuid(String value) {
+		if ((value.length() != 36) || (value.charAt(8) != '-')
+				|| (value.charAt(13) != '-') || (value.charAt(18) != '-')
+				|| (value.charAt(23) != '-')) {
+			return false;
+		}
+		try {
+			return UUID.fromString(value).toString().equals(value);
+		} catch (IllegalArgumentException e) {
+			return false;
+		}
+	}
+
+	private ObjectIdentity objectIdentity(Segment segment, int offset) {
+		return new ObjectIdentityImpl(
+				segment.dictionary.typesByOrdinal[segment.buffer
+						.getInt(offset + 1)], segment.buffer.getLong(offset + 5));
+	}
+
+	private static boolean isSupported(Sid sid) {
+		try {
+			SidFilteredAclCache.sidKey(sid);
+			return true;
+		} catch (IllegalArgumentException e) {
+			return false;
+		}
+	}
+
+	// Called with writeLock held
+	private void nextSegment() {
+		int number = nextSegment++;
+		int slot = number % segments.length();
+		Segment oldest = segments.get(slot);
+		if (oldest != null) {
+			drop(oldest);
+		}
+		current = new Segment(number, ByteBuffer.allocateDirect(segmentSize));
+		segments.set(slot, current);
+	}
+
+	// Called with writeLock held. Readers which already hold the segment can
+	// still read it, buffers are never reused.
+	private void drop(Segment segment) {
+		for (int i = 0; i < segment.ids.size(); i++) {
+			Serializable id = segment.ids.get(i);
+			Long address = addressesById.get(id);
+			if ((address != null)
+					&& ((int) (address.longValue() >>> 32) == segment.number)) {
+				addressesById.remove(id);
+				idsByObjectIdentity.remove(segment.objectIdentities.get(i), id);
+			}
+		}
+		droppedSegments.incrementAndGet();
+	}
+
+	private Segment segment(long address) {
+		int number = (int) (address >>> 32);
+		Segment segment = segments.get(number % segments.length());
+		return ((segment != null) && (segment.number == number)) ? segment
+				: null;
+	}
+
+	private static int offset(long address) {
+		return (int) address;
+	}
+
+	/**
+	 * Get Permission Factory
+	 * 
+	 * @return permissionFactory
+	 */
+	public PermissionFactory getPermissionFactory() {
+		return permissionFactory;
+	}
+
+	/**
+	 * Set Permission Factory, used to decode the masks of Aces
+	 * 
+	 * @param permissionFactory
+	 */
+	public void setPermissionFactory(PermissionFactory permissionFactory) {
+		this.permissionFactory = permissionFactory;
+	}
+
+	/**
+	 * Get Max Decoded Parents
+	 * 
+	 * @return maximum number of decoded parents shared by gets
+	 */
+	public int getMaxDecodedParents() {
+		return maxDecodedParents;
+	}
+
+	/**
+	 * Set Max Decoded Parents, the number of decoded parent Acls kept on the
+	 * heap to be shared by gets. 0 decodes the parents on every get.
+	 * 
+	 * @param maxDecodedParents
+	 */
+	public void setMaxDecodedParents(int maxDecodedParents) {
+		Assert.isTrue(maxDecodedParents >= 0, "MaxDecodedParents must be >= 0");
+		this.maxDecodedParents = maxDecodedParents;
+		if (maxDecodedParents == 0) {
+			synchronized (decodedParents) {
+				decodedParents.clear();
+			}
+		}
+	}
+
+	/**
+	 * Get Hit Count
+	 * 
+	 * @return hits
+	 */
+	public long getHitCount() {
+		return hits.get();
+	}
+
+	/**
+	 * Get Miss Count
+	 * 
+	 * @return misses
+	 */
+	public long getMissCount() {
+		return misses.get();
+	}
+
+	/**
+	 * Get Dropped Segment Count
+	 * 
+	 * @return segments dropped to make room for new ones
+	 */
+	public long getDroppedSegmentCount() {
+		return droppedSegments.get();
+	}
+
+	/**
+	 * Get Size
+	 * 
+	 * @return number of cached Acls
+	 */
+	public int getSize() {
+		return addressesById.size();
+	}
+
+	/**
+	 * Get Dictionary Size
+	 * 
+	 * @return number of Sids and class names in the dictionaries of the
+	 *         allocated segments
+	 */
+	public int getDictionarySize() {
+		int size = 0;
+		for (int i = 0; i < segments.length(); i++) {
+			Segment segment = segments.get(i);
+			if (segment != null) {
+				size += segment.dictionary.sidOrdinals.size()
+						+ segment.dictionary.typeOrdinals.size();
+			}
+		}
+		return size;
+	}
+
+	/**
+	 * Get Off Heap Bytes
+	 * 
+	 * @return bytes of the allocated segments
+	 */
+	public long getOffHeapBytes() {
+		long bytes = 0;
+		for (int i = 0; i < segments.length(); i++) {
+			if (segments.get(i) != null) {
+				bytes += segmentSize;
+			}
+		}
+		return bytes;
+	}
+
+	/**
+	 * Get Used Bytes
+	 * 
+	 * @return bytes written to the allocated segments, including the records
+	 *         of evicted and replaced Acls
+	 */
+	public long getUsedBytes() {
+		writeLock.lock();
+		try {
+			long bytes = 0;
+			for (int i = 0; i < segments.length(); i++) {
+				Segment segment = segments.get(i);
+				if (segment != null) {
+					bytes += segment.position;
+				}
+			}
+			return bytes;
+		} finally {
+			writeLock.unlock();
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "OffHeapAclCache[size: " + getSize() + "; usedBytes: "
+				+ getUsedBytes() + "; offHeapBytes: " + getOffHeapBytes()
+				+ "; hits: " + hits.get() + "; misses: " + misses.get()
+				+ "; droppedSegments: " + droppedSegments.get() + "]";
+	}
+
+	/**
+	 * Direct buffer the records are appended to, with the dictionary of their
+	 * ordinals and the ids and Object Identities written to it, so they can be
+	 * unindexed when it is dropped
+	 * 
+	 * @author shazin
+	 *
+	 */
+	private static final class Segment {
+
+		private final int number;
+		private final ByteBuffer buffer;
+		private final Dictionary dictionary = new Dictionary();
+
+		// Guarded by writeLock
+		private final List<Serializable> ids = new ArrayList<Serializable>();
+		private final List<ObjectIdentity> objectIdentities = new ArrayList<ObjectIdentity>();
+		private int position;
+
+		public Segment(int number, ByteBuffer buffer) {
+			this.number = number;
+			this.buffer = buffer;
+		}
+	}
+
+	/**
+	 * Sid and class name ordinals of the records of one segment. Readers use
+	 * the tables, which are replaced rather than changed when they grow.
+	 * 
+	 * @author shazin
+	 *
+	 */
+	private static final class Dictionary {
+
+		private final ConcurrentMap<String, Integer> sidOrdinals = new ConcurrentHashMap<String, Integer>();
+		private final ConcurrentMap<String, Integer> typeOrdinals = new ConcurrentHashMap<String, Integer>();
+		private volatile Sid[] sidsByOrdinal = new Sid[64];
+		private volatile String[] typesByOrdinal = new String[16];
+
+		// Called with writeLock held
+		public int sidOrdinal(Sid sid) {
+			String key = SidFilteredAclCache.sidKey(sid);
+			Integer ordinal = sidOrdinals.get(key);
+			if (ordinal == null) {
+				ordinal = sidOrdinals.size();
+				Sid[] table = sidsByOrdinal;
+				if (ordinal == table.length) {
+					table = Arrays.copyOf(table, table.length * 2);
+				}
+				table[ordinal] = sid;
+				sidsByOrdinal = table;
+				sidOrdinals.put(key, ordinal);
+			}
+			return ordinal;
+		}
+
+		// Called with writeLock held
+		public int typeOrdinal(String type) {
+			Integer ordinal = typeOrdinals.get(type);
+			if (ordinal == null) {
+				ordinal = typeOrdinals.size();
+				String[] table = typesByOrdinal;
+				if (ordinal == table.length) {
+					table = Arrays.copyOf(table, table.length * 2);
+				}
+				table[ordinal] = type;
+				typesByOrdinal = table;
+				typeOrdinals.put(type, ordinal);
+			}
+			return ordinal;
+		}
+	}
+
+	/**
+	 * Decoded Acl with the address of its record and its decoded parent
+	 * 
+	 * @author shazin
+	 *
+	 */
+	private static final class Decoded {
+
+		private final Neo4jAcl acl;
+		private final long address;
+		private final Decoded parent;
+
+		public Decoded(Neo4jAcl acl, long address, Decoded parent) {
+			this.acl = acl;
+			this.address = address;
+			this.parent = parent;
+		}
+	}
+
+}
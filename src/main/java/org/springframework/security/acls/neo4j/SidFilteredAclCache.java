@@ -0,0 +1,272 @@
+package org.springframework.security.acls.neo4j;
+
+import java.io.Serializable;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import net.sf.ehcache.Ehcache;
+import net.sf.ehcache.Element;
+import net.sf.ehcache.event.CacheEventListenerAdapter;
+
+import org.springframework.security.acls.domain.GrantedAuthoritySid;
+import org.springframework.security.acls.domain.PrincipalSid;
+import org.springframework.security.acls.model.AclCache;
+import org.springframework.security.acls.model.MutableAcl;
+import org.springframework.security.acls.model.ObjectIdentity;
+import org.springframework.security.acls.model.Sid;
+import org.springframework.util.Assert;
+
+/**
+ * Acl Cache which keeps fully loaded Acls in a delegate Acl Cache and Sid
+ * filtered Acls in a separate Ehcache, keyed by Object Identity and the set of
+ * Sids they were loaded for. A partial Acl is never returned for a plain
+ * Object Identity or id lookup, and evicting an Acl evicts its full and all
+ * of its partial copies.
+ * 
+ * @author shazin
+ *
+ */
+public class SidFilteredAclCache implements AclCache {
+
+	private final AclCache aclCache;
+	private final Ehcache cache;
+
+	// Object Identity -> keys of its partial Acls
+	private final ConcurrentMap<ObjectIdentity, Set<SidFilteredKey>> keysByObjectIdentity = new ConcurrentHashMap<ObjectIdentity, Set<SidFilteredKey>>();
+
+	// Acl Id -> Object Identity of partial Acls
+	private final ConcurrentMap<Serializable, ObjectIdentity> objectIdentitiesById = new ConcurrentHashMap<Serializable, ObjectIdentity>();
+
+	/**
+	 * Constructor
+	 * 
+	 * @param aclCache - Acl Cache for fully loaded Acls
+	 * @param cache - Ehcache for Sid filtered Acls
+	 */
+	public SidFilteredAclCache(AclCache aclCache, Ehcache cache) {
+		Assert.notNull(aclCache, "AclCache required");
+		Assert.notNull(cache, "Cache required");
+		this.aclCache = aclCache;
+		this.cache = cache;
+		this.cache.getCacheEventNotificationService().registerListener(
+				new CacheEventListenerAdapter() {
+					@Override
+					public void notifyElementExpired(Ehcache cache,
+							Element element) {
+						unindex(element);
+					}
+
+					@Override
+					public void notifyElementEvicted(Ehcache cache,
+							Element element) {
+						unindex(element);
+					}
+				});
+	}
+
+	/**
+	 * Key of a Sid as used in the Sid filtered lookup, P: for principals and
+	 * A: for granted authorities
+	 * 
+	 * @param sid - Sid
+	 * @return key
+	 */
+	public static String sidKey(Sid sid) {
+		if (sid instanceof PrincipalSid) {
+			return "P:" + ((PrincipalSid) sid).getPrincipal();
+		} else if (sid instanceof GrantedAuthoritySid) {
+			return "A:" + ((GrantedAuthoritySid) sid).getGrantedAuthority();
+		}
+		throw new IllegalArgumentException("Unsupported implementation of Sid");
+	}
+
+	/**
+	 * Sorted keys of Sids
+	 * 
+	 * @param sids - Sids
+	 * @return keys
+	 */
+	public static Set<String> sidKeys(List<Sid> sids) {
+		Set<String> keys = new TreeSet<String>();
+		for (Sid sid : sids) {
+			keys.add(sidKey(sid));
+		}
+		return keys;
+	}
+
+	/**
+	 * Get a Sid filtered Acl
+	 * 
+	 * @param objectIdentity - Object Identity
+	 * @param sids - Sids the Acl was loaded for
+	 * @return Acl or null
+	 */
+	public MutableAcl getFromCache(ObjectIdentity objectIdentity,
+			List<Sid> sids) {
+		Assert.notNull(objectIdentity, "ObjectIdentity required");
+		Assert.notEmpty(sids, "Sids required");
+		Element element = cache.get(new SidFilteredKey(objectIdentity,
+				sidKeys(sids)));
+		return element == null ? null : (MutableAcl) element.getObjectValue();
+	}
+
+	/**
+	 * Get a Sid filtered Acl
+	 * 
+	 * @param pk - Acl Id
+	 * @param sids - Sids the Acl was loaded for
+	 * @return Acl or null
+	 */
+	public MutableAcl getFromCache(Serializable pk, List<Sid> sids) {
+		Assert.notNull(pk, "Primary key (identifier) required");
+		ObjectIdentity objectIdentity = objectIdentitiesById.get(pk);
+		return objectIdentity == null ? null : getFromCache(objectIdentity,
+				sids);
+	}
+
+	/**
+	 * Put a Sid filtered Acl, and its parents, in the cache
+	 * 
+	 * @param acl - Acl
+	 * @param sids - Sids the Acl was loaded for
+	 */
+	public void putInCache(MutableAcl acl, List<Sid> sids) {
+		Assert.notNull(acl, "Acl required");
+		Assert.notNull(acl.getObjectIdentity(), "ObjectIdentity required");
+		Assert.notNull(acl.getId(), "ID required");
+		Assert.notEmpty(sids, "Sids required");
+
+		if ((acl.getParentAcl() != null)
+				&& (acl.getParentAcl() instanceof MutableAcl)) {
+			putInCache((MutableAcl) acl.getParentAcl(), sids);
+		}
+
+		SidFilteredKey key = new SidFilteredKey(acl.getObjectIdentity(),
+				sidKeys(sids));
+		Set<SidFilteredKey> keys = keysByObjectIdentity.get(acl
+				.getObjectIdentity());
+		if (keys == null) {
+			keys = Collections
+					.newSetFromMap(new ConcurrentHashMap<SidFilteredKey, Boolean>());
+			Set<SidFilteredKey> existing = keysByObjectIdentity.putIfAbsent(
+					acl.getObjectIdentity(), keys);
+			if (existing != null) {
+				keys = existing;
+			}
+		}
+		keys.add(key);
+		objectIdentitiesById.put(acl.getId(), acl.getObjectIdentity());
+		cache.put(new Element(key, acl));
+	}
+
+	@Override
+	public void evictFromCache(Serializable pk) {
+		Assert.notNull(pk, "Primary key (identifier) required");
+		aclCache.evictFromCache(pk);
+		ObjectIdentity objectIdentity = objectIdentitiesById.remove(pk);
+		if (objectIdentity != null) {
+			evictPartial(objectIdentity);
+		}
+	}
+
+	@Override
+	public void evictFromCache(ObjectIdentity objectIdentity) {
+		Assert.notNull(objectIdentity, "ObjectIdentity required");
+		aclCache.evictFromCache(objectIdentity);
+		evictPartial(objectIdentity);
+	}
+
+	@Override
+	public MutableAcl getFromCache(ObjectIdentity objectIdentity) {
+		return aclCache.getFromCache(objectIdentity);
+	}
+
+	@Override
+	public MutableAcl getFromCache(Serializable pk) {
+		return aclCache.getFromCache(pk);
+	}
+
+	@Override
+	public void putInCache(MutableAcl acl) {
+		aclCache.putInCache(acl);
+	}
+
+	@Override
+	public void clearCache() {
+		aclCache.clearCache();
+		cache.removeAll();
+		keysByObjectIdentity.clear();
+		objectIdentitiesById.clear();
+	}
+
+	private void evictPartial(ObjectIdentity objectIdentity) {
+		Set<SidFilteredKey> keys = keysByObjectIdentity.remove(objectIdentity);
+		if (keys == null) {
+			return;
+		}
+		for (SidFilteredKey key : keys) {
+			Element element = cache.getQuiet(key);
+			if (element != null) {
+				objectIdentitiesById.remove(((MutableAcl) element
+						.getObjectValue()).getId());
+			}
+			cache.remove(key);
+		}
+	}
+
+	private void unindex(Element element) {
+		SidFilteredKey key = (SidFilteredKey) element.getObjectKey();
+		Set<SidFilteredKey> keys = keysByObjectIdentity
+				.get(key.objectIdentity);
+		if (keys != null) {
+			keys.remove(key);
+			if (keys.isEmpty()
+					&& keysByObjectIdentity.remove(key.objectIdentity, keys)) {
+				objectIdentitiesById.remove(((MutableAcl) element
+						.getObjectValue()).getId());
+			}
+		}
+	}
+
+	/**
+	 * Cache key of a Sid filtered Acl
+	 * 
+	 * @author shazin
+	 *
+	 */
+	private static final class SidFilteredKey implements Serializable {
+
+		private static final long serialVersionUID = 1L;
+
+		private final ObjectIdentity objectIdentity;
+		private final Set<String> sidKeys;
+
+		public SidFilteredKey(ObjectIdentity objectIdentity,
+				Set<String> sidKeys) {
+			this.objectIdentity = objectIdentity;
+			this.sidKeys = sidKeys;
+		}
+
+		public boolean equals(Object o) {
+			if (o == this) {
+				return true;
+			}
+
+			if (o instanceof SidFilteredKey) {
+				SidFilteredKey other = (SidFilteredKey) o;
+				return objectIdentity.equals(other.objectIdentity)
+						&& sidKeys.equals(other.sidKeys);
+			}
+
+			return false;
+		}
+
+		public int hashCode() {
+			return 31 * objectIdentity.hashCode() + sidKeys.hashCode();
+		}
+	}
+}
@@ -0,0 +1,508 @@
+package org.springframework.security.acls.neo4j;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.springframework.security.acls.model.AclCache;
+import org.springframework.security.acls.model.MutableAcl;
+import org.springframework.security.acls.model.ObjectIdentity;
+import org.springframework.util.Assert;
+
+/**
+ * In heap Acl Cache with W-TinyLFU eviction, bounded by the total weight of
+ * the cached Acls, which is one plus the number of Aces of each Acl.
+ * 
+ * Every Acl is held once, in an entry which is indexed by both its id and its
+ * Object Identity. Reads only touch the concurrent indexes: they count the
+ * entry in a frequency sketch and record it in a lossy read buffer, which is
+ * replayed under the eviction lock by writes, or by a read which finds the
+ * buffer half full and the lock free. Acls are kept as they are, so unlike
+ * EhCacheBasedAclCache nothing is serialized or re-initialized on a get.
+ * 
+ * New Acls enter a small LRU window. Entries leaving the window are admitted
+ * to the segmented LRU main space, probation and protected, only if the
+ * sketch estimates them to be used more often than the main space victim;
+ * otherwise they are evicted themselves.
+ * 
+ * @author shazin
+ *
+ */
+public class TinyLfuAclCache implements AclCache {
+
+	private static final int READ_BUFFER_SIZE = 128;
+
+	private static final int WINDOW = 0;
+	private static final int PROBATION = 1;
+	private static final int PROTECTED = 2;
+	private static final int CANDIDATE = 3;
+
+	private final ConcurrentMap<Serializable, Entry> entriesById = new ConcurrentHashMap<Serializable, Entry>();
+	private final ConcurrentMap<ObjectIdentity, Entry> entriesByObjectIdentity = new ConcurrentHashMap<ObjectIdentity, Entry>();
+
+	private final Queue<Entry> readBuffer = new ConcurrentLinkedQueue<Entry>();
+	private final AtomicInteger readBufferSize = new AtomicInteger();
+	private final FrequencySketch sketch;
+
+	// Guarded by evictionLock
+	private final ReentrantLock evictionLock = new ReentrantLock();
+	private final LinkedHashSet<Entry> window = new LinkedHashSet<Entry>();
+	private final LinkedHashSet<Entry> probation = new LinkedHashSet<Entry>();
+	private final LinkedHashSet<Entry> protectedSpace = new LinkedHashSet<Entry>();
+	private final long maximumWeight;
+	private final long windowMaximum;
+	private final long protectedMaximum;
+	private long windowWeight;
+	private long protectedWeight;
+	private long totalWeight;
+
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final AtomicLong evictions = new AtomicLong();
+
+	/**
+	 * Constructor
+	 * 
+	 * @param maximumWeight - maximum total weight, one plus the number of Aces
+	 *            of each cached Acl
+	 */
+	public TinyLfuAclCache(long maximumWeight) {
+		Assert.isTrue(maximumWeight >= 1, "MaximumWeight must be >= 1");
+		this.maximumWeight = maximumWeight;
+		this.windowMaximum = Math.max(1, maximumWeight / 100);
+		this.protectedMaximum = (maximumWeight - windowMaximum) * 80 / 100;
+		this.sketch = new FrequencySketch(maximumWeight);
+	}
+
+	@Override
+	public void evictFromCache(Serializable pk) {
+		Assert.notNull(pk, "Primary key (identifier) required");
+		Entry entry = entriesById.get(pk);
+		if (entry != null) {
+			remove(entry, false);
+		}
+	}
+
+	@Override
+	public void evictFromCache(ObjectIdentity objectIdentity) {
+		Assert.notNull(objectIdentity, "ObjectIdentity required");
+		Entry entry = entriesByObjectIdentity.get(objectIdentity);
+		if (entry != null) {
+			remove(entry, false);
+		}
+	}
+
+	@Override
+	public MutableAcl getFromCache(ObjectIdentity objectIdentity) {
+		Assert.notNull(objectIdentity, "ObjectIdentity required");
+		return read(entriesByObjectIdentity.get(objectIdentity));
+	}
+
+	@Override
+	public MutableAcl getFromCache(Serializable pk) {
+		Assert.notNull(pk, "Primary key (identifier) required");
+		return read(entriesById.get(pk));
+	}
+
+	/**
+	 * Put an Acl, and its parents, in the cache
+	 */
+	@Override
+	public void putInCache(MutableAcl acl) {
+		Assert.notNull(acl, "Acl required");
+		Assert.notNull(acl.getObjectIdentity(), "ObjectIdentity required");
+		Assert.notNull(acl.getId(), "ID required");
+
+		if ((acl.getParentAcl() != null)
+				&& (acl.getParentAcl() instanceof MutableAcl)) {
+			// A parent which is cached as the same instance is left in place
+			MutableAcl parent = (MutableAcl) acl.getParentAcl();
+			Entry cached = entriesById.get(parent.getId());
+			if ((cached == null) || (cached.acl != parent)) {
+				putInCache(parent);
+			}
+		}
+
+		Entry entry = new Entry(acl.getId(), acl.getObjectIdentity(), acl,
+				weigh(acl));
+		evictionLock.lock();
+		try {
+			drainReadBuffer();
+
+			Entry previous = entriesById.put(entry.id, entry);
+			if (previous != null) {
+				entriesByObjectIdentity.remove(previous.objectIdentity,
+						previous);
+				unlink(previous);
+			}
+			previous = entriesByObjectIdentity.put(entry.objectIdentity, entry);
+			if (previous != null) {
+				entriesById.remove(previous.id, previous);
+				unlink(previous);
+			}
+
+			sketch.increment(entry.id);
+			entry.space = WINDOW;
+			window.add(entry);
+			windowWeight += entry.weight;
+			totalWeight += entry.weight;
+			evict();
+		} finally {
+			evictionLock.unlock();
+		}
+	}
+
+	@Override
+	public void clearCache() {
+		evictionLock.lock();
+		try {
+			readBuffer.clear();
+			readBufferSize.set(0);
+			for (Entry entry : entriesById.values()) {
+				entry.removed = true;
+			}
+			entriesById.clear();
+			entriesByObjectIdentity.clear();
+			window.clear();
+			probation.clear();
+			protectedSpace.clear();
+			windowWeight = 0;
+			protectedWeight = 0;
+			totalWeight = 0;
+		} finally {
+			evictionLock.unlock();
+		}
+	}
+
+	/**
+	 * Weight of an Acl, one plus its number of Aces
+	 * 
+	 * @param acl - Acl
+	 * @return weight
+	 */
+	protected int weigh(MutableAcl acl) {
+		return 1 + acl.getEntries().size();
+	}
+
+	private MutableAcl read(Entry entry) {
+		if (entry == null) {
+			misses.incrementAndGet();
+			return null;
+		}
+
+		hits.incrementAndGet();
+		sketch.increment(entry.id);
+		if (readBufferSize.incrementAndGet() <= READ_BUFFER_SIZE) {
+			readBuffer.offer(entry);
+		} else {
+			// Buffer is full, drop the access
+			readBufferSize.decrementAndGet();
+		}
+
+		if ((readBufferSize.get() >= READ_BUFFER_SIZE / 2)
+				&& evictionLock.tryLock()) {
+			try {
+				drainReadBuffer();
+			} finally {
+				evictionLock.unlock();
+			}
+		}
+
+		return entry.acl;
+	}
+
+	private void remove(Entry entry, boolean evicted) {
+		evictionLock.lock();
+		try {
+			if (entry.removed) {
+				return;
+			}
+			entriesById.remove(entry.id, entry);
+			entriesByObjectIdentity.remove(entry.objectIdentity, entry);
+			unlink(entry);
+			if (evicted) {
+				evictions.incrementAndGet();
+			}
+		} finally {
+			evictionLock.unlock();
+		}
+	}
+
+	private void drainReadBuffer() {
+		Entry entry;
+		while ((entry = readBuffer.poll()) != null) {
+			readBufferSize.decrementAndGet();
+			onAccess(entry);
+		}
+	}
+
+	private void onAccess(Entry entry) {
+		if (entry.removed) {
+			return;
+		}
+
+		if (entry.space == WINDOW) {
+			window.remove(entry);
+			window.add(entry);
+		} else if (entry.space == PROBATION) {
+			probation.remove(entry);
+			entry.space = PROTECTED;
+			protectedSpace.add(entry);
+			protectedWeight += entry.weight;
+
+			// Demote the least recently used protected entries
+			while (protectedWeight > protectedMaximum) {
+				Entry demoted = first(protectedSpace);
+				protectedSpace.remove(demoted);
+				protectedWeight -= demoted.weight;
+				demoted.space = PROBATION;
+				probation.add(demoted);
+			}
+		} else if (entry.space == PROTECTED) {
+			protectedSpace.remove(entry);
+			protectedSpace.add(entry);
+		}
+	}
+
+	private void evict() {
+		// Entries leaving the window are candidates for the main space
+		List<Entry> candidates = new ArrayList<Entry>();
+		while (windowWeight > windowMaximum) {
+			Entry candidate = first(window);
+			window.remove(candidate);
+			windowWeight -= candidate.weight;
+			candidate.space = CANDIDATE;
+			candidates.add(candidate);
+		}
+
+		int next = 0;
+		while (totalWeight > maximumWeight) {
+			Entry candidate = next < candidates.size() ? candidates.get(next)
+					: null;
+			Entry victim = first(probation);
+			if (victim == null) {
+				victim = first(protectedSpace);
+			}
+			if ((victim == null) && (candidate == null)) {
+				victim = first(window);
+				if (victim == null) {
+					break;
+				}
+			}
+
+			if (candidate == null) {
+				remove(victim, true);
+			} else if (victim == null) {
+				remove(candidate, true);
+				next++;
+			} else if (sketch.frequency(candidate.id) > sketch
+					.frequency(victim.id)) {
+				remove(victim, true);
+			} else {
+				remove(candidate, true);
+				next++;
+			}
+		}
+
+		for (Entry candidate : candidates) {
+			if (!candidate.removed) {
+				candidate.space = PROBATION;
+				probation.add(candidate);
+			}
+		}
+	}
+
+	private void unlink(Entry entry) {
+		if (entry.removed) {
+			return;
+		}
+		if (entry.space == WINDOW) {
+			window.remove(entry);
+			windowWeight -= entry.weight;
+		} else if (entry.space == PROBATION) {
+			probation.remove(entry);
+		} else if (entry.space == PROTECTED) {
+			protectedSpace.remove(entry);
+			protectedWeight -= entry.weight;
+		}
+		totalWeight -= entry.weight;
+		entry.removed = true;
+	}
+
+	private static Entry first(LinkedHashSet<Entry> space) {
+		Iterator<Entry> it = space.iterator();
+		return it.hasNext() ? it.next() : null;
+	}
+
+	/**
+	 * Get Hit Count
+	 * 
+	 * @return hits
+	 */
+	public long getHitCount() {
+		return hits.get();
+	}
+
+	/**
+	 * Get Miss Count
+	 * 
+	 * @return misses
+	 */
+	public long getMissCount() {
+		return misses.get();
+	}
+
+	/**
+	 * Get Eviction Count
+	 * 
+	 * @return evictions, not counting explicit evictFromCache calls
+	 */
+	public long getEvictionCount() {
+		return evictions.get();
+	}
+
+	/**
+	 * Get Size
+	 * 
+	 * @return number of cached Acls
+	 */
+	public int getSize() {
+		return entriesById.size();
+	}
+
+	/**
+	 * Get Weighted Size
+	 * 
+	 * @return total weight of the cached Acls
+	 */
+	public long getWeightedSize() {
+		evictionLock.lock();
+		try {
+			return totalWeight;
+		} finally {
+			evictionLock.unlock();
+		}
+	}
+
+	/**
+	 * Get Maximum Weight
+	 * 
+	 * @return maximumWeight
+	 */
+	public long getMaximumWeight() {
+		return maximumWeight;
+	}
+
+	@Override
+	public String toString() {
+		return "TinyLfuAclCache[size: " + getSize() + "; weightedSize: "
+				+ getWeightedSize() + "; hits: " + hits.get() + "; misses: "
+				+ misses.get() + "; evictions: " + evictions.get() + "]";
+	}
+
+	/**
+	 * Cached Acl, indexed by id and Object Identity
+	 * 
+	 * @author shazin
+	 *
+	 */
+	private static final class Entry {
+
+		private final Serializable id;
+		private final ObjectIdentity objectIdentity;
+		private final MutableAcl acl;
+		private final int weight;
+
+		// Guarded by evictionLock
+		private int space;
+		private volatile boolean removed;
+
+		public Entry(Serializable id, ObjectIdentity objectIdentity,
+				MutableAcl acl, int weight) {
+			this.id = id;
+			this.objectIdentity = objectIdentity;
+			this.acl = acl;
+			this.weight = weight;
+		}
+	}
+
+	/**
+	 * Count-Min sketch of 4 bit saturating counters which estimates how often
+	 * a key was used. Counters are halved once the number of increments
+	 * reaches ten times the table size, so old popularity fades. Increments
+	 * are not synchronized and may be lost under contention, which only
+	 * affects admission decisions.
+	 * 
+	 * @author shazin
+	 *
+	 */
+	private static final class FrequencySketch {
+
+		private static final int[] SEEDS = { 0x97cb3127, 0x61c88647,
+				0x7f4a7c15, 0x85ebca6b };
+
+		private final byte[] table;
+		private final int mask;
+		private final int sampleSize;
+		private int additions;
+
+		public FrequencySketch(long maximumWeight) {
+			int size = 64;
+			while ((size < maximumWeight) && (size < (1 << 22))) {
+				size <<= 1;
+			}
+			this.table = new byte[size];
+			this.mask = size - 1;
+			this.sampleSize = 10 * size;
+		}
+
+		public int frequency(Object key) {
+			int hash = spread(key.hashCode());
+			int frequency = Integer.MAX_VALUE;
+			for (int i = 0; i < SEEDS.length; i++) {
+				frequency = Math.min(frequency, table[index(hash, i)]);
+			}
+			return frequency;
+		}
+
+		public void increment(Object key) {
+			int hash = spread(key.hashCode());
+			for (int i = 0; i < SEEDS.length; i++) {
+				int index = index(hash, i);
+				if (table[index] < 15) {
+					table[index]++;
+				}
+			}
+			if (++additions >= sampleSize) {
+				reset();
+			}
+		}
+
+		private void reset() {
+			for (int i = 0; i < table.length; i++) {
+				table[i] = (byte) (table[i] >> 1);
+			}
+			additions = additions / 2;
+		}
+
+		private int index(int hash, int i) {
+			int h = hash * SEEDS[i];
+			return (h ^ (h >>> 16)) & mask;
+		}
+
+		private static int spread(int hash) {
+			int h = hash * 0x9e3779b9;
+			return h ^ (h >>> 15);
+		}
+	}
+
+}
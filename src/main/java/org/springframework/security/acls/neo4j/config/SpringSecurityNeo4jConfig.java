@@ -1,7 +1,21 @@
 package org.springframework.security.acls.neo4j.config;
 
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.ApplicationContext;
+import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.data.neo4j.config.Neo4jConfiguration;
+import org.springframework.security.acls.jdbc.LookupStrategy;
+import org.springframework.security.acls.model.MutableAclService;
+import org.springframework.security.acls.neo4j.Neo4jAclSchemaInitializer;
+import org.springframework.security.acls.neo4j.Neo4jAclSnapshot;
+import org.springframework.security.acls.neo4j.Neo4jLookupStrategy;
+import org.springframework.security.acls.neo4j.Neo4jMutableAclService;
 
 /**
  * Spring Security Neo4j Configuration
@@ -12,9 +26,155 @@ import org.springframework.data.neo4j.config.Neo4jConfiguration;
 @Configuration
 public class SpringSecurityNeo4jConfig extends Neo4jConfiguration {
 
+	@Autowired
+	private ApplicationContext applicationContext;
+
+	private String aclSnapshotFile;
+	private long aclSnapshotWriteIntervalSeconds = 300;
+	private int aclSnapshotMaxEntries = 100000;
+
 	public SpringSecurityNeo4jConfig() {
 		setBasePackage("org.springframework.security.acls.neo4j.model");
 	}
-	
-	
+
+	/**
+	 * Schema indexes and uniqueness constraints for the Acl graph model. The
+	 * statements of every Neo4jMutableAclService and Neo4jLookupStrategy bean
+	 * are checked against the query planner.
+	 * 
+	 * @param graphDatabaseService - Graph Database Service
+	 * @return schema initializer
+	 */
+	@Bean
+	public Neo4jAclSchemaInitializer neo4jAclSchemaInitializer(
+			GraphDatabaseService graphDatabaseService) {
+		Neo4jAclSchemaInitializer initializer = new Neo4jAclSchemaInitializer(
+				graphDatabaseService);
+		for (Neo4jMutableAclService mutableAclService : neo4jMutableAclServices()) {
+			initializer.setMutableAclService(mutableAclService);
+		}
+		for (Neo4jLookupStrategy lookupStrategy : neo4jLookupStrategies()) {
+			initializer.setLookupStrategy(lookupStrategy);
+		}
+		return initializer;
+	}
+
+	/**
+	 * Snapshot of the hot Acls for warm restarts, inactive unless
+	 * aclSnapshotFile is set. It is given to every Neo4jLookupStrategy bean,
+	 * and every Neo4jMutableAclService bean is set to stamp Acl versions for
+	 * it when it starts.
+	 * 
+	 * @param graphDatabaseService - Graph Database Service
+	 * @return snapshot
+	 */
+	@Bean
+	public Neo4jAclSnapshot neo4jAclSnapshot(
+			GraphDatabaseService graphDatabaseService) {
+		Neo4jAclSnapshot snapshot = new Neo4jAclSnapshot(graphDatabaseService);
+		if (aclSnapshotFile != null) {
+			snapshot.setFile(new File(aclSnapshotFile));
+		}
+		snapshot.setWriteIntervalSeconds(aclSnapshotWriteIntervalSeconds);
+		snapshot.setMaxEntries(aclSnapshotMaxEntries);
+		for (Neo4jMutableAclService mutableAclService : neo4jMutableAclServices()) {
+			snapshot.setMutableAclService(mutableAclService);
+			if (aclSnapshotFile != null) {
+				mutableAclService.setVersionStamping(true);
+			}
+		}
+		for (Neo4jLookupStrategy lookupStrategy : neo4jLookupStrategies()) {
+			lookupStrategy.setSnapshot(snapshot);
+		}
+		return snapshot;
+	}
+
+	/**
+	 * Neo4jMutableAclService beans of the context. The beans are declared as
+	 * MutableAclService, so they are matched on their instances.
+	 * 
+	 * @return mutable acl services
+	 */
+	protected List<Neo4jMutableAclService> neo4jMutableAclServices() {
+		List<Neo4jMutableAclService> services = new ArrayList<Neo4jMutableAclService>();
+		for (MutableAclService service : applicationContext.getBeansOfType(
+				MutableAclService.class).values()) {
+			if (service instanceof Neo4jMutableAclService) {
+				services.add((Neo4jMutableAclService) service);
+			}
+		}
+		return services;
+	}
+
+	/**
+	 * Neo4jLookupStrategy beans of the context, matched on their instances
+	 * 
+	 * @return lookup strategies
+	 */
+	protected List<Neo4jLookupStrategy> neo4jLookupStrategies() {
+		List<Neo4jLookupStrategy> strategies = new ArrayList<Neo4jLookupStrategy>();
+		for (LookupStrategy strategy : applicationContext.getBeansOfType(
+				LookupStrategy.class).values()) {
+			if (strategy instanceof Neo4jLookupStrategy) {
+				strategies.add((Neo4jLookupStrategy) strategy);
+			}
+		}
+		return strategies;
+	}
+
+	/**
+	 * Get Acl Snapshot File
+	 * 
+	 * @return aclSnapshotFile
+	 */
+	public String getAclSnapshotFile() {
+		return aclSnapshotFile;
+	}
+
+	/**
+	 * Set Acl Snapshot File, the snapshot is inactive when null
+	 * 
+	 * @param aclSnapshotFile
+	 */
+	public void setAclSnapshotFile(String aclSnapshotFile) {
+		this.aclSnapshotFile = aclSnapshotFile;
+	}
+
+	/**
+	 * Get Acl Snapshot Write Interval Seconds
+	 * 
+	 * @return aclSnapshotWriteIntervalSeconds
+	 */
+	public long getAclSnapshotWriteIntervalSeconds() {
+		return aclSnapshotWriteIntervalSeconds;
+	}
+
+	/**
+	 * Set Acl Snapshot Write Interval Seconds, 0 to only write on shutdown
+	 * 
+	 * @param aclSnapshotWriteIntervalSeconds
+	 */
+	public void setAclSnapshotWriteIntervalSeconds(
+			long aclSnapshotWriteIntervalSeconds) {
+		this.aclSnapshotWriteIntervalSeconds = aclSnapshotWriteIntervalSeconds;
+	}
+
+	/**
+	 * Get Acl Snapshot Max Entries
+	 * 
+	 * @return aclSnapshotMaxEntries
+	 */
+	public int getAclSnapshotMaxEntries() {
+		return aclSnapshotMaxEntries;
+	}
+
+	/**
+	 * Set Acl Snapshot Max Entries, the number of most used Acls written
+	 * 
+	 * @param aclSnapshotMaxEntries
+	 */
+	public void setAclSnapshotMaxEntries(int aclSnapshotMaxEntries) {
+		this.aclSnapshotMaxEntries = aclSnapshotMaxEntries;
+	}
+
 }
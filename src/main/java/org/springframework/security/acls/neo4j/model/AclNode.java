@@ -32,7 +32,8 @@ public class AclNode extends BaseNode {
 	@Indexed(indexName = "object_id_identity", indexType = IndexType.FULLTEXT)
 	private Long objectIdIdentity;
 
-	// Parent Object
+	// Parent Object, the parent is also linked by a CHILD_OF relationship
+	// which is maintained with Cypher by the Mutable Acl Service
 	@Indexed(indexName = "parent_object", indexType = IndexType.FULLTEXT)
 	private String parentObject;
 
@@ -0,0 +1,176 @@
+package org.springframework.security.acls.neo4j;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import net.sf.ehcache.CacheManager;
+
+import org.junit.FixMethodOrder;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.MethodSorters;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.neo4j.conversion.Result;
+import org.springframework.data.neo4j.support.Neo4jTemplate;
+import org.springframework.security.acls.domain.AclAuthorizationStrategy;
+import org.springframework.security.acls.domain.ObjectIdentityImpl;
+import org.springframework.security.acls.model.Acl;
+import org.springframework.security.acls.model.AclCache;
+import org.springframework.security.acls.model.ObjectIdentity;
+import org.springframework.security.acls.model.PermissionGrantingStrategy;
+import org.springframework.security.acls.neo4j.config.AppTestConfig;
+import org.springframework.security.acls.neo4j.config.H2TestConfig;
+import org.springframework.security.acls.neo4j.config.Neo4jTestConfig;
+import org.springframework.security.authentication.TestingAuthenticationToken;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.test.annotation.Rollback;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.transaction.annotation.Transactional;
+
+@ContextConfiguration(classes = { AppTestConfig.class, H2TestConfig.class, Neo4jTestConfig.class })
+@RunWith(SpringJUnit4ClassRunner.class)
+@Transactional(readOnly = true)
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+@ActiveProfiles(value="dev-neo4j")
+public class MissingAclCacheTest {
+
+	private static final String CLASS_NAME = "com.test.missing.Document";
+
+	@Autowired
+	private AclCache aclCache;
+
+	@Autowired
+	private GraphDatabaseService graphDatabaseService;
+
+	@Autowired
+	private AclAuthorizationStrategy aclAuthorizationStrategy;
+
+	@Autowired
+	private PermissionGrantingStrategy permissionGrantingStrategy;
+
+	@Test
+	@Rollback(false)
+	@Transactional(rollbackFor = Exception.class)
+	public void test1missingIdentitiesSkipQueriesUntilCreated() {
+		Authentication auth = new TestingAuthenticationToken("shazin", "N/A");
+		auth.setAuthenticated(true);
+		SecurityContextHolder.getContext().setAuthentication(auth);
+		MissingAclCache missingAclCache = new MissingAclCache(CacheManager
+				.getInstance().addCacheIfAbsent("missingAclCache"));
+		missingAclCache.clear();
+		CountingNeo4jTemplate countingTemplate = new CountingNeo4jTemplate(
+				graphDatabaseService);
+		Neo4jLookupStrategy strategy = new Neo4jLookupStrategy(
+				graphDatabaseService, aclCache, aclAuthorizationStrategy,
+				permissionGrantingStrategy);
+		strategy.setNeo4jTemplate(countingTemplate);
+		strategy.setMissingAclCache(missingAclCache);
+		Neo4jMutableAclService service = new Neo4jMutableAclService(
+				graphDatabaseService, aclCache, strategy);
+		ObjectIdentity oid = new ObjectIdentityImpl(CLASS_NAME, 1l);
+		List<ObjectIdentity> oids = Arrays.asList(oid);
+
+		try {
+			aclCache.clearCache();
+			assertTrue(strategy.readAclsById(oids, null).isEmpty());
+			assertTrue(missingAclCache.isMissing(oid));
+			assertEquals(1, countingTemplate.getInvocations());
+
+			assertTrue(strategy.readAclsById(oids, null).isEmpty());
+			assertEquals(1, countingTemplate.getInvocations());
+
+			service.createAcl(oid);
+			assertFalse(missingAclCache.isMissing(oid));
+			aclCache.clearCache();
+			Map<ObjectIdentity, Acl> acls = strategy.readAclsById(oids, null);
+			assertNotNull(acls.get(oid));
+			assertFalse(missingAclCache.isMissing(oid));
+		} finally {
+			aclCache.clearCache();
+			missingAclCache.clear();
+		}
+	}
+
+	@Test
+	public void test2lookupRacingWithEvictionStoresNothing() {
+		MissingAclCache missingAclCache = new MissingAclCache(CacheManager
+				.getInstance().addCacheIfAbsent("missingAclCache"));
+		ObjectIdentity oid = new ObjectIdentityImpl(CLASS_NAME, 2l);
+
+		long generation = missingAclCache.getGeneration(oid);
+		missingAclCache.evict(oid);
+		missingAclCache.putMissing(oid, generation);
+		assertFalse(missingAclCache.isMissing(oid));
+
+		missingAclCache.putMissing(oid, missingAclCache.getGeneration(oid));
+		assertTrue(missingAclCache.isMissing(oid));
+		missingAclCache.clear();
+		assertFalse(missingAclCache.isMissing(oid));
+	}
+
+	@Test
+	public void test2bevictionInAnotherStripeStoresMiss() {
+		MissingAclCache missingAclCache = new MissingAclCache(CacheManager
+				.getInstance().addCacheIfAbsent("missingAclCache"));
+		ObjectIdentity oid = new ObjectIdentityImpl(CLASS_NAME, 2l);
+		ObjectIdentity other = null;
+		for (long i = 3; other == null; i++) {
+			ObjectIdentity candidate = new ObjectIdentityImpl(CLASS_NAME, i);
+			if (missingAclCache.stripe(candidate) != missingAclCache
+					.stripe(oid)) {
+				other = candidate;
+			}
+		}
+
+		// Creating an Acl elsewhere does not discard this miss
+		long generation = missingAclCache.getGeneration(oid);
+		missingAclCache.evict(other);
+		missingAclCache.putMissing(oid, generation);
+		assertTrue(missingAclCache.isMissing(oid));
+		missingAclCache.clear();
+	}
+
+	@Test
+	public void test3entriesExpire() throws InterruptedException {
+		MissingAclCache missingAclCache = new MissingAclCache(CacheManager
+				.getInstance().addCacheIfAbsent("missingAclCache"));
+		missingAclCache.setTimeToLiveSeconds(1);
+		ObjectIdentity oid = new ObjectIdentityImpl(CLASS_NAME, 4l);
+
+		missingAclCache.putMissing(oid, missingAclCache.getGeneration(oid));
+		assertTrue(missingAclCache.isMissing(oid));
+		Thread.sleep(1500);
+		assertFalse(missingAclCache.isMissing(oid));
+	}
+
+	private static class CountingNeo4jTemplate extends Neo4jTemplate {
+
+		private final AtomicInteger invocations = new AtomicInteger();
+
+		public CountingNeo4jTemplate(GraphDatabaseService graphDatabaseService) {
+			super(graphDatabaseService);
+		}
+
+		@Override
+		public Result<Map<String, Object>> query(String statement,
+				Map<String, Object> params) {
+			invocations.incrementAndGet();
+			return super.query(statement, params);
+		}
+
+		public int getInvocations() {
+			return invocations.get();
+		}
+	}
+}
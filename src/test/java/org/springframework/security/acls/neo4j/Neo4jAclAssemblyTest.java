@@ -0,0 +1,439 @@
+package org.springframework.security.acls.neo4j;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.FixMethodOrder;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.MethodSorters;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.security.acls.domain.AccessControlEntryImpl;
+import org.springframework.security.acls.domain.AclAuthorizationStrategy;
+import org.springframework.security.acls.domain.AclImpl;
+import org.springframework.security.acls.domain.BasePermission;
+import org.springframework.security.acls.domain.GrantedAuthoritySid;
+import org.springframework.security.acls.domain.ObjectIdentityImpl;
+import org.springframework.security.acls.domain.PrincipalSid;
+import org.springframework.security.acls.model.Acl;
+import org.springframework.security.acls.model.AclCache;
+import org.springframework.security.acls.model.AuditableAcl;
+import org.springframework.security.acls.model.MutableAcl;
+import org.springframework.security.acls.model.MutableAclService;
+import org.springframework.security.acls.model.ObjectIdentity;
+import org.springframework.security.acls.model.Permission;
+import org.springframework.security.acls.model.PermissionGrantingStrategy;
+import org.springframework.security.acls.model.Sid;
+import org.springframework.security.acls.neo4j.config.AppTestConfig;
+import org.springframework.security.acls.neo4j.config.H2TestConfig;
+import org.springframework.security.acls.neo4j.config.Neo4jTestConfig;
+import org.springframework.security.authentication.TestingAuthenticationToken;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.test.annotation.Rollback;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.transaction.annotation.Transactional;
+
+@ContextConfiguration(classes = { AppTestConfig.class, H2TestConfig.class, Neo4jTestConfig.class })
+@RunWith(SpringJUnit4ClassRunner.class)
+@Transactional(readOnly = true)
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+@ActiveProfiles(value="dev-neo4j")
+public class Neo4jAclAssemblyTest {
+
+	private static final String CLASS_NAME = "com.test.assembly.Document";
+
+	private static final int DEPTH = 10;
+
+	private static final int ACE_COUNT = 100;
+
+	private static final int ROUNDS = 50;
+
+	@Autowired
+	private MutableAclService mutableAclService;
+
+	@Autowired
+	private AclCache aclCache;
+
+	@Autowired
+	private GraphDatabaseService graphDatabaseService;
+
+	@Autowired
+	private AclAuthorizationStrategy aclAuthorizationStrategy;
+
+	@Autowired
+	private PermissionGrantingStrategy permissionGrantingStrategy;
+
+	@Test
+	@Rollback(false)
+	@Transactional(rollbackFor = Exception.class)
+	public void test1createAcls() {
+		Authentication auth = new TestingAuthenticationToken("shazin", "N/A");
+		auth.setAuthenticated(true);
+		SecurityContextHolder.getContext().setAuthentication(auth);
+
+		MutableAcl parentAcl = null;
+		for (int i = 1; i <= DEPTH; i++) {
+			MutableAcl acl = mutableAclService.createAcl(new ObjectIdentityImpl(
+					CLASS_NAME, Long.valueOf(i)));
+			for (int j = 0; j < ACE_COUNT; j++) {
+				acl.insertAce(j, j % 2 == 0 ? BasePermission.READ
+						: BasePermission.WRITE, new GrantedAuthoritySid(
+						"ROLE_ASSEMBLY_" + j), j % 3 != 0);
+			}
+			((AuditableAcl) acl).updateAuditing(0, true, true);
+			if (parentAcl != null) {
+				acl.setParent(parentAcl);
+			}
+			parentAcl = mutableAclService.updateAcl(acl);
+		}
+	}
+
+	@Test
+	public void test2directAssemblyMatchesAclImpl() {
+		List<ObjectIdentity> oids = objectIdentities();
+		Neo4jLookupStrategy strategy = new Neo4jLookupStrategy(
+				graphDatabaseService, aclCache, aclAuthorizationStrategy,
+				permissionGrantingStrategy);
+		Neo4jLookupStrategy direct = new Neo4jLookupStrategy(
+				graphDatabaseService, aclCache, aclAuthorizationStrategy,
+				permissionGrantingStrategy);
+		direct.setDirectAssembly(true);
+
+		for (boolean aggregated : new boolean[] { false, true }) {
+			strategy.setAggregatedLookup(aggregated);
+			direct.setAggregatedLookup(aggregated);
+			try {
+				aclCache.clearCache();
+				Map<ObjectIdentity, Acl> expected = strategy.readAclsById(oids,
+						null);
+				aclCache.clearCache();
+				Map<ObjectIdentity, Acl> actual = direct.readAclsById(oids,
+						null);
+
+				for (ObjectIdentity oid : oids) {
+					Acl e = expected.get(oid);
+					Acl a = actual.get(oid);
+					assertTrue(a instanceof Neo4jAcl);
+					while (e != null) {
+						assertSameEntries(e, a);
+						assertEquals(e.isEntriesInheriting(),
+								a.isEntriesInheriting());
+						assertEquals(e.getOwner(), a.getOwner());
+						e = e.getParentAcl();
+						a = a.getParentAcl();
+					}
+					assertNull(a);
+				}
+				assertSame(actual.get(oids.get(0)), actual.get(oids.get(1))
+						.getParentAcl());
+
+				ObjectIdentity deepest = oids.get(DEPTH - 1);
+				List<Permission> permissions = Arrays
+						.<Permission> asList(BasePermission.WRITE);
+				List<Sid> sids = Arrays.<Sid> asList(new GrantedAuthoritySid(
+						"ROLE_ASSEMBLY_1"));
+				assertEquals(expected.get(deepest).isGranted(permissions,
+						sids, false), actual.get(deepest).isGranted(
+						permissions, sids, false));
+			} finally {
+				aclCache.clearCache();
+			}
+		}
+	}
+
+	@Test
+	public void test3directAssemblyCost() {
+		List<ObjectIdentity> oids = objectIdentities();
+		Neo4jLookupStrategy strategy = new Neo4jLookupStrategy(
+				graphDatabaseService, aclCache, aclAuthorizationStrategy,
+				permissionGrantingStrategy);
+		Neo4jLookupStrategy direct = new Neo4jLookupStrategy(
+				graphDatabaseService, aclCache, aclAuthorizationStrategy,
+				permissionGrantingStrategy);
+		direct.setDirectAssembly(true);
+
+		try {
+			// Warm up both paths before measuring
+			read(strategy, oids, ROUNDS);
+			read(direct, oids, ROUNDS);
+
+			long[] reflective = read(strategy, oids, ROUNDS);
+			long[] assembled = read(direct, oids, ROUNDS);
+
+			System.out.println("Reading " + DEPTH + " Acls with " + ACE_COUNT
+					+ " Aces " + ROUNDS + " times, AclImpl in "
+					+ reflective[0] + "ns allocating " + reflective[1]
+					+ " bytes, Neo4jAcl in " + assembled[0]
+					+ "ns allocating " + assembled[1] + " bytes");
+		} finally {
+			aclCache.clearCache();
+		}
+	}
+
+	@Test
+	@Rollback(false)
+	@Transactional(rollbackFor = Exception.class)
+	public void test4directAssemblyAclsCanBeUpdated() {
+		Authentication auth = new TestingAuthenticationToken("shazin", "N/A");
+		auth.setAuthenticated(true);
+		SecurityContextHolder.getContext().setAuthentication(auth);
+		Neo4jLookupStrategy direct = new Neo4jLookupStrategy(
+				graphDatabaseService, aclCache, aclAuthorizationStrategy,
+				permissionGrantingStrategy);
+		direct.setDirectAssembly(true);
+		Neo4jMutableAclService service = new Neo4jMutableAclService(
+				graphDatabaseService, aclCache, direct);
+		ObjectIdentity oid = new ObjectIdentityImpl(CLASS_NAME,
+				Long.valueOf(DEPTH + 1));
+
+		try {
+			aclCache.clearCache();
+			MutableAcl acl = service.createAcl(oid);
+			assertTrue(acl instanceof Neo4jAcl);
+			acl.insertAce(0, BasePermission.READ, new PrincipalSid("alice"),
+					true);
+			acl.insertAce(1, BasePermission.WRITE, new PrincipalSid("bob"),
+					false);
+			acl.updateAce(1, BasePermission.CREATE);
+			((AuditableAcl) acl).updateAuditing(0, true, false);
+			acl.setParent(service.readAclById(new ObjectIdentityImpl(
+					CLASS_NAME, Long.valueOf(DEPTH))));
+			acl = service.updateAcl(acl);
+
+			aclCache.clearCache();
+			Acl reloaded = service.readAclById(oid);
+			assertTrue(reloaded instanceof Neo4jAcl);
+			assertSameEntries(acl, reloaded);
+			assertEquals(BasePermission.CREATE, reloaded.getEntries().get(1)
+					.getPermission());
+			assertSame(reloaded, reloaded.getEntries().get(0).getAcl());
+			assertEquals(new ObjectIdentityImpl(CLASS_NAME,
+					Long.valueOf(DEPTH)), reloaded.getParentAcl()
+					.getObjectIdentity());
+
+			service.deleteAcl(oid, true);
+		} finally {
+			aclCache.clearCache();
+		}
+	}
+
+	@Test
+	public void test5rowConversionAllocation() {
+		List<ObjectIdentity> oids = objectIdentities();
+		Neo4jLookupStrategy strategy = new Neo4jLookupStrategy(
+				graphDatabaseService, aclCache, aclAuthorizationStrategy,
+				permissionGrantingStrategy);
+		strategy.setDirectAssembly(true);
+		long rows = (long) ROUNDS * DEPTH * ACE_COUNT;
+
+		try {
+			read(strategy, oids, ROUNDS);
+			long[] cost = read(strategy, oids, ROUNDS);
+
+			System.out.println("Converted " + rows + " Ace rows in " + cost[0]
+					+ "ns, " + (cost[0] / rows) + "ns and "
+					+ (cost[1] / rows) + " bytes per row");
+			assertTrue(cost[1] != 0);
+		} finally {
+			aclCache.clearCache();
+		}
+	}
+
+	@Test
+	public void test6interningPoolSharesInstances() {
+		List<ObjectIdentity> oids = objectIdentities();
+		Neo4jInterningPool pool = new Neo4jInterningPool(10000);
+		Neo4jLookupStrategy strategy = new Neo4jLookupStrategy(
+				graphDatabaseService, aclCache, aclAuthorizationStrategy,
+				permissionGrantingStrategy);
+		strategy.setInterningPool(pool);
+
+		try {
+			aclCache.clearCache();
+			Map<ObjectIdentity, Acl> acls = strategy.readAclsById(oids, null);
+			Acl first = acls.get(oids.get(0));
+			for (ObjectIdentity oid : oids) {
+				Acl acl = acls.get(oid);
+				assertSame(first.getOwner(), acl.getOwner());
+				for (int i = 0; i < ACE_COUNT; i++) {
+					assertSame(first.getEntries().get(i).getSid(), acl
+							.getEntries().get(i).getSid());
+					assertSame(first.getEntries().get(i).getPermission(), acl
+							.getEntries().get(i).getPermission());
+				}
+			}
+
+			// A second lookup shares the identities of the first
+			aclCache.clearCache();
+			Acl reloaded = strategy.readAclsById(oids, null).get(
+					oids.get(0));
+			assertSame(first.getObjectIdentity(),
+					reloaded.getObjectIdentity());
+			assertTrue(pool.getHits() > 0);
+			assertTrue(pool.getEstimatedBytesSaved() > 0);
+			System.out.println(pool);
+
+			// A full pool evicts instead of growing, and lookups still work
+			Neo4jInterningPool small = new Neo4jInterningPool(5);
+			strategy.setInterningPool(small);
+			aclCache.clearCache();
+			assertEquals(oids.size(), strategy.readAclsById(oids, null)
+					.size());
+			assertTrue(small.getSize() <= 10);
+			assertTrue(small.getEvictions() > 0);
+		} finally {
+			aclCache.clearCache();
+		}
+	}
+
+	@Test
+	public void test6binterningPoolEvictsLeastRecentlyUsed() {
+		Neo4jInterningPool pool = new Neo4jInterningPool(2);
+		Sid a = pool.intern(new PrincipalSid("a"));
+		Sid b = pool.intern(new PrincipalSid("b"));
+		ObjectIdentity oid = pool.intern(new ObjectIdentityImpl(
+				"my.test.Pool", 1l));
+
+		// Object Identities have their own pool and evict no Sid
+		for (long i = 2; i <= 10; i++) {
+			pool.intern(new ObjectIdentityImpl("my.test.Pool", i));
+		}
+		assertSame(a, pool.intern(new PrincipalSid("a")));
+		assertNotSame(oid, pool.intern(new ObjectIdentityImpl(
+				"my.test.Pool", 1l)));
+
+		// a was used last, so c takes the place of b
+		pool.intern(new PrincipalSid("c"));
+		assertSame(a, pool.intern(new PrincipalSid("a")));
+		assertNotSame(b, pool.intern(new PrincipalSid("b")));
+		assertEquals(4, pool.getSize());
+	}
+
+	@Test
+	public void test7serializedAclsGetTheirStrategiesBack() throws Exception {
+		List<ObjectIdentity> oids = objectIdentities();
+		ObjectIdentity deepest = oids.get(DEPTH - 1);
+		Neo4jLookupStrategy direct = new Neo4jLookupStrategy(
+				graphDatabaseService, aclCache, aclAuthorizationStrategy,
+				permissionGrantingStrategy);
+		direct.setDirectAssembly(true);
+
+		try {
+			aclCache.clearCache();
+			Acl loaded = direct.readAclsById(Arrays.asList(deepest), null)
+					.get(deepest);
+
+			// As EhCacheBasedAclCache hands out an Acl after an overflow to
+			// disk, without its transient strategies
+			MutableAcl copy = (MutableAcl) serializedCopy(loaded);
+			assertEquals(loaded, copy);
+			TinyLfuAclCache cache = new TinyLfuAclCache(1000);
+			cache.putInCache(copy);
+			Neo4jLookupStrategy strategy = new Neo4jLookupStrategy(
+					graphDatabaseService, cache, aclAuthorizationStrategy,
+					permissionGrantingStrategy);
+			strategy.setDirectAssembly(true);
+
+			Acl cached = strategy.readAclsById(Arrays.asList(deepest), null)
+					.get(deepest);
+			assertSame(copy, cached);
+			List<Permission> permissions = Arrays
+					.<Permission> asList(BasePermission.WRITE);
+			List<Sid> sids = Arrays.<Sid> asList(new GrantedAuthoritySid(
+					"ROLE_ASSEMBLY_1"));
+			assertEquals(loaded.isGranted(permissions, sids, false),
+					cached.isGranted(permissions, sids, false));
+			assertEquals(loaded.getParentAcl().isGranted(permissions, sids,
+					false), cached.getParentAcl().isGranted(permissions, sids,
+					false));
+		} finally {
+			aclCache.clearCache();
+		}
+	}
+
+	private Object serializedCopy(Object object) throws Exception {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		ObjectOutputStream out = new ObjectOutputStream(bytes);
+		out.writeObject(object);
+		out.close();
+		ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(
+				bytes.toByteArray()));
+		try {
+			return in.readObject();
+		} finally {
+			in.close();
+		}
+	}
+
+	// Elapsed nanoseconds and bytes allocated by this thread, the byte count
+	// is negative when the JVM does not report allocations
+	private long[] read(Neo4jLookupStrategy strategy,
+			List<ObjectIdentity> oids, int rounds) {
+		ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+		com.sun.management.ThreadMXBean allocations = null;
+		if (threadMXBean instanceof com.sun.management.ThreadMXBean) {
+			allocations = (com.sun.management.ThreadMXBean) threadMXBean;
+		}
+		long threadId = Thread.currentThread().getId();
+
+		long allocatedBefore = allocations == null ? 0 : allocations
+				.getThreadAllocatedBytes(threadId);
+		long start = System.nanoTime();
+		for (int i = 0; i < rounds; i++) {
+			aclCache.clearCache();
+			Map<ObjectIdentity, Acl> acls = strategy.readAclsById(oids, null);
+			assertEquals(oids.size(), acls.size());
+		}
+		long end = System.nanoTime();
+		long allocatedAfter = allocations == null ? -1 : allocations
+				.getThreadAllocatedBytes(threadId);
+
+		return new long[] { end - start, allocatedAfter - allocatedBefore };
+	}
+
+	private void assertSameEntries(Acl expected, Acl actual) {
+		assertEquals(expected.getObjectIdentity(), actual.getObjectIdentity());
+		assertEquals(expected.getEntries().size(), actual.getEntries().size());
+		for (int i = 0; i < expected.getEntries().size(); i++) {
+			AccessControlEntryImpl e = (AccessControlEntryImpl) expected
+					.getEntries().get(i);
+			AccessControlEntryImpl a = (AccessControlEntryImpl) actual
+					.getEntries().get(i);
+			assertEquals(e.getId(), a.getId());
+			assertEquals(e.getSid(), a.getSid());
+			assertEquals(e.getPermission(), a.getPermission());
+			assertEquals(e.isGranting(), a.isGranting());
+			assertEquals(e.isAuditSuccess(), a.isAuditSuccess());
+			assertEquals(e.isAuditFailure(), a.isAuditFailure());
+			if (!(actual instanceof AclImpl)) {
+				assertSame(actual, a.getAcl());
+			}
+		}
+	}
+
+	private List<ObjectIdentity> objectIdentities() {
+		List<ObjectIdentity> oids = new ArrayList<ObjectIdentity>();
+		for (int i = 1; i <= DEPTH; i++) {
+			oids.add(new ObjectIdentityImpl(CLASS_NAME, Long.valueOf(i)));
+		}
+		return oids;
+	}
+}
@@ -0,0 +1,188 @@
+package org.springframework.security.acls.neo4j;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.FixMethodOrder;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.MethodSorters;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.neo4j.support.Neo4jTemplate;
+import org.springframework.security.acls.domain.AccessControlEntryImpl;
+import org.springframework.security.acls.domain.AclAuthorizationStrategy;
+import org.springframework.security.acls.domain.BasePermission;
+import org.springframework.security.acls.domain.GrantedAuthoritySid;
+import org.springframework.security.acls.domain.ObjectIdentityImpl;
+import org.springframework.security.acls.domain.PrincipalSid;
+import org.springframework.security.acls.jdbc.LookupStrategy;
+import org.springframework.security.acls.model.Acl;
+import org.springframework.security.acls.model.AclCache;
+import org.springframework.security.acls.model.MutableAcl;
+import org.springframework.security.acls.model.MutableAclService;
+import org.springframework.security.acls.model.ObjectIdentity;
+import org.springframework.security.acls.model.PermissionGrantingStrategy;
+import org.springframework.security.acls.neo4j.config.AppTestConfig;
+import org.springframework.security.acls.neo4j.config.H2TestConfig;
+import org.springframework.security.acls.neo4j.config.Neo4jTestConfig;
+import org.springframework.security.authentication.TestingAuthenticationToken;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.test.annotation.Rollback;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.transaction.annotation.Transactional;
+
+@ContextConfiguration(classes = { AppTestConfig.class, H2TestConfig.class, Neo4jTestConfig.class })
+@RunWith(SpringJUnit4ClassRunner.class)
+@Transactional(readOnly = true)
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+@ActiveProfiles(value="dev-neo4j")
+public class Neo4jAclPackedEntriesMigrationTest {
+
+	private static final String CLASS_NAME = "my.test.PackedMigration";
+
+	// Acls 1 and 2 are written packed, 3 and 4 with Ace Nodes, 5 has no Aces
+	private static final int ACL_COUNT = 5;
+
+	private static final String COUNT_ACE_NODES = "MATCH (acl:AclNode)-[:SECURES]->(class:ClassNode) WHERE class.className = {className} MATCH (acl)<-[:COMPOSES]-(ace:AceNode) RETURN count(ace) AS count";
+
+	private static final String COUNT_PACKED = "MATCH (acl:AclNode)-[:SECURES]->(class:ClassNode) WHERE class.className = {className} AND has(acl.aceIds) RETURN count(acl) AS count";
+
+	@Autowired
+	private MutableAclService mutableAclService;
+
+	@Autowired
+	private LookupStrategy lookupStrategy;
+
+	@Autowired
+	private AclCache aclCache;
+
+	@Autowired
+	private GraphDatabaseService graphDatabaseService;
+
+	@Autowired
+	private AclAuthorizationStrategy aclAuthorizationStrategy;
+
+	@Autowired
+	private PermissionGrantingStrategy permissionGrantingStrategy;
+
+	@Test
+	@Rollback(false)
+	@Transactional(rollbackFor = Exception.class)
+	public void test1createMixedAcls() {
+		Authentication auth = new TestingAuthenticationToken("shazin", "N/A");
+		auth.setAuthenticated(true);
+		SecurityContextHolder.getContext().setAuthentication(auth);
+		Neo4jMutableAclService packedService = packedService();
+
+		for (int i = 1; i <= ACL_COUNT; i++) {
+			MutableAclService service = i <= 2 ? packedService
+					: mutableAclService;
+			MutableAcl acl = service.createAcl(objectIdentity(i));
+			if (i < ACL_COUNT) {
+				acl.insertAce(0, BasePermission.READ, new PrincipalSid("alice"),
+						true);
+				acl.insertAce(1, BasePermission.WRITE, new GrantedAuthoritySid(
+						"ROLE_EDITOR"), i % 2 == 0);
+			}
+			service.updateAcl(acl);
+		}
+		aclCache.clearCache();
+
+		assertEquals(4, count(COUNT_ACE_NODES));
+		assertEquals(2, count(COUNT_PACKED));
+	}
+
+	@Test
+	@Rollback(false)
+	@Transactional(rollbackFor = Exception.class)
+	public void test2migratePacksOnlyAceNodes() {
+		Neo4jLookupStrategy packedStrategy = packedStrategy();
+		List<Acl> expected = new ArrayList<Acl>();
+		for (int i = 1; i <= ACL_COUNT; i++) {
+			LookupStrategy strategy = (i <= 2) ? packedStrategy
+					: lookupStrategy;
+			aclCache.clearCache();
+			expected.add(strategy.readAclsById(
+					Arrays.asList(objectIdentity(i)), null).get(
+					objectIdentity(i)));
+		}
+
+		Neo4jAclPackedEntriesMigration migration = new Neo4jAclPackedEntriesMigration(
+				graphDatabaseService);
+		migration.setClassName(CLASS_NAME);
+		migration.setBatchSize(2);
+
+		assertEquals(4, migration.migrate());
+		assertEquals(0, count(COUNT_ACE_NODES));
+		assertEquals(4, count(COUNT_PACKED));
+
+		// Running it again finds nothing left to pack
+		assertEquals(0, migration.migrate());
+		assertEquals(4, count(COUNT_PACKED));
+
+		for (int i = 1; i <= ACL_COUNT; i++) {
+			aclCache.clearCache();
+			Acl migrated = packedStrategy.readAclsById(
+					Arrays.asList(objectIdentity(i)), null).get(
+					objectIdentity(i));
+			assertSameEntries(expected.get(i - 1), migrated);
+		}
+
+		Neo4jMutableAclService packedService = packedService();
+		for (int i = 1; i <= ACL_COUNT; i++) {
+			packedService.deleteAcl(objectIdentity(i), false);
+		}
+		aclCache.clearCache();
+	}
+
+	private Neo4jLookupStrategy packedStrategy() {
+		Neo4jLookupStrategy strategy = new Neo4jLookupStrategy(
+				graphDatabaseService, aclCache, aclAuthorizationStrategy,
+				permissionGrantingStrategy);
+		strategy.setPackedEntries(true);
+		return strategy;
+	}
+
+	private Neo4jMutableAclService packedService() {
+		Neo4jMutableAclService service = new Neo4jMutableAclService(
+				graphDatabaseService, aclCache, packedStrategy());
+		service.setPackedEntries(true);
+		return service;
+	}
+
+	private void assertSameEntries(Acl expected, Acl actual) {
+		assertEquals(expected.getObjectIdentity(), actual.getObjectIdentity());
+		assertEquals(expected.getEntries().size(), actual.getEntries().size());
+		for (int i = 0; i < expected.getEntries().size(); i++) {
+			AccessControlEntryImpl e = (AccessControlEntryImpl) expected
+					.getEntries().get(i);
+			AccessControlEntryImpl a = (AccessControlEntryImpl) actual
+					.getEntries().get(i);
+			assertEquals(e.getId(), a.getId());
+			assertEquals(e.getSid(), a.getSid());
+			assertEquals(e.getPermission(), a.getPermission());
+			assertEquals(e.isGranting(), a.isGranting());
+		}
+	}
+
+	private long count(String statement) {
+		Map<String, Object> params = new HashMap<String, Object>();
+		params.put("className", CLASS_NAME);
+		Map<String, Object> row = new Neo4jTemplate(graphDatabaseService)
+				.query(statement, params).singleOrNull();
+		return ((Number) row.get("count")).longValue();
+	}
+
+	private ObjectIdentity objectIdentity(int i) {
+		return new ObjectIdentityImpl(CLASS_NAME, Long.valueOf(i));
+	}
+}
@@ -0,0 +1,121 @@
+package org.springframework.security.acls.neo4j;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.FixMethodOrder;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.MethodSorters;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.neo4j.support.Neo4jTemplate;
+import org.springframework.security.acls.domain.ObjectIdentityImpl;
+import org.springframework.security.acls.model.AclCache;
+import org.springframework.security.acls.model.MutableAcl;
+import org.springframework.security.acls.model.MutableAclService;
+import org.springframework.security.acls.model.ObjectIdentity;
+import org.springframework.security.acls.neo4j.config.AppTestConfig;
+import org.springframework.security.acls.neo4j.config.H2TestConfig;
+import org.springframework.security.acls.neo4j.config.Neo4jTestConfig;
+import org.springframework.security.authentication.TestingAuthenticationToken;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.test.annotation.Rollback;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.transaction.annotation.Transactional;
+
+@ContextConfiguration(classes = { AppTestConfig.class, H2TestConfig.class, Neo4jTestConfig.class })
+@RunWith(SpringJUnit4ClassRunner.class)
+@Transactional(readOnly = true)
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+@ActiveProfiles(value="dev-neo4j")
+public class Neo4jAclParentMigrationTest {
+
+	private static final String CLASS_NAME = "my.test.ParentMigration";
+
+	private static final int DEPTH = 5;
+
+	private static final String COUNT_LINKS = "MATCH (acl:AclNode)-[:SECURES]->(class:ClassNode) WHERE class.className = {className} MATCH (acl)-[r:CHILD_OF]->() RETURN count(r) AS count";
+
+	private static final String DELETE_LINKS = "MATCH (acl:AclNode)-[:SECURES]->(class:ClassNode) WHERE class.className = {className} MATCH (acl)-[r:CHILD_OF]->() DELETE r RETURN count(*) AS count";
+
+	private static final String MARK_MIGRATED = "MATCH (acl:AclNode)-[:SECURES]->(class:ClassNode) WHERE class.className = {className} SET acl.parentMigrated = true RETURN count(acl) AS count";
+
+	private static final String COUNT_MARKERS = "MATCH (acl:AclNode) WHERE has(acl.parentMigrated) RETURN count(acl) AS count";
+
+	@Autowired
+	private MutableAclService mutableAclService;
+
+	@Autowired
+	private AclCache aclCache;
+
+	@Autowired
+	private GraphDatabaseService graphDatabaseService;
+
+	@Test
+	@Rollback(false)
+	@Transactional(rollbackFor = Exception.class)
+	public void test1createLegacyAcls() {
+		Authentication auth = new TestingAuthenticationToken("shazin", "N/A");
+		auth.setAuthenticated(true);
+		SecurityContextHolder.getContext().setAuthentication(auth);
+
+		MutableAcl parentAcl = null;
+		for (int i = 1; i <= DEPTH; i++) {
+			MutableAcl acl = mutableAclService.createAcl(objectIdentity(i));
+			if (parentAcl != null) {
+				acl.setParent(parentAcl);
+			}
+			parentAcl = mutableAclService.updateAcl(acl);
+		}
+
+		// As written before CHILD_OF existed, half migrated by an earlier
+		// version which left its marker
+		assertEquals(DEPTH - 1, count(DELETE_LINKS));
+		assertEquals(DEPTH, count(MARK_MIGRATED));
+		assertEquals(0, count(COUNT_LINKS));
+	}
+
+	@Test
+	@Rollback(false)
+	@Transactional(rollbackFor = Exception.class)
+	public void test2migrateLinksParents() {
+		Neo4jAclParentMigration migration = new Neo4jAclParentMigration(
+				graphDatabaseService);
+		migration.setBatchSize(2);
+
+		long linked = migration.migrate();
+		assertTrue(linked >= DEPTH - 1);
+		assertEquals(DEPTH - 1, count(COUNT_LINKS));
+		assertEquals(0, count(COUNT_MARKERS));
+
+		// Running it again replaces the links instead of adding to them
+		assertEquals(linked, migration.migrate());
+		assertEquals(DEPTH - 1, count(COUNT_LINKS));
+
+		aclCache.clearCache();
+		List<ObjectIdentity> children = mutableAclService
+				.findChildren(objectIdentity(1));
+		assertEquals(1, children.size());
+		assertEquals(objectIdentity(2), children.get(0));
+	}
+
+	private long count(String statement) {
+		Map<String, Object> params = new HashMap<String, Object>();
+		params.put("className", CLASS_NAME);
+		Map<String, Object> row = new Neo4jTemplate(graphDatabaseService)
+				.query(statement, params).singleOrNull();
+		return ((Number) row.get("count")).longValue();
+	}
+
+	private ObjectIdentity objectIdentity(int i) {
+		return new ObjectIdentityImpl(CLASS_NAME, Long.valueOf(i));
+	}
+}
@@ -0,0 +1,341 @@
+package org.springframework.security.acls.neo4j;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.junit.FixMethodOrder;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.MethodSorters;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.security.acls.domain.BasePermission;
+import org.springframework.security.acls.domain.GrantedAuthoritySid;
+import org.springframework.security.acls.domain.ObjectIdentityImpl;
+import org.springframework.security.acls.domain.PrincipalSid;
+import org.springframework.security.acls.jdbc.LookupStrategy;
+import org.springframework.security.acls.model.Acl;
+import org.springframework.security.acls.model.AclCache;
+import org.springframework.security.acls.model.MutableAcl;
+import org.springframework.security.acls.model.MutableAclService;
+import org.springframework.security.acls.model.NotFoundException;
+import org.springframework.security.acls.model.ObjectIdentity;
+import org.springframework.security.acls.model.Permission;
+import org.springframework.security.acls.model.Sid;
+import org.springframework.security.acls.neo4j.config.AppTestConfig;
+import org.springframework.security.acls.neo4j.config.H2TestConfig;
+import org.springframework.security.acls.neo4j.config.Neo4jTestConfig;
+import org.springframework.security.authentication.TestingAuthenticationToken;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.test.annotation.Rollback;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.transaction.annotation.Transactional;
+
+@ContextConfiguration(classes = { AppTestConfig.class, H2TestConfig.class, Neo4jTestConfig.class })
+@RunWith(SpringJUnit4ClassRunner.class)
+@Transactional(readOnly = true)
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+@ActiveProfiles(value="dev-neo4j")
+public class Neo4jAclServiceIsGrantedTest {
+
+	private static final String CLASS_NAME = Node.class.getName();
+
+	private static final int ACL_COUNT = 60;
+
+	private static final Sid ALICE = new PrincipalSid("alice");
+
+	private static final Sid BOB = new PrincipalSid("bob");
+
+	private static final Sid ROLE_A = new GrantedAuthoritySid("ROLE_A");
+
+	private static final Sid ROLE_B = new GrantedAuthoritySid("ROLE_B");
+
+	private static final List<Sid> SID_POOL = Arrays.asList(ALICE, BOB,
+			ROLE_A, ROLE_B);
+
+	private static final List<Permission> PERMISSION_POOL = Arrays
+			.<Permission> asList(BasePermission.READ, BasePermission.WRITE,
+					BasePermission.CREATE);
+
+	@SuppressWarnings("unchecked")
+	private static final List<List<Sid>> SID_LISTS = Arrays.asList(
+			Arrays.asList(ALICE), Arrays.asList(ALICE, ROLE_A),
+			Arrays.asList(ROLE_A, ALICE), Arrays.asList(BOB, ROLE_B, ROLE_A),
+			Arrays.asList(ROLE_B), Arrays.asList(ALICE, BOB, ROLE_A, ROLE_B));
+
+	@SuppressWarnings("unchecked")
+	private static final List<List<Permission>> PERMISSION_LISTS = Arrays
+			.asList(Arrays.<Permission> asList(BasePermission.READ),
+					Arrays.<Permission> asList(BasePermission.WRITE),
+					Arrays.<Permission> asList(BasePermission.READ,
+							BasePermission.WRITE),
+					Arrays.<Permission> asList(BasePermission.WRITE,
+							BasePermission.CREATE),
+					Arrays.<Permission> asList(BasePermission.DELETE));
+
+	@Autowired
+	private MutableAclService mutableAclService;
+
+	@Autowired
+	private GraphDatabaseService graphDatabaseService;
+
+	@Autowired
+	private LookupStrategy lookupStrategy;
+
+	@Autowired
+	private AclCache aclCache;
+
+	@Test
+	@Rollback(false)
+	@Transactional(rollbackFor = Exception.class)
+	public void test1createRandomAcls() {
+		Authentication auth = new TestingAuthenticationToken("shazin", "N/A");
+		auth.setAuthenticated(true);
+		SecurityContextHolder.getContext().setAuthentication(auth);
+		Random random = new Random(20141018l);
+
+		for (int i = 1; i <= ACL_COUNT; i++) {
+			MutableAcl acl = mutableAclService.createAcl(new ObjectIdentityImpl(
+					CLASS_NAME, Long.valueOf(i)));
+			int aces = random.nextInt(6);
+			for (int j = 0; j < aces; j++) {
+				acl.insertAce(j, PERMISSION_POOL.get(random
+						.nextInt(PERMISSION_POOL.size())), SID_POOL.get(random
+						.nextInt(SID_POOL.size())), random.nextBoolean());
+			}
+			if ((i > 1) && random.nextInt(4) > 0) {
+				acl.setParent(mutableAclService
+						.readAclById(new ObjectIdentityImpl(CLASS_NAME, Long
+								.valueOf(1 + random.nextInt(i - 1)))));
+			}
+			acl.setEntriesInheriting(random.nextInt(4) > 0);
+			mutableAclService.updateAcl(acl);
+		}
+	}
+
+	@Test
+	public void test2isGrantedMatchesAclImpl() {
+		Neo4jAclService service = new Neo4jAclService(graphDatabaseService,
+				lookupStrategy, aclCache);
+		int granted = 0;
+		int checks = 0;
+
+		for (int i = 1; i <= ACL_COUNT; i++) {
+			ObjectIdentity oid = new ObjectIdentityImpl(CLASS_NAME,
+					Long.valueOf(i));
+			Acl acl = mutableAclService.readAclById(oid);
+			for (List<Sid> sids : SID_LISTS) {
+				for (List<Permission> permissions : PERMISSION_LISTS) {
+					boolean expected;
+					try {
+						expected = acl.isGranted(permissions, sids, false);
+					} catch (NotFoundException e) {
+						expected = false;
+					}
+
+					assertEquals(oid + " " + permissions + " " + sids,
+							expected,
+							service.isGranted(oid, permissions, sids));
+
+					checks++;
+					if (expected) {
+						granted++;
+					}
+				}
+			}
+		}
+
+		System.out.println("Compared " + checks + " decisions, " + granted
+				+ " granted");
+	}
+
+	@Test
+	public void test4filterGrantedMatchesIsGranted() {
+		Neo4jAclService service = new Neo4jAclService(graphDatabaseService,
+				lookupStrategy, aclCache);
+		service.setFilterBatchSize(7);
+		List<Long> identifiers = new ArrayList<Long>();
+		for (long i = 1; i <= ACL_COUNT + 5; i++) {
+			identifiers.add(i);
+		}
+
+		for (List<Sid> sids : SID_LISTS) {
+			for (List<Permission> permissions : PERMISSION_LISTS) {
+				Set<Long> expected = new HashSet<Long>();
+				for (Long identifier : identifiers) {
+					if (service.isGranted(new ObjectIdentityImpl(CLASS_NAME,
+							identifier), permissions, sids)) {
+						expected.add(identifier);
+					}
+				}
+
+				assertEquals(permissions + " " + sids, expected,
+						service.filterGranted(CLASS_NAME, identifiers,
+								permissions, sids));
+			}
+		}
+	}
+
+	@Test
+	public void test5evaluatorFiltersCollection() {
+		Neo4jAclPermissionEvaluator evaluator = new Neo4jAclPermissionEvaluator(
+				new Neo4jAclService(graphDatabaseService, lookupStrategy,
+						aclCache));
+		Authentication auth = new TestingAuthenticationToken("alice", "N/A",
+				"ROLE_A");
+		List<Node> nodes = new ArrayList<Node>();
+		for (long i = ACL_COUNT + 5; i >= 1; i--) {
+			nodes.add(new Node(i));
+		}
+
+		List<Node> expected = new ArrayList<Node>();
+		for (Node node : nodes) {
+			if (evaluator.hasPermission(auth, node, "read")) {
+				expected.add(node);
+			}
+		}
+
+		assertEquals(expected, evaluator.filter(auth, nodes, "read"));
+	}
+
+	@Test
+	public void test6findGrantedMatchesFilterGranted() {
+		Neo4jAclService service = new Neo4jAclService(graphDatabaseService,
+				lookupStrategy, aclCache);
+		service.setGrantedPageSize(3);
+		List<Long> identifiers = new ArrayList<Long>();
+		for (long i = 1; i <= ACL_COUNT; i++) {
+			identifiers.add(i);
+		}
+
+		for (List<Sid> sids : SID_LISTS) {
+			for (List<Permission> permissions : PERMISSION_LISTS) {
+				List<ObjectIdentity> expected = new ArrayList<ObjectIdentity>();
+				for (Long identifier : new TreeSet<Long>(service.filterGranted(
+						CLASS_NAME, identifiers, permissions, sids))) {
+					expected.add(new ObjectIdentityImpl(CLASS_NAME, identifier));
+				}
+
+				List<ObjectIdentity> paged = new ArrayList<ObjectIdentity>();
+				List<ObjectIdentity> page = service
+						.findGrantedObjectIdentities(CLASS_NAME, permissions,
+								sids, null, 4);
+				while (!page.isEmpty()) {
+					paged.addAll(page);
+					page = service.findGrantedObjectIdentities(CLASS_NAME,
+							permissions, sids, (Long) page.get(page.size() - 1)
+									.getIdentifier(), 4);
+				}
+
+				List<ObjectIdentity> iterated = new ArrayList<ObjectIdentity>();
+				Iterator<ObjectIdentity> it = service
+						.iterateGrantedObjectIdentities(CLASS_NAME,
+								permissions, sids);
+				while (it.hasNext()) {
+					iterated.add(it.next());
+				}
+
+				assertEquals(permissions + " " + sids, expected, paged);
+				assertEquals(permissions + " " + sids, expected, iterated);
+				assertEquals(permissions + " " + sids, expected.size(),
+						service.countGrantedObjectIdentities(CLASS_NAME,
+								permissions, sids));
+			}
+		}
+	}
+
+	@Test
+	public void test3missingAclIsNotGranted() {
+		Neo4jAclService service = new Neo4jAclService(graphDatabaseService,
+				lookupStrategy, aclCache);
+
+		assertEquals(false, service.isGranted(new ObjectIdentityImpl(
+				CLASS_NAME, Long.valueOf(ACL_COUNT + 1)), Arrays
+				.<Permission> asList(BasePermission.READ), Arrays.asList(ALICE)));
+	}
+
+	@Test
+	public void test7evaluatorFallsBackForOtherIdentifiers() {
+		Neo4jAclPermissionEvaluator evaluator = new Neo4jAclPermissionEvaluator(
+				new Neo4jAclService(graphDatabaseService, lookupStrategy,
+						aclCache));
+		Authentication auth = new TestingAuthenticationToken("alice", "N/A",
+				"ROLE_A");
+
+		assertEquals(false, evaluator.hasPermission(auth, new NamedNode("1"),
+				"read"));
+		assertEquals(false, evaluator.hasPermission(auth, "1", CLASS_NAME,
+				"read"));
+
+		List<Object> nodes = new ArrayList<Object>();
+		List<Object> expected = new ArrayList<Object>();
+		for (long i = 1; i <= ACL_COUNT; i++) {
+			Node node = new Node(i);
+			nodes.add(node);
+			nodes.add(new NamedNode(String.valueOf(i)));
+			if (evaluator.hasPermission(auth, node, "read")) {
+				expected.add(node);
+			}
+		}
+
+		assertEquals(expected, evaluator.filter(auth, nodes, "read"));
+	}
+
+	@Test
+	public void test8grantedPageSizeMustBePositive() {
+		Neo4jAclService service = new Neo4jAclService(graphDatabaseService,
+				lookupStrategy, aclCache);
+
+		try {
+			service.setGrantedPageSize(0);
+			assertTrue("Granted page size of 0 accepted", false);
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+		try {
+			service.findGrantedObjectIdentities(CLASS_NAME,
+					PERMISSION_LISTS.get(0), SID_LISTS.get(0), null, 0);
+			assertTrue("Page size of 0 accepted", false);
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+	}
+
+	public static class Node {
+
+		private final Long id;
+
+		public Node(Long id) {
+			this.id = id;
+		}
+
+		public Long getId() {
+			return id;
+		}
+	}
+
+	public static class NamedNode {
+
+		private final String id;
+
+		public NamedNode(String id) {
+			this.id = id;
+		}
+
+		public String getId() {
+			return id;
+		}
+	}
+}
@@ -0,0 +1,316 @@
+package org.springframework.security.acls.neo4j;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.FixMethodOrder;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.MethodSorters;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.neo4j.conversion.Result;
+import org.springframework.data.neo4j.support.Neo4jTemplate;
+import org.springframework.security.acls.domain.AclAuthorizationStrategy;
+import org.springframework.security.acls.domain.BasePermission;
+import org.springframework.security.acls.domain.GrantedAuthoritySid;
+import org.springframework.security.acls.domain.ObjectIdentityImpl;
+import org.springframework.security.acls.domain.PrincipalSid;
+import org.springframework.security.acls.jdbc.LookupStrategy;
+import org.springframework.security.acls.model.Acl;
+import org.springframework.security.acls.model.AclCache;
+import org.springframework.security.acls.model.MutableAcl;
+import org.springframework.security.acls.model.MutableAclService;
+import org.springframework.security.acls.model.ObjectIdentity;
+import org.springframework.security.acls.model.PermissionGrantingStrategy;
+import org.springframework.security.acls.model.Sid;
+import org.springframework.security.acls.neo4j.config.AppTestConfig;
+import org.springframework.security.acls.neo4j.config.H2TestConfig;
+import org.springframework.security.acls.neo4j.config.Neo4jTestConfig;
+import org.springframework.security.authentication.TestingAuthenticationToken;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.test.annotation.Rollback;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.transaction.annotation.Transactional;
+
+@ContextConfiguration(classes = { AppTestConfig.class, H2TestConfig.class, Neo4jTestConfig.class })
+@RunWith(SpringJUnit4ClassRunner.class)
+@Transactional(readOnly = true)
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+@ActiveProfiles(value="dev-neo4j")
+public class Neo4jAclSnapshotTest {
+
+	private static final String CLASS_NAME = "com.test.snapshot.Document";
+
+	private static final int DEPTH = 3;
+
+	private static final File SNAPSHOT_FILE = new File(
+			"target/neo4j-acl-snapshot-test.bin");
+
+	@Autowired
+	private AclCache aclCache;
+
+	@Autowired
+	private MutableAclService mutableAclService;
+
+	@Autowired
+	private LookupStrategy lookupStrategy;
+
+	@Autowired
+	private Neo4jAclSnapshot neo4jAclSnapshot;
+
+	@Autowired
+	private GraphDatabaseService graphDatabaseService;
+
+	@Autowired
+	private AclAuthorizationStrategy aclAuthorizationStrategy;
+
+	@Autowired
+	private PermissionGrantingStrategy permissionGrantingStrategy;
+
+	@Test
+	@Rollback(false)
+	@Transactional(rollbackFor = Exception.class)
+	public void test1createAcls() {
+		authenticate();
+		Neo4jMutableAclService service = stampingService();
+
+		MutableAcl parentAcl = null;
+		for (int i = 1; i <= DEPTH; i++) {
+			MutableAcl acl = service.createAcl(objectIdentity(i));
+			acl.insertAce(0, BasePermission.READ, new GrantedAuthoritySid(
+					"ROLE_SNAPSHOT"), true);
+			if (parentAcl != null) {
+				acl.setParent(parentAcl);
+			}
+			parentAcl = service.updateAcl(acl);
+		}
+	}
+
+	@Test
+	public void test2restartServesLookupsFromSnapshot() throws Exception {
+		SNAPSHOT_FILE.delete();
+		ObjectIdentity deepest = objectIdentity(DEPTH);
+
+		Neo4jAclSnapshot writer = snapshot();
+		Neo4jLookupStrategy strategy = new Neo4jLookupStrategy(
+				graphDatabaseService, new TinyLfuAclCache(1000),
+				aclAuthorizationStrategy, permissionGrantingStrategy);
+		strategy.setSnapshot(writer);
+		Acl loaded = strategy.readAclsById(Arrays.asList(deepest), null).get(
+				deepest);
+		assertNotNull(loaded);
+		assertEquals(DEPTH, writer.write());
+
+		// A new node, with an empty cache
+		Neo4jAclSnapshot snapshot = snapshot();
+		snapshot.afterPropertiesSet();
+		assertEquals(DEPTH, snapshot.getSize());
+		CountingNeo4jTemplate countingTemplate = new CountingNeo4jTemplate(
+				graphDatabaseService);
+		TinyLfuAclCache cache = new TinyLfuAclCache(1000);
+		strategy = new Neo4jLookupStrategy(graphDatabaseService, cache,
+				aclAuthorizationStrategy, permissionGrantingStrategy);
+		strategy.setNeo4jTemplate(countingTemplate);
+		strategy.setSnapshot(snapshot);
+
+		Acl restored = strategy.readAclsById(Arrays.asList(deepest), null)
+				.get(deepest);
+		assertEquals(0, countingTemplate.getInvocations());
+		assertEquals(1, snapshot.getRestoredCount());
+		assertSameAcl(loaded, restored);
+		assertTrue(restored == cache.getFromCache(deepest));
+		snapshot.destroy();
+	}
+
+	@Test
+	@Transactional(rollbackFor = Exception.class)
+	public void test3changedAclsAreLoadedFromTheGraph() throws Exception {
+		authenticate();
+		Neo4jMutableAclService service = stampingService();
+		MutableAcl middle = (MutableAcl) service
+				.readAclById(objectIdentity(DEPTH - 1));
+		middle.insertAce(1, BasePermission.WRITE, new PrincipalSid(
+				"snapshot"), true);
+		service.updateAcl(middle);
+
+		Neo4jAclSnapshot snapshot = snapshot();
+		snapshot.afterPropertiesSet();
+		CountingNeo4jTemplate countingTemplate = new CountingNeo4jTemplate(
+				graphDatabaseService);
+		Neo4jLookupStrategy strategy = new Neo4jLookupStrategy(
+				graphDatabaseService, new TinyLfuAclCache(1000),
+				aclAuthorizationStrategy, permissionGrantingStrategy);
+		strategy.setNeo4jTemplate(countingTemplate);
+		strategy.setSnapshot(snapshot);
+
+		// The root did not change since the snapshot
+		ObjectIdentity root = objectIdentity(1);
+		assertNotNull(strategy.readAclsById(Arrays.asList(root), null).get(
+				root));
+		assertEquals(0, countingTemplate.getInvocations());
+		assertEquals(1, snapshot.getRestoredCount());
+
+		// The parent of the deepest Acl did
+		ObjectIdentity deepest = objectIdentity(DEPTH);
+		Acl acl = strategy.readAclsById(Arrays.asList(deepest), null).get(
+				deepest);
+		assertTrue(countingTemplate.getInvocations() > 0);
+		assertEquals(1, snapshot.getInvalidatedCount());
+		assertEquals(2, acl.getParentAcl().getEntries().size());
+		snapshot.destroy();
+	}
+
+	@Test
+	public void test4snapshotStampsTheVersionsOfItsService() throws Exception {
+		Neo4jAclSnapshot unwired = new Neo4jAclSnapshot(graphDatabaseService);
+		unwired.setFile(SNAPSHOT_FILE);
+		unwired.setWriteIntervalSeconds(0);
+		try {
+			unwired.afterPropertiesSet();
+			assertTrue("Expected IllegalStateException", false);
+		} catch (IllegalStateException e) {
+			assertEquals(0, unwired.getSize());
+		}
+
+		Neo4jMutableAclService service = service();
+		Neo4jAclSnapshot snapshot = new Neo4jAclSnapshot(graphDatabaseService,
+				service);
+		assertSame(service, snapshot.getMutableAclService());
+		// An inactive snapshot leaves the writes alone
+		snapshot.afterPropertiesSet();
+		assertFalse(service.isVersionStamping());
+
+		snapshot.setFile(SNAPSHOT_FILE);
+		snapshot.setWriteIntervalSeconds(0);
+		snapshot.afterPropertiesSet();
+		assertTrue(service.isVersionStamping());
+	}
+
+	@Test
+	public void test5sidFilteredLookupsAreNotRestored() throws Exception {
+		Neo4jAclSnapshot snapshot = snapshot();
+		snapshot.afterPropertiesSet();
+		CountingNeo4jTemplate countingTemplate = new CountingNeo4jTemplate(
+				graphDatabaseService);
+		Neo4jLookupStrategy strategy = new Neo4jLookupStrategy(
+				graphDatabaseService, new TinyLfuAclCache(1000),
+				aclAuthorizationStrategy, permissionGrantingStrategy);
+		strategy.setNeo4jTemplate(countingTemplate);
+		strategy.setSidFilteredLookup(true);
+		strategy.setSnapshot(snapshot);
+
+		// A restored Acl holds the Aces of all Sids
+		ObjectIdentity root = objectIdentity(1);
+		List<Sid> sids = Arrays.<Sid> asList(new GrantedAuthoritySid(
+				"ROLE_SNAPSHOT"));
+		assertNotNull(strategy.readAclsById(Arrays.asList(root), sids).get(
+				root));
+		assertTrue(countingTemplate.getInvocations() > 0);
+		assertEquals(0, snapshot.getRestoredCount());
+
+		int invocations = countingTemplate.getInvocations();
+		ObjectIdentity deepest = objectIdentity(DEPTH);
+		assertNotNull(strategy.readAclsById(Arrays.asList(deepest), null).get(
+				deepest));
+		assertEquals(invocations, countingTemplate.getInvocations());
+		assertEquals(1, snapshot.getRestoredCount());
+		snapshot.destroy();
+	}
+
+	@Test
+	public void test6stockConfigWiresTheSnapshot() {
+		assertSame(mutableAclService, neo4jAclSnapshot.getMutableAclService());
+		assertSame(neo4jAclSnapshot,
+				((Neo4jLookupStrategy) lookupStrategy).getSnapshot());
+
+		// Without a file it is inactive
+		assertFalse(((Neo4jMutableAclService) mutableAclService)
+				.isVersionStamping());
+		assertEquals(0, neo4jAclSnapshot.getSize());
+		assertEquals(0, neo4jAclSnapshot.write());
+	}
+
+	private Neo4jMutableAclService stampingService() {
+		Neo4jMutableAclService service = service();
+		service.setVersionStamping(true);
+		return service;
+	}
+
+	private Neo4jMutableAclService service() {
+		return new Neo4jMutableAclService(graphDatabaseService, aclCache,
+				new Neo4jLookupStrategy(graphDatabaseService, aclCache,
+						aclAuthorizationStrategy, permissionGrantingStrategy));
+	}
+
+	private Neo4jAclSnapshot snapshot() {
+		Neo4jAclSnapshot snapshot = new Neo4jAclSnapshot(graphDatabaseService,
+				service());
+		snapshot.setFile(SNAPSHOT_FILE);
+		snapshot.setWriteIntervalSeconds(0);
+		return snapshot;
+	}
+
+	private ObjectIdentity objectIdentity(int i) {
+		return new ObjectIdentityImpl(CLASS_NAME, Long.valueOf(i));
+	}
+
+	private void assertSameAcl(Acl expected, Acl actual) {
+		assertNotNull(actual);
+		assertEquals(expected.getId(), actual.getId());
+		assertEquals(expected.getObjectIdentity(), actual.getObjectIdentity());
+		assertEquals(expected.getOwner(), actual.getOwner());
+		assertEquals(expected.isEntriesInheriting(),
+				actual.isEntriesInheriting());
+		assertEquals(expected.getEntries().size(), actual.getEntries().size());
+		for (int i = 0; i < expected.getEntries().size(); i++) {
+			assertEquals(expected.getEntries().get(i).getId(), actual
+					.getEntries().get(i).getId());
+			assertEquals(expected.getEntries().get(i).getSid(), actual
+					.getEntries().get(i).getSid());
+			assertEquals(expected.getEntries().get(i).getPermission(), actual
+					.getEntries().get(i).getPermission());
+		}
+		if (expected.getParentAcl() != null) {
+			assertSameAcl(expected.getParentAcl(), actual.getParentAcl());
+		}
+	}
+
+	private void authenticate() {
+		Authentication auth = new TestingAuthenticationToken("shazin", "N/A");
+		auth.setAuthenticated(true);
+		SecurityContextHolder.getContext().setAuthentication(auth);
+	}
+
+	private static class CountingNeo4jTemplate extends Neo4jTemplate {
+
+		private final AtomicInteger invocations = new AtomicInteger();
+
+		public CountingNeo4jTemplate(GraphDatabaseService graphDatabaseService) {
+			super(graphDatabaseService);
+		}
+
+		@Override
+		public Result<Map<String, Object>> query(String statement,
+				Map<String, Object> params) {
+			invocations.incrementAndGet();
+			return super.query(statement, params);
+		}
+
+		public int getInvocations() {
+			return invocations.get();
+		}
+	}
+}
@@ -0,0 +1,159 @@
+package org.springframework.security.acls.neo4j;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+import org.junit.FixMethodOrder;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.MethodSorters;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.security.acls.domain.BasePermission;
+import org.springframework.security.acls.domain.GrantedAuthoritySid;
+import org.springframework.security.acls.domain.ObjectIdentityImpl;
+import org.springframework.security.acls.jdbc.LookupStrategy;
+import org.springframework.security.acls.model.AclCache;
+import org.springframework.security.acls.model.MutableAcl;
+import org.springframework.security.acls.model.ObjectIdentity;
+import org.springframework.security.acls.neo4j.config.AppTestConfig;
+import org.springframework.security.acls.neo4j.config.H2TestConfig;
+import org.springframework.security.acls.neo4j.config.Neo4jTestConfig;
+import org.springframework.security.authentication.TestingAuthenticationToken;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.test.annotation.Rollback;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.transaction.annotation.Transactional;
+
+@ContextConfiguration(classes = { AppTestConfig.class, H2TestConfig.class, Neo4jTestConfig.class })
+@RunWith(SpringJUnit4ClassRunner.class)
+@Transactional(readOnly = true)
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+@ActiveProfiles(value="dev-neo4j")
+public class Neo4jCypherMutableAclServiceTest {
+
+	private static final int ACE_COUNT = 1000;
+
+	private static final int ROUNDS = 5;
+
+	@Autowired
+	private GraphDatabaseService graphDatabaseService;
+
+	@Autowired
+	private AclCache aclCache;
+
+	@Autowired
+	private LookupStrategy lookupStrategy;
+
+	@Test
+	@Rollback(false)
+	@Transactional(rollbackFor = Exception.class)
+	public void test1CypherUpdateAclBeatsMappedUpdateAcl() {
+		Neo4jMutableAclService cypherService = new Neo4jCypherMutableAclService(
+				graphDatabaseService, aclCache, lookupStrategy);
+		Neo4jMutableAclService mappedService = new Neo4jMutableAclService(
+				graphDatabaseService, aclCache, lookupStrategy);
+
+		// Warm both paths up before measuring either
+		benchmark(cypherService, "my.test.CypherWarmup");
+		benchmark(mappedService, "my.test.MappedWarmup");
+
+		long[] cypher = benchmark(cypherService, "my.test.CypherWrite");
+		long[] mapped = benchmark(mappedService, "my.test.MappedWrite");
+
+		System.out.println("Cypher updateAcl with " + ACE_COUNT + " aces "
+				+ cypher[0] + " ns, " + cypher[1] + " bytes allocated");
+		System.out.println("Mapped updateAcl with " + ACE_COUNT + " aces "
+				+ mapped[0] + " ns, " + mapped[1] + " bytes allocated");
+
+		// Allocation is the steadier measure, elapsed time is only used
+		// when the JVM does not report allocations
+		if (cypher[1] >= 0 && mapped[1] >= 0) {
+			assertTrue("Cypher updateAcl allocated " + cypher[1]
+					+ " bytes, mapped updateAcl " + mapped[1],
+					cypher[1] < mapped[1]);
+		} else {
+			assertTrue("Cypher updateAcl took " + cypher[0]
+					+ " ns, mapped updateAcl " + mapped[0],
+					cypher[0] < mapped[0]);
+		}
+	}
+
+	@Test
+	@Rollback(false)
+	@Transactional(rollbackFor = Exception.class)
+	public void test2CypherParentAndOwner() {
+		Authentication auth = new TestingAuthenticationToken("shazin", "N/A");
+		auth.setAuthenticated(true);
+		SecurityContextHolder.getContext().setAuthentication(auth);
+		Neo4jMutableAclService service = new Neo4jCypherMutableAclService(
+				graphDatabaseService, aclCache, lookupStrategy);
+		ObjectIdentity parentOid = new ObjectIdentityImpl("my.test.CypherParent", 1l);
+		ObjectIdentity childOid = new ObjectIdentityImpl("my.test.CypherParent", 2l);
+
+		MutableAcl parent = service.createAcl(parentOid);
+		MutableAcl child = service.createAcl(childOid);
+		child.setParent(parent);
+		child.setEntriesInheriting(false);
+		child.setOwner(new GrantedAuthoritySid("ROLE_OWNER"));
+		child = service.updateAcl(child);
+
+		assertEquals(parentOid, child.getParentAcl().getObjectIdentity());
+		assertEquals(new GrantedAuthoritySid("ROLE_OWNER"), child.getOwner());
+		assertEquals(false, child.isEntriesInheriting());
+		assertEquals(1, service.findChildren(parentOid).size());
+
+		service.deleteAcl(parentOid, true);
+	}
+
+	// Create an Acl with ACE_COUNT Aces, then measure updateAcl after a
+	// single Ace changed. Returns nanoseconds and bytes allocated per update,
+	// the byte count is negative when the JVM does not report allocations
+	private long[] benchmark(Neo4jMutableAclService service, String className) {
+		Authentication auth = new TestingAuthenticationToken("shazin", "N/A");
+		auth.setAuthenticated(true);
+		SecurityContextHolder.getContext().setAuthentication(auth);
+		ObjectIdentity oid = new ObjectIdentityImpl(className, 1l);
+
+		MutableAcl acl = service.createAcl(oid);
+		for (int i = 0; i < ACE_COUNT; i++) {
+			acl.insertAce(i, BasePermission.READ, new GrantedAuthoritySid(
+					"ROLE_" + (i % 50)), true);
+		}
+		acl = service.updateAcl(acl);
+		assertEquals(ACE_COUNT, acl.getEntries().size());
+
+		ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+		com.sun.management.ThreadMXBean allocations = null;
+		if (threadMXBean instanceof com.sun.management.ThreadMXBean) {
+			allocations = (com.sun.management.ThreadMXBean) threadMXBean;
+		}
+		long threadId = Thread.currentThread().getId();
+		long nanos = 0;
+		long bytes = 0;
+		for (int round = 0; round < ROUNDS; round++) {
+			acl.updateAce(round, BasePermission.WRITE);
+			long startBytes = allocations == null ? 0 : allocations
+					.getThreadAllocatedBytes(threadId);
+			long start = System.nanoTime();
+			acl = service.updateAcl(acl);
+			nanos += System.nanoTime() - start;
+			bytes += allocations == null ? -1 : allocations
+					.getThreadAllocatedBytes(threadId) - startBytes;
+		}
+
+		assertEquals(ACE_COUNT, acl.getEntries().size());
+		assertEquals(BasePermission.WRITE, acl.getEntries().get(0)
+				.getPermission());
+
+		service.deleteAcl(oid, false);
+
+		return new long[] { nanos / ROUNDS, bytes / ROUNDS };
+	}
+}
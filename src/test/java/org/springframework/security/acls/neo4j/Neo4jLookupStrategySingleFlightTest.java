@@ -0,0 +1,358 @@
+package org.springframework.security.acls.neo4j;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.FixMethodOrder;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.MethodSorters;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Transaction;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.neo4j.conversion.Result;
+import org.springframework.data.neo4j.support.Neo4jTemplate;
+import org.springframework.security.acls.domain.AclAuthorizationStrategy;
+import org.springframework.security.acls.domain.BasePermission;
+import org.springframework.security.acls.domain.GrantedAuthoritySid;
+import org.springframework.security.acls.domain.ObjectIdentityImpl;
+import org.springframework.security.acls.model.Acl;
+import org.springframework.security.acls.model.AclCache;
+import org.springframework.security.acls.model.MutableAcl;
+import org.springframework.security.acls.model.MutableAclService;
+import org.springframework.security.acls.model.ObjectIdentity;
+import org.springframework.security.acls.model.PermissionGrantingStrategy;
+import org.springframework.security.acls.neo4j.config.AppTestConfig;
+import org.springframework.security.acls.neo4j.config.H2TestConfig;
+import org.springframework.security.acls.neo4j.config.Neo4jTestConfig;
+import org.springframework.security.authentication.TestingAuthenticationToken;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.test.annotation.Rollback;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+@ContextConfiguration(classes = { AppTestConfig.class, H2TestConfig.class, Neo4jTestConfig.class })
+@RunWith(SpringJUnit4ClassRunner.class)
+@Transactional(readOnly = true)
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+@ActiveProfiles(value="dev-neo4j")
+public class Neo4jLookupStrategySingleFlightTest {
+
+	private static final String CLASS_NAME = "com.test.flight.Folder";
+
+	private static final int THREADS = 16;
+
+	private static final long TIMEOUT_MILLIS = 10000;
+
+	@Autowired
+	private MutableAclService mutableAclService;
+
+	@Autowired
+	private AclCache aclCache;
+
+	@Autowired
+	private GraphDatabaseService graphDatabaseService;
+
+	@Autowired
+	private AclAuthorizationStrategy aclAuthorizationStrategy;
+
+	@Autowired
+	private PermissionGrantingStrategy permissionGrantingStrategy;
+
+	@Test
+	@Rollback(false)
+	@Transactional(rollbackFor = Exception.class)
+	public void test1createAcls() {
+		Authentication auth = new TestingAuthenticationToken("shazin", "N/A");
+		auth.setAuthenticated(true);
+		SecurityContextHolder.getContext().setAuthentication(auth);
+
+		for (long i = 1; i <= 3; i++) {
+			MutableAcl acl = mutableAclService.createAcl(new ObjectIdentityImpl(
+					CLASS_NAME, i));
+			acl.insertAce(0, BasePermission.READ, new GrantedAuthoritySid(
+					"ROLE_FLIGHT"), true);
+			mutableAclService.updateAcl(acl);
+		}
+	}
+
+	@Test
+	public void test2concurrentMissesShareOneLoad() throws Exception {
+		final ObjectIdentity oid = new ObjectIdentityImpl(CLASS_NAME, 1l);
+		GatedNeo4jTemplate gatedTemplate = new GatedNeo4jTemplate(
+				graphDatabaseService, null);
+		Neo4jLookupStrategy strategy = singleFlightStrategy(gatedTemplate);
+
+		List<List<ObjectIdentity>> requests = new ArrayList<List<ObjectIdentity>>();
+		for (int i = 0; i < THREADS; i++) {
+			requests.add(Arrays.asList(oid));
+		}
+
+		aclCache.clearCache();
+		try {
+			List<Map<ObjectIdentity, Acl>> results = readConcurrently(strategy,
+					requests, gatedTemplate, THREADS - 1);
+
+			Acl shared = results.get(0).get(oid);
+			assertNotNull(shared);
+			for (Map<ObjectIdentity, Acl> result : results) {
+				assertSame(shared, result.get(oid));
+			}
+			assertEquals(1, gatedTemplate.getInvocations());
+			assertEquals(1, strategy.getSingleFlightLoads());
+			assertEquals(THREADS - 1, strategy.getCoalescedLoads());
+		} finally {
+			aclCache.clearCache();
+		}
+	}
+
+	@Test
+	public void test3overlappingBatchesLoadEachIdentityOnce() throws Exception {
+		ObjectIdentity first = new ObjectIdentityImpl(CLASS_NAME, 1l);
+		ObjectIdentity second = new ObjectIdentityImpl(CLASS_NAME, 2l);
+		ObjectIdentity third = new ObjectIdentityImpl(CLASS_NAME, 3l);
+		ObjectIdentity missing = new ObjectIdentityImpl(CLASS_NAME, 4l);
+		GatedNeo4jTemplate gatedTemplate = new GatedNeo4jTemplate(
+				graphDatabaseService, null);
+		Neo4jLookupStrategy strategy = singleFlightStrategy(gatedTemplate);
+
+		@SuppressWarnings("unchecked")
+		List<List<ObjectIdentity>> requests = Arrays.asList(
+				Arrays.asList(first, second, missing),
+				Arrays.asList(second, third, missing),
+				Arrays.asList(third, first, missing));
+
+		aclCache.clearCache();
+		try {
+			List<Map<ObjectIdentity, Acl>> results = readConcurrently(strategy,
+					requests, gatedTemplate, 5);
+
+			for (int i = 0; i < requests.size(); i++) {
+				assertEquals(2, results.get(i).size());
+				for (ObjectIdentity oid : requests.get(i)) {
+					if (!oid.equals(missing)) {
+						assertEquals(oid, results.get(i).get(oid)
+								.getObjectIdentity());
+					}
+				}
+			}
+			// Every Object Identity, including the missing one, is loaded
+			// by exactly one lookup
+			assertEquals(4, strategy.getSingleFlightLoads());
+			assertEquals(5, strategy.getCoalescedLoads());
+		} finally {
+			aclCache.clearCache();
+		}
+	}
+
+	@Test
+	public void test4lookupInTransactionDoesNotShareLoads() {
+		ObjectIdentity oid = new ObjectIdentityImpl(CLASS_NAME, 1l);
+		Neo4jLookupStrategy strategy = singleFlightStrategy(new Neo4jTemplate(
+				graphDatabaseService));
+
+		aclCache.clearCache();
+		try {
+			// The test transaction is active on this thread
+			Map<ObjectIdentity, Acl> result = strategy.readAclsById(
+					Arrays.asList(oid), null);
+
+			assertEquals(oid, result.get(oid).getObjectIdentity());
+			assertEquals(0, strategy.getSingleFlightLoads());
+			assertEquals(0, strategy.getCoalescedLoads());
+		} finally {
+			aclCache.clearCache();
+		}
+	}
+
+	@Test
+	@Transactional(propagation = Propagation.NOT_SUPPORTED)
+	public void test5cachedIdentityIsNotClaimed() {
+		ObjectIdentity first = new ObjectIdentityImpl(CLASS_NAME, 1l);
+		ObjectIdentity second = new ObjectIdentityImpl(CLASS_NAME, 2l);
+		Neo4jLookupStrategy strategy = singleFlightStrategy(new Neo4jTemplate(
+				graphDatabaseService));
+
+		aclCache.clearCache();
+		Transaction tx = graphDatabaseService.beginTx();
+		try {
+			strategy.readAclsById(Arrays.asList(first), null);
+			assertEquals(1, strategy.getSingleFlightLoads());
+
+			Map<ObjectIdentity, Acl> result = strategy.readAclsById(
+					Arrays.asList(first, second), null);
+
+			assertEquals(2, result.size());
+			assertEquals(2, strategy.getSingleFlightLoads());
+			assertEquals(0, strategy.getCoalescedLoads());
+			tx.success();
+		} finally {
+			tx.close();
+			aclCache.clearCache();
+		}
+	}
+
+	@Test
+	public void test6waitersGetTheOwnersFailure() throws Exception {
+		ObjectIdentity oid = new ObjectIdentityImpl(CLASS_NAME, 1l);
+		RuntimeException failure = new IllegalStateException("Graph unavailable");
+		GatedNeo4jTemplate gatedTemplate = new GatedNeo4jTemplate(
+				graphDatabaseService, failure);
+		Neo4jLookupStrategy strategy = singleFlightStrategy(gatedTemplate);
+
+		List<List<ObjectIdentity>> requests = new ArrayList<List<ObjectIdentity>>();
+		for (int i = 0; i < 4; i++) {
+			requests.add(Arrays.asList(oid));
+		}
+
+		aclCache.clearCache();
+		ExecutorService executor = Executors.newFixedThreadPool(requests
+				.size());
+		try {
+			List<Future<Map<ObjectIdentity, Acl>>> futures = submit(executor,
+					strategy, requests);
+			awaitCoalesced(strategy, requests.size() - 1);
+			gatedTemplate.release();
+
+			for (Future<Map<ObjectIdentity, Acl>> future : futures) {
+				try {
+					future.get();
+					assertTrue("Expected the load to fail", false);
+				} catch (ExecutionException e) {
+					assertSame(failure, e.getCause());
+				}
+			}
+			assertEquals(1, gatedTemplate.getInvocations());
+		} finally {
+			executor.shutdownNow();
+			aclCache.clearCache();
+		}
+	}
+
+	private Neo4jLookupStrategy singleFlightStrategy(Neo4jTemplate neo4jTemplate) {
+		Neo4jLookupStrategy strategy = new Neo4jLookupStrategy(
+				graphDatabaseService, aclCache, aclAuthorizationStrategy,
+				permissionGrantingStrategy);
+		strategy.setNeo4jTemplate(neo4jTemplate);
+		strategy.setSingleFlight(true);
+		return strategy;
+	}
+
+	private List<Map<ObjectIdentity, Acl>> readConcurrently(
+			Neo4jLookupStrategy strategy, List<List<ObjectIdentity>> requests,
+			GatedNeo4jTemplate gatedTemplate, long coalesced) throws Exception {
+		ExecutorService executor = Executors.newFixedThreadPool(requests
+				.size());
+		try {
+			List<Future<Map<ObjectIdentity, Acl>>> futures = submit(executor,
+					strategy, requests);
+			// Queries stay blocked until every other lookup has joined a
+			// flight
+			awaitCoalesced(strategy, coalesced);
+			gatedTemplate.release();
+
+			List<Map<ObjectIdentity, Acl>> results = new ArrayList<Map<ObjectIdentity, Acl>>();
+			for (Future<Map<ObjectIdentity, Acl>> future : futures) {
+				results.add(future.get());
+			}
+			return results;
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	private List<Future<Map<ObjectIdentity, Acl>>> submit(
+			ExecutorService executor, final Neo4jLookupStrategy strategy,
+			List<List<ObjectIdentity>> requests) {
+		List<Future<Map<ObjectIdentity, Acl>>> futures = new ArrayList<Future<Map<ObjectIdentity, Acl>>>();
+		for (final List<ObjectIdentity> oids : requests) {
+			futures.add(executor.submit(new Callable<Map<ObjectIdentity, Acl>>() {
+				@Override
+				public Map<ObjectIdentity, Acl> call() throws Exception {
+					Transaction tx = graphDatabaseService.beginTx();
+					try {
+						Map<ObjectIdentity, Acl> acls = strategy.readAclsById(
+								oids, null);
+						tx.success();
+						return acls;
+					} finally {
+						tx.close();
+					}
+				}
+			}));
+		}
+		return futures;
+	}
+
+	private void awaitCoalesced(Neo4jLookupStrategy strategy, long coalesced)
+			throws InterruptedException {
+		long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+		while (strategy.getCoalescedLoads() < coalesced) {
+			if (System.currentTimeMillis() > deadline) {
+				assertTrue("Lookups did not join the flights in time", false);
+			}
+			Thread.sleep(5);
+		}
+	}
+
+	private static class GatedNeo4jTemplate extends Neo4jTemplate {
+
+		private final AtomicInteger invocations = new AtomicInteger();
+
+		private final CountDownLatch gate = new CountDownLatch(1);
+
+		private final RuntimeException failure;
+
+		public GatedNeo4jTemplate(GraphDatabaseService graphDatabaseService,
+				RuntimeException failure) {
+			super(graphDatabaseService);
+			this.failure = failure;
+		}
+
+		@Override
+		public Result<Map<String, Object>> query(String statement,
+				Map<String, Object> params) {
+			invocations.incrementAndGet();
+			try {
+				// Keep the load in flight until the test opens the gate
+				if (!gate.await(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) {
+					throw new IllegalStateException("Gate was never opened");
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IllegalStateException(e);
+			}
+			if (failure != null) {
+				throw failure;
+			}
+			return super.query(statement, params);
+		}
+
+		public void release() {
+			gate.countDown();
+		}
+
+		public int getInvocations() {
+			return invocations.get();
+		}
+	}
+}
@@ -0,0 +1,762 @@
+package org.springframework.security.acls.neo4j;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import net.sf.ehcache.CacheManager;
+
+import org.junit.FixMethodOrder;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.MethodSorters;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.neo4j.conversion.Result;
+import org.springframework.data.neo4j.support.Neo4jTemplate;
+import org.springframework.security.acls.domain.AccessControlEntryImpl;
+import org.springframework.security.acls.domain.AclAuthorizationStrategy;
+import org.springframework.security.acls.domain.BasePermission;
+import org.springframework.security.acls.domain.GrantedAuthoritySid;
+import org.springframework.security.acls.domain.ObjectIdentityImpl;
+import org.springframework.security.acls.domain.PrincipalSid;
+import org.springframework.security.acls.jdbc.LookupStrategy;
+import org.springframework.security.acls.model.Acl;
+import org.springframework.security.acls.model.AclCache;
+import org.springframework.security.acls.model.AuditableAcl;
+import org.springframework.security.acls.model.MutableAcl;
+import org.springframework.security.acls.model.MutableAclService;
+import org.springframework.security.acls.model.NotFoundException;
+import org.springframework.security.acls.model.ObjectIdentity;
+import org.springframework.security.acls.model.Permission;
+import org.springframework.security.acls.model.PermissionGrantingStrategy;
+import org.springframework.security.acls.model.Sid;
+import org.springframework.security.acls.neo4j.config.AppTestConfig;
+import org.springframework.security.acls.neo4j.config.H2TestConfig;
+import org.springframework.security.acls.neo4j.config.Neo4jTestConfig;
+import org.springframework.security.authentication.TestingAuthenticationToken;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.test.annotation.Rollback;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+@ContextConfiguration(classes = { AppTestConfig.class, H2TestConfig.class, Neo4jTestConfig.class })
+@RunWith(SpringJUnit4ClassRunner.class)
+@Transactional(readOnly = true)
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+@ActiveProfiles(value="dev-neo4j")
+public class Neo4jLookupStrategyTest {
+
+	private static final String CLASS_NAME = "com.test.lookup.Document";
+
+	private static final int ACL_COUNT = 20;
+
+	private static final String FOLDER_CLASS_NAME = "com.test.lookup.Folder";
+
+	private static final int FOLDER_DEPTH = 12;
+
+	private static final String SHARED_CLASS_NAME = "com.test.lookup.Shared";
+
+	private static final int SHARED_ACE_COUNT = 100;
+
+	private static final String PACKED_CLASS_NAME = "com.test.lookup.Packed";
+
+	private static final String CHILD_CLASS_NAME = "com.test.lookup.Child";
+
+	private static final int CHILD_COUNT = 40;
+
+	@Autowired
+	private MutableAclService mutableAclService;
+
+	@Autowired
+	private LookupStrategy lookupStrategy;
+
+	@Autowired
+	private AclCache aclCache;
+
+	@Autowired
+	private GraphDatabaseService graphDatabaseService;
+
+	@Autowired
+	private AclAuthorizationStrategy aclAuthorizationStrategy;
+
+	@Autowired
+	private PermissionGrantingStrategy permissionGrantingStrategy;
+
+	@Test
+	@Rollback(false)
+	@Transactional(rollbackFor = Exception.class)
+	public void test1createAcls() {
+		Authentication auth = new TestingAuthenticationToken("shazin", "N/A");
+		auth.setAuthenticated(true);
+		SecurityContextHolder.getContext().setAuthentication(auth);
+
+		for (int i = 1; i <= ACL_COUNT; i++) {
+			MutableAcl acl = mutableAclService.createAcl(new ObjectIdentityImpl(
+					CLASS_NAME, Long.valueOf(i)));
+			acl.insertAce(0, BasePermission.READ, new GrantedAuthoritySid(
+					"ROLE_READER"), true);
+			mutableAclService.updateAcl(acl);
+		}
+	}
+
+	@Test
+	@Rollback(false)
+	@Transactional(rollbackFor = Exception.class)
+	public void test2parameterizedLookupReusesStatement() {
+		Neo4jLookupStrategy strategy = (Neo4jLookupStrategy) lookupStrategy;
+		Neo4jTemplate originalTemplate = strategy.getNeo4jTemplate();
+		int originalBatchSize = strategy.getBatchSize();
+		RecordingNeo4jTemplate recordingTemplate = new RecordingNeo4jTemplate(
+				graphDatabaseService);
+
+		strategy.setNeo4jTemplate(recordingTemplate);
+		strategy.setParameterizedLookup(true);
+		try {
+			for (int batchSize = 1; batchSize <= ACL_COUNT; batchSize++) {
+				strategy.setBatchSize(batchSize);
+				aclCache.clearCache();
+
+				Map<ObjectIdentity, Acl> acls = strategy.readAclsById(
+						objectIdentities(batchSize), null);
+
+				assertEquals(batchSize, acls.size());
+				for (Acl acl : acls.values()) {
+					assertEquals(1, acl.getEntries().size());
+				}
+			}
+		} finally {
+			strategy.setNeo4jTemplate(originalTemplate);
+			strategy.setParameterizedLookup(false);
+			strategy.setBatchSize(originalBatchSize);
+			aclCache.clearCache();
+		}
+
+		System.out.println("Distinct lookup statements for " + ACL_COUNT
+				+ " batch sizes " + recordingTemplate.getStatements().size());
+
+		// One statement text means one entry in the Cypher plan cache. The
+		// plan cache itself can not be observed from here, so check that the
+		// identities only travel as parameters, whatever the batch size.
+		assertEquals(1, recordingTemplate.getStatements().size());
+		String statement = recordingTemplate.getStatements().iterator().next();
+		assertFalse(statement.contains(CLASS_NAME));
+		Set<Integer> batchSizes = new HashSet<Integer>();
+		for (Map<String, Object> params : recordingTemplate.getParameters()) {
+			batchSizes.add(((Collection<?>) params.get("objectIdentities"))
+					.size());
+		}
+		assertEquals(ACL_COUNT, batchSizes.size());
+	}
+
+	@Test
+	@Rollback(false)
+	@Transactional(rollbackFor = Exception.class)
+	public void test3orChainedLookupVariesStatement() {
+		Neo4jLookupStrategy strategy = (Neo4jLookupStrategy) lookupStrategy;
+		Neo4jTemplate originalTemplate = strategy.getNeo4jTemplate();
+		int originalBatchSize = strategy.getBatchSize();
+		RecordingNeo4jTemplate recordingTemplate = new RecordingNeo4jTemplate(
+				graphDatabaseService);
+
+		strategy.setNeo4jTemplate(recordingTemplate);
+		try {
+			for (int batchSize = 1; batchSize <= ACL_COUNT; batchSize++) {
+				strategy.setBatchSize(batchSize);
+				aclCache.clearCache();
+
+				assertEquals(batchSize,
+						strategy.readAclsById(objectIdentities(batchSize), null)
+								.size());
+			}
+		} finally {
+			strategy.setNeo4jTemplate(originalTemplate);
+			strategy.setBatchSize(originalBatchSize);
+			aclCache.clearCache();
+		}
+
+		assertEquals(ACL_COUNT, recordingTemplate.getStatements().size());
+	}
+
+	@Test
+	@Rollback(false)
+	@Transactional(rollbackFor = Exception.class)
+	public void test4parentTraversalLoadsChainInOneQuery() {
+		Authentication auth = new TestingAuthenticationToken("shazin", "N/A");
+		auth.setAuthenticated(true);
+		SecurityContextHolder.getContext().setAuthentication(auth);
+
+		MutableAcl parentAcl = null;
+		for (int i = 1; i <= FOLDER_DEPTH; i++) {
+			MutableAcl acl = mutableAclService.createAcl(new ObjectIdentityImpl(
+					FOLDER_CLASS_NAME, Long.valueOf(i)));
+			acl.insertAce(0, BasePermission.READ, new GrantedAuthoritySid(
+					"ROLE_LEVEL_" + i), true);
+			if (parentAcl != null) {
+				acl.setParent(parentAcl);
+			}
+			parentAcl = mutableAclService.updateAcl(acl);
+		}
+
+		Neo4jLookupStrategy strategy = (Neo4jLookupStrategy) lookupStrategy;
+		Neo4jTemplate originalTemplate = strategy.getNeo4jTemplate();
+		RecordingNeo4jTemplate recordingTemplate = new RecordingNeo4jTemplate(
+				graphDatabaseService);
+		ObjectIdentity deepest = new ObjectIdentityImpl(FOLDER_CLASS_NAME,
+				Long.valueOf(FOLDER_DEPTH));
+
+		strategy.setNeo4jTemplate(recordingTemplate);
+		strategy.setParentTraversalLookup(true);
+		Acl acl;
+		try {
+			aclCache.clearCache();
+			long start = System.nanoTime();
+			acl = strategy.readAclsById(Arrays.asList(deepest), null).get(
+					deepest);
+			long end = System.nanoTime();
+			System.out.println("Reading " + FOLDER_DEPTH
+					+ " level chain in " + (end - start));
+		} finally {
+			strategy.setNeo4jTemplate(originalTemplate);
+			strategy.setParentTraversalLookup(false);
+			aclCache.clearCache();
+		}
+
+		assertEquals(1, recordingTemplate.getInvocations());
+
+		for (int i = FOLDER_DEPTH; i >= 1; i--) {
+			assertEquals(new ObjectIdentityImpl(FOLDER_CLASS_NAME,
+					Long.valueOf(i)), acl.getObjectIdentity());
+			assertEquals(1, acl.getEntries().size());
+			acl = acl.getParentAcl();
+		}
+		assertNull(acl);
+	}
+
+	@Test
+	@Transactional(propagation = Propagation.NOT_SUPPORTED)
+	public void test5aparallelLookupOverlapsBatches() {
+		Neo4jLookupStrategy strategy = (Neo4jLookupStrategy) lookupStrategy;
+		Neo4jTemplate originalTemplate = strategy.getNeo4jTemplate();
+		int originalBatchSize = strategy.getBatchSize();
+		// Each of the first 3 batches waits until all 3 are in flight
+		LatchedNeo4jTemplate latchedTemplate = new LatchedNeo4jTemplate(
+				graphDatabaseService, 3);
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+
+		strategy.setNeo4jTemplate(latchedTemplate);
+		strategy.setParameterizedLookup(true);
+		strategy.setExecutor(executor);
+		strategy.setParallelism(3);
+		strategy.setBatchSize(3);
+		try {
+			aclCache.clearCache();
+
+			List<ObjectIdentity> oids = objectIdentities(ACL_COUNT);
+			Map<ObjectIdentity, Acl> acls = strategy.readAclsById(oids, null);
+
+			assertEquals(ACL_COUNT, acls.size());
+			for (ObjectIdentity oid : oids) {
+				assertEquals(1, acls.get(oid).getEntries().size());
+				assertEquals(acls.get(oid), aclCache.getFromCache(oid));
+			}
+		} finally {
+			executor.shutdownNow();
+			strategy.setNeo4jTemplate(originalTemplate);
+			strategy.setParameterizedLookup(false);
+			strategy.setExecutor(null);
+			strategy.setBatchSize(originalBatchSize);
+			aclCache.clearCache();
+		}
+
+		// ceil(ACL_COUNT / 3) batches, none of them waited out the latch
+		assertEquals((ACL_COUNT + 2) / 3, latchedTemplate.getInvocations());
+		assertEquals(0, latchedTemplate.getTimeouts());
+		assertFalse(latchedTemplate.getThreads().contains(
+				Thread.currentThread()));
+	}
+
+	@Test
+	@Rollback(false)
+	@Transactional(rollbackFor = Exception.class)
+	public void test5blookupInWriteTransactionLoadsInline() {
+		Authentication auth = new TestingAuthenticationToken("shazin", "N/A");
+		auth.setAuthenticated(true);
+		SecurityContextHolder.getContext().setAuthentication(auth);
+		Neo4jLookupStrategy strategy = (Neo4jLookupStrategy) lookupStrategy;
+		Neo4jTemplate originalTemplate = strategy.getNeo4jTemplate();
+		int originalBatchSize = strategy.getBatchSize();
+		RecordingNeo4jTemplate recordingTemplate = new RecordingNeo4jTemplate(
+				graphDatabaseService);
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+
+		// Not committed yet, so only the calling thread can see it
+		ObjectIdentity uncommitted = new ObjectIdentityImpl(CLASS_NAME,
+				Long.valueOf(ACL_COUNT + 1));
+		MutableAcl created = mutableAclService.createAcl(uncommitted);
+		created.insertAce(0, BasePermission.READ, new GrantedAuthoritySid(
+				"ROLE_READER"), true);
+		mutableAclService.updateAcl(created);
+
+		strategy.setNeo4jTemplate(recordingTemplate);
+		strategy.setParameterizedLookup(true);
+		strategy.setExecutor(executor);
+		strategy.setParallelism(3);
+		strategy.setBatchSize(3);
+		try {
+			aclCache.clearCache();
+
+			List<ObjectIdentity> oids = objectIdentities(ACL_COUNT + 1);
+			Map<ObjectIdentity, Acl> acls = strategy.readAclsById(oids, null);
+
+			assertEquals(ACL_COUNT + 1, acls.size());
+			assertEquals(1, acls.get(uncommitted).getEntries().size());
+		} finally {
+			executor.shutdownNow();
+			strategy.setNeo4jTemplate(originalTemplate);
+			strategy.setParameterizedLookup(false);
+			strategy.setExecutor(null);
+			strategy.setBatchSize(originalBatchSize);
+			aclCache.clearCache();
+		}
+
+		assertEquals((ACL_COUNT + 3) / 3, recordingTemplate.getInvocations());
+		assertEquals(Collections.singleton(Thread.currentThread()),
+				recordingTemplate.getThreads());
+
+		mutableAclService.deleteAcl(uncommitted, false);
+	}
+
+	@Test
+	@Rollback(false)
+	@Transactional(rollbackFor = Exception.class)
+	public void test6sidFilteredLookupLoadsOnlyRequestedSids() {
+		Authentication auth = new TestingAuthenticationToken("shazin", "N/A");
+		auth.setAuthenticated(true);
+		SecurityContextHolder.getContext().setAuthentication(auth);
+		ObjectIdentity oid = new ObjectIdentityImpl(SHARED_CLASS_NAME, 1l);
+		MutableAcl shared = mutableAclService.createAcl(oid);
+		for (int i = 0; i < SHARED_ACE_COUNT; i++) {
+			shared.insertAce(i, BasePermission.READ, new GrantedAuthoritySid(
+					"ROLE_SHARED_" + i), true);
+		}
+		mutableAclService.updateAcl(shared);
+
+		SidFilteredAclCache cache = new SidFilteredAclCache(aclCache,
+				CacheManager.getInstance().addCacheIfAbsent(
+						"sidFilteredAclCache"));
+		Neo4jLookupStrategy strategy = new Neo4jLookupStrategy(
+				graphDatabaseService, cache, aclAuthorizationStrategy,
+				permissionGrantingStrategy);
+		strategy.setSidFilteredLookup(true);
+		List<Sid> sids = Arrays.<Sid> asList(new GrantedAuthoritySid(
+				"ROLE_SHARED_3"), new GrantedAuthoritySid("ROLE_SHARED_7"));
+		try {
+			cache.clearCache();
+
+			Acl acl = strategy.readAclsById(Arrays.asList(oid), sids).get(oid);
+
+			assertEquals(2, acl.getEntries().size());
+			assertTrue(acl.isSidLoaded(sids));
+			assertFalse(acl.isSidLoaded(Arrays.<Sid> asList(new GrantedAuthoritySid(
+					"ROLE_SHARED_5"))));
+			assertNull(cache.getFromCache(oid));
+			assertEquals(acl, cache.getFromCache(oid, sids));
+
+			// Without Sids the full Acl is loaded and cached separately
+			Acl full = strategy.readAclsById(Arrays.asList(oid), null).get(oid);
+			assertEquals(SHARED_ACE_COUNT, full.getEntries().size());
+			assertEquals(full, cache.getFromCache(oid));
+
+			cache.evictFromCache(oid);
+			assertNull(cache.getFromCache(oid));
+			assertNull(cache.getFromCache(oid, sids));
+		} finally {
+			cache.clearCache();
+		}
+	}
+
+	@Test
+	@Rollback(false)
+	@Transactional(rollbackFor = Exception.class)
+	public void test7packedEntriesMatchAceNodes() {
+		Authentication auth = new TestingAuthenticationToken("shazin", "N/A");
+		auth.setAuthenticated(true);
+		SecurityContextHolder.getContext().setAuthentication(auth);
+		ObjectIdentity parentOid = new ObjectIdentityImpl(PACKED_CLASS_NAME, 1l);
+		ObjectIdentity childOid = new ObjectIdentityImpl(PACKED_CLASS_NAME, 2l);
+
+		MutableAcl parent = mutableAclService.createAcl(parentOid);
+		parent.insertAce(0, BasePermission.READ, new PrincipalSid("alice"),
+				true);
+		parent.insertAce(1, BasePermission.WRITE, new GrantedAuthoritySid(
+				"ROLE_EDITOR"), false);
+		parent = mutableAclService.updateAcl(parent);
+		MutableAcl child = mutableAclService.createAcl(childOid);
+		child.insertAce(0, BasePermission.DELETE, new GrantedAuthoritySid(
+				"ROLE_EDITOR"), true);
+		child.insertAce(1, BasePermission.READ, new PrincipalSid("bob"), false);
+		child.insertAce(2, BasePermission.ADMINISTRATION, new PrincipalSid(
+				"alice"), true);
+		((AuditableAcl) child).updateAuditing(1, true, false);
+		((AuditableAcl) child).updateAuditing(2, false, true);
+		child.setParent(parent);
+		child = mutableAclService.updateAcl(child);
+
+		Neo4jAclPackedEntriesMigration migration = new Neo4jAclPackedEntriesMigration(
+				graphDatabaseService);
+		migration.setClassName(PACKED_CLASS_NAME);
+		migration.setBatchSize(1);
+		assertEquals(5, migration.migrate());
+		assertEquals(0, migration.migrate());
+
+		Neo4jLookupStrategy strategy = new Neo4jLookupStrategy(
+				graphDatabaseService, aclCache, aclAuthorizationStrategy,
+				permissionGrantingStrategy);
+		strategy.setPackedEntries(true);
+		Neo4jMutableAclService service = new Neo4jMutableAclService(
+				graphDatabaseService, aclCache, strategy);
+		service.setPackedEntries(true);
+		try {
+			aclCache.clearCache();
+
+			Acl packed = strategy.readAclsById(Arrays.asList(childOid), null)
+					.get(childOid);
+			assertSameEntries(child, packed);
+			assertSameEntries(parent, packed.getParentAcl());
+
+			MutableAcl updated = (MutableAcl) packed;
+			updated.deleteAce(0);
+			updated.insertAce(2, BasePermission.CREATE,
+					new GrantedAuthoritySid("ROLE_AUTHOR"), true);
+			updated = service.updateAcl(updated);
+			aclCache.clearCache();
+			Acl reloaded = strategy.readAclsById(Arrays.asList(childOid), null)
+					.get(childOid);
+			assertSameEntries(updated, reloaded);
+			assertEquals(3, reloaded.getEntries().size());
+			assertEquals(child.getEntries().get(1).getId(), reloaded
+					.getEntries().get(0).getId());
+
+			strategy.setSidFilteredLookup(true);
+			aclCache.clearCache();
+			Acl filtered = strategy.readAclsById(Arrays.asList(childOid),
+					Arrays.<Sid> asList(new PrincipalSid("alice"))).get(
+					childOid);
+			assertEquals(1, filtered.getEntries().size());
+			assertEquals(new PrincipalSid("alice"), filtered.getEntries()
+					.get(0).getSid());
+
+			strategy.setSidFilteredLookup(false);
+			aclCache.clearCache();
+			List<Acl> acls = new ArrayList<Acl>(strategy.readAclsById(
+					Arrays.asList(parentOid, childOid), null).values());
+			assertInGraphChecksMatchAcls(service, acls);
+			assertInGraphChecksMatchAcls(new Neo4jAclService(
+					graphDatabaseService, strategy, aclCache), acls);
+
+			service.deleteAcl(parentOid, true);
+		} finally {
+			aclCache.clearCache();
+		}
+	}
+
+	@Test
+	public void test8aggregatedLookupMatchesRowLookup() {
+		List<ObjectIdentity> oids = objectIdentities(ACL_COUNT);
+		oids.add(new ObjectIdentityImpl(SHARED_CLASS_NAME, 1l));
+		oids.add(new ObjectIdentityImpl(FOLDER_CLASS_NAME,
+				Long.valueOf(FOLDER_DEPTH)));
+
+		Neo4jLookupStrategy strategy = new Neo4jLookupStrategy(
+				graphDatabaseService, aclCache, aclAuthorizationStrategy,
+				permissionGrantingStrategy);
+		Neo4jLookupStrategy aggregated = new Neo4jLookupStrategy(
+				graphDatabaseService, aclCache, aclAuthorizationStrategy,
+				permissionGrantingStrategy);
+		aggregated.setAggregatedLookup(true);
+		aggregated.setParentTraversalLookup(true);
+		try {
+			aclCache.clearCache();
+			Map<ObjectIdentity, Acl> expected = strategy.readAclsById(oids,
+					null);
+			aclCache.clearCache();
+			Map<ObjectIdentity, Acl> actual = aggregated.readAclsById(oids,
+					null);
+
+			assertEquals(oids.size(), actual.size());
+			for (ObjectIdentity oid : oids) {
+				Acl e = expected.get(oid);
+				Acl a = actual.get(oid);
+				while (e != null) {
+					assertSameEntries(e, a);
+					e = e.getParentAcl();
+					a = a.getParentAcl();
+				}
+				assertNull(a);
+			}
+			assertEquals(SHARED_ACE_COUNT,
+					actual.get(oids.get(ACL_COUNT)).getEntries().size());
+		} finally {
+			aclCache.clearCache();
+		}
+	}
+
+	@Test
+	@Rollback(false)
+	@Transactional(rollbackFor = Exception.class)
+	public void test9childrenShareConvertedParents() {
+		Authentication auth = new TestingAuthenticationToken("shazin", "N/A");
+		auth.setAuthenticated(true);
+		SecurityContextHolder.getContext().setAuthentication(auth);
+		ObjectIdentity folder = new ObjectIdentityImpl(FOLDER_CLASS_NAME,
+				Long.valueOf(FOLDER_DEPTH));
+		Acl folderAcl = mutableAclService.readAclById(folder);
+		List<ObjectIdentity> oids = new ArrayList<ObjectIdentity>();
+		for (int i = 1; i <= CHILD_COUNT; i++) {
+			ObjectIdentity oid = new ObjectIdentityImpl(CHILD_CLASS_NAME,
+					Long.valueOf(i));
+			MutableAcl acl = mutableAclService.createAcl(oid);
+			acl.setParent(folderAcl);
+			mutableAclService.updateAcl(acl);
+			oids.add(oid);
+		}
+
+		Neo4jLookupStrategy strategy = new Neo4jLookupStrategy(
+				graphDatabaseService, aclCache, aclAuthorizationStrategy,
+				permissionGrantingStrategy);
+		// One batch, then several batches which share parents through the
+		// cache
+		for (int batchSize : new int[] { CHILD_COUNT, 7 }) {
+			strategy.setBatchSize(batchSize);
+			try {
+				aclCache.clearCache();
+				Map<ObjectIdentity, Acl> acls = strategy.readAclsById(oids,
+						null);
+
+				Acl parent = acls.get(oids.get(0)).getParentAcl();
+				Set<Acl> instances = Collections
+						.newSetFromMap(new IdentityHashMap<Acl, Boolean>());
+				for (ObjectIdentity oid : oids) {
+					assertSame(parent, acls.get(oid).getParentAcl());
+					for (Acl acl = acls.get(oid); acl != null; acl = acl
+							.getParentAcl()) {
+						instances.add(acl);
+					}
+				}
+
+				// One instance per distinct Acl instead of one parent chain
+				// per child
+				assertEquals(CHILD_COUNT + FOLDER_DEPTH, instances.size());
+				for (Acl acl = parent; acl != null; acl = acl.getParentAcl()) {
+					assertSame(acl, aclCache.getFromCache(acl
+							.getObjectIdentity()));
+				}
+			} finally {
+				aclCache.clearCache();
+			}
+		}
+	}
+
+	// The in-graph decisions on the packed arrays agree with the loaded Acls
+	private void assertInGraphChecksMatchAcls(Neo4jAclService service,
+			List<Acl> acls) {
+		String className = acls.get(0).getObjectIdentity().getType();
+		List<Long> identifiers = new ArrayList<Long>();
+		for (Acl acl : acls) {
+			identifiers.add((Long) acl.getObjectIdentity().getIdentifier());
+		}
+		List<List<Sid>> sidLists = Arrays.asList(
+				Arrays.<Sid> asList(new PrincipalSid("alice")),
+				Arrays.<Sid> asList(new PrincipalSid("bob")),
+				Arrays.<Sid> asList(new PrincipalSid("bob"),
+						new GrantedAuthoritySid("ROLE_EDITOR")),
+				Arrays.<Sid> asList(new GrantedAuthoritySid("ROLE_AUTHOR")));
+		List<Permission> permissions = Arrays.<Permission> asList(
+				BasePermission.READ, BasePermission.WRITE,
+				BasePermission.CREATE, BasePermission.DELETE,
+				BasePermission.ADMINISTRATION);
+
+		for (List<Sid> sids : sidLists) {
+			for (Permission permission : permissions) {
+				List<Permission> requested = Arrays.asList(permission);
+				String message = permission + " " + sids;
+				Set<Long> expected = new TreeSet<Long>();
+				for (Acl acl : acls) {
+					boolean granted;
+					try {
+						granted = acl.isGranted(requested, sids, false);
+					} catch (NotFoundException e) {
+						granted = false;
+					}
+					assertEquals(message, granted, service.isGranted(
+							acl.getObjectIdentity(), requested, sids));
+					if (granted) {
+						expected.add((Long) acl.getObjectIdentity()
+								.getIdentifier());
+					}
+				}
+
+				assertEquals(message, expected, service.filterGranted(
+						className, identifiers, requested, sids));
+				assertEquals(message, expected.size(),
+						service.countGrantedObjectIdentities(className,
+								requested, sids));
+				List<Long> found = new ArrayList<Long>();
+				for (ObjectIdentity oid : service.findGrantedObjectIdentities(
+						className, requested, sids, null, 10)) {
+					found.add((Long) oid.getIdentifier());
+				}
+				assertEquals(message, new ArrayList<Long>(expected), found);
+				List<Long> iterated = new ArrayList<Long>();
+				Iterator<ObjectIdentity> it = service
+						.iterateGrantedObjectIdentities(className, requested,
+								sids);
+				while (it.hasNext()) {
+					iterated.add((Long) it.next().getIdentifier());
+				}
+				assertEquals(message, new ArrayList<Long>(expected), iterated);
+			}
+		}
+
+		Neo4jAclPermissionEvaluator evaluator = new Neo4jAclPermissionEvaluator(
+				service);
+		Authentication auth = new TestingAuthenticationToken("alice", "N/A");
+		for (Acl acl : acls) {
+			boolean granted;
+			try {
+				granted = acl.isGranted(
+						Arrays.<Permission> asList(BasePermission.READ),
+						Arrays.<Sid> asList(new PrincipalSid("alice")), false);
+			} catch (NotFoundException e) {
+				granted = false;
+			}
+			assertEquals(granted, evaluator.hasPermission(auth, acl
+					.getObjectIdentity().getIdentifier(), className, "read"));
+		}
+	}
+
+	private void assertSameEntries(Acl expected, Acl actual) {
+		assertEquals(expected.getObjectIdentity(), actual.getObjectIdentity());
+		assertEquals(expected.getEntries().size(), actual.getEntries().size());
+		for (int i = 0; i < expected.getEntries().size(); i++) {
+			AccessControlEntryImpl e = (AccessControlEntryImpl) expected
+					.getEntries().get(i);
+			AccessControlEntryImpl a = (AccessControlEntryImpl) actual
+					.getEntries().get(i);
+			assertEquals(e.getId(), a.getId());
+			assertEquals(e.getSid(), a.getSid());
+			assertEquals(e.getPermission(), a.getPermission());
+			assertEquals(e.isGranting(), a.isGranting());
+			assertEquals(e.isAuditSuccess(), a.isAuditSuccess());
+			assertEquals(e.isAuditFailure(), a.isAuditFailure());
+		}
+	}
+
+	private List<ObjectIdentity> objectIdentities(int count) {
+		List<ObjectIdentity> oids = new ArrayList<ObjectIdentity>();
+		for (int i = 1; i <= count; i++) {
+			oids.add(new ObjectIdentityImpl(CLASS_NAME, Long.valueOf(i)));
+		}
+		return oids;
+	}
+
+	private static class RecordingNeo4jTemplate extends Neo4jTemplate {
+
+		private final Set<String> statements = Collections
+				.synchronizedSet(new HashSet<String>());
+
+		private final List<Map<String, Object>> parameters = Collections
+				.synchronizedList(new ArrayList<Map<String, Object>>());
+
+		private final AtomicInteger invocations = new AtomicInteger();
+
+		private final Set<Thread> threads = Collections
+				.synchronizedSet(new HashSet<Thread>());
+
+		public RecordingNeo4jTemplate(GraphDatabaseService graphDatabaseService) {
+			super(graphDatabaseService);
+		}
+
+		@Override
+		public Result<Map<String, Object>> query(String statement,
+				Map<String, Object> params) {
+			statements.add(statement);
+			parameters.add(params);
+			threads.add(Thread.currentThread());
+			invocations.incrementAndGet();
+			return super.query(statement, params);
+		}
+
+		public Set<String> getStatements() {
+			return statements;
+		}
+
+		public List<Map<String, Object>> getParameters() {
+			return parameters;
+		}
+
+		public int getInvocations() {
+			return invocations.get();
+		}
+
+		public Set<Thread> getThreads() {
+			return threads;
+		}
+	}
+
+	private static class LatchedNeo4jTemplate extends RecordingNeo4jTemplate {
+
+		private final CountDownLatch inFlight;
+
+		private final AtomicInteger timeouts = new AtomicInteger();
+
+		public LatchedNeo4jTemplate(GraphDatabaseService graphDatabaseService,
+				int overlap) {
+			super(graphDatabaseService);
+			this.inFlight = new CountDownLatch(overlap);
+		}
+
+		@Override
+		public Result<Map<String, Object>> query(String statement,
+				Map<String, Object> params) {
+			inFlight.countDown();
+			try {
+				if (!inFlight.await(10, TimeUnit.SECONDS)) {
+					timeouts.incrementAndGet();
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IllegalStateException(e);
+			}
+			return super.query(statement, params);
+		}
+
+		public int getTimeouts() {
+			return timeouts.get();
+		}
+	}
+}
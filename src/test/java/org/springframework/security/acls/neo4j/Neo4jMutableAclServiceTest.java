@@ -1,16 +1,35 @@
 package org.springframework.security.acls.neo4j;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.junit.FixMethodOrder;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.junit.runners.MethodSorters;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.graphdb.event.TransactionData;
+import org.neo4j.graphdb.event.TransactionEventHandler;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.neo4j.conversion.Result;
+import org.springframework.data.neo4j.support.Neo4jTemplate;
 import org.springframework.security.acls.domain.BasePermission;
 import org.springframework.security.acls.domain.GrantedAuthoritySid;
 import org.springframework.security.acls.domain.ObjectIdentityImpl;
+import org.springframework.security.acls.domain.PrincipalSid;
+import org.springframework.security.acls.jdbc.LookupStrategy;
 import org.springframework.security.acls.model.AccessControlEntry;
+import org.springframework.security.acls.model.AclCache;
+import org.springframework.security.acls.model.AlreadyExistsException;
+import org.springframework.security.acls.model.ChildrenExistException;
 import org.springframework.security.acls.model.MutableAcl;
 import org.springframework.security.acls.model.MutableAclService;
 import org.springframework.security.acls.model.NotFoundException;
@@ -25,6 +44,7 @@ import org.springframework.test.annotation.Rollback;
 import org.springframework.test.context.ActiveProfiles;
 import org.springframework.test.context.ContextConfiguration;
 import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.transaction.annotation.Propagation;
 import org.springframework.transaction.annotation.Transactional;
 
 @ContextConfiguration(classes = { AppTestConfig.class, H2TestConfig.class, Neo4jTestConfig.class })
@@ -37,6 +57,15 @@ public class Neo4jMutableAclServiceTest {
 	@Autowired
 	private MutableAclService mutableAclService;
 
+	@Autowired
+	private GraphDatabaseService graphDatabaseService;
+
+	@Autowired
+	private AclCache aclCache;
+
+	@Autowired
+	private LookupStrategy lookupStrategy;
+
 	@Test
 	@Rollback(false)
 	@Transactional(rollbackFor = Exception.class)
@@ -85,4 +114,437 @@ public class Neo4jMutableAclServiceTest {
 
 		mutableAclService.readAclById(oid);
 	}
+
+	@Test
+	@Rollback(false)
+	@Transactional(rollbackFor = Exception.class)
+	public void test4CreateAclTree() {
+		Authentication auth = new TestingAuthenticationToken("shazin", "N/A");
+		auth.setAuthenticated(true);
+		SecurityContextHolder.getContext().setAuthentication(auth);
+		MutableAcl root = mutableAclService.createAcl(new ObjectIdentityImpl(
+				"my.test.Project", 1l));
+		long id = 1;
+		for (int i = 0; i < 5; i++) {
+			MutableAcl child = mutableAclService
+					.createAcl(new ObjectIdentityImpl("my.test.Folder", id++));
+			child.setParent(root);
+			child.insertAce(0, BasePermission.READ, new GrantedAuthoritySid(
+					"ROLE_USER"), true);
+			child = mutableAclService.updateAcl(child);
+			for (int j = 0; j < 2; j++) {
+				MutableAcl grandChild = mutableAclService
+						.createAcl(new ObjectIdentityImpl("my.test.Folder", id++));
+				grandChild.setParent(child);
+				mutableAclService.updateAcl(grandChild);
+			}
+		}
+	}
+
+	@Test
+	@Rollback(false)
+	@Transactional(rollbackFor = Exception.class)
+	public void test5DeleteAclTree() {
+		List<ObjectIdentity> oids = new ArrayList<ObjectIdentity>();
+		oids.add(new ObjectIdentityImpl("my.test.Project", 1l));
+		for (long id = 1; id <= 15; id++) {
+			oids.add(new ObjectIdentityImpl("my.test.Folder", id));
+		}
+		assertEquals(16, mutableAclService.readAclsById(oids).size());
+
+		mutableAclService.deleteAcl(oids.get(0), true);
+
+		for (ObjectIdentity oid : oids) {
+			try {
+				mutableAclService.readAclById(oid);
+				assertTrue("Acl " + oid + " was not deleted", false);
+			} catch (NotFoundException e) {
+				// expected
+			}
+		}
+	}
+
+	@Test
+	@Rollback(false)
+	@Transactional(rollbackFor = Exception.class)
+	public void test6DiffBasedUpdateAcl() {
+		Authentication auth = new TestingAuthenticationToken("shazin", "N/A");
+		auth.setAuthenticated(true);
+		SecurityContextHolder.getContext().setAuthentication(auth);
+		Neo4jMutableAclService service = new Neo4jMutableAclService(
+				graphDatabaseService, aclCache, lookupStrategy);
+		service.setDiffBasedUpdate(true);
+		ObjectIdentity oid = new ObjectIdentityImpl("my.test.Diff", 1l);
+
+		MutableAcl acl = service.createAcl(oid);
+		acl.insertAce(0, BasePermission.READ, new GrantedAuthoritySid(
+				"ROLE_USER"), true);
+		acl.insertAce(1, BasePermission.WRITE, new GrantedAuthoritySid(
+				"ROLE_USER"), true);
+		acl.insertAce(2, BasePermission.DELETE, new GrantedAuthoritySid(
+				"ROLE_ADMIN"), true);
+		acl = service.updateAcl(acl);
+		assertEquals(3, acl.getEntries().size());
+		Serializable readId = acl.getEntries().get(0).getId();
+		Serializable deleteId = acl.getEntries().get(2).getId();
+
+		// Remove WRITE, change DELETE and append ADMINISTRATION
+		acl.deleteAce(1);
+		acl.updateAce(1, BasePermission.CREATE);
+		acl.insertAce(2, BasePermission.ADMINISTRATION, new GrantedAuthoritySid(
+				"ROLE_ADMIN"), false);
+		acl = service.updateAcl(acl);
+
+		List<AccessControlEntry> entries = acl.getEntries();
+		assertEquals(3, entries.size());
+		assertEquals(readId, entries.get(0).getId());
+		assertEquals(BasePermission.READ, entries.get(0).getPermission());
+		assertEquals(deleteId, entries.get(1).getId());
+		assertEquals(BasePermission.CREATE, entries.get(1).getPermission());
+		assertEquals(BasePermission.ADMINISTRATION, entries.get(2)
+				.getPermission());
+		assertEquals(false, entries.get(2).isGranting());
+
+		service.deleteAcl(oid, false);
+	}
+
+	@Test
+	@Rollback(false)
+	@Transactional(rollbackFor = Exception.class)
+	public void test6aCreateDiffAcls() {
+		Authentication auth = new TestingAuthenticationToken("shazin", "N/A");
+		auth.setAuthenticated(true);
+		SecurityContextHolder.getContext().setAuthentication(auth);
+		MutableAcl parent = mutableAclService.createAcl(new ObjectIdentityImpl(
+				"my.test.Diff", 2l));
+		MutableAcl acl = mutableAclService.createAcl(new ObjectIdentityImpl(
+				"my.test.Diff", 3l));
+		acl.insertAce(0, BasePermission.READ, new GrantedAuthoritySid(
+				"ROLE_USER"), true);
+		acl.insertAce(1, BasePermission.WRITE, new PrincipalSid("shazin"),
+				false);
+		acl.setParent(parent);
+		mutableAclService.updateAcl(acl);
+	}
+
+	@Test
+	@Transactional(propagation = Propagation.NOT_SUPPORTED)
+	public void test6bUnchangedDiffBasedUpdateWritesNothing() {
+		Authentication auth = new TestingAuthenticationToken("shazin", "N/A");
+		auth.setAuthenticated(true);
+		SecurityContextHolder.getContext().setAuthentication(auth);
+		Neo4jMutableAclService service = new Neo4jMutableAclService(
+				graphDatabaseService, aclCache, lookupStrategy);
+		service.setDiffBasedUpdate(true);
+		ObjectIdentity oid = new ObjectIdentityImpl("my.test.Diff", 3l);
+		WriteCounter writes = new WriteCounter();
+		Transaction tx;
+		graphDatabaseService.registerTransactionEventHandler(writes);
+		try {
+			tx = graphDatabaseService.beginTx();
+			try {
+				MutableAcl acl = (MutableAcl) service.readAclById(oid);
+				writes.reset();
+				service.updateAcl(acl);
+				tx.success();
+			} finally {
+				tx.close();
+			}
+			assertEquals(0, writes.getWrites());
+
+			// A changed Ace is written, so the counter does see writes
+			tx = graphDatabaseService.beginTx();
+			try {
+				MutableAcl acl = (MutableAcl) service.readAclById(oid);
+				writes.reset();
+				acl.updateAce(1, BasePermission.CREATE);
+				service.updateAcl(acl);
+				tx.success();
+			} finally {
+				tx.close();
+			}
+			assertTrue(writes.getWrites() > 0);
+		} finally {
+			graphDatabaseService.unregisterTransactionEventHandler(writes);
+		}
+
+		tx = graphDatabaseService.beginTx();
+		try {
+			service.deleteAcl(new ObjectIdentityImpl("my.test.Diff", 2l), true);
+			tx.success();
+		} finally {
+			tx.close();
+		}
+	}
+
+	@Test
+	@Rollback(false)
+	@Transactional(rollbackFor = Exception.class)
+	public void test7CreateAcls() {
+		Authentication auth = new TestingAuthenticationToken("shazin", "N/A");
+		auth.setAuthenticated(true);
+		SecurityContextHolder.getContext().setAuthentication(auth);
+		Neo4jMutableAclService service = new Neo4jMutableAclService(
+				graphDatabaseService, aclCache, lookupStrategy);
+		service.setCreateBatchSize(7);
+
+		List<ObjectIdentity> oids = new ArrayList<ObjectIdentity>();
+		for (long id = 1; id <= 50; id++) {
+			oids.add(new ObjectIdentityImpl("my.test.Bulk", id));
+		}
+		List<MutableAcl> acls = service.createAcls(oids);
+
+		assertEquals(50, acls.size());
+		for (int i = 0; i < oids.size(); i++) {
+			assertEquals(oids.get(i), acls.get(i).getObjectIdentity());
+			assertEquals(acls.get(i), aclCache.getFromCache(oids.get(i)));
+		}
+
+		aclCache.clearCache();
+		for (ObjectIdentity oid : oids) {
+			assertEquals(oid, service.readAclById(oid).getObjectIdentity());
+		}
+
+		try {
+			service.createAcl(oids.get(0));
+			assertTrue("Duplicate Acl was created", false);
+		} catch (AlreadyExistsException e) {
+			// expected
+		}
+
+		for (ObjectIdentity oid : oids) {
+			service.deleteAcl(oid, false);
+		}
+	}
+
+	@Test(expected = NotFoundException.class)
+	@Transactional(rollbackFor = Exception.class)
+	public void test8DeleteMissingAclTree() {
+		mutableAclService.deleteAcl(new ObjectIdentityImpl("my.test.Missing",
+				1l), true);
+	}
+
+	@Test
+	@Rollback(false)
+	@Transactional(rollbackFor = Exception.class)
+	public void test9aCreateChunkedAclTree() {
+		Authentication auth = new TestingAuthenticationToken("shazin", "N/A");
+		auth.setAuthenticated(true);
+		SecurityContextHolder.getContext().setAuthentication(auth);
+		Neo4jMutableAclService service = new Neo4jMutableAclService(
+				graphDatabaseService, aclCache, lookupStrategy);
+		MutableAcl root = service.createAcl(new ObjectIdentityImpl(
+				"my.test.Chunked", 0l));
+		for (long id = 1; id <= 5; id++) {
+			MutableAcl child = service.createAcl(new ObjectIdentityImpl(
+					"my.test.Chunked", id));
+			child.setParent(root);
+			service.updateAcl(child);
+		}
+
+		service.setCommitPerDeleteChunk(true);
+		try {
+			service.deleteAclTree(root.getObjectIdentity());
+			assertTrue("Chunks were committed inside a transaction", false);
+		} catch (IllegalStateException e) {
+			// expected
+		}
+	}
+
+	@Test
+	@Transactional(propagation = Propagation.NOT_SUPPORTED)
+	public void test9b1DeleteAclTreeFailsInSecondChunk() {
+		Neo4jMutableAclService service = new Neo4jMutableAclService(
+				graphDatabaseService, aclCache, lookupStrategy);
+		service.setCommitPerDeleteChunk(true);
+		service.setDeleteChunkSize(2);
+		service.setNeo4jTemplate(new FailingNeo4jTemplate(graphDatabaseService,
+				service.getDeleteObjectIdentitiesByObjectIdentityIds(), 2));
+
+		try {
+			service.deleteAclTree(new ObjectIdentityImpl("my.test.Chunked", 0l));
+			assertTrue("Second chunk did not fail", false);
+		} catch (IllegalStateException e) {
+			// expected
+		}
+	}
+
+	@Test
+	public void test9b2FirstChunkStayedDeleted() {
+		aclCache.clearCache();
+		int remaining = 0;
+		for (long id = 0; id <= 5; id++) {
+			try {
+				mutableAclService.readAclById(new ObjectIdentityImpl(
+						"my.test.Chunked", id));
+				remaining++;
+			} catch (NotFoundException e) {
+				// deleted by the committed chunk
+			}
+		}
+		// The first chunk was committed, the failed one rolled back
+		assertEquals(4, remaining);
+		mutableAclService.readAclById(new ObjectIdentityImpl(
+				"my.test.Chunked", 0l));
+	}
+
+	@Test
+	@Transactional(propagation = Propagation.NOT_SUPPORTED)
+	public void test9b3DeleteAclTreeCommitsEveryChunk() {
+		Neo4jMutableAclService service = new Neo4jMutableAclService(
+				graphDatabaseService, aclCache, lookupStrategy);
+		service.setCommitPerDeleteChunk(true);
+		service.setDeleteChunkSize(2);
+
+		List<ObjectIdentity> deleted = service
+				.deleteAclTree(new ObjectIdentityImpl("my.test.Chunked", 0l));
+
+		assertEquals(4, deleted.size());
+		assertEquals(new ObjectIdentityImpl("my.test.Chunked", 0l),
+				deleted.get(3));
+	}
+
+	@Test
+	public void test9cChunkedAclTreeWasDeleted() {
+		for (long id = 0; id <= 5; id++) {
+			try {
+				mutableAclService.readAclById(new ObjectIdentityImpl(
+						"my.test.Chunked", id));
+				assertTrue("Acl " + id + " was not deleted", false);
+			} catch (NotFoundException e) {
+				// expected
+			}
+		}
+	}
+
+	@Test
+	@Transactional(rollbackFor = Exception.class)
+	public void test9dCreateAclsRollsBack() {
+		Authentication auth = new TestingAuthenticationToken("shazin", "N/A");
+		auth.setAuthenticated(true);
+		SecurityContextHolder.getContext().setAuthentication(auth);
+		Neo4jMutableAclService service = new Neo4jMutableAclService(
+				graphDatabaseService, aclCache, lookupStrategy);
+		service.setCreateBatchSize(3);
+		service.createAcl(new ObjectIdentityImpl("my.test.Rollback", 10l));
+
+		List<ObjectIdentity> oids = new ArrayList<ObjectIdentity>();
+		for (long id = 1; id <= 5; id++) {
+			oids.add(new ObjectIdentityImpl("my.test.Rollback", id));
+		}
+		// Duplicate in the second batch
+		oids.add(new ObjectIdentityImpl("my.test.Rollback", 10l));
+		try {
+			service.createAcls(oids);
+			assertTrue("Duplicate Acl was created", false);
+		} catch (AlreadyExistsException e) {
+			// expected
+		}
+		assertTrue(aclCache.getFromCache(oids.get(0)) != null);
+	}
+
+	@Test
+	public void test9eRolledBackAclsAreNotCached() {
+		for (long id = 1; id <= 5; id++) {
+			ObjectIdentity oid = new ObjectIdentityImpl("my.test.Rollback", id);
+			assertEquals(null, aclCache.getFromCache(oid));
+			try {
+				mutableAclService.readAclById(oid);
+				assertTrue("Acl " + id + " was not rolled back", false);
+			} catch (NotFoundException e) {
+				// expected
+			}
+		}
+		assertEquals(null, aclCache.getFromCache(new ObjectIdentityImpl(
+				"my.test.Rollback", 10l)));
+	}
+
+	@Test(expected = ChildrenExistException.class)
+	@Transactional(rollbackFor = Exception.class)
+	public void test9fDeleteAclWithChildren() {
+		Authentication auth = new TestingAuthenticationToken("shazin", "N/A");
+		auth.setAuthenticated(true);
+		SecurityContextHolder.getContext().setAuthentication(auth);
+		Neo4jMutableAclService service = new Neo4jMutableAclService(
+				graphDatabaseService, aclCache, lookupStrategy);
+		MutableAcl parent = service.createAcl(new ObjectIdentityImpl(
+				"my.test.Parent", 1l));
+		MutableAcl child = service.createAcl(new ObjectIdentityImpl(
+				"my.test.Parent", 2l));
+		child.setParent(parent);
+		service.updateAcl(child);
+
+		service.deleteAcl(parent.getObjectIdentity(), false);
+	}
+
+	private static class FailingNeo4jTemplate extends Neo4jTemplate {
+
+		private final String statement;
+
+		private final int failingCall;
+
+		private final AtomicInteger calls = new AtomicInteger();
+
+		public FailingNeo4jTemplate(GraphDatabaseService graphDatabaseService,
+				String statement, int failingCall) {
+			super(graphDatabaseService);
+			this.statement = statement;
+			this.failingCall = failingCall;
+		}
+
+		@Override
+		public Result<Map<String, Object>> query(String statement,
+				Map<String, Object> params) {
+			if (this.statement.equals(statement)
+					&& calls.incrementAndGet() == failingCall) {
+				throw new IllegalStateException("Failing call " + failingCall
+						+ " of " + statement);
+			}
+			return super.query(statement, params);
+		}
+	}
+
+	// Counts the nodes, relationships and properties a transaction writes
+	private static class WriteCounter implements
+			TransactionEventHandler<Object> {
+
+		private final AtomicInteger writes = new AtomicInteger();
+
+		@Override
+		public Object beforeCommit(TransactionData data) throws Exception {
+			writes.addAndGet(count(data.createdNodes())
+					+ count(data.deletedNodes())
+					+ count(data.createdRelationships())
+					+ count(data.deletedRelationships())
+					+ count(data.assignedNodeProperties())
+					+ count(data.removedNodeProperties())
+					+ count(data.assignedRelationshipProperties())
+					+ count(data.removedRelationshipProperties()));
+			return null;
+		}
+
+		@Override
+		public void afterCommit(TransactionData data, Object state) {
+		}
+
+		@Override
+		public void afterRollback(TransactionData data, Object state) {
+		}
+
+		public void reset() {
+			writes.set(0);
+		}
+
+		public int getWrites() {
+			return writes.get();
+		}
+
+		private int count(Iterable<?> items) {
+			int count = 0;
+			for (Iterator<?> it = items.iterator(); it.hasNext(); it.next()) {
+				count++;
+			}
+			return count;
+		}
+	}
 }
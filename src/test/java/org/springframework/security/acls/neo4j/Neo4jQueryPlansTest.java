@@ -0,0 +1,159 @@
+package org.springframework.security.acls.neo4j;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.FixMethodOrder;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.MethodSorters;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.security.acls.domain.AclAuthorizationStrategy;
+import org.springframework.security.acls.domain.BasePermission;
+import org.springframework.security.acls.domain.GrantedAuthoritySid;
+import org.springframework.security.acls.domain.ObjectIdentityImpl;
+import org.springframework.security.acls.jdbc.LookupStrategy;
+import org.springframework.security.acls.model.AclCache;
+import org.springframework.security.acls.model.MutableAclService;
+import org.springframework.security.acls.model.MutableAcl;
+import org.springframework.security.acls.model.PermissionGrantingStrategy;
+import org.springframework.security.acls.neo4j.config.AppTestConfig;
+import org.springframework.security.acls.neo4j.config.H2TestConfig;
+import org.springframework.security.acls.neo4j.config.Neo4jTestConfig;
+import org.springframework.security.authentication.TestingAuthenticationToken;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.test.annotation.Rollback;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.transaction.annotation.Transactional;
+
+@ContextConfiguration(classes = { AppTestConfig.class, H2TestConfig.class, Neo4jTestConfig.class })
+@RunWith(SpringJUnit4ClassRunner.class)
+@Transactional(readOnly = true)
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+@ActiveProfiles(value="dev-neo4j")
+public class Neo4jQueryPlansTest {
+
+	private static final String CLASS_NAME = "my.test.Plan";
+
+	private static final int ACL_COUNT = 50;
+
+	@Autowired
+	private GraphDatabaseService graphDatabaseService;
+
+	@Autowired
+	private AclCache aclCache;
+
+	@Autowired
+	private LookupStrategy lookupStrategy;
+
+	@Autowired
+	private MutableAclService mutableAclService;
+
+	@Autowired
+	private Neo4jAclSchemaInitializer schemaInitializer;
+
+	@Autowired
+	private AclAuthorizationStrategy aclAuthorizationStrategy;
+
+	@Autowired
+	private PermissionGrantingStrategy permissionGrantingStrategy;
+
+	private static String aclId;
+
+	@Test
+	@Rollback(false)
+	@Transactional(rollbackFor = Exception.class)
+	public void test1CreateAcls() {
+		Authentication auth = new TestingAuthenticationToken("shazin", "N/A");
+		auth.setAuthenticated(true);
+		SecurityContextHolder.getContext().setAuthentication(auth);
+		Neo4jMutableAclService service = new Neo4jMutableAclService(
+				graphDatabaseService, aclCache, lookupStrategy);
+
+		for (long id = 1; id <= ACL_COUNT; id++) {
+			MutableAcl acl = service.createAcl(new ObjectIdentityImpl(
+					CLASS_NAME, id));
+			acl.insertAce(0, BasePermission.READ, new GrantedAuthoritySid(
+					"ROLE_USER"), true);
+			acl = service.updateAcl(acl);
+			aclId = (String) acl.getId();
+		}
+	}
+
+	@Test
+	public void test2DeleteStatementsUseIndexSeek() {
+		Neo4jMutableAclService service = new Neo4jMutableAclService(
+				graphDatabaseService, aclCache, lookupStrategy);
+		schemaInitializer.awaitSchemaOnline();
+
+		assertIndexAnchored(service.getDeleteEntryByObjectIdentityId());
+		assertIndexAnchored(service.getDeleteObjectIdentityByObjectIdentityId());
+	}
+
+	@Test
+	public void test3VerifiedStatementsAreTheServiceStatements() {
+		Neo4jMutableAclService service = (Neo4jMutableAclService) mutableAclService;
+		Map<String, String> statements = schemaInitializer
+				.getVerifiedStatements();
+
+		// Registered by the stock configuration bean
+		assertEquals(service.getSelectObjectIdentity(),
+				statements.get("selectObjectIdentity"));
+		assertEquals(service.getDeleteObjectIdentityByObjectIdentityId(),
+				statements.get("deleteObjectIdentityByObjectIdentityId"));
+		Map<String, String> lookupStatements = ((Neo4jLookupStrategy) lookupStrategy)
+				.getLookupStatements();
+		assertEquals(lookupStatements.get("lookupObjectIdentities"),
+				statements.get("lookupObjectIdentities"));
+		assertEquals(lookupStatements.get("lookupAclIds"),
+				statements.get("lookupAclIds"));
+
+		List<String> unanchored = schemaInitializer.verifyStatements();
+		System.out.println("Statements not anchored on an index " + unanchored);
+		assertFalse(unanchored.contains("selectObjectIdentity"));
+		assertFalse(unanchored.contains("deleteEntryByObjectIdentityId"));
+		assertFalse(unanchored
+				.contains("deleteObjectIdentityByObjectIdentityId"));
+	}
+
+	@Test
+	public void test4ParameterizedLookupStatementsAreVerified() {
+		Neo4jLookupStrategy strategy = new Neo4jLookupStrategy(
+				graphDatabaseService, aclCache, aclAuthorizationStrategy,
+				permissionGrantingStrategy);
+		strategy.setParameterizedLookup(true);
+		schemaInitializer.awaitSchemaOnline();
+
+		Neo4jAclSchemaInitializer initializer = new Neo4jAclSchemaInitializer(
+				graphDatabaseService);
+		initializer.setLookupStrategy(strategy);
+		assertEquals(strategy.getLookupStatements(),
+				initializer.getVerifiedStatements());
+		assertTrue(initializer.getVerifiedStatements().get(
+				"lookupAclIds").contains("{aclIds}"));
+		System.out.println("Parameterized lookups not anchored on an index "
+				+ initializer.verifyStatements());
+	}
+
+	private void assertIndexAnchored(String statement) {
+		Map<String, Object> params = new HashMap<String, Object>();
+		params.put("aclId", aclId);
+		String plan = Neo4jQueryPlans.describe(graphDatabaseService,
+				statement, params);
+		System.out.println(plan);
+
+		assertFalse("Label scan in " + plan,
+				Neo4jQueryPlans.containsLabelScan(plan));
+		assertTrue("No index seek in " + plan,
+				Neo4jQueryPlans.usesIndexSeek(plan));
+	}
+}
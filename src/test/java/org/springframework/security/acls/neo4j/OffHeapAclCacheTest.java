@@ -0,0 +1,448 @@
+package org.springframework.security.acls.neo4j;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+
+import org.junit.FixMethodOrder;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.MethodSorters;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.security.acls.domain.AclAuthorizationStrategy;
+import org.springframework.security.acls.domain.AclImpl;
+import org.springframework.security.acls.domain.BasePermission;
+import org.springframework.security.acls.domain.GrantedAuthoritySid;
+import org.springframework.security.acls.domain.ObjectIdentityImpl;
+import org.springframework.security.acls.domain.PrincipalSid;
+import org.springframework.security.acls.model.Acl;
+import org.springframework.security.acls.model.MutableAcl;
+import org.springframework.security.acls.model.MutableAclService;
+import org.springframework.security.acls.model.NotFoundException;
+import org.springframework.security.acls.model.ObjectIdentity;
+import org.springframework.security.acls.model.Permission;
+import org.springframework.security.acls.model.PermissionGrantingStrategy;
+import org.springframework.security.acls.model.Sid;
+import org.springframework.security.acls.neo4j.config.AppTestConfig;
+import org.springframework.security.acls.neo4j.config.H2TestConfig;
+import org.springframework.security.acls.neo4j.config.Neo4jTestConfig;
+import org.springframework.security.authentication.TestingAuthenticationToken;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.test.annotation.Rollback;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.transaction.annotation.Transactional;
+
+@ContextConfiguration(classes = { AppTestConfig.class, H2TestConfig.class, Neo4jTestConfig.class })
+@RunWith(SpringJUnit4ClassRunner.class)
+@Transactional(readOnly = true)
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+@ActiveProfiles(value="dev-neo4j")
+public class OffHeapAclCacheTest {
+
+	private static final String CLASS_NAME = "com.test.offheap.Document";
+
+	private static final int DEPTH = 5;
+
+	private static final int BENCHMARK_ACLS = 20000;
+
+	private static final int BENCHMARK_ACES = 10;
+
+	private static final int ROUNDS = 5;
+
+	private static final List<Permission> PERMISSIONS = Arrays
+			.<Permission> asList(BasePermission.READ, BasePermission.WRITE,
+					BasePermission.CREATE, BasePermission.DELETE);
+
+	@Autowired
+	private MutableAclService mutableAclService;
+
+	@Autowired
+	private GraphDatabaseService graphDatabaseService;
+
+	@Autowired
+	private AclAuthorizationStrategy aclAuthorizationStrategy;
+
+	@Autowired
+	private PermissionGrantingStrategy permissionGrantingStrategy;
+
+	@Test
+	@Rollback(false)
+	@Transactional(rollbackFor = Exception.class)
+	public void test1createAcls() {
+		authenticate();
+
+		MutableAcl parentAcl = null;
+		for (int i = 1; i <= DEPTH; i++) {
+			MutableAcl acl = mutableAclService.createAcl(new ObjectIdentityImpl(
+					CLASS_NAME, Long.valueOf(i)));
+			acl.insertAce(0, BasePermission.READ, new GrantedAuthoritySid(
+					"ROLE_OFFHEAP"), true);
+			acl.insertAce(1, BasePermission.WRITE, new PrincipalSid("bob"),
+					false);
+			if (parentAcl != null) {
+				acl.setParent(parentAcl);
+			}
+			parentAcl = mutableAclService.updateAcl(acl);
+		}
+	}
+
+	@Test
+	@Rollback(false)
+	@Transactional(rollbackFor = Exception.class)
+	public void test2dropInForLookupStrategyAndService() {
+		authenticate();
+		OffHeapAclCache cache = new OffHeapAclCache(64 * 1024, 4,
+				permissionGrantingStrategy, aclAuthorizationStrategy);
+		Neo4jLookupStrategy strategy = new Neo4jLookupStrategy(
+				graphDatabaseService, cache, aclAuthorizationStrategy,
+				permissionGrantingStrategy);
+		Neo4jMutableAclService service = new Neo4jMutableAclService(
+				graphDatabaseService, cache, strategy);
+		ObjectIdentity deepest = new ObjectIdentityImpl(CLASS_NAME,
+				Long.valueOf(DEPTH));
+		List<Sid> role = Arrays.<Sid> asList(new GrantedAuthoritySid(
+				"ROLE_OFFHEAP"));
+		List<Sid> bob = Arrays.<Sid> asList(new PrincipalSid("bob"));
+
+		Acl acl = service.readAclById(deepest);
+		assertEquals(DEPTH, cache.getSize());
+		MutableAcl cached = cache.getFromCache(deepest);
+		assertSameAcl(acl, cached);
+		assertSameAcl(acl, cache.getFromCache(acl.getId()));
+		assertSameAcl(acl, service.readAclById(deepest));
+
+		// Decided on the encoded records, and by the service through them
+		assertEquals(Boolean.TRUE, cache.isGranted(deepest,
+				Arrays.<Permission> asList(BasePermission.READ), role));
+		assertEquals(Boolean.FALSE, cache.isGranted(deepest,
+				Arrays.<Permission> asList(BasePermission.WRITE), bob));
+		assertEquals(Boolean.FALSE, cache.isGranted(deepest,
+				Arrays.<Permission> asList(BasePermission.DELETE), role));
+		assertTrue(service.isGranted(deepest,
+				Arrays.<Permission> asList(BasePermission.READ), role));
+		assertFalse(service.isGranted(deepest,
+				Arrays.<Permission> asList(BasePermission.WRITE), bob));
+
+		// A parent which is not cached leaves the decision to the graph
+		cache.evictFromCache(acl.getParentAcl().getId());
+		assertNull(cache.getFromCache(deepest));
+		assertNull(cache.isGranted(deepest,
+				Arrays.<Permission> asList(BasePermission.CREATE), role));
+		assertEquals(Boolean.TRUE, cache.isGranted(deepest,
+				Arrays.<Permission> asList(BasePermission.READ), role));
+
+		MutableAcl updated = (MutableAcl) service.readAclById(deepest);
+		updated.insertAce(2, BasePermission.CREATE, new PrincipalSid("alice"),
+				true);
+		updated = service.updateAcl(updated);
+		assertEquals(3, updated.getEntries().size());
+		assertSameAcl(updated, cache.getFromCache(deepest));
+		System.out.println(cache);
+	}
+
+	@Test
+	public void test3encodedIsGrantedMatchesAcl() {
+		OffHeapAclCache cache = new OffHeapAclCache(1024 * 1024, 4,
+				permissionGrantingStrategy, aclAuthorizationStrategy);
+		Random random = new Random(42);
+		List<MutableAcl> acls = new ArrayList<MutableAcl>();
+		for (int i = 0; i < 200; i++) {
+			MutableAcl parent = ((i % 4) == 0) ? null : acls.get(random
+					.nextInt(acls.size()));
+			MutableAcl acl = acl(i, parent, random.nextBoolean(), 6, random);
+			acls.add(acl);
+			cache.putInCache(acl);
+		}
+
+		for (int i = 0; i < 5000; i++) {
+			MutableAcl acl = acls.get(random.nextInt(acls.size()));
+			List<Permission> permissions = Arrays.<Permission> asList(
+					PERMISSIONS.get(random.nextInt(PERMISSIONS.size())),
+					PERMISSIONS.get(random.nextInt(PERMISSIONS.size())));
+			List<Sid> sids = Arrays.asList(sid(random), sid(random));
+
+			boolean expected;
+			try {
+				expected = acl.isGranted(permissions, sids, false);
+			} catch (NotFoundException e) {
+				expected = false;
+			}
+			assertEquals(Boolean.valueOf(expected), cache.isGranted(
+					acl.getObjectIdentity(), permissions, sids));
+		}
+
+		for (MutableAcl acl : acls) {
+			assertSameAcl(acl, cache.getFromCache(acl.getObjectIdentity()));
+		}
+	}
+
+	@Test
+	public void test4oldestSegmentsAreDropped() {
+		OffHeapAclCache cache = new OffHeapAclCache(4096, 4,
+				permissionGrantingStrategy, aclAuthorizationStrategy);
+		Random random = new Random(7);
+		int count = 1000;
+		for (int i = 0; i < count; i++) {
+			cache.putInCache(acl(i, null, true, 4, random));
+			assertTrue(cache.getOffHeapBytes() <= 4 * 4096);
+		}
+
+		assertTrue(cache.getDroppedSegmentCount() > 0);
+		assertNull(cache.getFromCache(objectIdentity(0)));
+		assertNotNull(cache.getFromCache(objectIdentity(count - 1)));
+		int cached = 0;
+		for (int i = 0; i < count; i++) {
+			if (cache.getFromCache(objectIdentity(i)) != null) {
+				cached++;
+			}
+		}
+		assertEquals(cache.getSize(), cached);
+
+		cache.clearCache();
+		assertEquals(0, cache.getSize());
+		assertEquals(0, cache.getOffHeapBytes());
+		assertNull(cache.getFromCache(objectIdentity(count - 1)));
+	}
+
+	@Test
+	public void test5offHeapAgainstOnHeap() {
+		Random random = new Random(11);
+		List<ObjectIdentity> oids = new ArrayList<ObjectIdentity>();
+		for (int i = 0; i < BENCHMARK_ACLS; i++) {
+			oids.add(objectIdentity(i));
+		}
+		List<Permission> read = Arrays.<Permission> asList(BasePermission.READ);
+		List<Sid> sids = Arrays.<Sid> asList(new PrincipalSid("user-1"),
+				new GrantedAuthoritySid("ROLE_1"));
+
+		long before = usedHeap();
+		TinyLfuAclCache onHeap = new TinyLfuAclCache(BENCHMARK_ACLS
+				* (BENCHMARK_ACES + 1));
+		for (int i = 0; i < BENCHMARK_ACLS; i++) {
+			onHeap.putInCache(acl(i, null, true, BENCHMARK_ACES, random));
+		}
+		long onHeapBytes = usedHeap() - before;
+
+		random = new Random(11);
+		before = usedHeap();
+		OffHeapAclCache offHeap = new OffHeapAclCache(16 * 1024 * 1024, 64,
+				permissionGrantingStrategy, aclAuthorizationStrategy);
+		for (int i = 0; i < BENCHMARK_ACLS; i++) {
+			offHeap.putInCache(acl(i, null, true, BENCHMARK_ACES, random));
+		}
+		long offHeapHeapBytes = usedHeap() - before;
+		assertEquals(BENCHMARK_ACLS, offHeap.getSize());
+
+		long onHeapGet = 0;
+		long offHeapGet = 0;
+		long onHeapGranted = 0;
+		long offHeapGranted = 0;
+		for (int round = 0; round < ROUNDS; round++) {
+			long start = System.nanoTime();
+			for (ObjectIdentity oid : oids) {
+				assertNotNull(onHeap.getFromCache(oid));
+			}
+			onHeapGet += System.nanoTime() - start;
+
+			start = System.nanoTime();
+			for (ObjectIdentity oid : oids) {
+				assertNotNull(offHeap.getFromCache(oid));
+			}
+			offHeapGet += System.nanoTime() - start;
+
+			start = System.nanoTime();
+			for (ObjectIdentity oid : oids) {
+				granted(onHeap.getFromCache(oid), read, sids);
+			}
+			onHeapGranted += System.nanoTime() - start;
+
+			start = System.nanoTime();
+			for (ObjectIdentity oid : oids) {
+				assertNotNull(offHeap.isGranted(oid, read, sids));
+			}
+			offHeapGranted += System.nanoTime() - start;
+		}
+
+		for (ObjectIdentity oid : oids) {
+			assertEquals(Boolean.valueOf(granted(onHeap.getFromCache(oid),
+					read, sids)), offHeap.isGranted(oid, read, sids));
+		}
+
+		// Only the indexes and dictionaries stay on the heap
+		assertTrue(offHeapHeapBytes < onHeapBytes);
+		assertTrue(offHeap.getUsedBytes() <= offHeap.getOffHeapBytes());
+
+		int lookups = ROUNDS * BENCHMARK_ACLS;
+		System.out.println(BENCHMARK_ACLS + " Acls of " + BENCHMARK_ACES
+				+ " Aces: on heap " + onHeapBytes / 1024
+				+ " KB heap, off heap " + offHeapHeapBytes / 1024
+				+ " KB heap + " + offHeap.getUsedBytes() / 1024
+				+ " KB off heap");
+		System.out.println("getFromCache: on heap " + onHeapGet / lookups
+				+ " ns, off heap decode " + offHeapGet / lookups + " ns");
+		System.out.println("isGranted: on heap " + onHeapGranted / lookups
+				+ " ns, off heap encoded " + offHeapGranted / lookups + " ns");
+		System.out.println(offHeap);
+	}
+
+	@Test
+	public void test6unchangedParentsAreNotRewritten() {
+		OffHeapAclCache cache = new OffHeapAclCache(64 * 1024, 4,
+				permissionGrantingStrategy, aclAuthorizationStrategy);
+		Random random = new Random(3);
+		MutableAcl root = acl(0, null, true, 4, random);
+		MutableAcl parent = acl(1, root, true, 4, random);
+		MutableAcl first = acl(2, parent, true, 4, random);
+		MutableAcl second = acl(3, parent, true, 4, random);
+
+		cache.putInCache(first);
+		long used = cache.getUsedBytes();
+		cache.putInCache(first);
+		assertEquals(used, cache.getUsedBytes());
+		cache.putInCache(second);
+		long withSecond = cache.getUsedBytes();
+		assertTrue(withSecond > used);
+		cache.putInCache(second);
+		assertEquals(withSecond, cache.getUsedBytes());
+		assertEquals(4, cache.getSize());
+
+		// Gets share the decoded parents
+		MutableAcl firstCached = cache.getFromCache(first.getObjectIdentity());
+		MutableAcl secondCached = cache
+				.getFromCache(second.getObjectIdentity());
+		assertSame(firstCached.getParentAcl(), secondCached.getParentAcl());
+		assertSameAcl(first, firstCached);
+
+		// A changed root is written again, and no longer shared
+		root.insertAce(4, BasePermission.ADMINISTRATION, new PrincipalSid(
+				"carol"), true);
+		cache.putInCache(second);
+		assertTrue(cache.getUsedBytes() > withSecond);
+		MutableAcl updated = cache.getFromCache(first.getObjectIdentity());
+		assertNotSame(firstCached.getParentAcl(), updated.getParentAcl());
+		assertSameAcl(first, updated);
+		assertEquals(5, updated.getParentAcl().getParentAcl().getEntries()
+				.size());
+
+		cache.setMaxDecodedParents(0);
+		assertNotSame(cache.getFromCache(first.getObjectIdentity())
+				.getParentAcl(), cache.getFromCache(first.getObjectIdentity())
+				.getParentAcl());
+	}
+
+	@Test
+	public void test7dictionariesAreDroppedWithSegments() {
+		OffHeapAclCache cache = new OffHeapAclCache(4096, 2,
+				permissionGrantingStrategy, aclAuthorizationStrategy);
+		int count = 1000;
+		for (int i = 0; i < count; i++) {
+			authenticate();
+			AclImpl acl = new AclImpl(objectIdentity(i), Long.valueOf(i + 1),
+					aclAuthorizationStrategy, permissionGrantingStrategy, null,
+					null, true, new PrincipalSid("shazin"));
+			acl.insertAce(0, BasePermission.READ, new PrincipalSid("user-" + i),
+					true);
+			cache.putInCache(acl);
+		}
+
+		assertTrue(cache.getDroppedSegmentCount() > 0);
+		// Only the Sids of the records in the two live segments are kept
+		assertTrue(cache.getDictionarySize() < count);
+		MutableAcl last = cache.getFromCache(objectIdentity(count - 1));
+		assertEquals(new PrincipalSid("user-" + (count - 1)), last.getEntries()
+				.get(0).getSid());
+		assertEquals(Boolean.TRUE, cache.isGranted(objectIdentity(count - 1),
+				Arrays.<Permission> asList(BasePermission.READ),
+				Arrays.<Sid> asList(new PrincipalSid("user-" + (count - 1)))));
+
+		cache.clearCache();
+		assertEquals(0, cache.getDictionarySize());
+	}
+
+	private boolean granted(Acl acl, List<Permission> permissions,
+			List<Sid> sids) {
+		try {
+			return acl.isGranted(permissions, sids, false);
+		} catch (NotFoundException e) {
+			return false;
+		}
+	}
+
+	private MutableAcl acl(int i, MutableAcl parent, boolean inheriting,
+			int aces, Random random) {
+		authenticate();
+		AclImpl acl = new AclImpl(objectIdentity(i), UUID.randomUUID()
+				.toString(), aclAuthorizationStrategy,
+				permissionGrantingStrategy, parent, null, inheriting,
+				new PrincipalSid("shazin"));
+		for (int j = 0; j < aces; j++) {
+			acl.insertAce(j, PERMISSIONS.get(random.nextInt(PERMISSIONS
+					.size())), sid(random), random.nextBoolean());
+		}
+		return acl;
+	}
+
+	private Sid sid(Random random) {
+		int n = random.nextInt(4);
+		return random.nextBoolean() ? new PrincipalSid("user-" + n)
+				: new GrantedAuthoritySid("ROLE_" + n);
+	}
+
+	private ObjectIdentity objectIdentity(int i) {
+		return new ObjectIdentityImpl(CLASS_NAME, Long.valueOf(-i - 1));
+	}
+
+	private void assertSameAcl(Acl expected, Acl actual) {
+		assertNotNull(actual);
+		assertEquals(expected.getId(), actual.getId());
+		assertEquals(expected.getObjectIdentity(), actual.getObjectIdentity());
+		assertEquals(expected.getOwner(), actual.getOwner());
+		assertEquals(expected.isEntriesInheriting(),
+				actual.isEntriesInheriting());
+		assertEquals(expected.getEntries().size(), actual.getEntries().size());
+		for (int i = 0; i < expected.getEntries().size(); i++) {
+			assertEquals(expected.getEntries().get(i).getId(), actual
+					.getEntries().get(i).getId());
+			assertEquals(expected.getEntries().get(i).getSid(), actual
+					.getEntries().get(i).getSid());
+			assertEquals(expected.getEntries().get(i).getPermission(), actual
+					.getEntries().get(i).getPermission());
+			assertEquals(expected.getEntries().get(i).isGranting(), actual
+					.getEntries().get(i).isGranting());
+		}
+		if (expected.getParentAcl() == null) {
+			assertNull(actual.getParentAcl());
+		} else {
+			assertSameAcl(expected.getParentAcl(), actual.getParentAcl());
+		}
+	}
+
+	private long usedHeap() {
+		for (int i = 0; i < 3; i++) {
+			System.gc();
+		}
+		return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage()
+				.getUsed();
+	}
+
+	private void authenticate() {
+		Authentication auth = new TestingAuthenticationToken("shazin", "N/A");
+		auth.setAuthenticated(true);
+		SecurityContextHolder.getContext().setAuthentication(auth);
+	}
+}
@@ -0,0 +1,177 @@
+package org.springframework.security.acls.neo4j;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.FixMethodOrder;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.MethodSorters;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.security.acls.domain.AclAuthorizationStrategy;
+import org.springframework.security.acls.domain.AclImpl;
+import org.springframework.security.acls.domain.BasePermission;
+import org.springframework.security.acls.domain.GrantedAuthoritySid;
+import org.springframework.security.acls.domain.ObjectIdentityImpl;
+import org.springframework.security.acls.domain.PrincipalSid;
+import org.springframework.security.acls.model.Acl;
+import org.springframework.security.acls.model.MutableAcl;
+import org.springframework.security.acls.model.MutableAclService;
+import org.springframework.security.acls.model.ObjectIdentity;
+import org.springframework.security.acls.model.PermissionGrantingStrategy;
+import org.springframework.security.acls.neo4j.config.AppTestConfig;
+import org.springframework.security.acls.neo4j.config.H2TestConfig;
+import org.springframework.security.acls.neo4j.config.Neo4jTestConfig;
+import org.springframework.security.authentication.TestingAuthenticationToken;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.test.annotation.Rollback;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.transaction.annotation.Transactional;
+
+@ContextConfiguration(classes = { AppTestConfig.class, H2TestConfig.class, Neo4jTestConfig.class })
+@RunWith(SpringJUnit4ClassRunner.class)
+@Transactional(readOnly = true)
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+@ActiveProfiles(value="dev-neo4j")
+public class TinyLfuAclCacheTest {
+
+	private static final String CLASS_NAME = "com.test.tinylfu.Document";
+
+	private static final int DEPTH = 5;
+
+	@Autowired
+	private MutableAclService mutableAclService;
+
+	@Autowired
+	private GraphDatabaseService graphDatabaseService;
+
+	@Autowired
+	private AclAuthorizationStrategy aclAuthorizationStrategy;
+
+	@Autowired
+	private PermissionGrantingStrategy permissionGrantingStrategy;
+
+	@Test
+	@Rollback(false)
+	@Transactional(rollbackFor = Exception.class)
+	public void test1createAcls() {
+		Authentication auth = new TestingAuthenticationToken("shazin", "N/A");
+		auth.setAuthenticated(true);
+		SecurityContextHolder.getContext().setAuthentication(auth);
+
+		MutableAcl parentAcl = null;
+		for (int i = 1; i <= DEPTH; i++) {
+			MutableAcl acl = mutableAclService.createAcl(new ObjectIdentityImpl(
+					CLASS_NAME, Long.valueOf(i)));
+			acl.insertAce(0, BasePermission.READ, new GrantedAuthoritySid(
+					"ROLE_TINYLFU"), true);
+			if (parentAcl != null) {
+				acl.setParent(parentAcl);
+			}
+			parentAcl = mutableAclService.updateAcl(acl);
+		}
+	}
+
+	@Test
+	@Rollback(false)
+	@Transactional(rollbackFor = Exception.class)
+	public void test2dropInForLookupStrategyAndService() {
+		Authentication auth = new TestingAuthenticationToken("shazin", "N/A");
+		auth.setAuthenticated(true);
+		SecurityContextHolder.getContext().setAuthentication(auth);
+		TinyLfuAclCache cache = new TinyLfuAclCache(1000);
+		Neo4jLookupStrategy strategy = new Neo4jLookupStrategy(
+				graphDatabaseService, cache, aclAuthorizationStrategy,
+				permissionGrantingStrategy);
+		Neo4jMutableAclService service = new Neo4jMutableAclService(
+				graphDatabaseService, cache, strategy);
+		ObjectIdentity deepest = new ObjectIdentityImpl(CLASS_NAME,
+				Long.valueOf(DEPTH));
+
+		Acl acl = service.readAclById(deepest);
+		assertEquals(DEPTH, cache.getSize());
+		assertEquals(2 * DEPTH, cache.getWeightedSize());
+		assertSame(acl, cache.getFromCache(deepest));
+		assertSame(acl, cache.getFromCache(acl.getId()));
+		assertSame(acl, service.readAclById(deepest));
+		assertTrue(cache.getHitCount() >= 3);
+
+		cache.evictFromCache(acl.getId());
+		assertNull(cache.getFromCache(deepest));
+		assertNull(cache.getFromCache(acl.getId()));
+		assertNotNull(cache.getFromCache(acl.getParentAcl()
+				.getObjectIdentity()));
+
+		MutableAcl updated = (MutableAcl) service.readAclById(deepest);
+		updated.insertAce(1, BasePermission.WRITE, new PrincipalSid("alice"),
+				true);
+		updated = service.updateAcl(updated);
+		assertEquals(2, updated.getEntries().size());
+		assertSame(updated, cache.getFromCache(deepest));
+		assertEquals(2 * DEPTH + 1, cache.getWeightedSize());
+		System.out.println(cache);
+	}
+
+	@Test
+	public void test3weightBoundAndFrequentAclsSurviveScans() {
+		TinyLfuAclCache cache = new TinyLfuAclCache(200);
+		MutableAcl hot = acl(0, 4);
+		cache.putInCache(hot);
+		for (int i = 0; i < 50; i++) {
+			assertSame(hot, cache.getFromCache(hot.getObjectIdentity()));
+		}
+
+		// A scan of Acls used once each
+		for (int i = 1; i <= 2000; i++) {
+			cache.putInCache(acl(i, i % 5));
+			assertTrue(cache.getWeightedSize() <= 200);
+		}
+
+		assertSame(hot, cache.getFromCache(hot.getObjectIdentity()));
+		assertSame(hot, cache.getFromCache(hot.getId()));
+		assertTrue(cache.getEvictionCount() > 0);
+		assertEquals(cache.getSize(), countCached(cache, 2000) + 1);
+
+		cache.clearCache();
+		assertEquals(0, cache.getSize());
+		assertEquals(0, cache.getWeightedSize());
+		assertNull(cache.getFromCache(hot.getId()));
+	}
+
+	private int countCached(TinyLfuAclCache cache, int count) {
+		int cached = 0;
+		for (int i = 1; i <= count; i++) {
+			MutableAcl byId = cache.getFromCache("tinylfu-" + i);
+			MutableAcl byObjectIdentity = cache
+					.getFromCache(new ObjectIdentityImpl(CLASS_NAME, Long
+							.valueOf(-i)));
+			assertSame(byId, byObjectIdentity);
+			if (byId != null) {
+				cached++;
+			}
+		}
+		return cached;
+	}
+
+	private MutableAcl acl(int i, int aces) {
+		AclImpl acl = new AclImpl(new ObjectIdentityImpl(CLASS_NAME,
+				Long.valueOf(-i)), "tinylfu-" + i, aclAuthorizationStrategy,
+				permissionGrantingStrategy, null, null, true, new PrincipalSid(
+						"shazin"));
+		Authentication auth = new TestingAuthenticationToken("shazin", "N/A");
+		auth.setAuthenticated(true);
+		SecurityContextHolder.getContext().setAuthentication(auth);
+		for (int j = 0; j < aces; j++) {
+			acl.insertAce(j, BasePermission.READ, new GrantedAuthoritySid(
+					"ROLE_" + j), true);
+		}
+		return acl;
+	}
+}